@@ -0,0 +1,149 @@
+package veve.datastructures.trees;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import veve.datastructures.trees.NTreeConstants.TreeTraversalOrder;
+
+/**
+ * Runs an asynchronous action for each node of a subtree with at most a given
+ * number of actions running at the same time. Each action is started on its own
+ * virtual thread when the JVM has them, or on a thread of a shared pool of daemon
+ * threads otherwise, so actions can block on I/O before returning their stage.
+ * <p>
+ * A dispatcher thread starts the actions in traversal order, waiting for a free
+ * permit before starting each one. When parents must finish before children a
+ * node also waits for the stage of its parent, which was started before it since
+ * only traversals that list parents first are allowed, so waiting cannot deadlock.
+ */
+class AsyncTraversal<K extends Comparable<K>,V> {
+	
+	static final int DEFAULT_MAX_CONCURRENCY = 256;
+	static volatile ExecutorService executor;
+	
+	final List<NTreeNode<K,V>> nodes;
+	final Function<NTreeNode<K,V>, CompletionStage<?>> action;
+	final Semaphore permits;
+	final boolean parentsBeforeChildren;
+	final Map<NTreeNode<K,V>, CompletableFuture<Void>> doneByNode = new IdentityHashMap<>();
+	final Map<NTreeNode<?,?>, Throwable> failures = Collections.synchronizedMap(new IdentityHashMap<>());
+	final AtomicInteger remaining;
+	final CompletableFuture<Void> result = new CompletableFuture<>();
+	
+	AsyncTraversal(List<NTreeNode<K,V>> nodes, Function<NTreeNode<K,V>, CompletionStage<?>> action,
+			int maxConcurrency, boolean parentsBeforeChildren) {
+		this.nodes = nodes;
+		this.action = action;
+		this.permits = new Semaphore(maxConcurrency);
+		this.parentsBeforeChildren = parentsBeforeChildren;
+		this.remaining = new AtomicInteger(nodes.size());
+		nodes.forEach(node -> this.doneByNode.put(node, new CompletableFuture<>()));
+	}
+	
+	static <K extends Comparable<K>,V> CompletableFuture<Void> run(NTreeNode<K,V> top, TreeTraversalOrder traversal,
+			Function<NTreeNode<K,V>, CompletionStage<?>> action, int maxConcurrency, boolean parentsBeforeChildren) {
+		if (maxConcurrency < 1) {
+			throw new RuntimeException("Max concurrency must be at least 1");
+		}
+		if (parentsBeforeChildren && traversal != TreeTraversalOrder.PRE_ORDER && traversal != TreeTraversalOrder.LEVEL_ORDER) {
+			throw new RuntimeException("Parents can only finish before children in PRE_ORDER or LEVEL_ORDER traversals");
+		}
+		AsyncTraversal<K,V> asyncTraversal = new AsyncTraversal<>(top.toList(traversal), action, maxConcurrency, parentsBeforeChildren);
+		executor().execute(asyncTraversal::dispatch);
+		return asyncTraversal.result;
+	}
+	
+	// Uses virtual threads when running on a JVM that has them
+	static ExecutorService executor() {
+		if (executor == null) {
+			synchronized (AsyncTraversal.class) {
+				if (executor == null) {
+					executor = createExecutor();
+				}
+			}
+		}
+		return executor;
+	}
+	
+	static ExecutorService createExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable, "ntree-async-traversal");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+	
+	void dispatch() {
+		for (NTreeNode<K,V> node : this.nodes) {
+			this.permits.acquireUninterruptibly();
+			executor().execute(() -> runAction(node));
+		}
+	}
+	
+	void runAction(NTreeNode<K,V> node) {
+		CompletableFuture<Void> parentDone = this.parentsBeforeChildren ? this.doneByNode.get(node.parent) : null;
+		if (parentDone != null && !awaitSuccess(parentDone)) {
+			// Descendants of a node whose action failed are skipped
+			finish(node, new CancellationException("Action of the parent failed"), false);
+			return;
+		}
+		CompletionStage<?> stage;
+		try {
+			stage = this.action.apply(node);
+		} catch (RuntimeException | Error e) {
+			finish(node, e, true);
+			return;
+		}
+		if (stage == null) {
+			finish(node, null, true);
+			return;
+		}
+		stage.whenComplete((value, error) -> finish(node, error, true));
+	}
+	
+	static boolean awaitSuccess(CompletableFuture<Void> future) {
+		try {
+			future.join();
+			return true;
+		} catch (CompletionException | CancellationException e) {
+			return false;
+		}
+	}
+	
+	void finish(NTreeNode<K,V> node, Throwable error, boolean isFailure) {
+		if (error != null && isFailure) {
+			this.failures.put(node, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+		}
+		if (error == null) {
+			this.doneByNode.get(node).complete(null);
+		} else {
+			this.doneByNode.get(node).completeExceptionally(error);
+		}
+		this.permits.release();
+		if (this.remaining.decrementAndGet() == 0) {
+			if (this.failures.isEmpty()) {
+				this.result.complete(null);
+			} else {
+				synchronized (this.failures) {
+					this.result.completeExceptionally(new AsyncTraversalException(this.failures));
+				}
+			}
+		}
+	}
+	
+}
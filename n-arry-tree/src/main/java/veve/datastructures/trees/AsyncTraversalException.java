@@ -0,0 +1,35 @@
+package veve.datastructures.trees;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Thrown through the future returned by {@link NTree#forEachNodeAsync} and
+ * {@link NTreeNode#forEachNodeAsync} when the actions of one or more nodes
+ * failed. It reports every failure, not only the first one, and the errors
+ * are also added as suppressed exceptions.
+ */
+public class AsyncTraversalException extends RuntimeException {
+	
+	private static final long serialVersionUID = 1L;
+	
+	final transient Map<NTreeNode<?,?>, Throwable> failures;
+	
+	AsyncTraversalException(Map<NTreeNode<?,?>, Throwable> failures) {
+		super(failures.size() + " node actions failed");
+		this.failures = Collections.unmodifiableMap(new IdentityHashMap<>(failures));
+		failures.values().forEach(this::addSuppressed);
+	}
+	
+	/**
+	 * Returns the nodes whose actions failed mapped to the error of each action.
+	 * Nodes are compared by identity.
+	 * 
+	 * @return the failed nodes and their errors
+	 */
+	public Map<NTreeNode<?,?>, Throwable> getFailures() {
+		return this.failures;
+	}
+	
+}
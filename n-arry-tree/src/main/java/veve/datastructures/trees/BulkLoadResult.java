@@ -0,0 +1,60 @@
+package veve.datastructures.trees;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The result of {@link NTree#bulkLoad(java.util.Iterator)}. Holds the records
+ * that could not be loaded into the tree. Records are kept in the order they
+ * were read.
+ * 
+ * @param <K> The type of the node ids.
+ * @param <V> The type of the node values.
+ */
+public class BulkLoadResult<K extends Comparable<K>,V> {
+	
+	int numLoaded;
+	List<NodeRecord<K,V>> orphans = new ArrayList<>();
+	List<NodeRecord<K,V>> duplicates = new ArrayList<>();
+	
+	/**
+	 * Returns the number of nodes loaded into the tree.
+	 * 
+	 * @return the number of nodes loaded into the tree
+	 */
+	public int getNumLoaded() {
+		return this.numLoaded;
+	}
+	
+	/**
+	 * Returns the records that could not be connected to the root. These are 
+	 * the records whose parent id does not belong to any loaded record, the 
+	 * records that form a cycle, the descendants of any of those and the records
+	 * with a {@code null} parent id after the first one.
+	 * 
+	 * @return the orphan records
+	 */
+	public List<NodeRecord<K,V>> getOrphans() {
+		return this.orphans;
+	}
+	
+	/**
+	 * Returns the records that were skipped because a previous record had the
+	 * same id.
+	 * 
+	 * @return the duplicate records
+	 */
+	public List<NodeRecord<K,V>> getDuplicates() {
+		return this.duplicates;
+	}
+	
+	/**
+	 * Returns {@code true} if all the records were loaded.
+	 * 
+	 * @return {@code true} if there are no orphan or duplicate records
+	 */
+	public boolean isComplete() {
+		return this.orphans.isEmpty() && this.duplicates.isEmpty();
+	}
+	
+}
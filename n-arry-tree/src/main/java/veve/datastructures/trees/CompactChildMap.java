@@ -0,0 +1,288 @@
+package veve.datastructures.trees;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+// Map of the children of a node by id that uses as little memory as the number of children allows.
+// Leaves share the EMPTY map, which cannot be changed, so NTreeNode.writableChildren() must be used
+// to add children. Up to INLINE_CAPACITY children are kept in one array that is scanned linearly and
+// more children are moved to a HashMap. The array is kept in the iteration order a new HashMap would
+// have, so unordered traversals visit the children in the same order whatever the storage used.
+final class CompactChildMap<K extends Comparable<K>,V> extends AbstractMap<K,NTreeNode<K,V>> {
+	
+	static final int INLINE_CAPACITY = 8;
+	// Table size of a new HashMap, which does not grow while it has INLINE_CAPACITY + 1 entries
+	static final int HASH_MAP_TABLE_SIZE = 16;
+	@SuppressWarnings("rawtypes")
+	static final CompactChildMap EMPTY = new CompactChildMap<>();
+	
+	// Ids at even positions and their children at the next odd position
+	Object[] inline;
+	int inlineSize;
+	HashMap<K,NTreeNode<K,V>> hashed;
+	
+	@SuppressWarnings("unchecked")
+	static <K extends Comparable<K>,V> CompactChildMap<K,V> empty() {
+		return EMPTY;
+	}
+	
+	// Returns the shared empty map if there are no children
+	static <K extends Comparable<K>,V> Map<K,NTreeNode<K,V>> copyOf(Map<K,NTreeNode<K,V>> children) {
+		if (children == null || children.isEmpty()) {
+			return empty();
+		}
+		CompactChildMap<K,V> copy = new CompactChildMap<>();
+		children.forEach(copy::put);
+		return copy;
+	}
+	
+	static int bucket(Object id) {
+		int hash = id.hashCode();
+		return (hash ^ (hash >>> 16)) & (HASH_MAP_TABLE_SIZE - 1);
+	}
+	
+	@SuppressWarnings("unchecked")
+	K idAt(int index) {
+		return (K) this.inline[2 * index];
+	}
+	
+	@SuppressWarnings("unchecked")
+	NTreeNode<K,V> childAt(int index) {
+		return (NTreeNode<K,V>) this.inline[2 * index + 1];
+	}
+	
+	int indexOf(Object id) {
+		for (int i = 0; i < this.inlineSize; i++) {
+			if (this.inline[2 * i].equals(id)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	@Override
+	public int size() {
+		return this.hashed != null ? this.hashed.size() : this.inlineSize;
+	}
+	
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+	
+	@Override
+	public boolean containsKey(Object id) {
+		if (this.hashed != null) {
+			return this.hashed.containsKey(id);
+		}
+		return id != null && indexOf(id) >= 0;
+	}
+	
+	@Override
+	public NTreeNode<K,V> get(Object id) {
+		if (this.hashed != null) {
+			return this.hashed.get(id);
+		}
+		int index = id == null ? -1 : indexOf(id);
+		return index < 0 ? null : childAt(index);
+	}
+	
+	@Override
+	public NTreeNode<K,V> put(K id, NTreeNode<K,V> child) {
+		if (this == EMPTY) {
+			throw new UnsupportedOperationException("The children map of leaves is shared");
+		}
+		if (this.hashed != null) {
+			return this.hashed.put(id, child);
+		}
+		int index = indexOf(id);
+		if (index >= 0) {
+			NTreeNode<K,V> replaced = childAt(index);
+			this.inline[2 * index + 1] = child;
+			return replaced;
+		}
+		if (this.inlineSize == INLINE_CAPACITY) {
+			moveToHashMap();
+			return this.hashed.put(id, child);
+		}
+		insert(id, child);
+		return null;
+	}
+	
+	// Inserts after the children of the same or a lower bucket, like a HashMap appending to a bucket
+	void insert(K id, NTreeNode<K,V> child) {
+		if (this.inline == null) {
+			this.inline = new Object[2];
+		}
+		else if (this.inline.length == 2 * this.inlineSize) {
+			this.inline = Arrays.copyOf(this.inline, Math.min(4 * this.inlineSize, 2 * INLINE_CAPACITY));
+		}
+		int bucket = bucket(id);
+		int index = this.inlineSize;
+		while (index > 0 && bucket(idAt(index - 1)) > bucket) {
+			index--;
+		}
+		System.arraycopy(this.inline, 2 * index, this.inline, 2 * index + 2, 2 * (this.inlineSize - index));
+		this.inline[2 * index] = id;
+		this.inline[2 * index + 1] = child;
+		this.inlineSize++;
+	}
+	
+	void moveToHashMap() {
+		HashMap<K,NTreeNode<K,V>> hashed = new HashMap<>();
+		for (int i = 0; i < this.inlineSize; i++) {
+			hashed.put(idAt(i), childAt(i));
+		}
+		this.hashed = hashed;
+		this.inline = null;
+		this.inlineSize = 0;
+	}
+	
+	@Override
+	public NTreeNode<K,V> remove(Object id) {
+		if (this.hashed != null) {
+			return this.hashed.remove(id);
+		}
+		int index = id == null ? -1 : indexOf(id);
+		if (index < 0) {
+			return null;
+		}
+		NTreeNode<K,V> removed = childAt(index);
+		removeAt(index);
+		return removed;
+	}
+	
+	void removeAt(int index) {
+		System.arraycopy(this.inline, 2 * index + 2, this.inline, 2 * index, 2 * (this.inlineSize - index - 1));
+		this.inlineSize--;
+		this.inline[2 * this.inlineSize] = null;
+		this.inline[2 * this.inlineSize + 1] = null;
+		if (this.inlineSize == 0) {
+			this.inline = null;
+		}
+	}
+	
+	@Override
+	public void clear() {
+		this.inline = null;
+		this.inlineSize = 0;
+		this.hashed = null;
+	}
+	
+	@Override
+	public void forEach(BiConsumer<? super K, ? super NTreeNode<K,V>> action) {
+		if (this.hashed != null) {
+			this.hashed.forEach(action);
+			return;
+		}
+		for (int i = 0; i < this.inlineSize; i++) {
+			action.accept(idAt(i), childAt(i));
+		}
+	}
+	
+	@Override
+	public Collection<NTreeNode<K,V>> values() {
+		return new AbstractCollection<NTreeNode<K,V>>() {
+			@Override
+			public Iterator<NTreeNode<K,V>> iterator() {
+				if (CompactChildMap.this.hashed != null) {
+					return CompactChildMap.this.hashed.values().iterator();
+				}
+				return new InlineIterator<NTreeNode<K,V>>() {
+					@Override
+					NTreeNode<K,V> elementAt(int index) {
+						return childAt(index);
+					}
+				};
+			}
+			
+			@Override
+			public int size() {
+				return CompactChildMap.this.size();
+			}
+		};
+	}
+	
+	@Override
+	public Set<Entry<K,NTreeNode<K,V>>> entrySet() {
+		return new AbstractSet<Entry<K,NTreeNode<K,V>>>() {
+			@Override
+			public Iterator<Entry<K,NTreeNode<K,V>>> iterator() {
+				if (CompactChildMap.this.hashed != null) {
+					return CompactChildMap.this.hashed.entrySet().iterator();
+				}
+				return new InlineIterator<Entry<K,NTreeNode<K,V>>>() {
+					@Override
+					Entry<K,NTreeNode<K,V>> elementAt(int index) {
+						return new InlineEntry(idAt(index), childAt(index));
+					}
+				};
+			}
+			
+			@Override
+			public int size() {
+				return CompactChildMap.this.size();
+			}
+		};
+	}
+	
+	abstract class InlineIterator<T> implements Iterator<T> {
+		
+		int next;
+		int last = -1;
+		
+		abstract T elementAt(int index);
+		
+		@Override
+		public boolean hasNext() {
+			return this.next < CompactChildMap.this.inlineSize;
+		}
+		
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			this.last = this.next++;
+			return elementAt(this.last);
+		}
+		
+		@Override
+		public void remove() {
+			if (this.last < 0) {
+				throw new IllegalStateException();
+			}
+			removeAt(this.last);
+			this.next = this.last;
+			this.last = -1;
+		}
+		
+	}
+	
+	// Writes a new child through to the map
+	class InlineEntry extends SimpleEntry<K,NTreeNode<K,V>> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		InlineEntry(K id, NTreeNode<K,V> child) {
+			super(id, child);
+		}
+		
+		@Override
+		public NTreeNode<K,V> setValue(NTreeNode<K,V> child) {
+			put(getKey(), child);
+			return super.setValue(child);
+		}
+		
+	}
+	
+}
@@ -0,0 +1,99 @@
+package veve.datastructures.trees;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+// A 128 bit identity of a tree or node kept as two longs. The high half is drawn once per
+// process from SecureRandom and the low half is a sequence, so creating one costs a counter
+// increment instead of a SecureRandom call and identities stay unique between processes like
+// random UUIDs. Threads take numbers from the sequence in blocks so they do not contend on it.
+// The version 4 and IETF variant bits are set like in UUID.randomUUID so the string form,
+// which is only created when needed and is what is written to JSON, is a valid random UUID.
+@JsonAdapter(CompactUUID.Adapter.class)
+final class CompactUUID {
+	
+	static final long VERSION_MASK = 0xF000L;
+	static final long VERSION_4 = 0x4000L;
+	static final long VARIANT_MASK = 0xC000000000000000L;
+	static final long VARIANT_IETF = 0x8000000000000000L;
+	static final long PROCESS_BITS = new SecureRandom().nextLong() & ~VERSION_MASK | VERSION_4;
+	static final int BLOCK_SIZE = 1024;
+	static final AtomicLong NEXT_BLOCK = new AtomicLong();
+	// Next number and end of the block of each thread
+	static final ThreadLocal<long[]> THREAD_BLOCK = ThreadLocal.withInitial(() -> new long[2]);
+	
+	final long mostSigBits;
+	final long leastSigBits;
+	
+	CompactUUID(long mostSigBits, long leastSigBits) {
+		this.mostSigBits = mostSigBits;
+		this.leastSigBits = leastSigBits;
+	}
+	
+	static CompactUUID next() {
+		long[] block = THREAD_BLOCK.get();
+		if (block[0] == block[1]) {
+			block[0] = NEXT_BLOCK.getAndAdd(BLOCK_SIZE);
+			block[1] = block[0] + BLOCK_SIZE;
+		}
+		return new CompactUUID(PROCESS_BITS, block[0]++ & ~VARIANT_MASK | VARIANT_IETF);
+	}
+	
+	static CompactUUID fromString(String uuid) {
+		UUID parsed = UUID.fromString(uuid);
+		return new CompactUUID(parsed.getMostSignificantBits(), parsed.getLeastSignificantBits());
+	}
+	
+	@Override
+	public int hashCode() {
+		long bits = this.mostSigBits ^ this.leastSigBits;
+		return (int) (bits >> 32) ^ (int) bits;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		CompactUUID other = (CompactUUID) obj;
+		return this.mostSigBits == other.mostSigBits && this.leastSigBits == other.leastSigBits;
+	}
+	
+	@Override
+	public String toString() {
+		return new UUID(this.mostSigBits, this.leastSigBits).toString();
+	}
+	
+	static class Adapter extends TypeAdapter<CompactUUID> {
+		
+		@Override
+		public void write(JsonWriter out, CompactUUID uuid) throws IOException {
+			if (uuid == null) {
+				out.nullValue();
+			}
+			else {
+				out.value(uuid.toString());
+			}
+		}
+		
+		@Override
+		public CompactUUID read(JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+			return fromString(in.nextString());
+		}
+		
+	}
+	
+}
@@ -0,0 +1,889 @@
+package veve.datastructures.trees;
+
+import static veve.datastructures.trees.GeneralUtils.argsNotNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import veve.datastructures.trees.NTreeConstants.TreeTraversalOrder;
+import veve.datastructures.trees.SubtreeLock.Mode;
+
+/**
+ * A thread safe view of a {@link NTree} that guards every access with a
+ * {@link StampedLock}. Queries first run with an optimistic read stamp, which
+ * takes no lock at all, and only when a write happened while they ran they run
+ * again holding the read lock. Changes take the write lock. Under read heavy
+ * traffic readers do not block each other and an optimistic run does not cache
+ * the subtree hashes it computes, since it may have read the tree in the middle
+ * of a change, so read throughput grows with the number of cores.
+ * <p>
+ * The query and mutation methods have the same meaning as the methods with the
+ * same name of {@code NTree} and {@code NTreeNode}. Changes to nodes that have
+ * no method in this class are made with {@link #write(Consumer)} and any other
+ * query with {@link #read(Function)}.
+ * <p>
+ * The wrapped tree must only be accessed through this object after it is
+ * created. The nodes returned by the queries are the nodes of the wrapped
+ * tree, so their properties can be changed by other threads after the query
+ * returns. Read them inside {@link #read(Function)} or pass them to the
+ * methods of this class to change them.
+ * <p>
+ * Predicates and functions passed to the queries that run optimistically may
+ * run more than once and may see the tree in the middle of a change before
+ * running again, so they should not have side effects.
+ * <p>
+ * A tree created with {@link #withSubtreeLocking(NTree)} lets changes to
+ * disjoint subtrees run at the same time.
+ * 
+ * @param <K> The type of the tree and nodes ids. Must implement {@code Comparable}.
+ * @param <V> The type of the {@code value} property of the nodes.
+ */
+public final class ConcurrentNTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>> {
+	
+	final NTree<K,V> tree;
+	final StampedLock lock = new StampedLock();
+	// Lock of the whole tree above the locks of the nodes. Only set with subtree locking.
+	final SubtreeLock treeLock;
+	// Writes that started and writes running. Used by optimistic reads with subtree locking.
+	final AtomicLong startedWrites = new AtomicLong();
+	final AtomicInteger activeWrites = new AtomicInteger();
+	
+	/**
+	 * Returns a new concurrent tree that wraps the provided tree. If the tree is
+	 * a copy-on-write clone its nodes are copied now, since copying them later
+	 * would change the tree while it is read.
+	 * 
+	 * @param tree the tree to wrap
+	 */
+	public ConcurrentNTree(NTree<K,V> tree) {
+		this(tree, false);
+	}
+	
+	ConcurrentNTree(NTree<K,V> tree, boolean subtreeLocking) {
+		argsNotNull(tree);
+		tree.materializeCopyOnWrite();
+		this.tree = tree;
+		this.treeLock = subtreeLocking ? new SubtreeLock() : null;
+	}
+	
+	/**
+	 * Returns a new concurrent tree that wraps a new empty {@link NTree}.
+	 * 
+	 * @param treeId the id of the tree
+	 * @return a new empty concurrent tree
+	 */
+	public static <K extends Comparable<K>,V> ConcurrentNTree<K,V> create(K treeId) {
+		argsNotNull(treeId);
+		return new ConcurrentNTree<>(NTree.create(treeId));
+	}
+	
+	/**
+	 * Returns a new concurrent tree that wraps the provided tree and locks
+	 * subtrees instead of the whole tree for the changes to a node:
+	 * {@link #setValue(NTreeNode, Object)}, {@link #setChild(NTreeNode, NTreeNode)},
+	 * {@link #removeChild(NTreeNode, Comparable)} and {@link #remove(NTreeNode)}.
+	 * <p>
+	 * A change takes an exclusive lock on the subtree it changes and intention
+	 * locks on the ancestors of that subtree, so changes to disjoint subtrees
+	 * run at the same time. The indexes are updated by these writers in parallel.
+	 * Queries still run optimistically and wait for the running changes only
+	 * when a change happened while they ran. Changes to the whole tree and the
+	 * other methods that change it lock the whole tree.
+	 * <p>
+	 * Changes to nodes lock the whole tree while the tree has a search filter,
+	 * change listeners, copy-on-write clones or is in a batch, since those
+	 * change state outside of the changed subtree.
+	 * 
+	 * @param tree the tree to wrap
+	 * @return a new concurrent tree with subtree locking
+	 */
+	public static <K extends Comparable<K>,V> ConcurrentNTree<K,V> withSubtreeLocking(NTree<K,V> tree) {
+		return new ConcurrentNTree<>(tree, true);
+	}
+	
+	/**
+	 * Returns {@code true} if this tree was created with {@link #withSubtreeLocking(NTree)}.
+	 * 
+	 * @return {@code true} if changes to nodes lock only the changed subtree
+	 */
+	public boolean usesSubtreeLocking() {
+		return this.treeLock != null;
+	}
+	
+	//==============================================================================================
+	//	LOCKING
+	//==============================================================================================
+	
+	/**
+	 * Runs the provided function holding the read lock and returns its result.
+	 * Other readers run at the same time, writers wait until it returns.
+	 * 
+	 * @param <R> the type of the result
+	 * @param reader a function that reads the tree and must not change it
+	 * @return the result of the function
+	 */
+	public <R> R read(Function<NTree<K,V>,R> reader) {
+		argsNotNull(reader);
+		return sharedLocked(() -> reader.apply(this.tree));
+	}
+	
+	/**
+	 * Runs the provided function without taking a lock and returns its result if
+	 * no write happened while it ran. Otherwise it runs it again holding the read
+	 * lock. The function must not have side effects and must not keep references
+	 * to what it reads, since the first run can see the tree while it changes.
+	 * 
+	 * @param <R> the type of the result
+	 * @param reader a function that reads the tree and must not change it
+	 * @return the result of the function
+	 */
+	public <R> R readOptimistically(Function<NTree<K,V>,R> reader) {
+		argsNotNull(reader);
+		return optimisticRead(() -> reader.apply(this.tree));
+	}
+	
+	/**
+	 * Runs the provided consumer holding the write lock. No other reader or
+	 * writer runs at the same time.
+	 * 
+	 * @param writer a consumer that changes the tree
+	 */
+	public void write(Consumer<NTree<K,V>> writer) {
+		argsNotNull(writer);
+		locked(() -> writer.accept(this.tree));
+	}
+	
+	/**
+	 * Runs the provided function holding the write lock and returns its result.
+	 * 
+	 * @param <R> the type of the result
+	 * @param writer a function that changes the tree
+	 * @return the result of the function
+	 */
+	public <R> R compute(Function<NTree<K,V>,R> writer) {
+		argsNotNull(writer);
+		return locked(() -> writer.apply(this.tree));
+	}
+	
+	// A write can leave the nodes in a state that makes the optimistic run throw,
+	// so exceptions are only thrown if no write happened while it ran.
+	<R> R optimisticRead(Supplier<R> reader) {
+		if (this.treeLock != null) {
+			return optimisticReadWithSubtreeLocking(reader);
+		}
+		long stamp = this.lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				R result = withoutCaching(reader);
+				if (this.lock.validate(stamp)) {
+					return result;
+				}
+			} catch (RuntimeException e) {
+				if (this.lock.validate(stamp)) {
+					throw e;
+				}
+			}
+		}
+		return sharedLocked(reader);
+	}
+	
+	// Writers mark themselves active before counting as started, so a reader that
+	// sees no active writer after reading the started count missed none of them.
+	<R> R optimisticReadWithSubtreeLocking(Supplier<R> reader) {
+		long started = this.startedWrites.get();
+		if (this.activeWrites.get() == 0) {
+			try {
+				R result = withoutCaching(reader);
+				if (this.startedWrites.get() == started) {
+					return result;
+				}
+			} catch (RuntimeException e) {
+				if (this.startedWrites.get() == started) {
+					throw e;
+				}
+			}
+		}
+		return sharedLocked(reader);
+	}
+	
+	// Runs an optimistic read that does not cache the hashes it computes
+	static <R> R withoutCaching(Supplier<R> reader) {
+		boolean wasInOptimisticRead = NTreeNode.IN_OPTIMISTIC_READ.get();
+		NTreeNode.IN_OPTIMISTIC_READ.set(true);
+		try {
+			return reader.get();
+		} finally {
+			NTreeNode.IN_OPTIMISTIC_READ.set(wasInOptimisticRead);
+		}
+	}
+	
+	<R> R sharedLocked(Supplier<R> reader) {
+		if (this.treeLock != null) {
+			this.treeLock.lock(Mode.SHARED);
+			try {
+				return reader.get();
+			} finally {
+				this.treeLock.unlock(Mode.SHARED);
+			}
+		}
+		long stamp = this.lock.readLock();
+		try {
+			return reader.get();
+		} finally {
+			this.lock.unlockRead(stamp);
+		}
+	}
+	
+	void locked(Runnable writer) {
+		locked(() -> {
+			writer.run();
+			return null;
+		});
+	}
+	
+	<R> R locked(Supplier<R> writer) {
+		if (this.treeLock != null) {
+			this.treeLock.lock(Mode.EXCLUSIVE);
+			try {
+				return countedWrite(writer);
+			} finally {
+				this.treeLock.unlock(Mode.EXCLUSIVE);
+			}
+		}
+		long stamp = this.lock.writeLock();
+		try {
+			return writer.get();
+		} finally {
+			this.lock.unlockWrite(stamp);
+		}
+	}
+	
+	<R> R countedWrite(Supplier<R> writer) {
+		this.activeWrites.incrementAndGet();
+		this.startedWrites.incrementAndGet();
+		try {
+			return writer.get();
+		} finally {
+			this.activeWrites.decrementAndGet();
+		}
+	}
+	
+	// Runs the change holding an exclusive lock on the subtree of the node returned by
+	// target and intention locks on its ancestors. The target is returned again after
+	// locking since it can change before, like the parent of a node that is moved.
+	// When the target is null, is not attached to the root or the change affects state
+	// outside of the subtree the whole tree is locked.
+	<R> R subtreeLocked(Supplier<NTreeNode<K,V>> target, Supplier<R> change) {
+		if (this.treeLock == null) {
+			return locked(change);
+		}
+		List<SubtreeLock> pathLocks = new ArrayList<>();
+		this.treeLock.lock(Mode.INTENTION_EXCLUSIVE);
+		try {
+			while (true) {
+				NTreeNode<K,V> node = target.get();
+				List<NTreeNode<K,V>> path = node == null ? null : pathFromRoot(node);
+				if (path == null || this.tree.changesStateOutsideSubtree()) {
+					break;
+				}
+				for (int i = 0; i < path.size(); i++) {
+					SubtreeLock lock = SubtreeLock.of(path.get(i));
+					lock.lock(i < path.size() - 1 ? Mode.INTENTION_EXCLUSIVE : Mode.EXCLUSIVE);
+					pathLocks.add(lock);
+				}
+				if (target.get() == node && isSamePath(path, pathFromRoot(node))) {
+					return countedWrite(change);
+				}
+				unlockPath(pathLocks);
+			}
+		} finally {
+			unlockPath(pathLocks);
+			this.treeLock.unlock(Mode.INTENTION_EXCLUSIVE);
+		}
+		return locked(change);
+	}
+	
+	// Stops at the root since the root of a tree read from JSON has a parent
+	List<NTreeNode<K,V>> pathFromRoot(NTreeNode<K,V> node) {
+		LinkedList<NTreeNode<K,V>> path = new LinkedList<>();
+		for (NTreeNode<K,V> current = node; current != null; current = current.parent) {
+			path.addFirst(current);
+			if (current == this.tree.root) {
+				return path;
+			}
+		}
+		return null;
+	}
+	
+	static <K extends Comparable<K>,V> boolean isSamePath(List<NTreeNode<K,V>> path, List<NTreeNode<K,V>> otherPath) {
+		if (otherPath == null || path.size() != otherPath.size()) {
+			return false;
+		}
+		Iterator<NTreeNode<K,V>> otherIterator = otherPath.iterator();
+		for (NTreeNode<K,V> node : path) {
+			if (node != otherIterator.next()) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	static void unlockPath(List<SubtreeLock> pathLocks) {
+		for (int i = pathLocks.size() - 1; i >= 0; i--) {
+			pathLocks.get(i).unlock(i < pathLocks.size() - 1 ? Mode.INTENTION_EXCLUSIVE : Mode.EXCLUSIVE);
+		}
+		pathLocks.clear();
+	}
+	
+	void checkBelongs(NTreeNode<K,V> node) {
+		if (node.treeOfBelonging != this.tree) {
+			throw new RuntimeException("Node does not belong to this tree");
+		}
+	}
+	
+	//==============================================================================================
+	//	QUERIES
+	//==============================================================================================
+	
+	/**
+	 * Returns the id of the tree.
+	 * 
+	 * @return the id of the tree
+	 */
+	public K getId() {
+		return optimisticRead(this.tree::getId);
+	}
+	
+	/**
+	 * Returns the version of the tree.
+	 * 
+	 * @return the version of the tree
+	 */
+	public long getVersion() {
+		return optimisticRead(this.tree::getVersion);
+	}
+	
+	/**
+	 * Returns the number of changes made to the tree.
+	 * 
+	 * @return the modification count of the tree
+	 */
+	public long getModificationCount() {
+		return this.tree.getModificationCount();
+	}
+	
+	/**
+	 * Returns the root of the tree.
+	 * 
+	 * @return the root of the tree or {@code null} if the tree is empty
+	 */
+	public NTreeNode<K,V> getRoot() {
+		return optimisticRead(this.tree::getRoot);
+	}
+	
+	/**
+	 * Returns the number of nodes in the tree.
+	 * 
+	 * @return the number of nodes in the tree
+	 */
+	public int size() {
+		return optimisticRead(this.tree::size);
+	}
+	
+	/**
+	 * Returns the height of the tree.
+	 * 
+	 * @return the height of the tree
+	 */
+	public int height() {
+		return optimisticRead(this.tree::height);
+	}
+	
+	/**
+	 * Returns a list of the nodes in an index that are mapped to a key in that index.
+	 * Indexes are safe to read while they are updated, so the lookup takes no
+	 * lock. The nodes of each key change atomically, but a lookup made while a
+	 * change runs can see some keys already updated and others not yet.
+	 * 
+	 * @param <R> the type of the index keys
+	 * @param indexName the name of the index to get the nodes from
+	 * @param key the key in the index that maps to zero or more nodes in that index
+	 * @return a list of the nodes mapped to the key or {@code null} if the index
+	 * 			does not exist
+	 */
+	public <R> List<NTreeNode<K,V>> nodesInIndexWithKey(String indexName, R key) {
+		argsNotNull(indexName, key);
+		return this.tree.nodesInIndexWithKey(indexName, key);
+	}
+	
+	/**
+	 * Returns the first node in an index mapped to a key in that index. Takes no
+	 * lock, like {@link #nodesInIndexWithKey(String, Object)}.
+	 * 
+	 * @param <R> the type of the index keys
+	 * @param indexName the name of the index to get the node from
+	 * @param key the key in the index that maps to zero or more nodes in that index
+	 * @return the first node mapped to the key or {@code null} if there is none
+	 * 			or the index does not exist
+	 */
+	public <R> NTreeNode<K,V> firstNodeInIndexWithKey(String indexName, R key) {
+		argsNotNull(indexName, key);
+		return this.tree.firstNodeInIndexWithKey(indexName, key);
+	}
+	
+	/**
+	 * Returns a list of the indexes names of the tree.
+	 * 
+	 * @return a list of the indexes names of the tree
+	 */
+	public List<String> getIndexNames() {
+		return optimisticRead(this.tree::getIndexNames);
+	}
+	
+	/**
+	 * Returns the first node with the provided search key.
+	 * 
+	 * @param <R> the type of the keys
+	 * @param key the key of the node to find
+	 * @return the first node found that has the key or {@code null} if there is none
+	 * @throws RuntimeException if the tree has no search filter
+	 */
+	public <R> NTreeNode<K,V> findFirstWithSearchKey(R key) {
+		argsNotNull(key);
+		return optimisticRead(() -> this.tree.findFirstWithSearchKey(key));
+	}
+	
+	/**
+	 * Returns the first node with the provided id in a preorder traversal.
+	 * 
+	 * @param id the id of the node to find
+	 * @return the first node found with the id or {@code null} if there is none
+	 */
+	public NTreeNode<K,V> findFirstWithId(K id) {
+		argsNotNull(id);
+		return optimisticRead(() -> this.tree.findFirstWithId(id));
+	}
+	
+	/**
+	 * Returns the first node with the provided value in a preorder traversal.
+	 * 
+	 * @param value the value of the node to find
+	 * @return the first node found with the value or {@code null} if there is none
+	 */
+	public NTreeNode<K,V> findFirstWithValue(V value) {
+		argsNotNull(value);
+		return optimisticRead(() -> this.tree.findFirstWithValue(value));
+	}
+	
+	/**
+	 * Returns the first node for which the provided predicate returns {@code true}
+	 * in a preorder traversal.
+	 * 
+	 * @param predicate a predicate without side effects
+	 * @return the first node found or {@code null} if there is none
+	 */
+	public NTreeNode<K,V> findFirst(Predicate<NTreeNode<K,V>> predicate) {
+		argsNotNull(predicate);
+		return optimisticRead(() -> this.tree.findFirst(predicate));
+	}
+	
+	/**
+	 * Returns a list of all the nodes for which the provided predicate returns
+	 * {@code true}.
+	 * 
+	 * @param predicate a predicate without side effects
+	 * @return a list of the nodes found
+	 */
+	public List<NTreeNode<K,V>> findAll(Predicate<NTreeNode<K,V>> predicate) {
+		argsNotNull(predicate);
+		return optimisticRead(() -> this.tree.findAll(predicate));
+	}
+	
+	/**
+	 * Returns a list of the nodes of the tree in the provided traversal order.
+	 * 
+	 * @param traversal the traversal order
+	 * @return a list of the nodes of the tree
+	 */
+	public List<NTreeNode<K,V>> toList(TreeTraversalOrder traversal) {
+		argsNotNull(traversal);
+		return optimisticRead(() -> this.tree.toList(traversal));
+	}
+	
+	/**
+	 * Returns a list of the nodes of the tree in preorder.
+	 * 
+	 * @return a list of the nodes of the tree
+	 */
+	public List<NTreeNode<K,V>> toList() {
+		return optimisticRead(() -> this.tree.toList());
+	}
+	
+	/**
+	 * Returns a list of the nodes in the provided level.
+	 * 
+	 * @param level the level from which to get the nodes
+	 * @return a list of the nodes in the level
+	 * @throws RuntimeException if the provided level is less than 1
+	 */
+	public List<NTreeNode<K,V>> nodesInLevel(int level) {
+		return optimisticRead(() -> this.tree.nodesInLevel(level));
+	}
+	
+	/**
+	 * Returns a list of the results of applying the provided function to each
+	 * node of the tree.
+	 * 
+	 * @param <R> the type of the results
+	 * @param function a function without side effects
+	 * @return a list of the results
+	 */
+	public <R> List<R> mapToList(Function<NTreeNode<K,V>,R> function) {
+		argsNotNull(function);
+		return optimisticRead(() -> this.tree.mapToList(function));
+	}
+	
+	/**
+	 * Returns a {@code Stream} of the nodes of the tree in preorder. The nodes
+	 * are collected when this method is called, so later changes to the tree
+	 * do not change the nodes of the stream.
+	 * 
+	 * @return a stream of the nodes of the tree
+	 */
+	public Stream<NTreeNode<K,V>> stream() {
+		return toList().stream();
+	}
+	
+	/**
+	 * Returns an iterator over a list of the nodes of the tree in preorder
+	 * collected when this method is called.
+	 * 
+	 * @return an iterator over the nodes of the tree
+	 */
+	@Override
+	public Iterator<NTreeNode<K,V>> iterator() {
+		return toList().iterator();
+	}
+	
+	/**
+	 * Returns the JSON representation of the tree.
+	 * 
+	 * @return the tree as JSON
+	 */
+	public String toJson() {
+		return read(NTree::toJson);
+	}
+	
+	/**
+	 * Returns a deep copy of the tree. The copy is not guarded by this object.
+	 * 
+	 * @return a copy of the tree
+	 */
+	public NTree<K,V> cloneTree() {
+		return read(NTree::clone);
+	}
+	
+	//==============================================================================================
+	//	TREE CHANGES
+	//==============================================================================================
+	
+	/**
+	 * Changes the id of the tree.
+	 * 
+	 * @param id the new id
+	 */
+	public void replaceId(K id) {
+		argsNotNull(id);
+		locked(() -> this.tree.replaceId(id));
+	}
+	
+	/**
+	 * Adds a node as the root of the tree if the tree has no root. The node must
+	 * be created with {@link #createNode(Comparable, Object)}.
+	 * 
+	 * @param newRoot the new root
+	 * @return {@code true} if the root was added
+	 */
+	public boolean addNewRoot(NTreeNode<K,V> newRoot) {
+		argsNotNull(newRoot);
+		return locked(() -> this.tree.addNewRoot(newRoot));
+	}
+	
+	/**
+	 * Sets a clone of the provided node and its descendants as the root of the tree.
+	 * 
+	 * @param node the node to clone
+	 * @return the replaced root or {@code null}
+	 */
+	public NTreeNode<K,V> setRoot(NTreeNode<K,V> node) {
+		argsNotNull(node);
+		return locked(() -> this.tree.setRoot(node));
+	}
+	
+	/**
+	 * Removes all the nodes of the tree.
+	 */
+	public void clearTree() {
+		locked(this.tree::clearTree);
+	}
+	
+	/**
+	 * Loads the nodes described by the provided records into the tree, which
+	 * must have no root.
+	 * 
+	 * @param records the records to load
+	 * @return a {@link BulkLoadResult} with the orphan and duplicate records
+	 * @throws RuntimeException if the tree already has a root
+	 */
+	public BulkLoadResult<K,V> bulkLoad(Iterator<NodeRecord<K,V>> records) {
+		argsNotNull(records);
+		return locked(() -> this.tree.bulkLoad(records));
+	}
+	
+	/**
+	 * Makes the changes of the provided consumer as a batch holding the write lock.
+	 * 
+	 * @param changes a consumer that changes the tree
+	 */
+	public void batch(Consumer<NTree<K,V>> changes) {
+		argsNotNull(changes);
+		locked(() -> this.tree.batch(changes));
+	}
+	
+	/**
+	 * Applies the edits of the provided patch to the tree.
+	 * 
+	 * @param patch the patch to apply
+	 */
+	public void apply(TreePatch<K,V> patch) {
+		argsNotNull(patch);
+		locked(() -> this.tree.apply(patch));
+	}
+	
+	/**
+	 * Traverses the tree and performs an action for each node holding the write
+	 * lock, so the action can change the nodes.
+	 * 
+	 * @param traversal the traversal order to use
+	 * @param action a consumer that performs an action for each node
+	 */
+	public void forEachNode(TreeTraversalOrder traversal, Consumer<NTreeNode<K,V>> action) {
+		argsNotNull(traversal, action);
+		locked(() -> this.tree.forEachNode(traversal, action));
+	}
+	
+	/**
+	 * Returns a new node that is not part of the tree yet. Creating a node does
+	 * not change the tree so it takes no lock.
+	 * 
+	 * @param id the id of the node
+	 * @param value the value of the node
+	 * @return a new node whose treeOfBelonging is the wrapped tree
+	 */
+	public NTreeNode<K,V> createNode(K id, V value) {
+		return this.tree.createNode(id, value);
+	}
+	
+	/**
+	 * Returns a new node with {@code null} value that is not part of the tree yet.
+	 * 
+	 * @param id the id of the node
+	 * @return a new node whose treeOfBelonging is the wrapped tree
+	 */
+	public NTreeNode<K,V> createNode(K id) {
+		return this.tree.createNode(id);
+	}
+	
+	//==============================================================================================
+	//	NODE CHANGES
+	//==============================================================================================
+	
+	/**
+	 * Sets the value of a node of the tree. With subtree locking the subtree of
+	 * the parent is locked when the tree has indexes, since the parent is put in
+	 * the indexes again and its key can depend on its children.
+	 * 
+	 * @param node a node of the tree
+	 * @param value the new value. Can be {@code null}
+	 * @throws RuntimeException if the node does not belong to the tree
+	 */
+	public void setValue(NTreeNode<K,V> node, V value) {
+		argsNotNull(node);
+		checkBelongs(node);
+		subtreeLocked(() -> this.tree.indexes.isEmpty() || node.isRoot() ? node : node.parent, () -> node.setValue(value));
+	}
+	
+	/**
+	 * Sets a clone of the provided child and its descendants as a child of a
+	 * node of the tree, replacing the child with the same id if there is one.
+	 * 
+	 * @param parent a node of the tree
+	 * @param child the node to clone as a child
+	 * @return the replaced child or {@code null}
+	 * @throws RuntimeException if the parent does not belong to the tree
+	 */
+	public NTreeNode<K,V> setChild(NTreeNode<K,V> parent, NTreeNode<K,V> child) {
+		argsNotNull(parent, child);
+		checkBelongs(parent);
+		return subtreeLocked(() -> parent, () -> parent.setChild(child));
+	}
+	
+	/**
+	 * Removes the child with the provided id of a node of the tree.
+	 * 
+	 * @param parent a node of the tree
+	 * @param id the id of the child to remove
+	 * @return the removed child or {@code null} if there was none
+	 * @throws RuntimeException if the parent does not belong to the tree
+	 */
+	public NTreeNode<K,V> removeChild(NTreeNode<K,V> parent, K id) {
+		argsNotNull(parent, id);
+		checkBelongs(parent);
+		return subtreeLocked(() -> parent, () -> parent.removeChild(id));
+	}
+	
+	/**
+	 * Removes a node of the tree and its descendants.
+	 * 
+	 * @param node a node of the tree
+	 * @return the removed node or {@code null} if it was not removed
+	 * @throws RuntimeException if the node does not belong to the tree
+	 */
+	public NTreeNode<K,V> remove(NTreeNode<K,V> node) {
+		argsNotNull(node);
+		checkBelongs(node);
+		return subtreeLocked(() -> node.parent, node::remove);
+	}
+	
+	/**
+	 * Moves a node of the tree and its descendants to be a child of another node
+	 * of the tree.
+	 * 
+	 * @param node a node of the tree
+	 * @param newParent the node that will be the new parent
+	 * @return {@code true} if the node was moved
+	 * @throws RuntimeException if either node does not belong to the tree
+	 */
+	public boolean moveTo(NTreeNode<K,V> node, NTreeNode<K,V> newParent) {
+		argsNotNull(node, newParent);
+		checkBelongs(node);
+		checkBelongs(newParent);
+		return locked(() -> node.moveTo(newParent));
+	}
+	
+	//==============================================================================================
+	//	INDEX, SEARCH FILTER AND LISTENERS
+	//==============================================================================================
+	
+	/**
+	 * Adds an index to the tree.
+	 * 
+	 * @param <R> the type of the index keys
+	 * @param indexName the name of the index
+	 * @param keyGeneratingFunction the function used to generate the index keys
+	 * @return {@code true} if the index was added
+	 */
+	public <R> boolean addIndex(String indexName, Function<NTreeNode<K,V>,R> keyGeneratingFunction) {
+		argsNotNull(indexName, keyGeneratingFunction);
+		return locked(() -> this.tree.addIndex(indexName, keyGeneratingFunction));
+	}
+	
+	/**
+	 * Removes an index of the tree if it exists.
+	 * 
+	 * @param indexName the name of the index
+	 */
+	public void removeIndex(String indexName) {
+		argsNotNull(indexName);
+		locked(() -> this.tree.removeIndex(indexName));
+	}
+	
+	/**
+	 * Adds a search filter over the ids of the nodes.
+	 */
+	public void useIdSearchFilter() {
+		locked(() -> this.tree.useIdSearchFilter());
+	}
+	
+	/**
+	 * Adds a search filter over the ids of the nodes with the provided number of
+	 * bits per key.
+	 * 
+	 * @param bitsPerKey the number of bits of the filters for each key in their subtree
+	 * @see NTree#useIdSearchFilter(int)
+	 */
+	public void useIdSearchFilter(int bitsPerKey) {
+		locked(() -> this.tree.useIdSearchFilter(bitsPerKey));
+	}
+	
+	/**
+	 * Adds a search filter over the keys generated by the provided function.
+	 * 
+	 * @param <R> the type of the keys
+	 * @param keyGeneratingFunction the function used to generate the key of each node
+	 */
+	public <R> void useSearchFilter(Function<NTreeNode<K,V>,R> keyGeneratingFunction) {
+		argsNotNull(keyGeneratingFunction);
+		locked(() -> this.tree.useSearchFilter(keyGeneratingFunction));
+	}
+	
+	/**
+	 * Adds a search filter over the keys generated by the provided function with
+	 * the provided number of bits per key.
+	 * 
+	 * @param <R> the type of the keys
+	 * @param keyGeneratingFunction the function used to generate the key of each node
+	 * @param bitsPerKey the number of bits of the filters for each key in their subtree
+	 * @see NTree#useSearchFilter(Function, int)
+	 */
+	public <R> void useSearchFilter(Function<NTreeNode<K,V>,R> keyGeneratingFunction, int bitsPerKey) {
+		argsNotNull(keyGeneratingFunction);
+		locked(() -> this.tree.useSearchFilter(keyGeneratingFunction, bitsPerKey));
+	}
+	
+	/**
+	 * Removes the search filter of the tree if it has one.
+	 */
+	public void dontUseSearchFilter() {
+		locked(this.tree::dontUseSearchFilter);
+	}
+	
+	/**
+	 * Adds a listener notified of the changes to the tree. Listeners are called
+	 * by the writing thread while it holds the write lock, so they must not
+	 * call back into this object.
+	 * 
+	 * @param listener the listener to add
+	 */
+	public void addChangeListener(TreeChangeListener<K,V> listener) {
+		argsNotNull(listener);
+		locked(() -> this.tree.addChangeListener(listener));
+	}
+	
+	/**
+	 * Removes a listener added with {@link #addChangeListener(TreeChangeListener)}.
+	 * 
+	 * @param listener the listener to remove
+	 * @return {@code true} if the listener was removed
+	 */
+	public boolean removeChangeListener(TreeChangeListener<K,V> listener) {
+		argsNotNull(listener);
+		return locked(() -> this.tree.removeChangeListener(listener));
+	}
+	
+	@Override
+	public String toString() {
+		return read(NTree::toString);
+	}
+	
+}
@@ -0,0 +1,246 @@
+package veve.datastructures.trees;
+
+import static veve.datastructures.trees.GeneralUtils.argsNotNull;
+import static veve.datastructures.trees.GeneralUtils.safeFunction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Builds a {@link NTree} from records added by many threads at the same time,
+ * for example by threads that parse the shards of an input in parallel. It is
+ * the concurrent counterpart of {@link NTree#bulkLoad(java.util.Iterator)}.
+ * <p>
+ * Each thread adds its records to a staging buffer of its own, which no other
+ * thread writes to, so adding a record takes no lock and does not wait for
+ * other threads. The node of a record is created by the thread that adds it.
+ * Once all the records were added {@link #build()} links the nodes into the
+ * tree and computes the indexes added with {@link #addIndex(String, Function)},
+ * spreading the work of each index among the threads of the common pool.
+ * <p>
+ * The records follow the same rules as in {@code bulkLoad}: ids must be unique,
+ * a record with the id of a record already added is a duplicate, the first
+ * record with a {@code null} parent id is the root and the records that cannot
+ * be reached from the root are orphans. Records added by the same thread keep
+ * their order but there is no order between records added by different
+ * threads, so when two threads add records with the same id, or each adds a
+ * record with a {@code null} parent id, which one is kept is not defined.
+ * <p>
+ * All the calls to {@code add} must happen before the call to {@code build},
+ * for example by joining the producer threads or by waiting for their futures
+ * before building.
+ * 
+ * @param <K> The type of the tree and nodes ids. Must implement {@code Comparable}.
+ * @param <V> The type of the {@code value} property of the nodes.
+ */
+public final class ConcurrentNTreeBuilder<K extends Comparable<K>,V> {
+	
+	final NTree<K,V> tree;
+	final Queue<StagingBuffer<K,V>> buffers = new ConcurrentLinkedQueue<>();
+	final ThreadLocal<StagingBuffer<K,V>> threadBuffer = ThreadLocal.withInitial(this::newBuffer);
+	final Map<String, Function<NTreeNode<K,V>,?>> indexFunctions = new LinkedHashMap<>();
+	volatile BulkLoadResult<K,V> result;
+	
+	ConcurrentNTreeBuilder(NTree<K,V> tree) {
+		this.tree = tree;
+	}
+	
+	/**
+	 * Returns a new builder of a tree with the provided id.
+	 * 
+	 * @param treeId the id of the tree to build
+	 * @return a new builder
+	 */
+	public static <K extends Comparable<K>,V> ConcurrentNTreeBuilder<K,V> create(K treeId) {
+		argsNotNull(treeId);
+		return new ConcurrentNTreeBuilder<>(NTree.create(treeId));
+	}
+	
+	/**
+	 * Adds the record of a node. Can be called from any number of threads at
+	 * the same time.
+	 * 
+	 * @param id the id of the node. Cannot be {@code null}
+	 * @param parentId the id of the parent of the node or {@code null} if the
+	 * 			node is the root
+	 * @param value the value of the node. Can be {@code null}
+	 * @throws RuntimeException if the tree was already built
+	 */
+	public void add(K id, K parentId, V value) {
+		add(new NodeRecord<>(id, parentId, value));
+	}
+	
+	/**
+	 * Adds the record of a node. Can be called from any number of threads at
+	 * the same time.
+	 * 
+	 * @param record the record to add
+	 * @throws RuntimeException if the tree was already built
+	 */
+	public void add(NodeRecord<K,V> record) {
+		argsNotNull(record);
+		if (this.result != null) {
+			throw new RuntimeException("The tree was already built");
+		}
+		StagingBuffer<K,V> buffer = this.threadBuffer.get();
+		NTreeNode<K,V> node = new NTreeNode<>(this.tree);
+		node.id = record.id;
+		node.value = record.value;
+		buffer.records.add(record);
+		buffer.nodes.add(node);
+	}
+	
+	/**
+	 * Adds an index to the tree that is computed when the tree is built. Same
+	 * as {@link NTree#addIndex(String, Function)} but the index is computed by
+	 * many threads.
+	 * 
+	 * @param indexName the name of the index
+	 * @param keyGeneratingFunction the function that returns the key of a node
+	 * @return {@code true} if the index was added, {@code false} if there is
+	 * 			already an index with the same name
+	 * @throws RuntimeException if the tree was already built
+	 */
+	public synchronized <R> boolean addIndex(String indexName, Function<NTreeNode<K,V>, R> keyGeneratingFunction) {
+		argsNotNull(indexName, keyGeneratingFunction);
+		if (this.result != null) {
+			throw new RuntimeException("The tree was already built");
+		}
+		return this.indexFunctions.putIfAbsent(indexName, safeFunction(keyGeneratingFunction)) == null;
+	}
+	
+	/**
+	 * Links the nodes of all the added records into the tree and computes its
+	 * indexes. Returns the built tree, which is a normal {@code NTree} that is
+	 * not thread safe.
+	 * 
+	 * @return the built tree
+	 * @throws RuntimeException if the tree was already built
+	 */
+	public synchronized NTree<K,V> build() {
+		if (this.result != null) {
+			throw new RuntimeException("The tree was already built");
+		}
+		BulkLoadResult<K,V> result = new BulkLoadResult<>();
+		List<StagingBuffer<K,V>> buffers = new ArrayList<>(this.buffers);
+		Map<K,NTreeNode<K,V>> nodesById = new ConcurrentHashMap<>();
+		Map<K,List<NTreeNode<K,V>>> childrenByParentId = new ConcurrentHashMap<>();
+		buffers.parallelStream().forEach(buffer -> buffer.stage(nodesById, childrenByParentId));
+		NTreeNode<K,V> newRoot = buffers.stream()
+				.filter(buffer -> buffer.rootCandidate != null)
+				.map(buffer -> buffer.rootCandidate)
+				.findFirst()
+				.orElse(null);
+		if (newRoot != null) {
+			result.numLoaded = NTree.linkBulkLoadedNodes(newRoot, childrenByParentId);
+		}
+		List<NTreeNode<K,V>> linkedNodes = buffers.parallelStream()
+				.flatMap(buffer -> buffer.collectOrphans(newRoot))
+				.collect(Collectors.toList());
+		buffers.forEach(buffer -> {
+			result.orphans.addAll(buffer.orphans);
+			result.duplicates.addAll(buffer.duplicates);
+			buffer.clear();
+		});
+		this.buffers.clear();
+		NTree.MOD_COUNT.incrementAndGet(this.tree);
+		this.tree.root = newRoot;
+		this.indexFunctions.forEach((indexName, keyGeneratingFunction) -> computeIndex(indexName, keyGeneratingFunction, linkedNodes));
+		this.result = result;
+		return this.tree;
+	}
+	
+	/**
+	 * Returns the orphan and duplicate records found when the tree was built.
+	 * 
+	 * @return a {@link BulkLoadResult} with the orphan and duplicate records or
+	 * 			{@code null} if the tree was not built yet
+	 */
+	public BulkLoadResult<K,V> getResult() {
+		return this.result;
+	}
+	
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	<R> void computeIndex(String indexName, Function keyGeneratingFunction, Collection<NTreeNode<K,V>> linkedNodes) {
+		TreeNodeIndex<K,V,R> index = new TreeNodeIndex<>(indexName, this.tree, keyGeneratingFunction);
+		this.tree.indexes.put(indexName, index);
+		index.computeIndexInParallel(linkedNodes);
+	}
+	
+	StagingBuffer<K,V> newBuffer() {
+		StagingBuffer<K,V> buffer = new StagingBuffer<>();
+		this.buffers.add(buffer);
+		return buffer;
+	}
+	
+	// Records and nodes added by one thread. Only that thread writes to it until the tree is built.
+	static class StagingBuffer<K extends Comparable<K>,V> {
+		
+		List<NodeRecord<K,V>> records = new ArrayList<>();
+		List<NTreeNode<K,V>> nodes = new ArrayList<>();
+		List<NodeRecord<K,V>> duplicates = new ArrayList<>();
+		List<NodeRecord<K,V>> orphans = new ArrayList<>();
+		boolean[] isDuplicate;
+		NTreeNode<K,V> rootCandidate;
+		
+		// Registers the nodes of this buffer by id and by parent id, skipping duplicates
+		void stage(Map<K,NTreeNode<K,V>> nodesById, Map<K,List<NTreeNode<K,V>>> childrenByParentId) {
+			this.isDuplicate = new boolean[this.records.size()];
+			for (int i = 0; i < this.records.size(); i++) {
+				NodeRecord<K,V> record = this.records.get(i);
+				NTreeNode<K,V> node = this.nodes.get(i);
+				if (nodesById.putIfAbsent(record.id, node) != null) {
+					this.isDuplicate[i] = true;
+					this.duplicates.add(record);
+				}
+				else if (record.parentId != null) {
+					childrenByParentId.compute(record.parentId, (parentId, children) -> {
+						List<NTreeNode<K,V>> parentChildren = children != null ? children : new ArrayList<>();
+						parentChildren.add(node);
+						return parentChildren;
+					});
+				}
+				else if (this.rootCandidate == null) {
+					this.rootCandidate = node;
+				}
+			}
+		}
+		
+		// Keeps the records of the nodes that were not linked and returns the linked nodes
+		Stream<NTreeNode<K,V>> collectOrphans(NTreeNode<K,V> root) {
+			List<NTreeNode<K,V>> linked = new ArrayList<>();
+			for (int i = 0; i < this.records.size(); i++) {
+				NTreeNode<K,V> node = this.nodes.get(i);
+				if (this.isDuplicate[i]) {
+					continue;
+				}
+				if (node == root || node.parent != null) {
+					linked.add(node);
+				}
+				else {
+					this.orphans.add(this.records.get(i));
+				}
+			}
+			return linked.stream();
+		}
+		
+		void clear() {
+			this.records = new ArrayList<>();
+			this.nodes = new ArrayList<>();
+			this.duplicates = new ArrayList<>();
+			this.orphans = new ArrayList<>();
+			this.isDuplicate = null;
+		}
+		
+	}
+	
+}
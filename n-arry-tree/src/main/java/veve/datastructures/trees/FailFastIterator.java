@@ -0,0 +1,41 @@
+package veve.datastructures.trees;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+
+/**
+ * Iterator over nodes of a {@link NTree} that throws a 
+ * {@code ConcurrentModificationException} if the tree is changed after the 
+ * iterator was created. The tree modification count is used to detect changes.
+ */
+class FailFastIterator<K extends Comparable<K>,V> implements Iterator<NTreeNode<K,V>> {
+	
+	NTree<K,V> tree;
+	Iterator<NTreeNode<K,V>> iterator;
+	long expectedModCount;
+	
+	FailFastIterator(NTree<K,V> tree, Iterator<NTreeNode<K,V>> iterator) {
+		this.tree = tree;
+		this.iterator = iterator;
+		this.expectedModCount = tree.modCount;
+	}
+	
+	@Override
+	public boolean hasNext() {
+		checkForModification();
+		return this.iterator.hasNext();
+	}
+	
+	@Override
+	public NTreeNode<K,V> next() {
+		checkForModification();
+		return this.iterator.next();
+	}
+	
+	void checkForModification() {
+		if (this.tree.modCount != this.expectedModCount) {
+			throw new ConcurrentModificationException();
+		}
+	}
+	
+}
@@ -0,0 +1,495 @@
+package veve.datastructures.trees;
+
+import static veve.datastructures.trees.GeneralUtils.argsNotNull;
+import static veve.datastructures.trees.GeneralUtils.safeConsumer;
+import static veve.datastructures.trees.GeneralUtils.safePredicate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import veve.datastructures.trees.NTreeConstants.TreeTraversalOrder;
+
+/**
+ * An immutable copy of a {@link NTree} returned by {@link NTree#freeze()} for
+ * trees that are built once and then only read. Instead of a node object with
+ * a map of children per node, the nodes are kept in arrays in preorder: the
+ * node at position {@code i} has its id in {@code ids[i]}, its value in
+ * {@code values[i]} and the positions of its parent, first child and next
+ * sibling in int arrays, so traversals read the arrays from start to end
+ * instead of following references between objects all over the heap.
+ * <p>
+ * Since the descendants of a node follow it in preorder, the subtree of the
+ * node at position {@code i} is the range from {@code i} to
+ * {@code i + subtreeSize[i]}, which makes size and ancestor checks a
+ * comparison of positions. The positions of the nodes in level order are kept
+ * as well, so level queries do not traverse the tree either.
+ * <p>
+ * Nodes are read through {@link FrozenNTreeNode}s, light views of a position
+ * in the arrays created as they are returned. The children of each node keep
+ * the traversal order of the frozen tree, either unordered or sorted by its
+ * ordering. Node values are not cloned. A {@code FrozenNTree} never changes
+ * so it can be read from any number of threads without locking.
+ * 
+ * @param <K> The type of the tree and nodes ids. Must implement {@code Comparable}.
+ * @param <V> The type of the {@code value} property of the nodes. Should be
+ * 			immutable since values are shared with the frozen tree.
+ */
+public final class FrozenNTree<K extends Comparable<K>,V> {
+	
+	static final int NONE = -1;
+	
+	final K id;
+	final long version;
+	final Object[] ids;
+	final Object[] values;
+	final int[] parents;
+	final int[] firstChildren;
+	final int[] nextSiblings;
+	final int[] subtreeSizes;
+	// Level of each node, the root being level 1
+	final int[] levels;
+	// Positions of the nodes in level order and where each level starts in it
+	final int[] levelOrder;
+	final int[] levelStarts;
+	
+	FrozenNTree(NTree<K,V> tree) {
+		int size = tree.size();
+		this.id = tree.id;
+		this.version = tree.version;
+		this.ids = new Object[size];
+		this.values = new Object[size];
+		this.parents = new int[size];
+		this.firstChildren = new int[size];
+		this.nextSiblings = new int[size];
+		this.subtreeSizes = new int[size];
+		this.levels = new int[size];
+		this.levelOrder = new int[size];
+		if (tree.root != null) {
+			layOut(tree);
+		}
+		this.levelStarts = layOutLevels();
+	}
+	
+	// Fills the arrays in preorder following the ordering of the tree between children
+	void layOut(NTree<K,V> tree) {
+		Arrays.fill(this.firstChildren, NONE);
+		Arrays.fill(this.nextSiblings, NONE);
+		Arrays.fill(this.subtreeSizes, 1);
+		int[] lastChildren = new int[this.ids.length];
+		Deque<NTreeNode<K,V>> pending = new ArrayDeque<>();
+		Deque<Integer> pendingParents = new ArrayDeque<>();
+		pending.push(tree.root);
+		pendingParents.push(NONE);
+		int position = 0;
+		while (!pending.isEmpty()) {
+			NTreeNode<K,V> node = pending.pop();
+			int parent = pendingParents.pop();
+			this.ids[position] = node.id;
+			this.values[position] = node.value;
+			this.parents[position] = parent;
+			this.levels[position] = parent == NONE ? 1 : this.levels[parent] + 1;
+			if (parent != NONE) {
+				if (this.firstChildren[parent] == NONE) {
+					this.firstChildren[parent] = position;
+				}
+				else {
+					this.nextSiblings[lastChildren[parent]] = position;
+				}
+				lastChildren[parent] = position;
+			}
+			List<NTreeNode<K,V>> children = orderedChildren(tree, node);
+			for (int i = children.size() - 1; i >= 0; i--) {
+				pending.push(children.get(i));
+				pendingParents.push(position);
+			}
+			position++;
+		}
+		for (int i = position - 1; i > 0; i--) {
+			this.subtreeSizes[this.parents[i]] += this.subtreeSizes[i];
+		}
+	}
+	
+	// Sorts the positions by level keeping the preorder inside each level, which is the level order.
+	// Returns where each level starts in the level order followed by the number of nodes.
+	int[] layOutLevels() {
+		int height = 0;
+		for (int level : this.levels) {
+			height = Math.max(height, level);
+		}
+		int[] levelStarts = new int[height + 1];
+		int[] nextInLevel = new int[height + 1];
+		for (int level : this.levels) {
+			nextInLevel[level]++;
+		}
+		for (int level = 1, start = 0; level <= height; level++) {
+			int count = nextInLevel[level];
+			levelStarts[level - 1] = start;
+			nextInLevel[level] = start;
+			start += count;
+		}
+		levelStarts[height] = this.ids.length;
+		for (int position = 0; position < this.levels.length; position++) {
+			this.levelOrder[nextInLevel[this.levels[position]]++] = position;
+		}
+		return levelStarts;
+	}
+	
+	static <K extends Comparable<K>,V> List<NTreeNode<K,V>> orderedChildren(NTree<K,V> tree, NTreeNode<K,V> node) {
+		List<NTreeNode<K,V>> children = new ArrayList<>(node.readChildren().values());
+		if (tree.isNaturalOrdered()) {
+			Collections.sort(children);
+		}
+		else if (tree.isCustomOrdered()) {
+			children.sort(tree.nodeComparator);
+		}
+		return children;
+	}
+	
+	FrozenNTreeNode<K,V> node(int position) {
+		return new FrozenNTreeNode<>(this, position);
+	}
+	
+	//==============================================================================================
+	//	GETTERS
+	//==============================================================================================
+	
+	/**
+	 * Returns the id of this tree.
+	 * 
+	 * @return the id of this tree
+	 */
+	public K getId() {
+		return this.id;
+	}
+	
+	/**
+	 * Returns the version the tree had when it was frozen.
+	 * 
+	 * @return the version of this tree
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+	
+	/**
+	 * Returns the root of this tree.
+	 * 
+	 * @return the root of this tree or {@code null} if the tree is empty
+	 */
+	public FrozenNTreeNode<K,V> getRoot() {
+		return size() == 0 ? null : node(0);
+	}
+	
+	/**
+	 * Returns the number of nodes in this tree.
+	 * 
+	 * @return the number of nodes in this tree
+	 */
+	public int size() {
+		return this.ids.length;
+	}
+	
+	/**
+	 * Returns the height of this tree meaning the number of nodes from the root
+	 * node down the path to the deepest node.
+	 * 
+	 * @return the height of this tree
+	 */
+	public int height() {
+		return this.levelStarts.length - 1;
+	}
+	
+	//==============================================================================================
+	//	SEARCH
+	//==============================================================================================
+	
+	/**
+	 * Returns a list of all the nodes for which the provided predicate returns
+	 * {@code true} in preorder.
+	 * 
+	 * @param predicate the predicate used for filtering which nodes to get
+	 * @return a list of nodes for which the provided predicate returns {@code true}
+	 */
+	public List<FrozenNTreeNode<K,V>> findAll(Predicate<FrozenNTreeNode<K,V>> predicate) {
+		argsNotNull(predicate);
+		return stream().filter(safePredicate(predicate)).collect(Collectors.toList());
+	}
+	
+	/**
+	 * Returns the first node in preorder that satisfies the provided predicate.
+	 * 
+	 * @param predicate Predicate used to filter if a node is a match or not
+	 * @return the first node found to satisfy the predicate or {@code null} if
+	 * 			no node in this tree satisfies the predicate or the tree is empty
+	 */
+	public FrozenNTreeNode<K,V> findFirst(Predicate<FrozenNTreeNode<K,V>> predicate) {
+		argsNotNull(predicate);
+		return stream().filter(safePredicate(predicate)).findFirst().orElse(null);
+	}
+	
+	/**
+	 * Returns the first node in preorder that has the provided id. Only the
+	 * array of ids is read.
+	 * 
+	 * @param id the id of the node to find
+	 * @return the first node found that has the id or {@code null} if no node
+	 * 			in this tree has the id or the tree is empty
+	 */
+	public FrozenNTreeNode<K,V> findFirstWithId(K id) {
+		argsNotNull(id);
+		for (int position = 0; position < this.ids.length; position++) {
+			if (id.equals(this.ids[position])) {
+				return node(position);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the first node in preorder that has the provided value. Only the
+	 * array of values is read.
+	 * 
+	 * @param value the value of the node to find
+	 * @return the first node found that has the value or {@code null} if no node
+	 * 			in this tree has the value or the tree is empty
+	 */
+	public FrozenNTreeNode<K,V> findFirstWithValue(V value) {
+		argsNotNull(value);
+		for (int position = 0; position < this.values.length; position++) {
+			if (value.equals(this.values[position])) {
+				return node(position);
+			}
+		}
+		return null;
+	}
+	
+	//==============================================================================================
+	//	LEVELS
+	//==============================================================================================
+	
+	/**
+	 * Returns the nodes in the given level. The root is level 1, its children
+	 * level 2 and so on.
+	 * 
+	 * @param level the level from which to get the nodes
+	 * @return a list of the nodes in the given level, which is empty if the
+	 * 			tree is not that high
+	 * @throws RuntimeException if the provided level is less than 1
+	 */
+	public List<FrozenNTreeNode<K,V>> nodesInLevel(int level) {
+		return levelPositions(level).mapToObj(this::node).collect(Collectors.toList());
+	}
+	
+	/**
+	 * Performs an action for each node in the specified level. The root is
+	 * level 1, its children level 2 and so on.
+	 * 
+	 * @param level the level of the nodes
+	 * @param action a consumer that performs an action for each node
+	 * @throws RuntimeException if the provided level is less than 1
+	 */
+	public void forEachOfLevel(int level, Consumer<FrozenNTreeNode<K,V>> action) {
+		argsNotNull(action);
+		Consumer<FrozenNTreeNode<K,V>> safeAction = safeConsumer(action);
+		levelPositions(level).forEach(position -> safeAction.accept(node(position)));
+	}
+	
+	IntStream levelPositions(int level) {
+		if (level < 1) {
+			throw new RuntimeException("level cannot be less than 1");
+		}
+		if (level > height()) {
+			return IntStream.empty();
+		}
+		return Arrays.stream(this.levelOrder, this.levelStarts[level - 1], this.levelStarts[level]);
+	}
+	
+	//==============================================================================================
+	//	TRAVERSAL
+	//==============================================================================================
+	
+	/**
+	 * Traverses this tree and performs an action for each node in the order
+	 * specified by the provided {@code TreeTraversalOrder} enum.
+	 * 
+	 * @param traversal the traversal order to use
+	 * @param action a consumer that performs an action for each node
+	 */
+	public void forEachNode(TreeTraversalOrder traversal, Consumer<FrozenNTreeNode<K,V>> action) {
+		argsNotNull(traversal, action);
+		if (traversal == TreeTraversalOrder.PRE_ORDER) {
+			forEachPreOrder(action);
+		}
+		else if (traversal == TreeTraversalOrder.POST_ORDER) {
+			forEachPostOrder(action);
+		}
+		else if (traversal == TreeTraversalOrder.LEVEL_ORDER) {
+			forEachLevelOrder(action);
+		}
+		else {
+			forEachLevelOrderFromBottom(action);
+		}
+	}
+	
+	/**
+	 * Traverses this tree in preorder and performs an action for each node,
+	 * which reads the arrays from start to end.
+	 * 
+	 * @param action a consumer that performs an action for each node
+	 */
+	public void forEachPreOrder(Consumer<FrozenNTreeNode<K,V>> action) {
+		argsNotNull(action);
+		Consumer<FrozenNTreeNode<K,V>> safeAction = safeConsumer(action);
+		for (int position = 0; position < this.ids.length; position++) {
+			safeAction.accept(node(position));
+		}
+	}
+	
+	/**
+	 * Traverses this tree in postorder and performs an action for each node.
+	 * 
+	 * @param action a consumer that performs an action for each node
+	 */
+	public void forEachPostOrder(Consumer<FrozenNTreeNode<K,V>> action) {
+		argsNotNull(action);
+		Consumer<FrozenNTreeNode<K,V>> safeAction = safeConsumer(action);
+		for (int position : postOrderPositions()) {
+			safeAction.accept(node(position));
+		}
+	}
+	
+	/**
+	 * Traverses this tree in level order from the root down each level and
+	 * performs an action for each node.
+	 * 
+	 * @param action a consumer that performs an action for each node
+	 */
+	public void forEachLevelOrder(Consumer<FrozenNTreeNode<K,V>> action) {
+		argsNotNull(action);
+		Consumer<FrozenNTreeNode<K,V>> safeAction = safeConsumer(action);
+		for (int position : this.levelOrder) {
+			safeAction.accept(node(position));
+		}
+	}
+	
+	/**
+	 * Traverses this tree in level order from the deepest level up to the root
+	 * and performs an action for each node.
+	 * 
+	 * @param action a consumer that performs an action for each node
+	 */
+	public void forEachLevelOrderFromBottom(Consumer<FrozenNTreeNode<K,V>> action) {
+		argsNotNull(action);
+		Consumer<FrozenNTreeNode<K,V>> safeAction = safeConsumer(action);
+		for (int level = height(); level >= 1; level--) {
+			for (int i = this.levelStarts[level - 1]; i < this.levelStarts[level]; i++) {
+				safeAction.accept(node(this.levelOrder[i]));
+			}
+		}
+	}
+	
+	// Goes down the first children and up the parents, so no stack is needed
+	int[] postOrderPositions() {
+		int[] positions = new int[this.ids.length];
+		if (positions.length == 0) {
+			return positions;
+		}
+		int count = 0;
+		int position = 0;
+		while (true) {
+			while (this.firstChildren[position] != NONE) {
+				position = this.firstChildren[position];
+			}
+			positions[count++] = position;
+			while (this.nextSiblings[position] == NONE) {
+				position = this.parents[position];
+				if (position == NONE) {
+					return positions;
+				}
+				positions[count++] = position;
+			}
+			position = this.nextSiblings[position];
+		}
+	}
+	
+	/**
+	 * Returns a list of the nodes in this tree in the order specified by the
+	 * provided {@code TreeTraversalOrder} enum.
+	 * 
+	 * @param traversal the traversal order of the list
+	 * @return a list of the nodes in this tree
+	 */
+	public List<FrozenNTreeNode<K,V>> toList(TreeTraversalOrder traversal) {
+		argsNotNull(traversal);
+		List<FrozenNTreeNode<K,V>> nodes = new ArrayList<>(size());
+		forEachNode(traversal, nodes::add);
+		return nodes;
+	}
+	
+	/**
+	 * Returns a list of the nodes in this tree in preorder.
+	 * 
+	 * @return a list of the nodes in this tree
+	 */
+	public List<FrozenNTreeNode<K,V>> toList() {
+		return toList(TreeTraversalOrder.PRE_ORDER);
+	}
+	
+	/**
+	 * Returns a {@code Stream} of the nodes of this tree in preorder. The stream
+	 * splits into ranges of positions so it can be consumed in parallel.
+	 * 
+	 * @return a {@code Stream} of the nodes in this tree
+	 */
+	public Stream<FrozenNTreeNode<K,V>> stream() {
+		return IntStream.range(0, size()).mapToObj(this::node);
+	}
+	
+	//==============================================================================================
+	//	OVERRIDEN
+	//==============================================================================================
+	
+	/**
+	 * Returns {@code true} if the provided object is a {@code FrozenNTree} with
+	 * the same id and the same nodes in the same positions. The versions are
+	 * not compared.
+	 * 
+	 * @param obj the object to compare with
+	 * @return {@code true} if the trees have the same id and equal nodes
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof FrozenNTree)) {
+			return false;
+		}
+		FrozenNTree<?,?> other = (FrozenNTree<?,?>) obj;
+		return this.id.equals(other.id)
+				&& Arrays.equals(this.ids, other.ids)
+				&& Arrays.equals(this.values, other.values)
+				&& Arrays.equals(this.parents, other.parents);
+	}
+	
+	@Override
+	public int hashCode() {
+		return Objects.hash(this.id, Arrays.hashCode(this.ids), Arrays.hashCode(this.values), Arrays.hashCode(this.parents));
+	}
+	
+	@Override
+	public String toString() {
+		return "FrozenNTree [id=" + this.id + ", version=" + this.version + ", size=" + size() + "]";
+	}
+	
+}
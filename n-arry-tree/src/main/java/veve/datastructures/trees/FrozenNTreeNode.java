@@ -0,0 +1,180 @@
+package veve.datastructures.trees;
+
+import static veve.datastructures.trees.GeneralUtils.argsNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A node of a {@link FrozenNTree}. It is only a view of a position in the
+ * arrays of the tree, created when it is returned, so its methods read the
+ * arrays of the tree and holding a node does not keep any other node alive
+ * but the tree.
+ * <p>
+ * Nodes are equal when they are the same position of the same tree.
+ * 
+ * @param <K> The type of the node id. Must implement {@code Comparable}.
+ * @param <V> The type of the node value.
+ */
+public final class FrozenNTreeNode<K extends Comparable<K>,V> {
+	
+	final FrozenNTree<K,V> tree;
+	final int position;
+	
+	FrozenNTreeNode(FrozenNTree<K,V> tree, int position) {
+		this.tree = tree;
+		this.position = position;
+	}
+	
+	/**
+	 * Returns the id of this node.
+	 * 
+	 * @return the id of this node
+	 */
+	@SuppressWarnings("unchecked")
+	public K getId() {
+		return (K) this.tree.ids[this.position];
+	}
+	
+	/**
+	 * Returns the value of this node.
+	 * 
+	 * @return the value of this node
+	 */
+	@SuppressWarnings("unchecked")
+	public V getValue() {
+		return (V) this.tree.values[this.position];
+	}
+	
+	/**
+	 * Returns the tree this node belongs to.
+	 * 
+	 * @return the tree of this node
+	 */
+	public FrozenNTree<K,V> getTreeOfBelonging() {
+		return this.tree;
+	}
+	
+	/**
+	 * Returns the parent of this node.
+	 * 
+	 * @return the parent of this node or {@code null} if this node is the root
+	 */
+	public FrozenNTreeNode<K,V> getParent() {
+		int parent = this.tree.parents[this.position];
+		return parent == FrozenNTree.NONE ? null : this.tree.node(parent);
+	}
+	
+	/**
+	 * Returns a {@code List} of the children of this node in the traversal
+	 * order of the tree.
+	 * 
+	 * @return the children of this node
+	 */
+	public List<FrozenNTreeNode<K,V>> getChildren() {
+		List<FrozenNTreeNode<K,V>> children = new ArrayList<>();
+		for (int child = this.tree.firstChildren[this.position]; child != FrozenNTree.NONE; child = this.tree.nextSiblings[child]) {
+			children.add(this.tree.node(child));
+		}
+		return children;
+	}
+	
+	/**
+	 * Returns the number of children of this node.
+	 * 
+	 * @return the number of children of this node
+	 */
+	public int childrenSize() {
+		int count = 0;
+		for (int child = this.tree.firstChildren[this.position]; child != FrozenNTree.NONE; child = this.tree.nextSiblings[child]) {
+			count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns {@code true} if this node is the root of its tree.
+	 * 
+	 * @return {@code true} if this node is the root of its tree
+	 */
+	public boolean isRoot() {
+		return this.position == 0;
+	}
+	
+	/**
+	 * Returns {@code true} if this node has no children.
+	 * 
+	 * @return {@code true} if this node has no children
+	 */
+	public boolean isLeaf() {
+		return this.tree.firstChildren[this.position] == FrozenNTree.NONE;
+	}
+	
+	/**
+	 * Returns the number of nodes of the subtree of this node including this
+	 * node. The size is computed when the tree is frozen.
+	 * 
+	 * @return the number of nodes in this subtree
+	 */
+	public int size() {
+		return this.tree.subtreeSizes[this.position];
+	}
+	
+	/**
+	 * Returns the level of this node, the root being level 1.
+	 * 
+	 * @return the level of this node
+	 */
+	public int levelFromRoot() {
+		return this.tree.levels[this.position];
+	}
+	
+	/**
+	 * Returns {@code true} if the passed node is an ancestor of this node. Takes
+	 * constant time since the descendants of a node are the positions that
+	 * follow it up to the size of its subtree.
+	 * 
+	 * @param ancestor the node to check if it is an ancestor of this node
+	 * @return {@code true} if the passed node is an ancestor of this node
+	 */
+	public boolean hasAncestor(FrozenNTreeNode<K,V> ancestor) {
+		argsNotNull(ancestor);
+		return ancestor.tree == this.tree
+				&& ancestor.position < this.position
+				&& this.position < ancestor.position + this.tree.subtreeSizes[ancestor.position];
+	}
+	
+	/**
+	 * Returns a {@code Stream} of this node and its descendants in preorder.
+	 * 
+	 * @return a {@code Stream} of the nodes of this subtree
+	 */
+	public Stream<FrozenNTreeNode<K,V>> stream() {
+		return IntStream.range(this.position, this.position + size()).mapToObj(this.tree::node);
+	}
+	
+	@Override
+	public int hashCode() {
+		return 31 * System.identityHashCode(this.tree) + this.position;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof FrozenNTreeNode)) {
+			return false;
+		}
+		FrozenNTreeNode<?,?> other = (FrozenNTreeNode<?,?>) obj;
+		return this.tree == other.tree && this.position == other.position;
+	}
+	
+	@Override
+	public String toString() {
+		return "FrozenNTreeNode [id=" + getId() + ", value=" + getValue() + ", level=" + levelFromRoot() + "]";
+	}
+	
+}
@@ -1,12 +1,15 @@
 package veve.datastructures.trees;
 
-import static veve.datastructures.trees.GsonInstance.gsonDefault;
+import static veve.datastructures.trees.GsonInstance.defaultAdapter;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
 import java.lang.reflect.Type;
 import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
@@ -14,6 +17,8 @@ import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import com.google.gson.TypeAdapter;
+
 class GeneralUtils {
 	
 	public static void argsNotNull(Object ...objects) {
@@ -32,36 +37,90 @@ class GeneralUtils {
 		}
 	}
 	
+	// Copy constructors resolved once per class and adapted to (Object)Object so they can be invoked exactly
+	private static final ClassValue<Optional<MethodHandle>> copyConstructors = new ClassValue<Optional<MethodHandle>>() {
+		@Override
+		protected Optional<MethodHandle> computeValue(Class<?> type) {
+			try {
+				MethodHandle copyConstructor = MethodHandles.publicLookup()
+						.findConstructor(type, MethodType.methodType(void.class, type));
+				return Optional.of(copyConstructor.asType(MethodType.methodType(Object.class, Object.class)));
+			} catch (NoSuchMethodException | IllegalAccessException e) {
+				return Optional.empty();
+			}
+		}
+	};
+	
+	private static final ClassValue<Optional<MethodHandle>> cloneMethods = new ClassValue<Optional<MethodHandle>>() {
+		@Override
+		protected Optional<MethodHandle> computeValue(Class<?> type) {
+			try {
+				MethodHandle cloneMethod = MethodHandles.publicLookup().unreflect(type.getMethod("clone"));
+				return Optional.of(cloneMethod.asType(MethodType.methodType(Object.class, Object.class)));
+			} catch (NoSuchMethodException | SecurityException | IllegalAccessException e) {
+				return Optional.empty();
+			}
+		}
+	};
+	
 	@SuppressWarnings("unchecked")
 	public static <T> T cloneWithCopyConstructor(T obj) {
 		if (obj == null) {
 			return obj;
 		}
+		Optional<MethodHandle> copyConstructor = copyConstructors.get(obj.getClass());
+		if (!copyConstructor.isPresent()) {
+			return null;
+		}
 		try {
-			Constructor<?> copyConstructor = obj.getClass().getConstructor(obj.getClass());
-			return (T) copyConstructor.newInstance(obj);
-			
-		} catch (NoSuchMethodException | SecurityException | InstantiationException |
-				IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+			return (T) copyConstructor.get().invokeExact((Object) obj);
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable e) {
 			e.printStackTrace();
 		}
 		return null;
 	}
 	
+	@SuppressWarnings("unchecked")
+	public static <T> T cloneWithCloneable(T obj) {
+		if (obj == null) {
+			return obj;
+		}
+		Class<?> objClass = obj.getClass();
+		if (objClass.isArray()) {
+			int length = Array.getLength(obj);
+			Object arrayClone = Array.newInstance(objClass.getComponentType(), length);
+			System.arraycopy(obj, 0, arrayClone, 0, length);
+			return (T) arrayClone;
+		}
+		if (!(obj instanceof Cloneable)) {
+			throw new RuntimeException("Class " + objClass.getName() + " does not implement Cloneable");
+		}
+		Optional<MethodHandle> cloneMethod = cloneMethods.get(objClass);
+		if (!cloneMethod.isPresent()) {
+			throw new RuntimeException("Class " + objClass.getName() + " does not have a public clone() method");
+		}
+		try {
+			return (T) cloneMethod.get().invokeExact((Object) obj);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new RuntimeException("Could not clone an instance of " + objClass.getName(), e);
+		}
+	}
+	
 	//For POJOS and simple types
 	public static <T> T cloneUsingSerialization(T obj) {
 		return cloneUsingSerialization(obj, null);
 	}
 	
-	@SuppressWarnings("unchecked")
 	public static <T> T cloneUsingSerialization(T obj, Type typeToken) {
 		if (obj == null) {
 			return obj;
 		}
-		if (typeToken == null) {
-			return (T) gsonDefault.fromJson(gsonDefault.toJson(obj), obj.getClass());
-		}
-		return (T) gsonDefault.fromJson(gsonDefault.toJson(obj), typeToken);
+		TypeAdapter<T> adapter = typeToken == null ? defaultAdapter(obj.getClass()) : defaultAdapter(typeToken);
+		return adapter.fromJsonTree(adapter.toJsonTree(obj));
 	}
 	
 	public static String classAndMethod() {
@@ -1,7 +1,11 @@
 package veve.datastructures.trees;
 
+import java.lang.reflect.Type;
+
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
 
 class GsonInstance {
 	public static Gson gsonDefault = new Gson();
@@ -9,4 +13,26 @@ class GsonInstance {
 			.serializeNulls().setPrettyPrinting().create();
 	public static Gson gsonForTreeToString = new GsonBuilder().serializeNulls().setPrettyPrinting().create();
 	
+	// Adapters used when cloning resolved once per class. Adapters of other types are already
+	// cached by Gson. A ClassValue does not keep the classes from being unloaded.
+	private static final ClassValue<TypeAdapter<?>> adaptersByClass = new ClassValue<TypeAdapter<?>>() {
+		@Override
+		protected TypeAdapter<?> computeValue(Class<?> type) {
+			return gsonDefault.getAdapter(type);
+		}
+	};
+	
+	@SuppressWarnings("unchecked")
+	static <T> TypeAdapter<T> defaultAdapter(Class<?> type) {
+		return (TypeAdapter<T>) adaptersByClass.get(type);
+	}
+	
+	@SuppressWarnings("unchecked")
+	static <T> TypeAdapter<T> defaultAdapter(Type type) {
+		if (type instanceof Class) {
+			return defaultAdapter((Class<?>) type);
+		}
+		return (TypeAdapter<T>) gsonDefault.getAdapter(TypeToken.get(type));
+	}
+	
 }
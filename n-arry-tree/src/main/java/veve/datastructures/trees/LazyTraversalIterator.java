@@ -0,0 +1,198 @@
+package veve.datastructures.trees;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import veve.datastructures.trees.NTreeConstants.TreeTraversalOrder;
+
+/**
+ * Iterator over a node and its descendants that finds each node only when it
+ * is asked for, instead of listing the whole subtree first like
+ * {@link NTreeNode#toList(TreeTraversalOrder)}. It keeps the path from the top
+ * node down to the current node, with an iterator over the children of each
+ * node of the path, so its memory grows with the depth of the tree. Children
+ * are copied and sorted one node at a time for ordered trees.
+ * <p>
+ * Level order traversals go down the tree once per level, visiting only the
+ * nodes above that level, which is the same way {@link NTreeNode#forEachLevelOrder}
+ * visits them. The iterator is fail-fast: it throws a
+ * {@code ConcurrentModificationException} if the tree is changed after the
+ * iterator was created.
+ */
+class LazyTraversalIterator<K extends Comparable<K>,V> implements Iterator<NTreeNode<K,V>> {
+	
+	final NTree<K,V> tree;
+	final NTreeNode<K,V> top;
+	final TreeTraversalOrder traversal;
+	final long expectedModCount;
+	final Deque<NTreeNode<K,V>> path = new ArrayDeque<>();
+	final Deque<Iterator<NTreeNode<K,V>>> childIterators = new ArrayDeque<>();
+	int level;
+	boolean levelStarted;
+	boolean levelHasNodes;
+	NTreeNode<K,V> next;
+	
+	LazyTraversalIterator(NTreeNode<K,V> top, TreeTraversalOrder traversal) {
+		this.tree = top.treeOfBelonging;
+		this.top = top;
+		this.traversal = traversal;
+		this.expectedModCount = this.tree.modCount;
+		if (traversal == TreeTraversalOrder.PRE_ORDER) {
+			this.next = top;
+			push(top, true);
+		}
+		else if (traversal == TreeTraversalOrder.POST_ORDER) {
+			push(top, true);
+		}
+		else if (traversal == TreeTraversalOrder.LEVEL_ORDER) {
+			this.level = 1;
+		}
+		else if (traversal == TreeTraversalOrder.LEVEL_ORDER_FROM_BOTTOM) {
+			this.level = top.height();
+		}
+		else {
+			throw new IllegalArgumentException("Unrecognized TreeTraversalOrder");
+		}
+	}
+	
+	@Override
+	public boolean hasNext() {
+		checkForModification();
+		if (this.next == null) {
+			this.next = findNext();
+		}
+		return this.next != null;
+	}
+	
+	@Override
+	public NTreeNode<K,V> next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		NTreeNode<K,V> node = this.next;
+		this.next = null;
+		return node;
+	}
+	
+	NTreeNode<K,V> findNext() {
+		if (this.traversal == TreeTraversalOrder.PRE_ORDER) {
+			return nextPreOrder();
+		}
+		if (this.traversal == TreeTraversalOrder.POST_ORDER) {
+			return nextPostOrder();
+		}
+		return nextLevelOrder();
+	}
+	
+	NTreeNode<K,V> nextPreOrder() {
+		while (!this.childIterators.isEmpty()) {
+			Iterator<NTreeNode<K,V>> children = this.childIterators.peek();
+			if (children.hasNext()) {
+				NTreeNode<K,V> child = children.next();
+				push(child, true);
+				return child;
+			}
+			pop();
+		}
+		return null;
+	}
+	
+	NTreeNode<K,V> nextPostOrder() {
+		while (!this.childIterators.isEmpty()) {
+			Iterator<NTreeNode<K,V>> children = this.childIterators.peek();
+			if (children.hasNext()) {
+				push(children.next(), true);
+			}
+			else {
+				return pop();
+			}
+		}
+		return null;
+	}
+	
+	// Goes down to the current level once, starting again from the top when a level is done
+	NTreeNode<K,V> nextLevelOrder() {
+		while (true) {
+			if (this.childIterators.isEmpty()) {
+				if (!startNextLevel()) {
+					return null;
+				}
+				if (this.level == 1) {
+					this.levelHasNodes = true;
+					return this.top;
+				}
+				push(this.top, true);
+			}
+			Iterator<NTreeNode<K,V>> children = this.childIterators.peek();
+			if (children.hasNext()) {
+				NTreeNode<K,V> child = children.next();
+				push(child, this.path.size() + 1 < this.level);
+				if (this.path.size() == this.level) {
+					this.levelHasNodes = true;
+					return child;
+				}
+			}
+			else {
+				pop();
+			}
+		}
+	}
+	
+	// Returns false when there are no more levels
+	boolean startNextLevel() {
+		if (this.levelStarted) {
+			if (this.traversal == TreeTraversalOrder.LEVEL_ORDER) {
+				if (!this.levelHasNodes) {
+					return false;
+				}
+				this.level++;
+			}
+			else {
+				this.level--;
+			}
+		}
+		if (this.level < 1) {
+			return false;
+		}
+		this.levelStarted = true;
+		this.levelHasNodes = false;
+		return true;
+	}
+	
+	void push(NTreeNode<K,V> node, boolean withChildren) {
+		this.path.push(node);
+		this.childIterators.push(withChildren ? orderedChildren(node) : Collections.emptyIterator());
+	}
+	
+	NTreeNode<K,V> pop() {
+		this.childIterators.pop();
+		return this.path.pop();
+	}
+	
+	Iterator<NTreeNode<K,V>> orderedChildren(NTreeNode<K,V> node) {
+		if (this.tree.isUnordered()) {
+			return node.readChildren().values().iterator();
+		}
+		List<NTreeNode<K,V>> orderedNodeList = new ArrayList<>(node.readChildren().values());
+		if (this.tree.isNaturalOrdered()) {
+			Collections.sort(orderedNodeList);
+		}
+		else {
+			orderedNodeList.sort(this.tree.nodeComparator);
+		}
+		return orderedNodeList.iterator();
+	}
+	
+	void checkForModification() {
+		if (this.tree.modCount != this.expectedModCount) {
+			throw new ConcurrentModificationException();
+		}
+	}
+	
+}
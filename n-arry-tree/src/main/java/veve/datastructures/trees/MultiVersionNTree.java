@@ -0,0 +1,259 @@
+package veve.datastructures.trees;
+
+import static veve.datastructures.trees.GeneralUtils.argsNotNull;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * A tree with multi-version concurrency control. Every version of the tree is
+ * an immutable {@link PersistentNTree} and the current version is published
+ * through an atomic reference, so readers and writers never wait for each other.
+ * <p>
+ * A reader pins a version with {@link #snapshot()} and reads that version for
+ * as long as it wants, for example to export it or to stream all its nodes,
+ * without seeing the changes published meanwhile. A writer builds the next
+ * version from the current one, copying only the path from the changed node
+ * up to the root, and publishes it with a compare-and-set. If another writer
+ * published first the change is applied again on the newer version. Old
+ * versions are not kept by this object, so they are reclaimed by the garbage
+ * collector as soon as no reader holds a snapshot of them, while the nodes
+ * they share with newer versions stay.
+ * <p>
+ * Nodes are located by their path, which is a {@code List} of the ids of the
+ * nodes from the root down to the node, both included.
+ * 
+ * @param <K> The type of the tree and nodes ids. Must implement {@code Comparable}.
+ * @param <V> The type of the {@code value} property of the nodes. Should be
+ * 			immutable since values are shared between versions of the tree.
+ */
+public final class MultiVersionNTree<K extends Comparable<K>,V> {
+	
+	final AtomicReference<PersistentNTree<K,V>> current;
+	
+	MultiVersionNTree(PersistentNTree<K,V> initial) {
+		this.current = new AtomicReference<>(initial);
+	}
+	
+	//==============================================================================================
+	//	STATIC FACTORY
+	//==============================================================================================
+	
+	/**
+	 * Returns a new empty tree.
+	 * 
+	 * @param treeId the id of the tree
+	 * @return a new tree without a root
+	 */
+	public static <K extends Comparable<K>,V> MultiVersionNTree<K,V> create(K treeId) {
+		argsNotNull(treeId);
+		return new MultiVersionNTree<>(PersistentNTree.create(treeId));
+	}
+	
+	/**
+	 * Returns a new tree whose first version is the provided tree.
+	 * 
+	 * @param tree the first version
+	 * @return a new tree with the provided version
+	 */
+	public static <K extends Comparable<K>,V> MultiVersionNTree<K,V> of(PersistentNTree<K,V> tree) {
+		argsNotNull(tree);
+		return new MultiVersionNTree<>(tree);
+	}
+	
+	/**
+	 * Returns a new tree whose first version is a copy of the provided
+	 * {@link NTree}. Node values are not cloned.
+	 * 
+	 * @param tree the tree to copy
+	 * @return a new tree with a copy of the provided tree
+	 */
+	public static <K extends Comparable<K>,V> MultiVersionNTree<K,V> fromNTree(NTree<K,V> tree) {
+		argsNotNull(tree);
+		return new MultiVersionNTree<>(PersistentNTree.fromNTree(tree));
+	}
+	
+	//==============================================================================================
+	//	READING
+	//==============================================================================================
+	
+	/**
+	 * Returns the current version of the tree. The returned tree never changes,
+	 * so it can be read by any thread for as long as needed.
+	 * 
+	 * @return the current version
+	 */
+	public PersistentNTree<K,V> snapshot() {
+		return this.current.get();
+	}
+	
+	/**
+	 * Applies the provided function to the current version and returns its result.
+	 * 
+	 * @param <R> the type of the result
+	 * @param reader the function that reads the version
+	 * @return the result of the function
+	 */
+	public <R> R read(Function<PersistentNTree<K,V>,R> reader) {
+		argsNotNull(reader);
+		return reader.apply(snapshot());
+	}
+	
+	/**
+	 * Returns the version number of the current version.
+	 * 
+	 * @return the current version number
+	 */
+	public long getVersion() {
+		return snapshot().getVersion();
+	}
+	
+	/**
+	 * Returns the number of nodes of the current version.
+	 * 
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return snapshot().size();
+	}
+	
+	/**
+	 * Returns the node at the provided path in the current version.
+	 * 
+	 * @param path the ids of the nodes from the root down to the node
+	 * @return the node at the path or {@code null} if there is none
+	 */
+	public PersistentNTreeNode<K,V> getNode(List<K> path) {
+		return snapshot().getNode(path);
+	}
+	
+	/**
+	 * Returns a {@code Stream} of the nodes of the current version in preorder.
+	 * Changes published while the stream is consumed are not seen by it.
+	 * 
+	 * @return a {@code Stream} of the nodes of the current version
+	 */
+	public Stream<PersistentNTreeNode<K,V>> stream() {
+		return snapshot().stream();
+	}
+	
+	/**
+	 * Returns a new mutable {@link NTree} copy of the current version.
+	 * 
+	 * @return a mutable copy of the current version
+	 */
+	public NTree<K,V> toNTree() {
+		return snapshot().toNTree();
+	}
+	
+	/**
+	 * Returns the JSON of the current version, in the same format as
+	 * {@link NTree#toJson()}. Writers are not blocked while it is written.
+	 * 
+	 * @return the current version as JSON
+	 */
+	public String toJson() {
+		return toNTree().toJson();
+	}
+	
+	//==============================================================================================
+	//	WRITING
+	//==============================================================================================
+	
+	/**
+	 * Publishes the version returned by the provided function for the current
+	 * version. If another version is published while the function runs, the
+	 * function is applied again to that version, so it can run more than once
+	 * and should not have side effects.
+	 * 
+	 * @param change a function that returns the next version for a version
+	 * @return the published version
+	 */
+	public PersistentNTree<K,V> update(UnaryOperator<PersistentNTree<K,V>> change) {
+		argsNotNull(change);
+		while (true) {
+			PersistentNTree<K,V> version = this.current.get();
+			PersistentNTree<K,V> next = change.apply(version);
+			argsNotNull(next);
+			if (next == version || this.current.compareAndSet(version, next)) {
+				return next;
+			}
+		}
+	}
+	
+	/**
+	 * Publishes the provided version only if the current version is the
+	 * expected one.
+	 * 
+	 * @param expected the version that must be the current one
+	 * @param next the version to publish
+	 * @return {@code true} if the version was published
+	 */
+	public boolean compareAndSet(PersistentNTree<K,V> expected, PersistentNTree<K,V> next) {
+		argsNotNull(expected, next);
+		return this.current.compareAndSet(expected, next);
+	}
+	
+	/**
+	 * Publishes a version where the node at the provided path has the provided value.
+	 * 
+	 * @param path the ids of the nodes from the root down to the node
+	 * @param value the new value of the node
+	 * @return the published version
+	 * @throws RuntimeException if there is no node at the provided path
+	 */
+	public PersistentNTree<K,V> setValue(List<K> path, V value) {
+		argsNotNull(path);
+		return update(tree -> tree.setValue(path, value));
+	}
+	
+	/**
+	 * Publishes a version where the node at the provided path has the provided
+	 * node as a child, replacing the child with the same id if there is one.
+	 * 
+	 * @param parentPath the ids of the nodes from the root down to the parent
+	 * @param child the node to set as a child
+	 * @return the published version
+	 * @throws RuntimeException if there is no node at the provided path
+	 */
+	public PersistentNTree<K,V> setChild(List<K> parentPath, PersistentNTreeNode<K,V> child) {
+		argsNotNull(parentPath, child);
+		return update(tree -> tree.setChild(parentPath, child));
+	}
+	
+	/**
+	 * Publishes a version where the node at the provided path has a new child
+	 * with the provided id and value, unless it already has a child with that id.
+	 * 
+	 * @param parentPath the ids of the nodes from the root down to the parent
+	 * @param id the id of the new child
+	 * @param value the value of the new child. Can be {@code null}
+	 * @return the published version
+	 * @throws RuntimeException if there is no node at the provided path
+	 */
+	public PersistentNTree<K,V> addChild(List<K> parentPath, K id, V value) {
+		argsNotNull(parentPath, id);
+		return update(tree -> tree.addChild(parentPath, id, value));
+	}
+	
+	/**
+	 * Publishes a version without the node at the provided path and its descendants.
+	 * 
+	 * @param path the ids of the nodes from the root down to the node to remove
+	 * @return the published version
+	 * @throws RuntimeException if there is no node at the provided path
+	 */
+	public PersistentNTree<K,V> remove(List<K> path) {
+		argsNotNull(path);
+		return update(tree -> tree.remove(path));
+	}
+	
+	@Override
+	public String toString() {
+		return "MultiVersionNTree [current=" + snapshot() + "]";
+	}
+	
+}
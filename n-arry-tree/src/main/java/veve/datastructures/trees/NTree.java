@@ -8,19 +8,30 @@ import static veve.datastructures.trees.GsonInstance.gsonDefault;
 import static veve.datastructures.trees.GsonInstance.gsonForTreeToString;
 import static veve.datastructures.trees.NTreeConstants.NodeValueCloningMode;
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Type;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -74,7 +85,8 @@ import veve.datastructures.trees.NTreeConstants.TreeTraversalOrder;
  * <p>
  * All methods from {@code NTree} or {@code NTreeNode} that modify the tree will
  * update the indexes also so the indexes are automatically kept in sync with the
- * tree changes.
+ * tree changes. Many changes can be grouped with {@link #batch(Consumer)} so the
+ * indexes are updated once when the batch is committed instead of after each change.
  * <p>
  * The methods of this class that use functional interface arguments convert the
  * lambda function passed to another lambda function that prevents NullPointerException
@@ -91,7 +103,9 @@ import veve.datastructures.trees.NTreeConstants.TreeTraversalOrder;
  * common ancestor between two nodes in a tree plus having other methods to get 
  * all nodes between the path between them and the their common ancestor.
  * <p>
- * This class is not thread safe.
+ * This class is not thread safe. Use {@link ConcurrentNTree} to share a tree
+ * between threads or {@link MultiVersionNTree} for readers that need a
+ * consistent snapshot without blocking writers.
  * 
  * @author Eladio Rodriguez Veve
  * @param <K> The type of the tree and nodes ids. Must implement {@code Comparable}.
@@ -99,16 +113,27 @@ import veve.datastructures.trees.NTreeConstants.TreeTraversalOrder;
  */
 public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>> {
 	
-	String uuid = UUID.randomUUID().toString();
+	CompactUUID uuid = CompactUUID.next();
 	K id;
 	long version = 1;
+	transient volatile long modCount;
+	@SuppressWarnings("rawtypes")
+	static final AtomicLongFieldUpdater<NTree> MOD_COUNT = AtomicLongFieldUpdater.newUpdater(NTree.class, "modCount");
 	NTreeNode<K,V> root;
 	transient Type nodeValueType;
 	NodeValueCloningMode nodeValueCloningMode;
+	transient UnaryOperator<V> nodeValueCloner;
 	@SuppressWarnings("rawtypes")
-	transient Map<String, TreeNodeIndex> indexes = new HashMap<>();
+	transient Map<String, TreeNodeIndex> indexes = new ConcurrentHashMap<>();
 	boolean isOrdered = false;
 	NodeComparator<K,V> nodeComparator;
+	transient SubtreeSearchFilter<K,V,?> searchFilter;
+	transient TreeBatch<K,V> batch;
+	transient List<WeakReference<NTree<K,V>>> copyOnWriteClones;
+	transient boolean isCopyOnWriteClone;
+	// Changed with every change of a copy-on-write clone or of the part of its source it shares
+	transient long copyOnWriteEpoch;
+	transient List<TreeChangeListener<K,V>> changeListeners;
 	
 	//==============================================================================================
 	//	STATIC FACTORY
@@ -166,7 +191,7 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 	 * @return the string UUID unique to this tree
 	 */
 	public String getUUID() {
-		return this.uuid;
+		return this.uuid.toString();
 	}
 	
 	/**
@@ -217,6 +242,19 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 		return this.version;
 	}
 	
+	/**
+	 * Returns the number of changes made to this tree since it was created. The
+	 * count is incremented by every change to the nodes or the root of this tree,
+	 * so two equal counts read from the same tree instance mean the tree did not
+	 * change in between. Unlike the version, it is not copied to clones nor
+	 * serialized.
+	 * 
+	 * @return the modification count of this tree
+	 */
+	public long getModificationCount() {
+		return this.modCount;
+	}
+	
 	//==============================================================================================
 	//	CONFIGURATION
 	//==============================================================================================
@@ -228,6 +266,47 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 	 */
 	public void nodeValueCloningUsesCopyConstructor() {
 		this.nodeValueCloningMode = NodeValueCloningMode.BY_COPY_CONSTRUCTOR;
+		this.nodeValueCloner = null;
+	}
+	
+	/**
+	 * Configures this tree to use the public {@code clone()} method of the value
+	 * property of the nodes when cloning nodes. The class of the value property 
+	 * of the nodes must implement {@code Cloneable} and override {@code clone()}
+	 * as a public method. Arrays are copied shallowly.
+	 */
+	public void nodeValueCloningUsesCloneable() {
+		this.nodeValueCloningMode = NodeValueCloningMode.BY_CLONEABLE;
+		this.nodeValueType = null;
+		this.nodeValueCloner = null;
+	}
+	
+	/**
+	 * Configures this tree to use the provided {@code UnaryOperator} to clone the
+	 * value property of the nodes when cloning nodes. The operator is not called
+	 * for {@code null} values.
+	 * 
+	 * @param nodeValueCloner the {@code UnaryOperator} that returns a copy of the
+	 * 			value passed to it
+	 */
+	public void nodeValueCloningUsesCloner(UnaryOperator<V> nodeValueCloner) {
+		argsNotNull(nodeValueCloner);
+		this.nodeValueCloningMode = NodeValueCloningMode.BY_CUSTOM_CLONER;
+		this.nodeValueType = null;
+		this.nodeValueCloner = nodeValueCloner;
+	}
+	
+	/**
+	 * Configures this tree to not copy the value property of the nodes when 
+	 * cloning nodes, so the clone of a node has the same value instance as the
+	 * original node. This is the fastest option but it should only be used if 
+	 * the values are immutable, since a change in the value of a node would also
+	 * change the value of its clones.
+	 */
+	public void nodeValueCloningSharesValues() {
+		this.nodeValueCloningMode = NodeValueCloningMode.SHARE;
+		this.nodeValueType = null;
+		this.nodeValueCloner = null;
 	}
 	
 	/**
@@ -239,6 +318,7 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 	public void nodeValueCloningUsesSerialization() {
 		this.nodeValueCloningMode = NodeValueCloningMode.BY_SERIALIZATION;
 		this.nodeValueType = null;
+		this.nodeValueCloner = null;
 	}
 	
 	/**
@@ -258,6 +338,7 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 		argsNotNull(nodeValueType);
 		this.nodeValueCloningMode = NodeValueCloningMode.BY_SERIALIZATION;
 		this.nodeValueType = nodeValueType;
+		this.nodeValueCloner = null;
 	}
 	
 	/**
@@ -365,8 +446,10 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 		if (newRoot.treeOfBelonging != this || newRoot.parent != null) {
 			return false;
 		}
+		MOD_COUNT.incrementAndGet(this);
 		this.root = newRoot;
-		recreateIndexes();
+		refreshDerivedState();
+		fireChange(TreeChangeEvent.added(newRoot, null));
 		return true;
 	}
 	
@@ -386,8 +469,10 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 	public NTreeNode<K,V> setRoot(NTreeNode<K,V> node) {
 		argsNotNull(node);
 		if (this.root == null) {
+			MOD_COUNT.incrementAndGet(this);
 			this.root = node.clone(this);
-			recreateIndexes();
+			refreshDerivedState();
+			fireChange(TreeChangeEvent.added(this.root, null));
 			return null;
 		}
 		return this.root.replaceWith(node);
@@ -407,8 +492,10 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 	public NTreeNode<K,V> setRootSingleNode(NTreeNode<K,V> node) {
 		argsNotNull(node);
 		if (this.root == null) {
+			MOD_COUNT.incrementAndGet(this);
 			this.root = node.cloneSingleNode(this);
-			recreateIndexes();
+			refreshDerivedState();
+			fireChange(TreeChangeEvent.added(this.root, null));
 			return null;
 		}
 		return this.root.replaceSingleNodeWith(node);
@@ -418,8 +505,328 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 	 * Sets the root of this tree to null.
 	 */
 	public void clearTree() {
+		if (this.root != null) {
+			beforeDetach(this.root);
+		}
+		NTreeNode<K,V> oldRoot = this.root;
+		MOD_COUNT.incrementAndGet(this);
 		clearAllIndexes();
 		this.root = null;
+		if (oldRoot != null) {
+			fireChange(TreeChangeEvent.removed(oldRoot, null));
+		}
+	}
+	
+	//==============================================================================================
+	//	BULK LOAD
+	//==============================================================================================
+	
+	/**
+	 * Loads the nodes described by the provided records into this tree, which
+	 * must have no root. The records can come in any order. The tree is assembled
+	 * in time linear to the number of records without cloning any node and the
+	 * indexes and the search filter are computed once after all nodes are linked.
+	 * <p>
+	 * The first record with a {@code null} parent id is the root. Since records
+	 * refer to their parent by id, ids must be unique among all the records. A
+	 * record with the same id as a previous record, which includes a duplicate
+	 * id between siblings, is skipped and reported as a duplicate. Records that
+	 * cannot be reached from the root are not loaded and are reported as orphans.
+	 * Neither case stops the load.
+	 * 
+	 * @param records an {@code Iterator} of the records to load
+	 * @return a {@link BulkLoadResult} with the orphan and duplicate records
+	 * @throws RuntimeException if this tree already has a root
+	 */
+	public BulkLoadResult<K,V> bulkLoad(Iterator<NodeRecord<K,V>> records) {
+		argsNotNull(records);
+		if (this.root != null) {
+			throw new RuntimeException("Tree already has a root");
+		}
+		BulkLoadResult<K,V> result = new BulkLoadResult<>();
+		Map<K,NTreeNode<K,V>> nodesById = new HashMap<>();
+		Map<K,List<NTreeNode<K,V>>> childrenByParentId = new HashMap<>();
+		List<NodeRecord<K,V>> loadedRecords = new ArrayList<>();
+		NTreeNode<K,V> newRoot = null;
+		while (records.hasNext()) {
+			NodeRecord<K,V> record = records.next();
+			argsNotNull(record);
+			if (nodesById.containsKey(record.id)) {
+				result.duplicates.add(record);
+				continue;
+			}
+			NTreeNode<K,V> node = new NTreeNode<>(this);
+			node.id = record.id;
+			node.value = record.value;
+			nodesById.put(record.id, node);
+			loadedRecords.add(record);
+			if (record.parentId != null) {
+				childrenByParentId.computeIfAbsent(record.parentId, parentId -> new ArrayList<>()).add(node);
+			}
+			else if (newRoot == null) {
+				newRoot = node;
+			}
+		}
+		if (newRoot != null) {
+			result.numLoaded = linkBulkLoadedNodes(newRoot, childrenByParentId);
+		}
+		for (NodeRecord<K,V> record : loadedRecords) {
+			NTreeNode<K,V> node = nodesById.get(record.id);
+			if (node != newRoot && node.parent == null) {
+				result.orphans.add(record);
+			}
+		}
+		MOD_COUNT.incrementAndGet(this);
+		this.root = newRoot;
+		refreshDerivedState();
+		if (newRoot != null) {
+			fireChange(TreeChangeEvent.added(newRoot, null));
+		}
+		return result;
+	}
+	
+	/**
+	 * Same as {@link #bulkLoad(Iterator)} but takes a {@code Stream} of records.
+	 * 
+	 * @param records a {@code Stream} of the records to load
+	 * @return a {@link BulkLoadResult} with the orphan and duplicate records
+	 * @throws RuntimeException if this tree already has a root
+	 */
+	public BulkLoadResult<K,V> bulkLoad(Stream<NodeRecord<K,V>> records) {
+		argsNotNull(records);
+		return bulkLoad(records.iterator());
+	}
+	
+	// Links level by level the nodes reachable from root and returns how many nodes were linked
+	static <K extends Comparable<K>,V> int linkBulkLoadedNodes(NTreeNode<K,V> root, Map<K,List<NTreeNode<K,V>>> childrenByParentId) {
+		int numLinked = 1;
+		Deque<NTreeNode<K,V>> pending = new ArrayDeque<>();
+		pending.add(root);
+		while (!pending.isEmpty()) {
+			NTreeNode<K,V> node = pending.poll();
+			List<NTreeNode<K,V>> children = childrenByParentId.remove(node.id);
+			if (children == null) {
+				continue;
+			}
+			for (NTreeNode<K,V> child : children) {
+				child.parent = node;
+				node.writableChildren().put(child.id, child);
+				pending.add(child);
+				numLinked++;
+			}
+		}
+		return numLinked;
+	}
+	
+	//==============================================================================================
+	//	BATCH
+	//==============================================================================================
+	
+	/**
+	 * Runs the provided consumer as a batch of changes to this tree. While the 
+	 * batch runs the indexes and the search filter are not updated after each
+	 * change. They are updated once, in a single pass per index, when the batch
+	 * is committed. If the consumer throws an exception the batch is rolled back,
+	 * restoring the tree to the state it had before the batch, and the exception
+	 * is rethrown.
+	 * <p>
+	 * If this tree is already in a batch the consumer runs as part of that batch.
+	 * 
+	 * @param changes a {@code Consumer} that makes changes to this tree
+	 */
+	public void batch(Consumer<NTree<K,V>> changes) {
+		argsNotNull(changes);
+		if (isInBatch()) {
+			changes.accept(this);
+			return;
+		}
+		beginBatch();
+		try {
+			changes.accept(this);
+		} catch (RuntimeException | Error e) {
+			rollbackBatch();
+			throw e;
+		}
+		commitBatch();
+	}
+	
+	/**
+	 * Starts a batch of changes to this tree. Until {@link #commitBatch()} or
+	 * {@link #rollbackBatch()} is called the indexes and the search filter are
+	 * not updated after each change, so the results of
+	 * {@link #nodesInIndexWithKey(String, Object)} can be out of date during
+	 * the batch.
+	 * <p>
+	 * Rolling back restores the ids, values, versions, parents and children of
+	 * the nodes changed during the batch. Changes made to the objects referenced
+	 * by the node values are not rolled back.
+	 * 
+	 * @throws RuntimeException if this tree is already in a batch
+	 */
+	public void beginBatch() {
+		if (isInBatch()) {
+			throw new RuntimeException("Tree is already in a batch");
+		}
+		this.batch = new TreeBatch<>(this);
+	}
+	
+	/**
+	 * Ends the current batch keeping its changes and updates the indexes and the
+	 * search filter of this tree.
+	 * 
+	 * @throws RuntimeException if this tree is not in a batch
+	 */
+	public void commitBatch() {
+		if (!isInBatch()) {
+			throw new RuntimeException("Tree is not in a batch");
+		}
+		TreeBatch<K,V> batch = this.batch;
+		this.batch = null;
+		refreshDerivedState();
+		if (!batch.changeEvents.isEmpty()) {
+			notifyChangeListeners(batch.coalescedChangeEvents());
+		}
+	}
+	
+	/**
+	 * Ends the current batch restoring this tree to the state it had when the 
+	 * batch started.
+	 * 
+	 * @throws RuntimeException if this tree is not in a batch
+	 */
+	public void rollbackBatch() {
+		if (!isInBatch()) {
+			throw new RuntimeException("Tree is not in a batch");
+		}
+		TreeBatch<K,V> batch = this.batch;
+		this.batch = null;
+		MOD_COUNT.incrementAndGet(this);
+		batch.rollback();
+		refreshDerivedState();
+	}
+	
+	/**
+	 * Returns {@code true} if this tree is in a batch of changes.
+	 * 
+	 * @return {@code true} if this tree is in a batch of changes
+	 */
+	public boolean isInBatch() {
+		return this.batch != null;
+	}
+	
+	// Must be called before a node of this tree is changed so the change can be rolled back,
+	// copy-on-write clones copy the node before it changes and the versions are incremented.
+	// Nodes that are not attached to a parent or to the tree as root are being built, so
+	// their versions are not incremented.
+	void beforeChange(NTreeNode<K,V> node) {
+		if (node == null) {
+			return;
+		}
+		if (this.isCopyOnWriteClone) {
+			node.beforeCopyOnWriteChange();
+			this.copyOnWriteEpoch++;
+		}
+		if (this.batch != null) {
+			this.batch.saveState(node);
+		}
+		node.invalidateSubtreeHash();
+		if (this.copyOnWriteClones != null) {
+			copyToCopyOnWriteClones(node, false);
+		}
+		if (node.parent != null || node == this.root) {
+			node.version++;
+		}
+		MOD_COUNT.incrementAndGet(this);
+	}
+	
+	void beforeChange(Collection<NTreeNode<K,V>> nodes) {
+		nodes.forEach(node -> beforeChange(node));
+	}
+	
+	// Must be called before a node and its descendants are taken out of their place in this tree, 
+	// since copy-on-write copies are found by their place in the tree
+	void beforeDetach(NTreeNode<K,V> node) {
+		if (this.isCopyOnWriteClone) {
+			node.attachCopyOnWriteView();
+			node.materializeSubtree();
+			this.copyOnWriteEpoch++;
+		}
+		if (this.copyOnWriteClones != null) {
+			copyToCopyOnWriteClones(node, true);
+		}
+	}
+	
+	//==============================================================================================
+	//	CHANGE LISTENERS
+	//==============================================================================================
+	
+	/**
+	 * Adds a listener that is notified of every node added, removed, moved, 
+	 * whose value is set or whose id is replaced in this tree. Only changes to 
+	 * nodes that are part of this tree are reported, so building a subtree that
+	 * is not yet attached to the tree does not notify the listeners. Changes
+	 * made inside a batch are reported together when the batch is committed.
+	 * <p>
+	 * Listeners are called in the thread making the change, after the change 
+	 * and the update of the indexes. Listeners are not copied to clones.
+	 * 
+	 * @param listener the listener to add
+	 */
+	public void addChangeListener(TreeChangeListener<K,V> listener) {
+		argsNotNull(listener);
+		if (this.changeListeners == null) {
+			this.changeListeners = new CopyOnWriteArrayList<>();
+		}
+		this.changeListeners.add(listener);
+	}
+	
+	/**
+	 * Removes a listener added with {@link #addChangeListener(TreeChangeListener)}.
+	 * 
+	 * @param listener the listener to remove
+	 * @return {@code true} if the listener was removed or {@code false} if it
+	 * 			was not a listener of this tree
+	 */
+	public boolean removeChangeListener(TreeChangeListener<K,V> listener) {
+		argsNotNull(listener);
+		if (this.changeListeners == null || !this.changeListeners.remove(listener)) {
+			return false;
+		}
+		if (this.changeListeners.isEmpty()) {
+			this.changeListeners = null;
+		}
+		return true;
+	}
+	
+	// Returns true if changes to the provided node must be reported to the change listeners.
+	// Must be called before the change since a removed node is no longer part of the tree.
+	boolean reportsChangesOf(NTreeNode<K,V> node) {
+		return this.changeListeners != null && node != null && node.isPartOfTree();
+	}
+	
+	void fireChange(TreeChangeEvent<K,V> event) {
+		fireChange(Collections.singletonList(event));
+	}
+	
+	void fireChange(TreeChangeEvent<K,V> event, TreeChangeEvent<K,V> otherEvent) {
+		fireChange(Arrays.asList(event, otherEvent));
+	}
+	
+	void fireChange(List<TreeChangeEvent<K,V>> events) {
+		if (this.changeListeners == null) {
+			return;
+		}
+		if (this.batch != null) {
+			this.batch.changeEvents.addAll(events);
+			return;
+		}
+		notifyChangeListeners(Collections.unmodifiableList(events));
+	}
+	
+	void notifyChangeListeners(List<TreeChangeEvent<K,V>> events) {
+		if (this.changeListeners != null) {
+			this.changeListeners.forEach(listener -> listener.treeChanged(events));
+		}
 	}
 	
 	//==============================================================================================
@@ -515,7 +922,9 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 	
 	@SuppressWarnings("unchecked")
 	void removeNodeFromAllIndexes(NTreeNode<K,V> node) {
-		this.indexes.forEach((indexName,index) -> index.remove(node));
+		if (this.batch == null) {
+			this.indexes.forEach((indexName,index) -> index.remove(node));
+		}
 	}
 	
 	void removeNodesFromAllIndexes(Collection<NTreeNode<K,V>> nodes) {
@@ -523,12 +932,28 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 	}
 	
 	void clearAllIndexes() {
-		this.indexes.forEach((indexName,index) -> index.clear());
+		if (this.batch == null) {
+			this.indexes.forEach((indexName,index) -> index.clear());
+		}
 	}
 	
 	@SuppressWarnings("unchecked")
 	void putNodeInAllIndexes(NTreeNode<K,V> node) {
-		this.indexes.forEach((indexName,index) -> index.put(node));
+		if (this.batch == null) {
+			this.indexes.forEach((indexName,index) -> index.put(node));
+		}
+	}
+	
+	// Returns false while in a batch, when the indexes and search filter are updated at commit
+	boolean updatesDerivedStateNow() {
+		return this.batch == null;
+	}
+	
+	// Returns true if changing a node also changes state outside of its subtree that is not
+	// safe to change from several threads, like the search filter bits of its ancestors
+	boolean changesStateOutsideSubtree() {
+		return this.searchFilter != null || this.batch != null || this.copyOnWriteClones != null
+				|| (this.changeListeners != null && !this.changeListeners.isEmpty());
 	}
 	
 	void putNodesInAllIndexes(Collection<NTreeNode<K,V>> nodes) {
@@ -537,6 +962,8 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 	
 	/**
 	 * Returns a list of the nodes in an index that are mapped to a key in that index.
+	 * Indexes can be read by any thread while this tree changes. The nodes of
+	 * each key are updated atomically.
 	 * 
 	 * @param <R> the type of the index keys
 	 * @param indexName the name of the index to get the nodes from
@@ -573,6 +1000,219 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 		return nodes.get(0);
 	}
 	
+	//==============================================================================================
+	//	SEARCH FILTER
+	//==============================================================================================
+	
+	/**
+	 * Adds a search filter over the ids of the nodes with
+	 * {@value SubtreeSearchFilter#DEFAULT_BITS_PER_KEY} bits per key. Same as
+	 * {@link #useIdSearchFilter(int)} with that number of bits per key.
+	 */
+	public void useIdSearchFilter() {
+		useIdSearchFilter(SubtreeSearchFilter.DEFAULT_BITS_PER_KEY);
+	}
+	
+	/**
+	 * Adds a search filter over the ids of the nodes. The search filter keeps a
+	 * Bloom filter for each node that summarizes the ids of the node and its
+	 * descendants so {@link #findFirstWithId(Comparable)} can skip whole subtrees
+	 * that do not have a node with the searched id.
+	 * <p>
+	 * The filter of each node is sized for the number of nodes in its subtree
+	 * with the provided bits per key, up to 128 KiB per node. With 10 bits per
+	 * key about 1% of the subtrees without the id are not skipped, so lookups for
+	 * ids that are not in the tree usually stop at the root. Filters of subtrees
+	 * with more keys than the cap allows fill up and skip less.
+	 * <p>
+	 * Only one search filter can be used at a time so this replaces any existing
+	 * search filter. The filter is kept in sync with the tree by all methods that
+	 * modify the tree.
+	 * 
+	 * @param bitsPerKey the number of bits of the filters for each key in their subtree
+	 * @throws RuntimeException if bitsPerKey is not positive
+	 */
+	public void useIdSearchFilter(int bitsPerKey) {
+		useSearchFilter(new SubtreeSearchFilter<K,V,K>(node -> node.id, true, bitsPerKey));
+	}
+	
+	/**
+	 * Adds a search filter over the keys generated by the provided function with
+	 * {@value SubtreeSearchFilter#DEFAULT_BITS_PER_KEY} bits per key. Same as
+	 * {@link #useSearchFilter(Function, int)} with that number of bits per key.
+	 * 
+	 * @param <R> the type of the keys
+	 * @param keyGeneratingFunction the function used to generate the key of each node
+	 */
+	public <R> void useSearchFilter(Function<NTreeNode<K,V>,R> keyGeneratingFunction) {
+		useSearchFilter(keyGeneratingFunction, SubtreeSearchFilter.DEFAULT_BITS_PER_KEY);
+	}
+	
+	/**
+	 * Adds a search filter over the keys generated by the provided function. The
+	 * search filter keeps a Bloom filter for each node that summarizes the keys
+	 * of the node and its descendants so {@link #findFirstWithSearchKey(Object)}
+	 * can skip whole subtrees that do not have a node with the searched key. The
+	 * filters are sized as described in {@link #useIdSearchFilter(int)}.
+	 * <p>
+	 * The keys should only depend on the node they are generated for and not on
+	 * its parent or children. Only one search filter can be used at a time so this
+	 * replaces any existing search filter.
+	 * 
+	 * @param <R> the type of the keys
+	 * @param keyGeneratingFunction the function used to generate the key of each node
+	 * @param bitsPerKey the number of bits of the filters for each key in their subtree
+	 * @throws RuntimeException if bitsPerKey is not positive
+	 */
+	public <R> void useSearchFilter(Function<NTreeNode<K,V>,R> keyGeneratingFunction, int bitsPerKey) {
+		argsNotNull(keyGeneratingFunction);
+		useSearchFilter(new SubtreeSearchFilter<K,V,R>(keyGeneratingFunction, false, bitsPerKey));
+	}
+	
+	void useSearchFilter(SubtreeSearchFilter<K,V,?> searchFilter) {
+		this.searchFilter = searchFilter;
+		recomputeSearchFilter();
+	}
+	
+	/**
+	 * Removes the search filter of this tree if it has one.
+	 */
+	public void dontUseSearchFilter() {
+		this.searchFilter = null;
+		if (this.root != null) {
+			this.root.forEachNodeUnsafeAndDoNotUpdateIndex(TreeTraversalOrder.PRE_ORDER, node -> {
+				node.searchFilterBits = null;
+				node.searchFilterKeys = 0;
+			});
+		}
+	}
+	
+	/**
+	 * Returns {@code true} if this tree has a search filter set with 
+	 * {@link #useIdSearchFilter()} or {@link #useSearchFilter(Function)}.
+	 * 
+	 * @return {@code true} if this tree has a search filter
+	 */
+	public boolean hasSearchFilter() {
+		return this.searchFilter != null;
+	}
+	
+	/**
+	 * Returns the first node whose key generated by the function passed to
+	 * {@link #useSearchFilter(Function)} is equal to the provided key when 
+	 * traversing this tree in a preorder manner to find it. Subtrees that the
+	 * search filter rules out are not traversed.
+	 * 
+	 * @param <R> the type of the keys
+	 * @param key the key of the node to find
+	 * @return the first node found that has the key or {@code null} if no node 
+	 * 			in this tree has the key or the tree is empty
+	 * @throws RuntimeException if this tree has no search filter
+	 */
+	public <R> NTreeNode<K,V> findFirstWithSearchKey(R key) {
+		argsNotNull(key);
+		if (this.searchFilter == null) {
+			throw new RuntimeException("Tree has no search filter");
+		}
+		if (this.root == null) {
+			return null;
+		}
+		return this.root.findFirstWithSearchKey(key);
+	}
+	
+	void recomputeSearchFilter() {
+		if (this.searchFilter != null && this.root != null && this.batch == null) {
+			this.searchFilter.computeSubtree(this.root);
+		}
+	}
+	
+	void searchFilterAddSubtree(NTreeNode<K,V> node) {
+		if (this.searchFilter != null && this.batch == null) {
+			this.searchFilter.addSubtree(node);
+		}
+	}
+	
+	void searchFilterAddMovedSubtree(NTreeNode<K,V> node) {
+		if (this.searchFilter != null && this.batch == null) {
+			this.searchFilter.addMovedSubtree(node);
+		}
+	}
+	
+	void searchFilterKeyChanged(NTreeNode<K,V> node) {
+		if (this.searchFilter != null && this.batch == null) {
+			this.searchFilter.keyChanged(node);
+		}
+	}
+	
+	void searchFilterNodeReplaced(NTreeNode<K,V> node, NTreeNode<K,V> replacement) {
+		if (this.searchFilter != null && this.batch == null) {
+			this.searchFilter.nodeReplaced(node, replacement);
+		}
+	}
+	
+	// Copies the nodes of a copy-on-write clone that are not copied yet, for the indexes and
+	// the search filter that keep the nodes and for concurrent trees
+	void materializeCopyOnWrite() {
+		if (this.isCopyOnWriteClone && this.root != null) {
+			this.root.materializeSubtree();
+		}
+	}
+	
+	// Node uuids are created when first needed, so the missing ones are created before writing them
+	void prepareForJson() {
+		if (this.root != null) {
+			this.root.prepareSubtreeForJson();
+		}
+	}
+	
+	/**
+	 * Recomputes the indexes and the search filter after actions that could have
+	 * changed the nodes without going through the methods that keep them in sync.
+	 */
+	void refreshDerivedState() {
+		if (this.batch == null) {
+			recreateIndexes();
+			recomputeSearchFilter();
+		}
+	}
+	
+	//==============================================================================================
+	//	DIFF AND PATCH
+	//==============================================================================================
+	
+	/**
+	 * Returns the edits that turn this tree into the provided tree. Nodes of 
+	 * both trees are matched by uuid, so a tree and a copy of it deserialized
+	 * from JSON are matched node by node, and the nodes left are matched by 
+	 * their path of ids. Matched nodes are moved, get their id replaced or 
+	 * their value set when needed, the other nodes are added or removed. Values
+	 * are compared with {@code equals}.
+	 * <p>
+	 * Neither tree is changed. Applying the returned patch to this tree, or to 
+	 * a tree equal to it, makes it equal to the provided tree.
+	 * 
+	 * @param target the tree to turn this tree into
+	 * @return a {@link TreePatch} with the edits
+	 */
+	public TreePatch<K,V> diff(NTree<K,V> target) {
+		argsNotNull(target);
+		return TreeDiff.diff(this, target);
+	}
+	
+	/**
+	 * Applies the edits of a {@link TreePatch} created with {@link #diff(NTree)}
+	 * to this tree. The edits are applied in a batch, so if one of them cannot
+	 * be applied, because this tree is not equal to the tree the patch was 
+	 * created from, the previous edits are rolled back.
+	 * 
+	 * @param patch the patch to apply
+	 * @throws RuntimeException if an edit cannot be applied
+	 */
+	public void apply(TreePatch<K,V> patch) {
+		argsNotNull(patch);
+		patch.applyTo(this);
+	}
+	
 	//==============================================================================================
 	//	SERIALIZATION
 	//==============================================================================================
@@ -584,11 +1224,15 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 	 * @return a JSON String representing this tree
 	 */
 	public String toJson() {
+		prepareForJson();
 		return gsonDefault.toJson(this);
 	}
 	
 	/**
 	 * Creates and returns a {@link NTree} given a JSON string representation of a NTree. 
+	 * The cloner set with {@link #nodeValueCloningUsesCloner(UnaryOperator)} is 
+	 * not included in the JSON string, so a tree that used one clones node values
+	 * with the default mode until a cloner is set again.
 	 * 
 	 * @return a NTree instance that matches with its JSON representation
 	 */
@@ -596,9 +1240,14 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 	public static <K extends Comparable<K>,V> NTree<K,V> fromJson(String json, Class<K> idClass,  Type nodeValueType) {
 		argsNotNull(json, idClass, nodeValueType);
 		NTree<K,V> tree = gsonDefault.fromJson(json, TypeToken.getParameterized(NTree.class, idClass, nodeValueType).getType());
+		tree.indexes = new ConcurrentHashMap<>();
+		tree.root.treeOfBelonging = tree;
 		tree.root.reassignMissingReferences(tree.root, tree);
 		tree.root.parent = new NTreeNode<K,V>(tree);
 		tree.nodeValueType = nodeValueType;
+		if (tree.nodeValueCloningMode == NodeValueCloningMode.BY_CUSTOM_CLONER && tree.nodeValueCloner == null) {
+			tree.nodeValueCloningMode = null;
+		}
 		return tree;
 	}
 	
@@ -801,17 +1450,14 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 	public NTree<K,V> clone(K id) {
 		argsNotNull(id);
 		NTree<K,V> clone = new NTree<K,V>(id);
-		clone.nodeValueCloningMode = this.nodeValueCloningMode;
-		clone.nodeValueType = this.nodeValueType;
+		copyConfigurationTo(clone);
 		clone.root = this.root.clone(clone);
-		clone.version = this.version;
-		clone.isOrdered = this.isOrdered;
-		if (this.nodeComparator != null) {
-			clone.nodeComparator = new NodeComparator<>(this.nodeComparator.compareBiFunction);
-		}
-		Map<String, TreeNodeIndex> clonedIndexes = new HashMap<>();
+		Map<String, TreeNodeIndex> clonedIndexes = new ConcurrentHashMap<>();
 		this.indexes.forEach((name, index) -> clonedIndexes.put(name, index.cloneIndex(clone)));
 		clone.indexes = clonedIndexes;
+		if (this.searchFilter != null) {
+			clone.useSearchFilter(this.searchFilter.copy());
+		}
 		return clone;
 	}
 	
@@ -825,6 +1471,129 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 		return clone(this.id);
 	}
 	
+	/**
+	 * Returns a new tree which is a copy-on-write clone of this tree with a 
+	 * different id. Creating it takes constant time since at first the clone only
+	 * copies the root. Reading the clone does not copy anything: the nodes of
+	 * the parts not copied yet are returned as views of this tree. A node of the
+	 * clone is copied, with the nodes on the path from the root to it, when it is
+	 * changed, and a node of this tree that is about to be changed is first copied
+	 * to the clone, so changes to either tree are not seen by the other one and
+	 * memory grows only with the nodes changed. A view that is changed becomes
+	 * the node of the clone and other views of the same node follow its changes
+	 * when they are changed or their children are read.
+	 * <p>
+	 * Node values are shared with this tree and cloned according to the
+	 * nodeValueCloningMode of this tree when the node of the clone holding them
+	 * is changed. Changing a value of this tree in place, through the object 
+	 * returned by {@link NTreeNode#getValue()}, is not detected, so use 
+	 * {@link NTreeNode#setValue(Object)} or immutable values while a 
+	 * copy-on-write clone is in use. Moving or removing nodes of either tree
+	 * copies the affected subtree to the clone first. Indexes and the search
+	 * filter are not copied; adding them to the clone copies all of it.
+	 * 
+	 * @param id the id of the cloned tree
+	 * @return a copy-on-write clone of this tree with the provided id
+	 */
+	public NTree<K,V> copyOnWriteClone(K id) {
+		argsNotNull(id);
+		NTree<K,V> clone = new NTree<K,V>(id);
+		copyConfigurationTo(clone);
+		clone.isCopyOnWriteClone = true;
+		clone.copyOnWriteEpoch = 1;
+		if (this.root != null) {
+			clone.root = this.root.copyOnWriteCopy(clone, null);
+			if (this.copyOnWriteClones == null) {
+				this.copyOnWriteClones = new LinkedList<>();
+			}
+			this.copyOnWriteClones.add(new WeakReference<>(clone));
+		}
+		return clone;
+	}
+	
+	/**
+	 * Same as {@link #copyOnWriteClone(Comparable)} but the clone has the same id
+	 * as this tree.
+	 * 
+	 * @return a copy-on-write clone of this tree
+	 */
+	public NTree<K,V> copyOnWriteClone() {
+		return copyOnWriteClone(this.id);
+	}
+	
+	/**
+	 * Returns an immutable copy of this tree that keeps its nodes in arrays in
+	 * preorder instead of in node objects, for trees that are built once and
+	 * then only read. Traversals, searches, level queries and ancestor checks
+	 * on the returned {@link FrozenNTree} read the arrays sequentially and the
+	 * order between children is the traversal order of this tree at the time it
+	 * is frozen. Node values are not cloned and later changes to this tree are
+	 * not seen by the frozen copy.
+	 * 
+	 * @return an array backed immutable copy of this tree
+	 */
+	public FrozenNTree<K,V> freeze() {
+		return new FrozenNTree<>(this);
+	}
+	
+	void copyConfigurationTo(NTree<K,V> clone) {
+		clone.nodeValueCloningMode = this.nodeValueCloningMode;
+		clone.nodeValueType = this.nodeValueType;
+		clone.nodeValueCloner = this.nodeValueCloner;
+		clone.version = this.version;
+		clone.isOrdered = this.isOrdered;
+		if (this.nodeComparator != null) {
+			clone.nodeComparator = new NodeComparator<>(this.nodeComparator.compareBiFunction);
+		}
+	}
+	
+	// Copies to each copy-on-write clone the node that corresponds to the provided node of this tree
+	void copyToCopyOnWriteClones(NTreeNode<K,V> node, boolean wholeSubtree) {
+		Iterator<WeakReference<NTree<K,V>>> iterator = this.copyOnWriteClones.iterator();
+		while (iterator.hasNext()) {
+			NTree<K,V> clone = iterator.next().get();
+			if (clone == null) {
+				iterator.remove();
+				continue;
+			}
+			NTreeNode<K,V> counterpart = clone.copyOnWriteCounterpart(this, node);
+			if (counterpart != null) {
+				clone.copyOnWriteEpoch++;
+			}
+			if (counterpart != null && wholeSubtree) {
+				counterpart.materializeSubtree();
+			}
+			else if (counterpart != null) {
+				counterpart.children();
+			}
+		}
+		if (this.copyOnWriteClones.isEmpty()) {
+			this.copyOnWriteClones = null;
+		}
+	}
+	
+	// Returns the node of this copy-on-write clone that was copied from the provided node of the source tree
+	NTreeNode<K,V> copyOnWriteCounterpart(NTree<K,V> source, NTreeNode<K,V> sourceNode) {
+		if (this.root == null || source.root == null || this.root.copyOnWriteOrigin != source.root) {
+			return null;
+		}
+		LinkedList<NTreeNode<K,V>> path = new LinkedList<>();
+		for (NTreeNode<K,V> curr = sourceNode; curr != source.root; curr = curr.parent) {
+			if (curr == null) {
+				return null;
+			}
+			path.addFirst(curr);
+		}
+		NTreeNode<K,V> counterpart = this.root;
+		for (NTreeNode<K,V> sourcePathNode : path) {
+			counterpart = counterpart.childCopiedFrom(sourcePathNode);
+			if (counterpart == null) {
+				return null;
+			}
+		}
+		return counterpart;
+	}
+	
 	/**
 	 * Traverses this tree and performs an action for each node. The tree is 
 	 * traversed in the order specified by the provided {@code TreeTraversalOrder} 
@@ -843,6 +1612,42 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 		}
 	}
 	
+	/**
+	 * Runs an asynchronous action for each node of this tree. Same as 
+	 * {@link NTreeNode#forEachNodeAsync(TreeTraversalOrder, Function)} on the root.
+	 * 
+	 * @param traversal the order in which the actions are started
+	 * @param action a function that starts the action of a node and returns its stage
+	 * @return a future completed when all the actions finish, completed at once
+	 * 			if this tree is empty
+	 */
+	public CompletableFuture<Void> forEachNodeAsync(TreeTraversalOrder traversal, Function<NTreeNode<K,V>, CompletionStage<?>> action) {
+		return forEachNodeAsync(traversal, action, AsyncTraversal.DEFAULT_MAX_CONCURRENCY, false);
+	}
+	
+	/**
+	 * Runs an asynchronous action for each node of this tree with at most 
+	 * {@code maxConcurrency} actions running at the same time. Same as 
+	 * {@link NTreeNode#forEachNodeAsync(TreeTraversalOrder, Function, int, boolean)}
+	 * on the root.
+	 * 
+	 * @param traversal the order in which the actions are started
+	 * @param action a function that starts the action of a node and returns its stage
+	 * @param maxConcurrency the maximum number of actions running at the same time
+	 * @param parentsBeforeChildren {@code true} to start the action of a node after
+	 * 			the action of its parent finished
+	 * @return a future completed when all the actions finish, completed at once
+	 * 			if this tree is empty
+	 */
+	public CompletableFuture<Void> forEachNodeAsync(TreeTraversalOrder traversal, Function<NTreeNode<K,V>, CompletionStage<?>> action,
+			int maxConcurrency, boolean parentsBeforeChildren) {
+		argsNotNull(traversal, action);
+		if (this.root == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+		return this.root.forEachNodeAsync(traversal, action, maxConcurrency, parentsBeforeChildren);
+	}
+	
 	/**
 	 * Traverses this tree and performs an action for each node. The tree is 
 	 * traversed in a preorder manner. The traversal order between children is 
@@ -941,6 +1746,25 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 		return toList(TreeTraversalOrder.PRE_ORDER).stream();
 	}
 	
+	/**
+	 * Returns a {@link Flow.Publisher} of the nodes of this tree in the provided
+	 * traversal order. The nodes are not listed beforehand: each subscriber
+	 * traverses the tree as it requests more nodes, so the memory used stays
+	 * proportional to the depth of the tree whatever the size of the tree or the
+	 * speed of the subscriber, and a cancelled subscriber stops the traversal.
+	 * <p>
+	 * Nodes are delivered on the thread that calls {@code request} on the
+	 * subscription. The subscriber gets a {@code ConcurrentModificationException}
+	 * through {@code onError} if this tree is changed after it subscribed.
+	 * 
+	 * @param traversal the traversal order of the published nodes
+	 * @return a {@code Publisher} of the nodes in this tree
+	 */
+	public Flow.Publisher<NTreeNode<K,V>> publisher(TreeTraversalOrder traversal) {
+		argsNotNull(traversal);
+		return new TreeNodePublisher<>(this, traversal);
+	}
+	
 	/**
 	 * Returs true if the passed {code NTree} is a clone of this tree. This
 	 * method checks other things that the overridden equals method does not. It
@@ -1112,6 +1936,7 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 	 */
 	@Override
 	public String toString() {
+		prepareForJson();
 		return gsonForTreeToString.toJson(this);
 	}
 	
@@ -1130,5 +1955,16 @@ public class NTree<K extends Comparable<K>,V> implements Iterable<NTreeNode<K,V>
 		return toList().iterator();
 	}
 	
+	/**
+	 * Same as {@link #iterator()} but the returned iterator is fail-fast: it 
+	 * throws a {@code ConcurrentModificationException} if this tree is changed
+	 * after the iterator was created, which {@link #iterator()} allows.
+	 * 
+	 * @return a fail-fast {@code Iterator} over the nodes in this tree
+	 */
+	public Iterator<NTreeNode<K,V>> failFastIterator() {
+		return new FailFastIterator<>(this, iterator());
+	}
+	
 }
   
\ No newline at end of file
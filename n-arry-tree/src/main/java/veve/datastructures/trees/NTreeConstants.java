@@ -7,12 +7,16 @@ public class NTreeConstants {
 	
 	/**
 	 * Used to determine the way the value property of a node is cloned. This 
-	 * can be either using the copy constructor of the class of the node value or
-	 * using serialization.
+	 * can be either using the copy constructor of the class of the node value,
+	 * using serialization, using {@code clone()} of a {@code Cloneable} value,
+	 * using a custom cloner or not copying the value at all.
 	 * <p>
 	 * The options are:<br>
 	 * {@link #BY_COPY_CONSTRUCTOR}<br>
-	 * {@link #BY_SERIALIZATION}
+	 * {@link #BY_SERIALIZATION}<br>
+	 * {@link #BY_CLONEABLE}<br>
+	 * {@link #BY_CUSTOM_CLONER}<br>
+	 * {@link #SHARE}
 	 */
 	public static enum NodeValueCloningMode {
 		/**
@@ -24,7 +28,22 @@ public class NTreeConstants {
 		 * For cloning NTreeNode.value property using serialization and 
 		 * deserialization to and from JSON.
 		 */
-		BY_SERIALIZATION;
+		BY_SERIALIZATION,
+		/**
+		 * For cloning NTreeNode.value property using the public {@code clone()}
+		 * method of a value that implements {@code Cloneable}.
+		 */
+		BY_CLONEABLE,
+		/**
+		 * For cloning NTreeNode.value property using the {@code UnaryOperator}
+		 * passed to {@link NTree#nodeValueCloningUsesCloner(java.util.function.UnaryOperator)}.
+		 */
+		BY_CUSTOM_CLONER,
+		/**
+		 * For not cloning NTreeNode.value property so the clone of a node shares
+		 * the value with the original node. Only meant for immutable values.
+		 */
+		SHARE;
 	}
 	
 	/**
@@ -65,4 +84,85 @@ public class NTreeConstants {
 		LEVEL_ORDER_FROM_BOTTOM;
 	}
 	
+	/**
+	 * The type of a change to a tree reported to a {@link TreeChangeListener} 
+	 * by a {@link TreeChangeEvent}.
+	 * <p>
+	 * The options are:<br>
+	 * {@link #NODE_ADDED}<br>
+	 * {@link #NODE_REMOVED}<br>
+	 * {@link #NODE_MOVED}<br>
+	 * {@link #VALUE_CHANGED}<br>
+	 * {@link #ID_REPLACED}
+	 */
+	public static enum TreeChangeType {
+		/**
+		 * A node was added to the tree together with its descendants.
+		 */
+		NODE_ADDED,
+		/**
+		 * A node was removed from the tree together with its descendants.
+		 */
+		NODE_REMOVED,
+		/**
+		 * A node and its descendants changed parent inside the same tree.
+		 */
+		NODE_MOVED,
+		/**
+		 * The value property of a node was set.
+		 */
+		VALUE_CHANGED,
+		/**
+		 * The id of a node was replaced.
+		 */
+		ID_REPLACED;
+	}
+	
+	/**
+	 * Used to determine how a consumer of a {@link TreeChangeRingBuffer} waits 
+	 * for new records and how the producer waits for a lagging consumer.
+	 * <p>
+	 * The options are:<br>
+	 * {@link #BUSY_SPIN}<br>
+	 * {@link #YIELDING}<br>
+	 * {@link #PARKING}
+	 */
+	public static enum RingBufferWaitStrategy {
+		/**
+		 * For spinning on the CPU. Lowest latency but keeps a core busy.
+		 */
+		BUSY_SPIN,
+		/**
+		 * For spinning a few times and then yielding the thread.
+		 */
+		YIELDING,
+		/**
+		 * For parking the thread for a short time between checks. Highest 
+		 * latency but uses almost no CPU while waiting.
+		 */
+		PARKING;
+	}
+	
+	/**
+	 * Used to determine what a {@link TreeChangeRingBuffer} does when it is 
+	 * full because a consumer lags behind.
+	 * <p>
+	 * The options are:<br>
+	 * {@link #BLOCK_PRODUCER}<br>
+	 * {@link #OVERWRITE_OLDEST}
+	 */
+	public static enum RingBufferOverflowPolicy {
+		/**
+		 * For making the thread that changes the tree wait until the slowest 
+		 * consumer frees a slot. No record is lost.
+		 */
+		BLOCK_PRODUCER,
+		/**
+		 * For never making the thread that changes the tree wait. The oldest 
+		 * records are overwritten and a consumer that lags more than the 
+		 * capacity of the buffer skips them, counting them as missed.
+		 */
+		OVERWRITE_OLDEST;
+	}
+	
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package veve.datastructures.trees;
 
 import static veve.datastructures.trees.GeneralUtils.argsNotNull;
 import static veve.datastructures.trees.GeneralUtils.cloneUsingSerialization;
+import static veve.datastructures.trees.GeneralUtils.cloneWithCloneable;
 import static veve.datastructures.trees.GeneralUtils.cloneWithCopyConstructor;
 import static veve.datastructures.trees.GeneralUtils.safeBiPredicate;
 import static veve.datastructures.trees.GeneralUtils.safeConsumer;
@@ -30,8 +31,10 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
@@ -79,7 +82,9 @@ import veve.datastructures.trees.NTreeConstants.NodeValueCloningMode;
  * common ancestor between two nodes in a tree plus having other methods to get 
  * all nodes between the path between them and the their common ancestor.
  * <p>
- * This class is not thread safe.
+ * This class is not thread safe, except for the version conditional methods
+ * like {@link #setValueIfVersion(long, Object)} which can be called by 
+ * different threads on nodes of the same tree.
  * 
  * @author Eladio Rodriguez Veve
  * @param <K> The type of the nodes id. Must implement {@code Comparable}.
@@ -90,10 +95,36 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	K id;
 	V value;
 	long version = 1;
-	@GsonIgnore Map<K,NTreeNode<K,V>> children = new HashMap<K,NTreeNode<K,V>>(); 
+	// Leaves share an empty map, so children are added through writableChildren()
+	@GsonIgnore Map<K,NTreeNode<K,V>> children = CompactChildMap.empty();
 	transient NTreeNode<K,V> parent;
 	transient NTree<K,V> treeOfBelonging;
-	String uuid = UUID.randomUUID().toString();
+	// Created the first time the identity of this node is needed
+	volatile CompactUUID uuid;
+	transient long[] searchFilterBits;
+	transient int searchFilterKeys;
+	// Node this node was copied from by a copy-on-write clone. Set while the children are not yet copied.
+	transient NTreeNode<K,V> copyOnWriteSource;
+	transient NTreeNode<K,V> copyOnWriteOrigin;
+	// Set while the value is the one of the source node, it is cloned before this node is changed
+	transient boolean copyOnWriteSharesValue;
+	// Zero for nodes that are part of their tree. A node of a copy-on-write clone returned by a read
+	// is a view of the source that is not part of the clone, and keeps the epoch of the clone it
+	// was created in, so it is resolved through the clone once the clone or the source changed.
+	transient long copyOnWriteEpoch;
+	// Hash of the id, value and descendants. If a node has it all its descendants have it too.
+	// The flag is volatile so readers holding a shared lock that see it set also see the hash.
+	transient int subtreeHash;
+	transient volatile boolean hasSubtreeHash;
+	// Created the first time the subtree of this node is locked by a ConcurrentNTree
+	transient volatile SubtreeLock subtreeLock;
+	
+	@SuppressWarnings("rawtypes")
+	static final AtomicReferenceFieldUpdater<NTreeNode, CompactUUID> NODE_UUID =
+			AtomicReferenceFieldUpdater.newUpdater(NTreeNode.class, CompactUUID.class, "uuid");
+	// Set while a ConcurrentNTree runs a query without a lock. Such a run can read the tree in the
+	// middle of a change, so the hashes it computes are not cached.
+	static final ThreadLocal<Boolean> IN_OPTIMISTIC_READ = ThreadLocal.withInitial(() -> false);
 	
 	//==============================================================================================
 	//	CONSTRUCTORS, GETTERS AND SETTERS
@@ -146,18 +177,30 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		if (this.id.equals(newId)) {
 			return false;
 		}
+		K oldId = this.id;
+		boolean reportsChange = this.treeOfBelonging.reportsChangesOf(this);
 		if (isRoot() || this.parent == null) {
+			this.treeOfBelonging.beforeChange(this);
 			this.id = newId;
 			this.treeOfBelonging.putNodesInAllIndexes(this.nodeAndConnectedNodes());
+			this.treeOfBelonging.searchFilterKeyChanged(this);
+			if (reportsChange) {
+				this.treeOfBelonging.fireChange(TreeChangeEvent.idReplaced(this, oldId));
+			}
 			return true;
 		}
 		if (this.siblingsMap().containsKey(newId)) {
 			return false;
 		}
-		this.parent.children.remove(this.id);
+		this.treeOfBelonging.beforeChange(Arrays.asList(this, this.parent));
+		this.parent.children().remove(this.id);
 		this.id = newId;
-		this.parent.children.put(this.id, this);
+		this.parent.writableChildren().put(this.id, this);
 		this.treeOfBelonging.putNodesInAllIndexes(this.nodeAndConnectedNodes());
+		this.treeOfBelonging.searchFilterKeyChanged(this);
+		if (reportsChange) {
+			this.treeOfBelonging.fireChange(TreeChangeEvent.idReplaced(this, oldId));
+		}
 		return true;
 	}
 	
@@ -170,14 +213,33 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		return this.id;
 	}
 	
+	/**
+	 * Returns the version of this node. Nodes start with a version of 1 which
+	 * is incremented each time the node is changed while it is attached to a 
+	 * parent or is the root of its tree. Changes to the id, value, parent or 
+	 * children of the node count as changes.
+	 * 
+	 * @return the version of this node
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+	
 	/**
 	 * Sets the value property of this node.
 	 * 
 	 * @param value the value for this node's value property. It can be {@code null}.
 	 */
 	public NTreeNode<K,V> setValue(V value) {
+		V oldValue = this.value;
+		boolean reportsChange = this.treeOfBelonging.reportsChangesOf(this);
+		this.treeOfBelonging.beforeChange(this);
 		this.value = value;
 		this.treeOfBelonging.putNodesInAllIndexes(this.nodeAndConnectedNodes());
+		this.treeOfBelonging.searchFilterKeyChanged(this);
+		if (reportsChange) {
+			this.treeOfBelonging.fireChange(TreeChangeEvent.valueChanged(this, oldValue, value));
+		}
 		return this;
 	}
 	
@@ -202,14 +264,24 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	
 	/**
 	 * Returns the string UUID of this node. Each node has a unique UUID which 
-	 * is automatically generated when a node is instantiated or cloned. 
-	 * Serialization and deserialization to and from JSON does not create a new 
-	 * UUID.
+	 * is automatically generated the first time it is needed, so a clone gets a
+	 * new one. Serialization and deserialization to and from JSON does not 
+	 * create a new UUID.
 	 * 
 	 * @return the string UUID unique to this tree
 	 */
 	public String getUUID() {
-		return this.uuid;
+		return uuid().toString();
+	}
+	
+	// Every read of the identity of a node must go through this method so it is created when missing
+	CompactUUID uuid() {
+		CompactUUID uuid = this.uuid;
+		if (uuid == null) {
+			NODE_UUID.compareAndSet(this, null, CompactUUID.next());
+			uuid = this.uuid;
+		}
+		return uuid;
 	}
 	
 	//==============================================================================================
@@ -238,16 +310,25 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		if (other == this || isBastardNode()) {
 			return null;
 		}
+		NTree<K,V> tree = this.treeOfBelonging;
 		if (isRoot()) {
 			NTreeNode<K,V> otherClone = other.cloneSingleNode(this.treeOfBelonging);
-			this.children.forEach((id,child) -> {
-				otherClone.children.put(id, child);
+			boolean reportsChange = tree.reportsChangesOf(this);
+			this.treeOfBelonging.beforeDetach(this);
+			this.treeOfBelonging.beforeChange(this);
+			this.treeOfBelonging.beforeChange(this.children().values());
+			this.children().forEach((id,child) -> {
+				otherClone.writableChildren().put(id, child);
 				child.parent = otherClone;
 			});
 			this.treeOfBelonging.root = otherClone;
 			this.treeOfBelonging.removeNodeFromAllIndexes(this);
 			this.treeOfBelonging.putNodeInAllIndexes(otherClone);
-			this.treeOfBelonging.putNodesInAllIndexes(this.children.values());
+			this.treeOfBelonging.putNodesInAllIndexes(this.children().values());
+			this.treeOfBelonging.searchFilterNodeReplaced(this, otherClone);
+			if (reportsChange) {
+				tree.fireChange(singleNodeReplacementEvents(otherClone));
+			}
 			return this.nullRefs();
 		}
 		if (siblingsMap().containsKey(other.id)) {
@@ -255,19 +336,36 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		}
 		NTreeNode<K,V> otherClone = other.cloneSingleNode(this.treeOfBelonging);
 		otherClone.parent = this.parent;
-		this.children.forEach((id,child) -> {
-			otherClone.children.put(id, child);
+		boolean reportsChange = tree.reportsChangesOf(this);
+		this.treeOfBelonging.beforeDetach(this);
+		this.treeOfBelonging.beforeChange(Arrays.asList(this, this.parent));
+		this.treeOfBelonging.beforeChange(this.children().values());
+		this.children().forEach((id,child) -> {
+			otherClone.writableChildren().put(id, child);
 			child.parent = otherClone;
 		});
-		this.parent.children.remove(this.id);
-		this.parent.children.put(otherClone.id, otherClone);
+		this.parent.children().remove(this.id);
+		this.parent.writableChildren().put(otherClone.id, otherClone);
 		this.treeOfBelonging.removeNodeFromAllIndexes(this);
 		this.treeOfBelonging.putNodeInAllIndexes(this.parent);
 		this.treeOfBelonging.putNodeInAllIndexes(otherClone);
-		this.treeOfBelonging.putNodesInAllIndexes(this.children.values());
+		this.treeOfBelonging.putNodesInAllIndexes(this.children().values());
+		this.treeOfBelonging.searchFilterNodeReplaced(this, otherClone);
+		if (reportsChange) {
+			tree.fireChange(singleNodeReplacementEvents(otherClone));
+		}
 		return this.nullRefs();
 	}
 	
+	List<TreeChangeEvent<K,V>> singleNodeReplacementEvents(NTreeNode<K,V> replacement) {
+		List<TreeChangeEvent<K,V>> events = new ArrayList<>();
+		NTreeNode<K,V> parent = replacement.isRoot() ? null : replacement.parent;
+		events.add(TreeChangeEvent.removed(this, parent));
+		events.add(TreeChangeEvent.added(replacement, parent));
+		replacement.children().values().forEach(child -> events.add(TreeChangeEvent.moved(child, this, replacement)));
+		return events;
+	}
+	
 	/**
 	 * Replaces this node and its descendants in a node hierarchy or tree with 
 	 * another node and its descendants. The node passed will not be changed and
@@ -286,11 +384,18 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		if (other == this || isBastardNode()) {
 			return null;
 		}
+		NTree<K,V> tree = this.treeOfBelonging;
 		if (isRoot()) {
+			boolean reportsChange = tree.reportsChangesOf(this);
+			this.treeOfBelonging.beforeDetach(this);
+			this.treeOfBelonging.beforeChange(this);
 			this.treeOfBelonging.root = other.clone(this.treeOfBelonging);
 			this.treeOfBelonging.root.parent = new NTreeNode<K,V>(this.treeOfBelonging);
-			this.treeOfBelonging.recreateIndexes();
+			this.treeOfBelonging.refreshDerivedState();
 			this.parent = null;
+			if (reportsChange) {
+				tree.fireChange(TreeChangeEvent.removed(this, null), TreeChangeEvent.added(tree.root, null));
+			}
 			return this;
 		}
 		if (siblingsMap().containsKey(other.id)) {
@@ -298,11 +403,20 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		}
 		NTreeNode<K,V> clone = other.clone(this.treeOfBelonging);
 		clone.parent = this.parent;
-		this.parent.children.remove(this.id);
-		this.parent.children.put(clone.id, clone);
-		this.treeOfBelonging.removeNodesFromAllIndexes(toList());
-		this.treeOfBelonging.putNodesInAllIndexes(clone.toList());
-		this.treeOfBelonging.putNodeInAllIndexes(clone.parent);
+		boolean reportsChange = tree.reportsChangesOf(this);
+		this.treeOfBelonging.beforeDetach(this);
+		this.treeOfBelonging.beforeChange(Arrays.asList(this, this.parent));
+		this.parent.children().remove(this.id);
+		this.parent.writableChildren().put(clone.id, clone);
+		if (this.treeOfBelonging.updatesDerivedStateNow()) {
+			this.treeOfBelonging.removeNodesFromAllIndexes(toList());
+			this.treeOfBelonging.putNodesInAllIndexes(clone.toList());
+			this.treeOfBelonging.putNodeInAllIndexes(clone.parent);
+		}
+		this.treeOfBelonging.searchFilterAddSubtree(clone);
+		if (reportsChange) {
+			tree.fireChange(TreeChangeEvent.removed(this, clone.parent), TreeChangeEvent.added(clone, clone.parent));
+		}
 		return this.nullRefsExceptChildren();
 	}
 	
@@ -322,12 +436,23 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 			return null;
 		}
 		if (isRoot()) {
+			this.treeOfBelonging.beforeChange(this);
 			this.treeOfBelonging.clearTree();
 			return this.nullRefsExceptChildren();
 		}
-		this.treeOfBelonging.removeNodesFromAllIndexes(toList());
-		this.treeOfBelonging.putNodeInAllIndexes(this.parent);
-		this.parent.children.remove(this.id);
+		NTree<K,V> tree = this.treeOfBelonging;
+		NTreeNode<K,V> parent = this.parent;
+		boolean reportsChange = tree.reportsChangesOf(this);
+		this.treeOfBelonging.beforeDetach(this);
+		this.treeOfBelonging.beforeChange(Arrays.asList(this, this.parent));
+		if (this.treeOfBelonging.updatesDerivedStateNow()) {
+			this.treeOfBelonging.removeNodesFromAllIndexes(toList());
+			this.treeOfBelonging.putNodeInAllIndexes(this.parent);
+		}
+		this.parent.children().remove(this.id);
+		if (reportsChange) {
+			tree.fireChange(TreeChangeEvent.removed(this, parent));
+		}
 		return this.nullRefsExceptChildren();
 	}
 	
@@ -351,34 +476,54 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		}
 		List<NTreeNode<K,V>> removed = new LinkedList<>(Arrays.asList(this));
 		BiPredicate<NTreeNode<K,V>,NTreeNode<K,V>> safeBiPredicate = safeBiPredicate(bipredicate);
-		this.children.forEach((id, child) -> {
-			NTreeNode<K,V> childsUncleWithSameId = this.parent.children.get(id);
+		NTree<K,V> tree = this.treeOfBelonging;
+		NTreeNode<K,V> parent = this.parent;
+		List<TreeChangeEvent<K,V>> events = tree.reportsChangesOf(this) ? new ArrayList<>() : null;
+		this.treeOfBelonging.beforeDetach(this);
+		this.treeOfBelonging.beforeChange(Arrays.asList(this, this.parent));
+		this.treeOfBelonging.beforeChange(this.children().values());
+		this.children().forEach((id, child) -> {
+			NTreeNode<K,V> childsUncleWithSameId = this.parent.children().get(id);
 			// if child of this node has uncle with same id
 			if (childsUncleWithSameId != null) {
 				// if predicate returns true then replace uncle subtree
 				if (safeBiPredicate.test(child, childsUncleWithSameId)) {
 					removed.add(childsUncleWithSameId);
-					this.parent.children.put(id, child);
+					this.parent.writableChildren().put(id, child);
 					child.parent = this.parent;
 					this.treeOfBelonging.removeNodeFromAllIndexes(childsUncleWithSameId);
 					this.treeOfBelonging.putNodeInAllIndexes(child);
+					if (events != null) {
+						events.add(TreeChangeEvent.removed(childsUncleWithSameId, parent));
+						events.add(TreeChangeEvent.moved(child, this, parent));
+					}
 				}
 				else {
 					removed.add(child);
 					child.parent = null;
 					this.treeOfBelonging.removeNodeFromAllIndexes(child);
+					if (events != null) {
+						events.add(TreeChangeEvent.removed(child, this));
+					}
 				}
 			}
 			else {
-				this.parent.children.put(id, child);
+				this.parent.writableChildren().put(id, child);
 				child.parent = this.parent;
 				this.treeOfBelonging.putNodeInAllIndexes(child);
+				if (events != null) {
+					events.add(TreeChangeEvent.moved(child, this, parent));
+				}
 			}
 		});
-		this.parent.children.remove(this.id);
+		this.parent.children().remove(this.id);
 		this.treeOfBelonging.putNodeInAllIndexes(this.parent);
 		this.treeOfBelonging.removeNodeFromAllIndexes(this);
 		this.nullRefs();
+		if (events != null) {
+			events.add(TreeChangeEvent.removed(this, parent));
+			tree.fireChange(events);
+		}
 		return removed;
 	}
 	
@@ -410,6 +555,195 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		return removeAndParentAdoptsGrandChildren((child, uncle) -> replacesDuplicates);
 	}
 	
+	//----------------------------------------------------------------------------------------------
+	//	MOVE
+	//----------------------------------------------------------------------------------------------
+	
+	/**
+	 * Moves this node and its descendants to be a child of the provided node.
+	 * Unlike removing this node and calling {@link #setChild(NTreeNode)} nothing
+	 * is cloned. The nodes keep their identity, uuids and values and within the
+	 * same tree only the index entries of this node, its old parent and its new
+	 * parent are updated. If the new parent belongs to another tree the nodes of
+	 * this subtree are moved to that tree and its indexes. If this node is the
+	 * root of its tree then that tree is left empty.
+	 * 
+	 * @param newParent the node that will be the new parent of this node
+	 * @return {@code true} if this node was moved or {@code false} if the new 
+	 * parent already has a child with the same id as this node, which includes 
+	 * this node itself, or if this node is not part of a tree or node hierarchy
+	 * @throws RuntimeException if the new parent is this node or one of its descendants
+	 */
+	public boolean moveTo(NTreeNode<K,V> newParent) {
+		argsNotNull(newParent);
+		if (newParent == this || newParent.hasAncestor(this)) {
+			throw new RuntimeException("Cannot move a node into its own subtree");
+		}
+		if (this.treeOfBelonging == null || newParent.treeOfBelonging == null 
+				|| isBastardNode() || newParent.children().containsKey(this.id)) {
+			return false;
+		}
+		NTree<K,V> oldTree = this.treeOfBelonging;
+		NTree<K,V> newTree = newParent.treeOfBelonging;
+		NTreeNode<K,V> oldParent = this.parent;
+		boolean wasRoot = isRoot();
+		boolean changesTree = oldTree != newTree;
+		boolean wasIndexed = oldTree.updatesDerivedStateNow() && isPartOfTree();
+		boolean willBeIndexed = newTree.updatesDerivedStateNow() && newParent.isPartOfTree();
+		boolean reindexesSubtree = changesTree || wasIndexed != willBeIndexed;
+		boolean reportsRemoval = oldTree.reportsChangesOf(this);
+		boolean reportsAddition = newTree.reportsChangesOf(newParent);
+		oldTree.beforeDetach(this);
+		List<NTreeNode<K,V>> movedNodes = reindexesSubtree ? toList() : Arrays.asList(this);
+		oldTree.beforeChange(movedNodes);
+		oldTree.beforeChange(oldParent);
+		newTree.beforeChange(newParent);
+		// detach
+		if (wasRoot) {
+			oldTree.clearTree();
+		}
+		else {
+			if (wasIndexed && reindexesSubtree) {
+				oldTree.removeNodesFromAllIndexes(movedNodes);
+			}
+			oldParent.children().remove(this.id);
+			if (wasIndexed) {
+				oldTree.putNodeInAllIndexes(oldParent);
+			}
+		}
+		// attach
+		this.parent = newParent;
+		newParent.writableChildren().put(this.id, this);
+		if (changesTree) {
+			movedNodes.forEach(node -> node.treeOfBelonging = newTree);
+		}
+		if (willBeIndexed) {
+			newTree.putNodesInAllIndexes(movedNodes);
+			newTree.putNodeInAllIndexes(newParent);
+		}
+		if (changesTree) {
+			newTree.searchFilterAddSubtree(this);
+		}
+		else {
+			newTree.searchFilterAddMovedSubtree(this);
+		}
+		if (reportsRemoval && reportsAddition && !changesTree) {
+			newTree.fireChange(TreeChangeEvent.moved(this, oldParent, newParent));
+		}
+		else {
+			// clearTree already reported the removal of a root
+			if (reportsRemoval && !wasRoot) {
+				oldTree.fireChange(TreeChangeEvent.removed(this, oldParent));
+			}
+			if (reportsAddition) {
+				newTree.fireChange(TreeChangeEvent.added(this, newParent));
+			}
+		}
+		return true;
+	}
+	
+	//----------------------------------------------------------------------------------------------
+	//	VERSION CONDITIONAL CHANGES
+	//----------------------------------------------------------------------------------------------
+	
+	/*
+	 * The methods in this section change a node only if its version is the
+	 * expected one and can be called by different threads on the same tree.
+	 * Each one locks only the nodes it changes, parents before children, so 
+	 * writers of different nodes do not block each other. Indexes are updated
+	 * concurrently. The tree is locked last and only when the change also
+	 * updates state shared by the whole tree like the search filter, a batch,
+	 * copy-on-write clones or change listeners.
+	 */
+	
+	/**
+	 * Sets the value of this node only if the version of this node is the 
+	 * expected one. Can be called concurrently with the other version 
+	 * conditional methods by different threads. 
+	 * 
+	 * @param expectedVersion the version this node must have
+	 * @param value the new value of this node. It can be {@code null}
+	 * @return {@code true} if the value was set or {@code false} if the version
+	 * 			of this node was not the expected one
+	 */
+	public boolean setValueIfVersion(long expectedVersion, V value) {
+		synchronized (this) {
+			if (this.version != expectedVersion) {
+				return false;
+			}
+			changeLockingTreeIfNeeded(() -> setValue(value));
+			return true;
+		}
+	}
+	
+	/**
+	 * Same as {@link #setChild(NTreeNode)} but only sets the child if the 
+	 * version of this node is the expected one. Can be called concurrently with
+	 * the other version conditional methods by different threads.
+	 * 
+	 * @param expectedVersion the version this node must have
+	 * @param node the node whose clone will be set as a child of this node
+	 * @return {@code true} if the child was set or {@code false} if the version
+	 * 			of this node was not the expected one
+	 */
+	public boolean setChildIfVersion(long expectedVersion, NTreeNode<K,V> node) {
+		argsNotNull(node);
+		synchronized (this) {
+			if (this.version != expectedVersion) {
+				return false;
+			}
+			NTreeNode<K,V> replacedChild = children().get(node.id);
+			if (replacedChild == null) {
+				changeLockingTreeIfNeeded(() -> setChild(node));
+				return true;
+			}
+			synchronized (replacedChild) {
+				changeLockingTreeIfNeeded(() -> setChild(node));
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Same as {@link #remove()} but only removes this node if its version is 
+	 * the expected one. Can be called concurrently with the other version 
+	 * conditional methods by different threads.
+	 * 
+	 * @param expectedVersion the version this node must have
+	 * @return {@code true} if this node was removed or {@code false} if its 
+	 * 			version was not the expected one or it could not be removed
+	 */
+	public boolean removeIfVersion(long expectedVersion) {
+		NTreeNode<K,V> parent = this.parent;
+		Object parentLock = parent != null ? parent : this;
+		synchronized (parentLock) {
+			synchronized (this) {
+				if (this.parent != parent || this.version != expectedVersion) {
+					return false;
+				}
+				if (isRoot()) {
+					synchronized (this.treeOfBelonging) {
+						return remove() != null;
+					}
+				}
+				boolean[] removed = new boolean[1];
+				changeLockingTreeIfNeeded(() -> removed[0] = remove() != null);
+				return removed[0];
+			}
+		}
+	}
+	
+	void changeLockingTreeIfNeeded(Runnable change) {
+		NTree<K,V> tree = this.treeOfBelonging;
+		if (!tree.changesStateOutsideSubtree()) {
+			change.run();
+			return;
+		}
+		synchronized (tree) {
+			change.run();
+		}
+	}
+	
 	//==============================================================================================
 	//	CHILDREN
 	//==============================================================================================
@@ -430,13 +764,21 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	@SuppressWarnings("unchecked")
 	public NTreeNode<K,V> addNewChildren(NTreeNode<K,V>... children) {
 		argsNotNull((Object) children);
-		boolean isPartOfTree = isPartOfTree();
+		boolean isPartOfTree = this.treeOfBelonging.updatesDerivedStateNow() && isPartOfTree();
+		boolean reportsChanges = this.treeOfBelonging.reportsChangesOf(this);
 		int numAdded = 0;
 		for (NTreeNode<K,V> child : children) {
 			if (child.parent == null) {
+				this.treeOfBelonging.beforeChange(Arrays.asList(this, child));
 				child.treeOfBelonging = this.treeOfBelonging;
 				child.parent = this;
-				NTreeNode<K,V> replaced = this.children.putIfAbsent(child.id, child);
+				NTreeNode<K,V> replaced = this.writableChildren().putIfAbsent(child.id, child);
+				if (replaced == null) {
+					this.treeOfBelonging.searchFilterAddSubtree(child);
+				}
+				if (reportsChanges && replaced == null) {
+					this.treeOfBelonging.fireChange(TreeChangeEvent.added(child, this));
+				}
 				if (isPartOfTree && replaced == null) {
 					numAdded++;
 					this.treeOfBelonging.putNodeInAllIndexes(child);
@@ -477,18 +819,32 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		}
 		NTreeNode<K,V> childToSet = node.clone(this.treeOfBelonging);
 		childToSet.parent = this;
-		if (this.children.containsKey(node.id)) {
-			NTreeNode<K,V> replaced = this.children.put(node.id, childToSet);
-			if (isPartOfTree()) {
+		boolean reportsChange = this.treeOfBelonging.reportsChangesOf(this);
+		this.treeOfBelonging.beforeChange(this);
+		if (this.children().containsKey(node.id)) {
+			this.treeOfBelonging.beforeDetach(this.children().get(node.id));
+			this.treeOfBelonging.beforeChange(this.children().get(node.id));
+			NTreeNode<K,V> replaced = this.writableChildren().put(node.id, childToSet);
+			if (this.treeOfBelonging.updatesDerivedStateNow() && isPartOfTree()) {
 				this.treeOfBelonging.removeNodesFromAllIndexes(replaced.toList());
 				this.treeOfBelonging.putNodeInAllIndexes(this);
 				this.treeOfBelonging.putNodesInAllIndexes(childToSet.toList());
 			}
+			this.treeOfBelonging.searchFilterAddSubtree(childToSet);
+			if (reportsChange) {
+				this.treeOfBelonging.fireChange(TreeChangeEvent.removed(replaced, this), TreeChangeEvent.added(childToSet, this));
+			}
 			return replaced.nullRefsExceptChildren();
 		}
-		this.children.put(node.id, childToSet);
-		this.treeOfBelonging.putNodeInAllIndexes(this);
-		this.treeOfBelonging.putNodesInAllIndexes(childToSet.toList());
+		this.writableChildren().put(node.id, childToSet);
+		if (this.treeOfBelonging.updatesDerivedStateNow()) {
+			this.treeOfBelonging.putNodeInAllIndexes(this);
+			this.treeOfBelonging.putNodesInAllIndexes(childToSet.toList());
+		}
+		this.treeOfBelonging.searchFilterAddSubtree(childToSet);
+		if (reportsChange) {
+			this.treeOfBelonging.fireChange(TreeChangeEvent.added(childToSet, this));
+		}
 		return null;
 	}
 	
@@ -538,17 +894,23 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	 */
 	public boolean setChildIfAbsent(NTreeNode<K,V> node) {
 		argsNotNull(node);
-		if (this.children.containsKey(node.id)) {
+		if (this.children().containsKey(node.id)) {
 			return false;
 		}
 		else {
 			NTreeNode<K,V> childToSet = node.clone(this.treeOfBelonging);
 			childToSet.parent = this;
-			this.children.put(childToSet.id, childToSet);
-			if (isPartOfTree()) {
+			boolean reportsChange = this.treeOfBelonging.reportsChangesOf(this);
+			this.treeOfBelonging.beforeChange(this);
+			this.writableChildren().put(childToSet.id, childToSet);
+			if (this.treeOfBelonging.updatesDerivedStateNow() && isPartOfTree()) {
 				this.treeOfBelonging.putNodeInAllIndexes(this);
 				this.treeOfBelonging.putNodesInAllIndexes(childToSet.toList());
 			}
+			this.treeOfBelonging.searchFilterAddSubtree(childToSet);
+			if (reportsChange) {
+				this.treeOfBelonging.fireChange(TreeChangeEvent.added(childToSet, this));
+			}
 		}
 		return true;
 	}
@@ -602,7 +964,7 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	 */
 	public NTreeNode<K,V> childWithId(K id) {
 		argsNotNull(id);
-		return this.children.get(id);
+		return this.readChildren().get(id);
 	}
 	
 	/**
@@ -636,7 +998,7 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	 * @return a {@code List} of this node's children
 	 */
 	public List<NTreeNode<K,V>> childrenList() {
-		return new LinkedList<NTreeNode<K,V>>(this.children.values());
+		return new LinkedList<NTreeNode<K,V>>(this.readChildren().values());
 	}
 	
 	/**
@@ -687,7 +1049,7 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	 * @return a {@code Map} of this node's children. The Map keys are the children's ids.
 	 */
 	public Map<K,NTreeNode<K,V>> childrenMap() {
-		return new HashMap<K,NTreeNode<K,V>>(this.children);
+		return new HashMap<K,NTreeNode<K,V>>(this.readChildren());
 	}
 	
 	/**
@@ -743,12 +1105,19 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	 */
 	public NTreeNode<K,V> removeChild(K id) {
 		argsNotNull(id);
-		if (this.children.containsKey(id)) {
-			if (isPartOfTree()) {
-				this.treeOfBelonging.removeNodesFromAllIndexes(this.children.get(id).toList());
+		if (this.children().containsKey(id)) {
+			boolean reportsChange = this.treeOfBelonging.reportsChangesOf(this);
+			this.treeOfBelonging.beforeDetach(this.children().get(id));
+			this.treeOfBelonging.beforeChange(Arrays.asList(this, this.children().get(id)));
+			if (this.treeOfBelonging.updatesDerivedStateNow() && isPartOfTree()) {
+				this.treeOfBelonging.removeNodesFromAllIndexes(this.children().get(id).toList());
 				this.treeOfBelonging.putNodeInAllIndexes(this);
 			}
-			return this.children.remove(id).nullRefsExceptChildren();
+			NTreeNode<K,V> removed = this.children().remove(id);
+			if (reportsChange) {
+				this.treeOfBelonging.fireChange(TreeChangeEvent.removed(removed, this));
+			}
+			return removed.nullRefsExceptChildren();
 		}
 		return null;
 	}
@@ -869,7 +1238,7 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	 * @return the number of children this node has
 	 */
 	public int childrenSize() {
-		return this.children.size();
+		return this.readChildren().size();
 	}
 	
 	/**
@@ -949,7 +1318,7 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 			return new HashMap<>();
 		}
 		K id = this.id;
-		return this.parent.children.entrySet().stream()
+		return this.parent.children().entrySet().stream()
 			.filter(entry -> !entry.getKey().equals(id))
 			.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
 	}
@@ -969,32 +1338,49 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	
 	NTreeNode<K,V> cloneSingleNode(NTreeNode<K,V> node, NTree<K,V> treeOfBelonging) {
 		argsNotNull(node, treeOfBelonging);
+		V clonedValue = cloneValue(node);
+		if (clonedValue == null) {
+			return new NTreeNode<K,V>(treeOfBelonging, node.id);
+		}
+		NTreeNode<K,V> clone = new NTreeNode<K,V>(treeOfBelonging, node.id, clonedValue);
+		clone.version = node.version;
+		return clone;
+	}
+	
+	// Copy of the value of the provided node made as configured by the tree of this node
+	V cloneValue(NTreeNode<K,V> node) {
 		V clonedValue = null;
-		if (this.treeOfBelonging.getNodeValueCloningMode() == null) {
+		NodeValueCloningMode cloningMode = this.treeOfBelonging.getNodeValueCloningMode();
+		if (cloningMode == null) {
 			clonedValue = cloneUsingSerialization(node.value);
 		}
-		else if (this.treeOfBelonging.getNodeValueCloningMode() == NodeValueCloningMode.BY_COPY_CONSTRUCTOR) {
+		else if (cloningMode == NodeValueCloningMode.SHARE) {
+			clonedValue = node.value;
+		}
+		else if (cloningMode == NodeValueCloningMode.BY_CUSTOM_CLONER) {
+			clonedValue = node.value == null ? null : this.treeOfBelonging.nodeValueCloner.apply(node.value);
+		}
+		else if (cloningMode == NodeValueCloningMode.BY_CLONEABLE) {
+			clonedValue = cloneWithCloneable(node.value);
+		}
+		else if (cloningMode == NodeValueCloningMode.BY_COPY_CONSTRUCTOR) {
 			clonedValue = cloneWithCopyConstructor(node.value);
 		}
-		else if (this.treeOfBelonging.getNodeValueCloningMode() == NodeValueCloningMode.BY_SERIALIZATION && this.treeOfBelonging.getNodeValueType() == null) {
+		else if (cloningMode == NodeValueCloningMode.BY_SERIALIZATION && this.treeOfBelonging.getNodeValueType() == null) {
 			clonedValue = cloneUsingSerialization(node.value);
 		}
-		else if (this.treeOfBelonging.getNodeValueCloningMode() == NodeValueCloningMode.BY_SERIALIZATION && this.treeOfBelonging.getNodeValueType() != null) {
+		else if (cloningMode == NodeValueCloningMode.BY_SERIALIZATION && this.treeOfBelonging.getNodeValueType() != null) {
 			clonedValue = cloneUsingSerialization(node.value, node.treeOfBelonging.getNodeValueType());
 		}
-		if (clonedValue == null) {
-			return new NTreeNode<K,V>(treeOfBelonging, node.id);
-		}
-		NTreeNode<K,V> clone = new NTreeNode<K,V>(treeOfBelonging, node.id, clonedValue);
-		clone.version = node.version;
-		return clone;
+		return clonedValue;
 	}
 	
 	/**
 	 * Returns a clone of this node and sets its treeOfBelonging to the one provided.
 	 * By default the node's value id copied using simple serialization. This can
-	 * be changed if the tree is configured with {@link NTree#nodeValueCloningUsesCopyConstructor()}
-	 * or {@link NTree#nodeValueCloningUsesSerialization(Type)}.
+	 * be changed if the tree is configured with {@link NTree#nodeValueCloningUsesCopyConstructor()},
+	 * {@link NTree#nodeValueCloningUsesSerialization(Type)} or another of the
+	 * nodeValueCloning configuration methods of {@link NTree}.
 	 * <br>
 	 * The returned clone does not have any parent or children.
 	 * 
@@ -1010,8 +1396,9 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	 * Returns a clone of this node and sets its treeOfBelonging to the one this
 	 * node has. By default the node's value id copied using simple serialization. 
 	 * This can be changed if the tree is configured with 
-	 * {@link NTree#nodeValueCloningUsesCopyConstructor()}
-	 * or {@link NTree#nodeValueCloningUsesSerialization(Type)}.
+	 * {@link NTree#nodeValueCloningUsesCopyConstructor()},
+	 * {@link NTree#nodeValueCloningUsesSerialization(Type)} or another of the
+	 * nodeValueCloning configuration methods of {@link NTree}.
 	 * <br>
 	 * The returned clone does not have any parent or children.
 	 * 
@@ -1025,8 +1412,8 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		NTreeNode<K,V> clonedNode = node.cloneSingleNode(treeOfBelonging);
 		clonedNode.parent = parent;
 		clonedNode.treeOfBelonging = treeOfBelonging;
-		parent.children.put(clonedNode.id, clonedNode);
-		node.children.forEach((id, child) -> _clone(child, clonedNode, treeOfBelonging));
+		parent.writableChildren().put(clonedNode.id, clonedNode);
+		node.readChildren().forEach((id, child) -> _clone(child, clonedNode, treeOfBelonging));
 	}
 	
 	/**
@@ -1042,7 +1429,7 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		argsNotNull(treeOfBelonging);
 		NTreeNode<K,V> tempParent = new NTreeNode<>(treeOfBelonging, this.id);
 		_clone(this, tempParent, treeOfBelonging);
-		NTreeNode<K,V> clone = tempParent.children.get(this.id);
+		NTreeNode<K,V> clone = tempParent.children().get(this.id);
 		clone.parent = null;
 		return clone;
 	}
@@ -1059,6 +1446,173 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		return clone(this.treeOfBelonging);
 	}
 	
+	//----------------------------------------------------------------------------------------------
+	//	COPY ON WRITE
+	//----------------------------------------------------------------------------------------------
+	
+	// Every access to the children of a node that can change them must go through this method so
+	// the children of a node of a copy-on-write clone are copied before they are used
+	Map<K,NTreeNode<K,V>> children() {
+		if (this.copyOnWriteEpoch != 0) {
+			attachCopyOnWriteView();
+		}
+		if (this.copyOnWriteSource != null) {
+			materializeChildren();
+		}
+		return this.children;
+	}
+	
+	// Same as children() for reads. The children of a node of a copy-on-write clone that are not
+	// copied yet are returned as views of the source, which are not put in the clone.
+	Map<K,NTreeNode<K,V>> readChildren() {
+		if (this.copyOnWriteEpoch != 0 && this.copyOnWriteEpoch != this.treeOfBelonging.copyOnWriteEpoch) {
+			return children();
+		}
+		NTreeNode<K,V> source = this.copyOnWriteSource;
+		if (source == null) {
+			return this.children;
+		}
+		long epoch = this.treeOfBelonging.copyOnWriteEpoch;
+		Map<K,NTreeNode<K,V>> sourceChildren = source.children();
+		if (sourceChildren.isEmpty()) {
+			return CompactChildMap.empty();
+		}
+		Map<K,NTreeNode<K,V>> views = new CompactChildMap<>();
+		for (NTreeNode<K,V> sourceChild : sourceChildren.values()) {
+			NTreeNode<K,V> view = sourceChild.copyOnWriteCopy(this.treeOfBelonging, this);
+			view.copyOnWriteEpoch = epoch;
+			views.put(view.id, view);
+		}
+		return views;
+	}
+	
+	// Same as children() but replaces the empty map shared by leaves with a map of this node
+	Map<K,NTreeNode<K,V>> writableChildren() {
+		Map<K,NTreeNode<K,V>> children = children();
+		if (children == CompactChildMap.EMPTY) {
+			children = new CompactChildMap<>();
+			this.children = children;
+		}
+		return children;
+	}
+	
+	// Returns a copy of this node for the provided tree that shares the value of this node and
+	// whose children are copied when first changed
+	NTreeNode<K,V> copyOnWriteCopy(NTree<K,V> treeOfBelonging, NTreeNode<K,V> parent) {
+		NTreeNode<K,V> copy = new NTreeNode<K,V>(treeOfBelonging, this.id, this.value);
+		copy.version = this.version;
+		copy.parent = parent;
+		copy.children = null;
+		copy.copyOnWriteSource = this;
+		copy.copyOnWriteOrigin = this;
+		copy.copyOnWriteSharesValue = true;
+		return copy;
+	}
+	
+	void materializeChildren() {
+		NTreeNode<K,V> source = this.copyOnWriteSource;
+		Map<K,NTreeNode<K,V>> children = CompactChildMap.empty();
+		if (!source.children().isEmpty()) {
+			children = new CompactChildMap<>();
+			for (NTreeNode<K,V> sourceChild : source.children().values()) {
+				children.put(sourceChild.id, sourceChild.copyOnWriteCopy(this.treeOfBelonging, this));
+			}
+		}
+		this.children = children;
+		this.copyOnWriteSource = null;
+	}
+	
+	NTreeNode<K,V> childCopiedFrom(NTreeNode<K,V> origin) {
+		NTreeNode<K,V> child = children().get(origin.id);
+		if (child != null && child.copyOnWriteOrigin == origin) {
+			return child;
+		}
+		for (NTreeNode<K,V> currChild : children().values()) {
+			if (currChild.copyOnWriteOrigin == origin) {
+				return currChild;
+			}
+		}
+		return null;
+	}
+	
+	// Puts this node in the copy-on-write clone in place of the node copied from the same origin,
+	// after doing the same for its ancestors, when it is a view returned by a read of the clone.
+	// Other views of the same node take its place when they are changed in turn.
+	void attachCopyOnWriteView() {
+		NTreeNode<K,V> parent = this.parent;
+		if (parent == null || this.copyOnWriteOrigin == null) {
+			return;
+		}
+		parent.attachCopyOnWriteView();
+		Map<K,NTreeNode<K,V>> siblings = parent.children();
+		if (siblings.get(this.id) == this) {
+			this.copyOnWriteEpoch = 0;
+			return;
+		}
+		NTreeNode<K,V> current = parent.childCopiedFrom(this.copyOnWriteOrigin);
+		if (current == null) {
+			throw new RuntimeException("Node is no longer part of the copy-on-write clone");
+		}
+		this.treeOfBelonging.removeNodeFromAllIndexes(current);
+		takeCopyOnWriteStateOf(current);
+		siblings.put(this.id, this);
+		this.treeOfBelonging.putNodeInAllIndexes(this);
+	}
+	
+	void takeCopyOnWriteStateOf(NTreeNode<K,V> node) {
+		this.id = node.id;
+		this.value = node.value;
+		this.version = node.version;
+		if (node.uuid != null) {
+			this.uuid = node.uuid;
+		}
+		this.children = node.children;
+		this.copyOnWriteSource = node.copyOnWriteSource;
+		this.copyOnWriteSharesValue = node.copyOnWriteSharesValue;
+		this.searchFilterBits = node.searchFilterBits;
+		this.searchFilterKeys = node.searchFilterKeys;
+		this.subtreeHash = node.subtreeHash;
+		this.hasSubtreeHash = node.hasSubtreeHash;
+		if (this.children != null) {
+			this.children.values().forEach(child -> child.parent = this);
+		}
+		this.copyOnWriteEpoch = 0;
+		// Resolved through the clone like a view if it is used again
+		node.copyOnWriteEpoch = -1;
+	}
+	
+	// Called before this node of a copy-on-write clone is changed
+	void beforeCopyOnWriteChange() {
+		attachCopyOnWriteView();
+		if (this.copyOnWriteSharesValue) {
+			this.value = cloneValue(this);
+			this.copyOnWriteSharesValue = false;
+		}
+	}
+	
+	// Copies all the descendants of this node that have not been copied yet
+	void materializeSubtree() {
+		LinkedList<NTreeNode<K,V>> pending = new LinkedList<>(Arrays.asList(this));
+		while (!pending.isEmpty()) {
+			NTreeNode<K,V> node = pending.poll();
+			if (node.children != null || node.copyOnWriteSource != null) {
+				pending.addAll(node.children().values());
+			}
+		}
+	}
+	
+	// Copies the descendants not copied yet and creates the missing uuids, which are written to JSON
+	void prepareSubtreeForJson() {
+		LinkedList<NTreeNode<K,V>> pending = new LinkedList<>(Arrays.asList(this));
+		while (!pending.isEmpty()) {
+			NTreeNode<K,V> node = pending.poll();
+			node.uuid();
+			if (node.children != null || node.copyOnWriteSource != null) {
+				pending.addAll(node.children().values());
+			}
+		}
+	}
+	
 	//==============================================================================================
 	//	TRAVERSAL
 	//==============================================================================================
@@ -1067,15 +1621,15 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		action.accept(node);
 		List<NTreeNode<K,V>> orderedNodeList = null;
 		if (this.treeOfBelonging.isUnordered()) {
-			node.children.forEach((id,child) -> _preOrderAction(child, action));
+			node.readChildren().forEach((id,child) -> _preOrderAction(child, action));
 		}
 		else if (this.treeOfBelonging.isNaturalOrdered()) {
-			orderedNodeList = new LinkedList<>(node.children.values());
+			orderedNodeList = new LinkedList<>(node.readChildren().values());
 			Collections.sort(orderedNodeList);
 			orderedNodeList.forEach(child -> _preOrderAction(child, action));
 		}
 		else if (this.treeOfBelonging.isCustomOrdered()) {
-			orderedNodeList = new LinkedList<>(node.children.values());
+			orderedNodeList = new LinkedList<>(node.readChildren().values());
 			orderedNodeList.sort(this.treeOfBelonging.nodeComparator);
 			orderedNodeList.forEach(child -> _preOrderAction(child, action));
 		}
@@ -1097,21 +1651,21 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		List<NTreeNode<K,V>> nodeList = new LinkedList<>();
 		_preOrderAction(node -> nodeList.add(node));
 		nodeList.forEach(safeConsumer(action));
-		this.treeOfBelonging.recreateIndexes(); 
+		this.treeOfBelonging.refreshDerivedState(); 
 	}
 	
 	void _postorderAction(NTreeNode<K,V> node, Consumer<NTreeNode<K,V>> action) {
 		List<NTreeNode<K,V>> orderedNodeList = null;
 		if (this.treeOfBelonging.isUnordered()) {
-			node.children.forEach((id,child) -> _postorderAction(child, action));
+			node.readChildren().forEach((id,child) -> _postorderAction(child, action));
 		}
 		else if (this.treeOfBelonging.isNaturalOrdered()) {
-			orderedNodeList = new LinkedList<>(node.children.values());
+			orderedNodeList = new LinkedList<>(node.readChildren().values());
 			Collections.sort(orderedNodeList);
 			orderedNodeList.forEach(child -> _postorderAction(child, action));
 		}
 		else if (this.treeOfBelonging.isCustomOrdered()) {
-			orderedNodeList = new LinkedList<>(node.children.values());
+			orderedNodeList = new LinkedList<>(node.readChildren().values());
 			orderedNodeList.sort(this.treeOfBelonging.nodeComparator);
 			orderedNodeList.forEach(child -> _postorderAction(child, action));
 		}
@@ -1133,7 +1687,7 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		List<NTreeNode<K,V>> nodeList = new LinkedList<>();
 		_postOrderAction(node -> nodeList.add(node));
 		nodeList.forEach(safeConsumer(action));
-		this.treeOfBelonging.recreateIndexes();
+		this.treeOfBelonging.refreshDerivedState();
 	}
 	
 	void _specificLevelOrderAction(NTreeNode<K,V> node, int level, Consumer<NTreeNode<K,V>> action) {
@@ -1143,15 +1697,15 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		else if (level > 1) {
 			List<NTreeNode<K,V>> orderedNodeList = null;
 			if (this.treeOfBelonging.isUnordered()) {
-				node.children.forEach((id, child) -> _specificLevelOrderAction(child, level-1, action));
+				node.readChildren().forEach((id, child) -> _specificLevelOrderAction(child, level-1, action));
 			}
 			else if (this.treeOfBelonging.isNaturalOrdered()) {
-				orderedNodeList = new LinkedList<>(node.children.values());
+				orderedNodeList = new LinkedList<>(node.readChildren().values());
 				Collections.sort(orderedNodeList);
 				orderedNodeList.forEach(child -> _specificLevelOrderAction(child, level-1, action));
 			}
 			else if (this.treeOfBelonging.isCustomOrdered()) {
-				orderedNodeList = new LinkedList<>(node.children.values());
+				orderedNodeList = new LinkedList<>(node.readChildren().values());
 				orderedNodeList.sort(this.treeOfBelonging.nodeComparator);
 				orderedNodeList.forEach(child -> _specificLevelOrderAction(child, level-1, action));
 			}
@@ -1181,7 +1735,7 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		List<NTreeNode<K,V>> nodeList = new LinkedList<>();
 		_specificLevelOrderAction(level, node -> nodeList.add(node));
 		nodeList.forEach(safeConsumer(action));
-		this.treeOfBelonging.recreateIndexes();
+		this.treeOfBelonging.refreshDerivedState();
 	}
 	
 	void _levelOrderAction(NTreeNode<K,V> node, Consumer<NTreeNode<K,V>> action) {
@@ -1210,7 +1764,7 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		List<NTreeNode<K,V>> nodeList = new LinkedList<>();
 		_levelOrderAction(node -> nodeList.add(node));
 		nodeList.forEach(safeConsumer(action));
-		this.treeOfBelonging.recreateIndexes();
+		this.treeOfBelonging.refreshDerivedState();
 	}
 	
 	void _levelOrderActionFromBottom(NTreeNode<K,V> node, Consumer<NTreeNode<K,V>> action) {
@@ -1241,7 +1795,7 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		List<NTreeNode<K,V>> nodeList = new LinkedList<>();
 		_levelOrderActionFromBottom(node -> nodeList.add(node));
 		nodeList.forEach(safeConsumer(action));
-		this.treeOfBelonging.recreateIndexes();
+		this.treeOfBelonging.refreshDerivedState();
 	}
 	
 	/**
@@ -1273,6 +1827,55 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		}
 	}
 	
+	/**
+	 * Runs an asynchronous action for this node and each of its descendants and
+	 * returns a future completed when the stages returned by all the actions are
+	 * completed. Same as {@link #forEachNodeAsync(TreeTraversalOrder, Function, int, boolean)}
+	 * with at most 256 actions running at the same time and without waiting for
+	 * parents to finish before starting their children.
+	 * 
+	 * @param traversal the order in which the actions are started
+	 * @param action a function that starts the action of a node and returns its stage
+	 * @return a future completed when all the actions finish
+	 */
+	public CompletableFuture<Void> forEachNodeAsync(TreeTraversalOrder traversal, Function<NTreeNode<K,V>, CompletionStage<?>> action) {
+		return forEachNodeAsync(traversal, action, AsyncTraversal.DEFAULT_MAX_CONCURRENCY, false);
+	}
+	
+	/**
+	 * Runs an asynchronous action for this node and each of its descendants and
+	 * returns a future completed when the stages returned by all the actions are
+	 * completed. Actions are started in the order of the traversal, each on its
+	 * own virtual thread when the JVM has them or on a pooled daemon thread
+	 * otherwise, so an action can block on I/O before returning its stage.
+	 * <p>
+	 * At most {@code maxConcurrency} actions run at the same time, counting from
+	 * when an action starts until its stage completes. If {@code parentsBeforeChildren}
+	 * is {@code true} the action of a node starts after the stage of its parent
+	 * completed, and the descendants of a node whose action failed are skipped.
+	 * <p>
+	 * If any action throws or its stage completes exceptionally, the returned
+	 * future completes exceptionally with an {@link AsyncTraversalException}
+	 * that reports every failed node after all the other actions finished. The
+	 * nodes should not be added or removed until the returned future completes.
+	 * 
+	 * @param traversal the order in which the actions are started. Must be 
+	 * 			{@code PRE_ORDER} or {@code LEVEL_ORDER} if parents finish before children
+	 * @param action a function that starts the action of a node and returns its 
+	 * 			stage, or {@code null} if the action already finished
+	 * @param maxConcurrency the maximum number of actions running at the same time
+	 * @param parentsBeforeChildren {@code true} to start the action of a node after
+	 * 			the action of its parent finished
+	 * @return a future completed when all the actions finish
+	 * @throws RuntimeException if {@code maxConcurrency} is less than 1 or the 
+	 * 			traversal does not list parents before children when they must finish first
+	 */
+	public CompletableFuture<Void> forEachNodeAsync(TreeTraversalOrder traversal, Function<NTreeNode<K,V>, CompletionStage<?>> action,
+			int maxConcurrency, boolean parentsBeforeChildren) {
+		argsNotNull(traversal, action);
+		return AsyncTraversal.run(this, traversal, action, maxConcurrency, parentsBeforeChildren);
+	}
+	
 	void forEachNodeUnsafeAndDoNotUpdateIndex(TreeTraversalOrder traversal, Consumer<NTreeNode<K,V>> action) {
 		argsNotNull(traversal, action);
 		if (traversal == TreeTraversalOrder.PRE_ORDER) {
@@ -1297,11 +1900,12 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	//==============================================================================================
 
 	Integer _height(NTreeNode<K,V> node, int totalHeight) {
-		if (node.children.isEmpty()) {
+		Map<K,NTreeNode<K,V>> children = node.readChildren();
+		if (children.isEmpty()) {
 			return totalHeight + 1;
 		}
 		SortedSet<Integer> heights = new TreeSet<>();
-		node.children.forEach((id,child) -> heights.add(_height(child, totalHeight)));
+		children.forEach((id,child) -> heights.add(_height(child, totalHeight)));
 		return heights.last() + 1;
 	}
 	
@@ -1454,7 +2058,7 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		if (this.parent != null) {
 			nodeList.add(this.parent);
 		}
-		nodeList.addAll(this.children.values());
+		nodeList.addAll(this.readChildren().values());
 		return nodeList;
 	}
 	
@@ -1628,15 +2232,23 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	}
 	
 	void _findFirst(NTreeNode<K,V> node, List<NTreeNode<K,V>> list, Predicate<NTreeNode<K,V>> predicate) {
+		_findFirst(node, list, predicate, null);
+	}
+	
+	// subtreeMightMatch is used to skip the subtrees that cannot have a match. If null no subtree is skipped.
+	void _findFirst(NTreeNode<K,V> node, List<NTreeNode<K,V>> list, Predicate<NTreeNode<K,V>> predicate, Predicate<NTreeNode<K,V>> subtreeMightMatch) {
+		if (subtreeMightMatch != null && !subtreeMightMatch.test(node)) {
+			return;
+		}
 		if (predicate.test(node)) {
 			list.add(node);
 		}
 		else {
 			if (this.treeOfBelonging.isUnordered()) {
-				Iterator<Map.Entry<K, NTreeNode<K,V>>> iterator = node.children.entrySet().iterator();
+				Iterator<Map.Entry<K, NTreeNode<K,V>>> iterator = node.readChildren().entrySet().iterator();
 				while (iterator.hasNext() && list.size() == 0) {
 					Map.Entry<K, NTreeNode<K,V>> entry = iterator.next();
-					_findFirst(entry.getValue(), list, predicate);
+					_findFirst(entry.getValue(), list, predicate, subtreeMightMatch);
 				}
 			} else if (this.treeOfBelonging.isNaturalOrdered()) {
 				Comparator<Entry<K,NTreeNode<K,V>>> comparator = new Comparator<>() {
@@ -1645,12 +2257,12 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 						return a.getValue().compareTo(b.getValue());
 					}
 				};
-				List<Entry<K,NTreeNode<K,V>>>  entryList = new LinkedList<>(node.children.entrySet());
+				List<Entry<K,NTreeNode<K,V>>>  entryList = new LinkedList<>(node.readChildren().entrySet());
 				entryList.sort(comparator);
 				Iterator<Entry<K,NTreeNode<K,V>>> iterator = entryList.iterator();
 				while (iterator.hasNext() && list.size() == 0) {
 					Map.Entry<K, NTreeNode<K,V>> entry = iterator.next();
-					_findFirst(entry.getValue(), list, predicate);
+					_findFirst(entry.getValue(), list, predicate, subtreeMightMatch);
 				}
 			} else if (this.treeOfBelonging.isCustomOrdered()) {
 				NTree<K,V> treeOfBelonging = this.treeOfBelonging;
@@ -1660,12 +2272,12 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 						return treeOfBelonging.nodeComparator.compare(a.getValue(), (b.getValue()));
 					}
 				};
-				List<Entry<K,NTreeNode<K,V>>>  entryList = new LinkedList<>(node.children.entrySet());
+				List<Entry<K,NTreeNode<K,V>>>  entryList = new LinkedList<>(node.readChildren().entrySet());
 				entryList.sort(comparator);
 				Iterator<Entry<K,NTreeNode<K,V>>> iterator = entryList.iterator();
 				while (iterator.hasNext() && list.size() == 0) {
 					Map.Entry<K, NTreeNode<K,V>> entry = iterator.next();
-					_findFirst(entry.getValue(), list, predicate);
+					_findFirst(entry.getValue(), list, predicate, subtreeMightMatch);
 				}
 			}
 		}
@@ -1683,18 +2295,33 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	 */
 	public NTreeNode<K,V> findFirst(Predicate<NTreeNode<K,V>> predicate) {
 		argsNotNull(predicate);
+		return findFirst(predicate, null);
+	}
+	
+	NTreeNode<K,V> findFirst(Predicate<NTreeNode<K,V>> predicate, Predicate<NTreeNode<K,V>> subtreeMightMatch) {
 		Predicate<NTreeNode<K,V>> safePredicate = safePredicate(predicate);
 		if (safePredicate.test(this)) {
 			return this;
 		}
 		List<NTreeNode<K,V>> list = new ArrayList<>();
-		_findFirst(this, list, safePredicate);
+		_findFirst(this, list, safePredicate, subtreeMightMatch);
 		if (list.size() == 0) {
 			return null;
 		}
 		return list.get(0);
 	}
 	
+	// Returns the predicate that tells if the subtree of a node might have a node with the key or null if the search filter can't be used
+	@SuppressWarnings("unchecked")
+	Predicate<NTreeNode<K,V>> searchFilterPredicate(Object key, boolean isIdSearch) {
+		SubtreeSearchFilter<K,V,?> searchFilter = this.treeOfBelonging.searchFilter;
+		if (searchFilter == null || searchFilter.isIdFilter != isIdSearch 
+				|| this.treeOfBelonging.isInBatch() || !isPartOfTree()) {
+			return null;
+		}
+		return node -> searchFilter.mightContain(node, key);
+	}
+	
 	/**
 	 * Returns the first node from the group comprising this node and its
 	 * descendants that has the provided id.
@@ -1704,7 +2331,29 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	 */
 	public NTreeNode<K,V> findFirstWithId(K id) {
 		argsNotNull(id);
-		return findFirst(node -> node.id.equals(id));
+		return findFirst(node -> node.id.equals(id), searchFilterPredicate(id, true));
+	}
+	
+	/**
+	 * Returns the first node from the group comprising this node and its
+	 * descendants whose key generated by the function passed to 
+	 * {@link NTree#useSearchFilter(Function)} is equal to the provided key. 
+	 * Subtrees that the search filter of this node's treeOfBelonging rules out
+	 * are not traversed.
+	 * 
+	 * @param <R> the type of the keys
+	 * @param key the key of the node to find
+	 * @return the found node or {@code null} if not found
+	 * @throws RuntimeException if this node's treeOfBelonging has no search filter
+	 */
+	@SuppressWarnings("unchecked")
+	public <R> NTreeNode<K,V> findFirstWithSearchKey(R key) {
+		argsNotNull(key);
+		SubtreeSearchFilter<K,V,?> searchFilter = this.treeOfBelonging.searchFilter;
+		if (searchFilter == null) {
+			throw new RuntimeException("Tree has no search filter");
+		}
+		return findFirst(node -> key.equals(searchFilter.keyOf(node)), searchFilterPredicate(key, searchFilter.isIdFilter));
 	}
 	
 	/**
@@ -1719,8 +2368,15 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	}
 	
 	void _equalsSubtree(NTreeNode<K,V> nodeA, NTreeNode<K,V> nodeB, MutableBoolean equal) {
-		Map<K,NTreeNode<K,V>> nodeAChildren = nodeA.childrenMap();
-		Map<K,NTreeNode<K,V>> nodeBChildren = nodeB.childrenMap();
+		if (nodeA == nodeB || equal.isFalse()) {
+			return;
+		}
+		if (nodeA.subtreeHashCode() != nodeB.subtreeHashCode()) {
+			equal.setFalse();
+			return;
+		}
+		Map<K,NTreeNode<K,V>> nodeAChildren = nodeA.readChildren();
+		Map<K,NTreeNode<K,V>> nodeBChildren = nodeB.readChildren();
 		if (!nodeAChildren.entrySet().equals(nodeBChildren.entrySet())) {
 			equal.setFalse();
 			return;
@@ -1734,7 +2390,9 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	/**
 	 * Returns {@code true} if this subtree is equal to the provided subtree.
 	 * Two subtrees are equal if their node hierarchy is the same and the
-	 * corresponding nodes in each hierarchy are equal.
+	 * corresponding nodes in each hierarchy are equal. Each node caches a hash
+	 * of its subtree, so subtrees with different hashes are told apart without
+	 * comparing their descendants and shared subtrees are not compared at all.
 	 * 
 	 * @return {@code true} if this subtree is equal to the provided subtree
 	 */
@@ -1916,12 +2574,44 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		return this;
 	}
 	
+	// Computed only for the descendants without a cached hash, so it is O(1) for an unchanged subtree
 	int subtreeHashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + id.hashCode();
-		result = prime * result + toList().hashCode();
-		return result;
+		if (this.hasSubtreeHash) {
+			return this.subtreeHash;
+		}
+		return subtreeHashCode(!IN_OPTIMISTIC_READ.get());
+	}
+	
+	int subtreeHashCode(boolean cacheHash) {
+		if (this.hasSubtreeHash) {
+			return this.subtreeHash;
+		}
+		int childrenHash = 0;
+		for (NTreeNode<K,V> child : readChildren().values()) {
+			// Sum of mixed hashes so the result does not depend on the order of the children
+			childrenHash += mixHash(child.subtreeHashCode(cacheHash));
+		}
+		int hash = 31 * hashCode() + childrenHash;
+		if (cacheHash) {
+			this.subtreeHash = hash;
+			this.hasSubtreeHash = true;
+		}
+		return hash;
+	}
+	
+	static int mixHash(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		return hash;
+	}
+	
+	// Must be called when the id, value or children of this node change. Stops at the first
+	// ancestor without a hash since its ancestors do not have one either.
+	void invalidateSubtreeHash() {
+		for (NTreeNode<K,V> node = this; node != null && node.hasSubtreeHash; node = node.parent) {
+			node.hasSubtreeHash = false;
+		}
 	}
 	
 	//==============================================================================================
@@ -1936,6 +2626,7 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	 * its parent and treeOfBelonging.
 	 */
 	public String toJson() {
+		prepareSubtreeForJson();
 		return gsonDefault.toJson(this);
 	}
 	
@@ -1959,7 +2650,8 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	}
 	
 	static <K extends Comparable<K>,V> void reassignMissingReferences(NTreeNode<K,V> node, NTree<K,V> treeOfBelonging) {
-		node.children.forEach((id, child) -> {
+		node.children = CompactChildMap.copyOf(node.children);
+		node.children().forEach((id, child) -> {
 			child.treeOfBelonging = treeOfBelonging;
 			child.parent = node;
 			reassignMissingReferences(child, treeOfBelonging);
@@ -1982,6 +2674,17 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 		return toList().iterator();
 	}
 	
+	/**
+	 * Same as {@link #iterator()} but the returned iterator is fail-fast: it 
+	 * throws a {@code ConcurrentModificationException} if the tree of this node
+	 * is changed after the iterator was created, which {@link #iterator()} allows.
+	 * 
+	 * @return a fail-fast {@code Iterator} over this node and its descendants
+	 */
+	public Iterator<NTreeNode<K,V>> failFastIterator() {
+		return new FailFastIterator<>(this.treeOfBelonging, iterator());
+	}
+	
 	/**
 	 * Returns an integer which based on weather it is negative, zero or positive
 	 * determines if this node is less than, equal to or greater than the other 
@@ -2076,6 +2779,7 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 	 */
 	@Override
 	public String toString() {
+		uuid();
 		String json = gsonForNodeToString.toJson(this);
 		JsonObject jsonObj = gsonForNodeToString.fromJson(json, JsonObject.class);
 		if (this.id instanceof Number) {
@@ -2083,14 +2787,14 @@ public class NTreeNode<K extends Comparable<K>, V> implements Iterable<NTreeNode
 			jsonObj.addProperty("parent_id", (Number) this.parent.id);
 			jsonObj.add("children_ids", new JsonArray());
 			JsonArray childrenJsonArray = jsonObj.get("children_ids").getAsJsonArray();
-			this.children.forEach((id, child) -> childrenJsonArray.add((Number)id));
+			this.readChildren().forEach((id, child) -> childrenJsonArray.add((Number)id));
 		}
 		else {
 			jsonObj.addProperty("treeOfBelonging_id", this.treeOfBelonging.getId().toString());
 			jsonObj.addProperty("parent_id", this.parent.id.toString());
 			jsonObj.add("children_ids", new JsonArray());
 			JsonArray childrenJsonArray = jsonObj.get("children_ids").getAsJsonArray();
-			this.children.forEach((id, child) -> childrenJsonArray.add(id.toString()));
+			this.readChildren().forEach((id, child) -> childrenJsonArray.add(id.toString()));
 		}
 		return gsonForNodeToString.toJson(jsonObj);
 	}
@@ -14,7 +14,7 @@ class NTreeNodeUUID<K extends Comparable<K>, V> {
 	
 	@Override
 	public int hashCode() {
-		return 31 * 17 + node.uuid.hashCode();
+		return 31 * 17 + node.uuid().hashCode();
 	}
 
 	@Override
@@ -26,7 +26,7 @@ class NTreeNodeUUID<K extends Comparable<K>, V> {
 		if (getClass() != obj.getClass())
 			return false;
 		NTreeNodeUUID<?, ?> other = (NTreeNodeUUID<?, ?>) obj;
-		if (!this.node.uuid.equals(other.node.uuid))
+		if (!this.node.uuid().equals(other.node.uuid()))
 			return false;
 		return true;
 	}
@@ -0,0 +1,74 @@
+package veve.datastructures.trees;
+
+import static veve.datastructures.trees.GeneralUtils.argsNotNull;
+
+/**
+ * A flat record describing a node by its id, the id of its parent and its value.
+ * Used to load a whole tree at once with {@link NTree#bulkLoad(java.util.Iterator)}, for
+ * example from the rows of a database table. A record with a {@code null} 
+ * parentId describes the root.
+ * 
+ * @param <K> The type of the node id and parent id.
+ * @param <V> The type of the node value.
+ */
+public class NodeRecord<K extends Comparable<K>,V> {
+	
+	K id;
+	K parentId;
+	V value;
+	
+	/**
+	 * Constructor for a record.
+	 * 
+	 * @param id the id of the node. Cannot be {@code null}
+	 * @param parentId the id of the parent of the node or {@code null} if the
+	 * 			node is the root
+	 * @param value the value of the node. Can be {@code null}
+	 */
+	public NodeRecord(K id, K parentId, V value) {
+		argsNotNull(id);
+		this.id = id;
+		this.parentId = parentId;
+		this.value = value;
+	}
+	
+	/**
+	 * Returns a new record. Same as {@link #NodeRecord(Comparable, Comparable, Object)}.
+	 */
+	public static <K extends Comparable<K>,V> NodeRecord<K,V> of(K id, K parentId, V value) {
+		return new NodeRecord<>(id, parentId, value);
+	}
+	
+	/**
+	 * Returns the id of the node.
+	 * 
+	 * @return the id of the node
+	 */
+	public K getId() {
+		return this.id;
+	}
+	
+	/**
+	 * Returns the id of the parent of the node.
+	 * 
+	 * @return the id of the parent of the node
+	 */
+	public K getParentId() {
+		return this.parentId;
+	}
+	
+	/**
+	 * Returns the value of the node.
+	 * 
+	 * @return the value of the node
+	 */
+	public V getValue() {
+		return this.value;
+	}
+	
+	@Override
+	public String toString() {
+		return "NodeRecord [id=" + this.id + ", parentId=" + this.parentId + ", value=" + this.value + "]";
+	}
+	
+}
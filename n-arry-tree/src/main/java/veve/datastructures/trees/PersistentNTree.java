@@ -0,0 +1,348 @@
+package veve.datastructures.trees;
+
+import static veve.datastructures.trees.GeneralUtils.argsNotNull;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An immutable tree made of {@link PersistentNTreeNode}s. Each method that
+ * changes the tree returns a new tree and leaves this tree unchanged. The new
+ * tree only copies the nodes in the path from the changed node up to the root,
+ * so an update creates as many nodes as the depth of the changed node and all
+ * the other nodes are shared between the old and the new tree.
+ * <p>
+ * Since a {@code PersistentNTree} never changes, holding a reference to it is
+ * already a consistent snapshot that can be handed to readers in any thread.
+ * Use {@link #fromNTree(NTree)} and {@link #toNTree()} to convert from and to
+ * a mutable {@link NTree}.
+ * <p>
+ * Nodes are located by their path, which is a {@code List} of the ids of the
+ * nodes from the root down to the node, both included.
+ * 
+ * @param <K> The type of the tree and nodes ids. Must implement {@code Comparable}.
+ * @param <V> The type of the {@code value} property of the nodes. Should be
+ * 			immutable since values are shared between versions of the tree.
+ */
+public final class PersistentNTree<K extends Comparable<K>,V> {
+	
+	final K id;
+	final PersistentNTreeNode<K,V> root;
+	final long version;
+	
+	PersistentNTree(K id, PersistentNTreeNode<K,V> root, long version) {
+		this.id = id;
+		this.root = root;
+		this.version = version;
+	}
+	
+	//==============================================================================================
+	//	STATIC FACTORY
+	//==============================================================================================
+	
+	/**
+	 * Returns a new empty tree.
+	 * 
+	 * @param treeId the id of the tree
+	 * @return a new tree without a root
+	 */
+	public static <K extends Comparable<K>,V> PersistentNTree<K,V> create(K treeId) {
+		argsNotNull(treeId);
+		return new PersistentNTree<>(treeId, null, 1);
+	}
+	
+	/**
+	 * Returns a new tree with the same id, version and nodes as the provided
+	 * {@link NTree}. Node values are not cloned.
+	 * 
+	 * @param tree the tree to copy
+	 * @return an immutable copy of the provided tree
+	 */
+	public static <K extends Comparable<K>,V> PersistentNTree<K,V> fromNTree(NTree<K,V> tree) {
+		argsNotNull(tree);
+		PersistentNTreeNode<K,V> root = tree.root == null ? null : PersistentNTreeNode.fromNTreeNode(tree.root);
+		return new PersistentNTree<>(tree.id, root, tree.version);
+	}
+	
+	//==============================================================================================
+	//	GETTERS
+	//==============================================================================================
+	
+	/**
+	 * Returns the id of this tree.
+	 * 
+	 * @return the id of this tree
+	 */
+	public K getId() {
+		return this.id;
+	}
+	
+	/**
+	 * Returns the root of this tree.
+	 * 
+	 * @return the root of this tree or {@code null} if the tree is empty
+	 */
+	public PersistentNTreeNode<K,V> getRoot() {
+		return this.root;
+	}
+	
+	/**
+	 * Returns the version of this tree. Each change returns a tree with the
+	 * version incremented by one.
+	 * 
+	 * @return the version of this tree
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+	
+	/**
+	 * Returns the number of nodes in this tree.
+	 * 
+	 * @return the number of nodes in this tree
+	 */
+	public int size() {
+		return this.root == null ? 0 : this.root.size;
+	}
+	
+	/**
+	 * Returns the node at the provided path.
+	 * 
+	 * @param path the ids of the nodes from the root down to the node
+	 * @return the node at the path or {@code null} if there is none
+	 */
+	public PersistentNTreeNode<K,V> getNode(List<K> path) {
+		argsNotNull(path);
+		if (this.root == null || path.isEmpty() || !this.root.id.equals(path.get(0))) {
+			return null;
+		}
+		PersistentNTreeNode<K,V> node = this.root;
+		for (int i = 1; i < path.size() && node != null; i++) {
+			node = node.children.get(path.get(i));
+		}
+		return node;
+	}
+	
+	/**
+	 * Returns a {@code Stream} of the nodes of this tree in preorder. The nodes
+	 * are visited as the stream is consumed, keeping only the path to the
+	 * current node, and since this tree never changes the stream is a
+	 * consistent view of it however long it takes to consume.
+	 * 
+	 * @return a {@code Stream} of the nodes of this tree
+	 */
+	public Stream<PersistentNTreeNode<K,V>> stream() {
+		return StreamSupport.stream(Spliterators.spliterator(new PreOrderIterator<>(this.root), size(),
+				Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE), false);
+	}
+	
+	static class PreOrderIterator<K extends Comparable<K>,V> implements Iterator<PersistentNTreeNode<K,V>> {
+		
+		// Iterators over the children of the nodes in the path to the last returned node
+		final Deque<Iterator<PersistentNTreeNode<K,V>>> path = new ArrayDeque<>();
+		PersistentNTreeNode<K,V> next;
+		
+		PreOrderIterator(PersistentNTreeNode<K,V> root) {
+			this.next = root;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			if (this.next != null) {
+				return true;
+			}
+			while (!this.path.isEmpty()) {
+				Iterator<PersistentNTreeNode<K,V>> children = this.path.peek();
+				if (children.hasNext()) {
+					this.next = children.next();
+					return true;
+				}
+				this.path.pop();
+			}
+			return false;
+		}
+		
+		@Override
+		public PersistentNTreeNode<K,V> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			PersistentNTreeNode<K,V> node = this.next;
+			this.next = null;
+			if (!node.children.isEmpty()) {
+				this.path.push(node.children.values().iterator());
+			}
+			return node;
+		}
+		
+	}
+	
+	//==============================================================================================
+	//	COPYING CHANGES
+	//==============================================================================================
+	
+	/**
+	 * Returns a new tree whose root is the provided node.
+	 * 
+	 * @param root the root of the returned tree
+	 * @return a new tree with the provided root
+	 */
+	public PersistentNTree<K,V> withRoot(PersistentNTreeNode<K,V> root) {
+		argsNotNull(root);
+		if (root == this.root) {
+			return this;
+		}
+		return new PersistentNTree<>(this.id, root, this.version + 1);
+	}
+	
+	/**
+	 * Returns a new tree where the node at the provided path has the provided value.
+	 * 
+	 * @param path the ids of the nodes from the root down to the node
+	 * @param value the new value of the node
+	 * @return a new tree with the changed value
+	 * @throws RuntimeException if there is no node at the provided path
+	 */
+	public PersistentNTree<K,V> setValue(List<K> path, V value) {
+		return update(path, node -> node.withValue(value));
+	}
+	
+	/**
+	 * Returns a new tree where the node at the provided path has the provided
+	 * node as a child, replacing the child with the same id if there is one. The
+	 * provided node and its descendants are shared, not copied.
+	 * 
+	 * @param parentPath the ids of the nodes from the root down to the parent
+	 * @param child the node to set as a child
+	 * @return a new tree with the child set
+	 * @throws RuntimeException if there is no node at the provided path
+	 */
+	public PersistentNTree<K,V> setChild(List<K> parentPath, PersistentNTreeNode<K,V> child) {
+		argsNotNull(child);
+		return update(parentPath, node -> node.withChild(child));
+	}
+	
+	/**
+	 * Returns a new tree where the node at the provided path has a new child
+	 * with the provided id and value. If the node already has a child with the
+	 * same id this tree is returned.
+	 * 
+	 * @param parentPath the ids of the nodes from the root down to the parent
+	 * @param id the id of the new child
+	 * @param value the value of the new child. Can be {@code null}
+	 * @return a new tree with the new child or this tree if there was already
+	 * 			a child with the same id
+	 * @throws RuntimeException if there is no node at the provided path
+	 */
+	public PersistentNTree<K,V> addChild(List<K> parentPath, K id, V value) {
+		argsNotNull(id);
+		return update(parentPath, node -> node.children.containsKey(id) ? node : node.withChild(PersistentNTreeNode.of(id, value)));
+	}
+	
+	/**
+	 * Returns a new tree without the node at the provided path and its
+	 * descendants. Removing the root returns an empty tree.
+	 * 
+	 * @param path the ids of the nodes from the root down to the node to remove
+	 * @return a new tree without the node
+	 * @throws RuntimeException if there is no node at the provided path
+	 */
+	public PersistentNTree<K,V> remove(List<K> path) {
+		argsNotNull(path);
+		if (getNode(path) == null) {
+			throw new RuntimeException("No node at path " + path);
+		}
+		if (path.size() == 1) {
+			return new PersistentNTree<>(this.id, null, this.version + 1);
+		}
+		K id = path.get(path.size() - 1);
+		return update(path.subList(0, path.size() - 1), node -> node.withoutChild(id));
+	}
+	
+	// Applies the change to the node at the path and copies the nodes up to the root
+	PersistentNTree<K,V> update(List<K> path, UnaryOperator<PersistentNTreeNode<K,V>> change) {
+		argsNotNull(path);
+		if (this.root == null || path.isEmpty() || !this.root.id.equals(path.get(0))) {
+			throw new RuntimeException("No node at path " + path);
+		}
+		PersistentNTreeNode<K,V> newRoot = copyPath(this.root, path, 1, change);
+		if (newRoot == this.root) {
+			return this;
+		}
+		return new PersistentNTree<>(this.id, newRoot, this.version + 1);
+	}
+	
+	static <K extends Comparable<K>,V> PersistentNTreeNode<K,V> copyPath(PersistentNTreeNode<K,V> node,
+			List<K> path, int index, UnaryOperator<PersistentNTreeNode<K,V>> change) {
+		if (index == path.size()) {
+			return change.apply(node);
+		}
+		PersistentNTreeNode<K,V> child = node.children.get(path.get(index));
+		if (child == null) {
+			throw new RuntimeException("No node at path " + path);
+		}
+		PersistentNTreeNode<K,V> newChild = copyPath(child, path, index + 1, change);
+		if (newChild == child) {
+			return node;
+		}
+		return node.withChild(newChild);
+	}
+	
+	//==============================================================================================
+	//	CONVERSION
+	//==============================================================================================
+	
+	/**
+	 * Returns a new mutable {@link NTree} with the same id, version and nodes as
+	 * this tree. Node values are not cloned.
+	 * 
+	 * @return a mutable copy of this tree
+	 */
+	public NTree<K,V> toNTree() {
+		NTree<K,V> tree = new NTree<>(this.id);
+		tree.version = this.version;
+		if (this.root != null) {
+			tree.root = this.root.toNTreeNode(tree);
+		}
+		return tree;
+	}
+	
+	/**
+	 * Returns {@code true} if the provided object is a {@code PersistentNTree}
+	 * with the same id and an equal root. The versions are not compared.
+	 * 
+	 * @param obj the object to compare with
+	 * @return {@code true} if the trees have the same id and equal nodes
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof PersistentNTree)) {
+			return false;
+		}
+		PersistentNTree<?,?> other = (PersistentNTree<?,?>) obj;
+		return this.id.equals(other.id) && Objects.equals(this.root, other.root);
+	}
+	
+	@Override
+	public int hashCode() {
+		return 31 * this.id.hashCode() + Objects.hashCode(this.root);
+	}
+	
+	@Override
+	public String toString() {
+		return "PersistentNTree [id=" + this.id + ", version=" + this.version + ", size=" + size() + "]";
+	}
+	
+}
@@ -0,0 +1,108 @@
+package veve.datastructures.trees;
+
+import static veve.datastructures.trees.GeneralUtils.argsNotNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A canonicalization table of {@link PersistentNTreeNode}s. Interning a node
+ * returns the single instance held by the table that is equal to it, so trees
+ * interned with the same interner share all their identical subtrees, however
+ * many times they repeat within a tree or between trees.
+ * <p>
+ * Subtrees are interned from the leaves up. Once the children of a node are
+ * canonical, looking the node up in the table only compares the children by
+ * reference, so interning a subtree costs time proportional to its size and
+ * comparing two interned subtrees is a reference comparison.
+ * <p>
+ * The table holds strong references to every node it has interned. Discard the
+ * interner or call {@link #clear()} when the nodes are no longer needed. It is
+ * safe to intern from several threads at the same time.
+ * 
+ * @param <K> The type of the nodes ids.
+ * @param <V> The type of the nodes values. Must be immutable and implement
+ * 			{@code equals} and {@code hashCode} since equal values are shared.
+ */
+public final class PersistentNTreeInterner<K extends Comparable<K>,V> {
+	
+	final Map<PersistentNTreeNode<K,V>,PersistentNTreeNode<K,V>> table = new ConcurrentHashMap<>();
+	
+	/**
+	 * Returns the canonical instance of the provided subtree. The returned node
+	 * is equal to the provided node and all its descendants are canonical too.
+	 * 
+	 * @param node the subtree to intern
+	 * @return the canonical instance equal to the provided subtree
+	 */
+	public PersistentNTreeNode<K,V> intern(PersistentNTreeNode<K,V> node) {
+		argsNotNull(node);
+		return internSubtree(node);
+	}
+	
+	/**
+	 * Returns a tree with the same id and version as the provided tree whose
+	 * nodes are canonical instances.
+	 * 
+	 * @param tree the tree to intern
+	 * @return the provided tree if its root is already canonical or an equal
+	 * 			tree made of canonical nodes
+	 */
+	public PersistentNTree<K,V> intern(PersistentNTree<K,V> tree) {
+		argsNotNull(tree);
+		if (tree.root == null) {
+			return tree;
+		}
+		PersistentNTreeNode<K,V> root = internSubtree(tree.root);
+		return root == tree.root ? tree : new PersistentNTree<>(tree.id, root, tree.version);
+	}
+	
+	/**
+	 * Returns an immutable copy of the provided {@link NTree} made of canonical
+	 * nodes. Node values are not cloned.
+	 * 
+	 * @param tree the tree to copy
+	 * @return an interned immutable copy of the tree
+	 */
+	public PersistentNTree<K,V> intern(NTree<K,V> tree) {
+		return intern(PersistentNTree.fromNTree(tree));
+	}
+	
+	/**
+	 * Returns the number of distinct subtrees held by this interner.
+	 * 
+	 * @return the number of canonical nodes
+	 */
+	public int size() {
+		return this.table.size();
+	}
+	
+	/**
+	 * Removes all the canonical nodes from this interner. Nodes interned before
+	 * are still valid but are no longer shared with nodes interned after.
+	 */
+	public void clear() {
+		this.table.clear();
+	}
+	
+	PersistentNTreeNode<K,V> internSubtree(PersistentNTreeNode<K,V> node) {
+		Map<K,PersistentNTreeNode<K,V>> children = null;
+		for (PersistentNTreeNode<K,V> child : node.children.values()) {
+			PersistentNTreeNode<K,V> canonicalChild = internSubtree(child);
+			if (canonicalChild != child) {
+				if (children == null) {
+					children = new HashMap<>(node.children);
+				}
+				children.put(child.id, canonicalChild);
+			}
+		}
+		PersistentNTreeNode<K,V> candidate = children == null
+				? node
+				: new PersistentNTreeNode<>(node.id, node.value, Collections.unmodifiableMap(children));
+		PersistentNTreeNode<K,V> canonical = this.table.putIfAbsent(candidate, candidate);
+		return canonical == null ? candidate : canonical;
+	}
+	
+}
@@ -0,0 +1,287 @@
+package veve.datastructures.trees;
+
+import static veve.datastructures.trees.GeneralUtils.argsNotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An immutable node of a {@link PersistentNTree}. A node has an id, a value
+ * which can be {@code null} and zero or more children whose ids are unique
+ * between themselves. Nodes have no reference to their parent or to a tree, so
+ * the same node instance can be shared by many versions of a tree and by
+ * different trees.
+ * <p>
+ * The methods that change a node return a new node and leave this node unchanged.
+ * Only the changed node is copied, its children are shared with this node.
+ * <p>
+ * Nodes are equal when they have equal ids, equal values and equal children.
+ * The structural hash of a subtree is computed when the node is created, so
+ * {@link #hashCode()} is constant time and {@link #equals(Object)} only walks
+ * the subtrees when the hashes match and the children are not the same
+ * instances. A {@link PersistentNTreeInterner} uses this to share identical
+ * subtrees.
+ * 
+ * @param <K> The type of the node id. Must implement {@code Comparable}.
+ * @param <V> The type of the node value. Should be immutable since it is shared
+ * 			between versions.
+ */
+public final class PersistentNTreeNode<K extends Comparable<K>,V> {
+	
+	final K id;
+	final V value;
+	final Map<K,PersistentNTreeNode<K,V>> children;
+	final int size;
+	final int hash;
+	
+	PersistentNTreeNode(K id, V value, Map<K,PersistentNTreeNode<K,V>> children) {
+		this.id = id;
+		this.value = value;
+		this.children = children;
+		int size = 1;
+		int childrenHash = 0;
+		for (PersistentNTreeNode<K,V> child : children.values()) {
+			size += child.size;
+			// Sum of mixed hashes so the result does not depend on the order of the children
+			childrenHash += NTreeNode.mixHash(child.hash);
+		}
+		this.size = size;
+		this.hash = 31 * (31 * id.hashCode() + Objects.hashCode(value)) + childrenHash;
+	}
+	
+	/**
+	 * Returns a new node without children.
+	 * 
+	 * @param id the id of the node
+	 * @param value the value of the node. Can be {@code null}
+	 * @return a new node without children
+	 */
+	public static <K extends Comparable<K>,V> PersistentNTreeNode<K,V> of(K id, V value) {
+		argsNotNull(id);
+		return new PersistentNTreeNode<>(id, value, Collections.emptyMap());
+	}
+	
+	/**
+	 * Returns a new node with the id and value of the provided {@link NTreeNode}
+	 * and with its descendants. Values are not cloned.
+	 * 
+	 * @param node the node to copy together with its descendants
+	 * @return the new node
+	 */
+	public static <K extends Comparable<K>,V> PersistentNTreeNode<K,V> fromNTreeNode(NTreeNode<K,V> node) {
+		argsNotNull(node);
+		if (node.children().isEmpty()) {
+			return new PersistentNTreeNode<>(node.id, node.value, Collections.emptyMap());
+		}
+		Map<K,PersistentNTreeNode<K,V>> children = new HashMap<>();
+		node.children().forEach((id, child) -> children.put(id, fromNTreeNode(child)));
+		return new PersistentNTreeNode<>(node.id, node.value, Collections.unmodifiableMap(children));
+	}
+	
+	//==============================================================================================
+	//	GETTERS
+	//==============================================================================================
+	
+	/**
+	 * Returns the id of this node.
+	 * 
+	 * @return the id of this node
+	 */
+	public K getId() {
+		return this.id;
+	}
+	
+	/**
+	 * Returns the value of this node.
+	 * 
+	 * @return the value of this node
+	 */
+	public V getValue() {
+		return this.value;
+	}
+	
+	/**
+	 * Returns an unmodifiable {@code Map} of the children of this node where
+	 * the keys are their ids.
+	 * 
+	 * @return the children of this node
+	 */
+	public Map<K,PersistentNTreeNode<K,V>> getChildren() {
+		return this.children;
+	}
+	
+	/**
+	 * Returns the child of this node with the provided id.
+	 * 
+	 * @param id the id of the child
+	 * @return the child with the provided id or {@code null} if there is none
+	 */
+	public PersistentNTreeNode<K,V> childWithId(K id) {
+		argsNotNull(id);
+		return this.children.get(id);
+	}
+	
+	/**
+	 * Returns a {@code List} of the ids of the children of this node.
+	 * 
+	 * @return the ids of the children of this node
+	 */
+	public List<K> childrenIds() {
+		return new ArrayList<>(this.children.keySet());
+	}
+	
+	/**
+	 * Returns the number of children of this node.
+	 * 
+	 * @return the number of children of this node
+	 */
+	public int childrenSize() {
+		return this.children.size();
+	}
+	
+	/**
+	 * Returns the number of nodes of the subtree of this node including this
+	 * node. The size is computed when the node is created.
+	 * 
+	 * @return the number of nodes in this subtree
+	 */
+	public int size() {
+		return this.size;
+	}
+	
+	//==============================================================================================
+	//	COPYING CHANGES
+	//==============================================================================================
+	
+	/**
+	 * Returns a copy of this node with a different value and the same children.
+	 * 
+	 * @param value the value of the returned node
+	 * @return a copy of this node with the provided value or this node if the
+	 * 			value is the same instance
+	 */
+	public PersistentNTreeNode<K,V> withValue(V value) {
+		if (value == this.value) {
+			return this;
+		}
+		return new PersistentNTreeNode<>(this.id, value, this.children);
+	}
+	
+	/**
+	 * Returns a copy of this node with the provided node as a child, replacing
+	 * the child with the same id if there is one.
+	 * 
+	 * @param child the child to set
+	 * @return a copy of this node with the provided child or this node if the
+	 * 			child is already a child of this node
+	 */
+	public PersistentNTreeNode<K,V> withChild(PersistentNTreeNode<K,V> child) {
+		argsNotNull(child);
+		if (this.children.get(child.id) == child) {
+			return this;
+		}
+		Map<K,PersistentNTreeNode<K,V>> children = new HashMap<>(this.children);
+		children.put(child.id, child);
+		return new PersistentNTreeNode<>(this.id, this.value, Collections.unmodifiableMap(children));
+	}
+	
+	/**
+	 * Returns a copy of this node without the child with the provided id.
+	 * 
+	 * @param id the id of the child to leave out
+	 * @return a copy of this node without the child or this node if it has no
+	 * 			child with the provided id
+	 */
+	public PersistentNTreeNode<K,V> withoutChild(K id) {
+		argsNotNull(id);
+		if (!this.children.containsKey(id)) {
+			return this;
+		}
+		if (this.children.size() == 1) {
+			return new PersistentNTreeNode<>(this.id, this.value, Collections.emptyMap());
+		}
+		Map<K,PersistentNTreeNode<K,V>> children = new HashMap<>(this.children);
+		children.remove(id);
+		return new PersistentNTreeNode<>(this.id, this.value, Collections.unmodifiableMap(children));
+	}
+	
+	//==============================================================================================
+	//	CONVERSION
+	//==============================================================================================
+	
+	/**
+	 * Returns a new {@link NTreeNode} owned by the provided tree with the id and
+	 * value of this node and with its descendants. Values are not cloned.
+	 * 
+	 * @param treeOfBelonging the tree that owns the returned node
+	 * @return a mutable copy of this subtree
+	 */
+	public NTreeNode<K,V> toNTreeNode(NTree<K,V> treeOfBelonging) {
+		argsNotNull(treeOfBelonging);
+		NTreeNode<K,V> node = new NTreeNode<>(treeOfBelonging);
+		node.id = this.id;
+		node.value = this.value;
+		this.children.forEach((id, child) -> {
+			NTreeNode<K,V> nodeChild = child.toNTreeNode(treeOfBelonging);
+			nodeChild.parent = node;
+			node.writableChildren().put(id, nodeChild);
+		});
+		return node;
+	}
+	
+	//==============================================================================================
+	//	EQUALITY
+	//==============================================================================================
+	
+	/**
+	 * Returns the structural hash of the subtree of this node, which depends on
+	 * the ids and values of this node and of all its descendants.
+	 * 
+	 * @return the structural hash of this subtree
+	 */
+	@Override
+	public int hashCode() {
+		return this.hash;
+	}
+	
+	/**
+	 * Returns {@code true} if the provided object is a {@code PersistentNTreeNode}
+	 * with the same id, value and equal children, compared recursively. Children
+	 * that are the same instance are not walked, so comparing subtrees that are
+	 * shared, as in interned trees, is a reference comparison.
+	 * 
+	 * @param obj the object to compare with
+	 * @return {@code true} if the subtrees are equal
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof PersistentNTreeNode)) {
+			return false;
+		}
+		PersistentNTreeNode<?,?> other = (PersistentNTreeNode<?,?>) obj;
+		if (this.hash != other.hash || this.size != other.size || this.children.size() != other.children.size()
+				|| !this.id.equals(other.id) || !Objects.equals(this.value, other.value)) {
+			return false;
+		}
+		for (PersistentNTreeNode<K,V> child : this.children.values()) {
+			PersistentNTreeNode<?,?> otherChild = other.children.get(child.id);
+			if (otherChild != child && !child.equals(otherChild)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	@Override
+	public String toString() {
+		return "PersistentNTreeNode [id=" + this.id + ", value=" + this.value + ", children_ids=" + this.children.keySet() + "]";
+	}
+	
+}
@@ -0,0 +1,94 @@
+package veve.datastructures.trees;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A hierarchical lock of a tree or of a node and its subtree. Exclusive and
+ * shared modes lock the whole subtree while the intention modes are taken on
+ * every ancestor of a locked node, telling that some node below is locked.
+ * Two writers in disjoint subtrees only share intention exclusive locks on
+ * their common ancestors, which are compatible, so they run at the same time.
+ * <p>
+ * Locks must be taken from the root down and released from the bottom up so
+ * that threads always wait for each other in the same order.
+ * <p>
+ * While a shared request waits no new intention exclusive lock is granted, so
+ * writers that keep locking different subtrees cannot starve readers.
+ */
+class SubtreeLock {
+	
+	enum Mode { INTENTION_SHARED, INTENTION_EXCLUSIVE, SHARED, EXCLUSIVE }
+	
+	@SuppressWarnings("rawtypes")
+	static final AtomicReferenceFieldUpdater<NTreeNode, SubtreeLock> NODE_LOCK =
+			AtomicReferenceFieldUpdater.newUpdater(NTreeNode.class, SubtreeLock.class, "subtreeLock");
+	
+	int intentionShared;
+	int intentionExclusive;
+	int shared;
+	// Shared requests waiting for the intention exclusive locks to be released
+	int waitingShared;
+	boolean exclusive;
+	
+	// Returns the lock of the node creating it the first time
+	@SuppressWarnings("unchecked")
+	static SubtreeLock of(NTreeNode<?,?> node) {
+		SubtreeLock lock = node.subtreeLock;
+		if (lock == null) {
+			NODE_LOCK.compareAndSet(node, null, new SubtreeLock());
+			lock = node.subtreeLock;
+		}
+		return lock;
+	}
+	
+	synchronized void lock(Mode mode) {
+		boolean interrupted = false;
+		boolean waiting = false;
+		while (!isCompatibleWith(mode)) {
+			if (mode == Mode.SHARED && !waiting) {
+				waiting = true;
+				this.waitingShared++;
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (waiting) {
+			this.waitingShared--;
+		}
+		switch (mode) {
+			case INTENTION_SHARED: this.intentionShared++; break;
+			case INTENTION_EXCLUSIVE: this.intentionExclusive++; break;
+			case SHARED: this.shared++; break;
+			case EXCLUSIVE: this.exclusive = true; break;
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	synchronized void unlock(Mode mode) {
+		switch (mode) {
+			case INTENTION_SHARED: this.intentionShared--; break;
+			case INTENTION_EXCLUSIVE: this.intentionExclusive--; break;
+			case SHARED: this.shared--; break;
+			case EXCLUSIVE: this.exclusive = false; break;
+		}
+		notifyAll();
+	}
+	
+	boolean isCompatibleWith(Mode mode) {
+		if (this.exclusive) {
+			return false;
+		}
+		switch (mode) {
+			case INTENTION_SHARED: return true;
+			case INTENTION_EXCLUSIVE: return this.shared == 0 && this.waitingShared == 0;
+			case SHARED: return this.intentionExclusive == 0;
+			default: return this.intentionShared == 0 && this.intentionExclusive == 0 && this.shared == 0;
+		}
+	}
+	
+}
@@ -0,0 +1,268 @@
+package veve.datastructures.trees;
+
+import static veve.datastructures.trees.GeneralUtils.safeFunction;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * A Bloom filter kept for every node of a tree which summarizes the keys of the
+ * node and all of its descendants. A search for a key can skip a whole subtree
+ * when the filter of the subtree root says the key is definitely not in it.
+ * False positives are possible, false negatives are not.
+ * <p>
+ * The filter of each node is sized from the number of keys in its subtree with
+ * {@link #bitsPerKey} bits per key, rounded up to a power of two words and
+ * capped at {@link #MAX_WORDS_PER_NODE}, so filters near the root do not fill
+ * up and a search for a missing key is usually ruled out at the root.
+ * <p>
+ * Since the filters have different sizes the bits of a node can not be built
+ * from the bits of its children, so keys are added to each ancestor by their
+ * hash. Removed keys are left in the filters, which only adds false positives.
+ * A filter is rebuilt from the keys of its subtree when more keys were added
+ * to it than it was sized for, which also drops the removed keys.
+ * <p>
+ * The bits of each node are stored in {@link NTreeNode#searchFilterBits} and
+ * the number of keys added to them in {@link NTreeNode#searchFilterKeys}. A
+ * {@code null} array means the bits are unknown and the subtree is never skipped.
+ */
+class SubtreeSearchFilter<K extends Comparable<K>,V,R> {
+	
+	static final int DEFAULT_BITS_PER_KEY = 10;
+	// 128 KiB, enough for about 100 thousand keys with the default bits per key
+	static final int MAX_WORDS_PER_NODE = 1 << 14;
+	
+	Function<NTreeNode<K,V>,R> keyGeneratingFunction;
+	boolean isIdFilter;
+	int bitsPerKey;
+	int numHashes;
+	
+	SubtreeSearchFilter(Function<NTreeNode<K,V>,R> keyGeneratingFunction, boolean isIdFilter, int bitsPerKey) {
+		if (bitsPerKey <= 0) {
+			throw new RuntimeException("Bits per key must be positive");
+		}
+		this.keyGeneratingFunction = safeFunction(keyGeneratingFunction);
+		this.isIdFilter = isIdFilter;
+		this.bitsPerKey = bitsPerKey;
+		this.numHashes = Math.max(1, (int) Math.round(bitsPerKey * Math.log(2)));
+	}
+	
+	SubtreeSearchFilter<K,V,R> copy() {
+		return new SubtreeSearchFilter<>(this.keyGeneratingFunction, this.isIdFilter, this.bitsPerKey);
+	}
+	
+	R keyOf(NTreeNode<K,V> node) {
+		return this.keyGeneratingFunction.apply(node);
+	}
+	
+	//==============================================================================================
+	//	BITS
+	//==============================================================================================
+	
+	// Number of words for the passed number of keys, a power of two so bits are found with a mask
+	int wordsFor(long numKeys) {
+		long words = Math.max(1, (numKeys * this.bitsPerKey + 63) / 64);
+		if (words >= MAX_WORDS_PER_NODE) {
+			return MAX_WORDS_PER_NODE;
+		}
+		return Integer.highestOneBit((int) words * 2 - 1);
+	}
+	
+	// Number of keys the passed bits were sized for
+	int capacityOf(long[] bits) {
+		return Math.max(1, (int) ((long) bits.length * 64 / this.bitsPerKey));
+	}
+	
+	void addHash(long[] bits, long hash) {
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		int mask = bits.length * 64 - 1;
+		for (int i = 0; i < this.numHashes; i++) {
+			int bit = (h1 + i * h2) & mask;
+			bits[bit >>> 6] |= 1L << bit;
+		}
+	}
+	
+	boolean bitsContainHash(long[] bits, long hash) {
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32) | 1;
+		int mask = bits.length * 64 - 1;
+		for (int i = 0; i < this.numHashes; i++) {
+			int bit = (h1 + i * h2) & mask;
+			if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	long[] bitsFor(long[] hashes, int count) {
+		long[] bits = new long[wordsFor(count)];
+		for (int i = 0; i < count; i++) {
+			addHash(bits, hashes[i]);
+		}
+		return bits;
+	}
+	
+	static long hashOf(Object key) {
+		return mix(key.hashCode());
+	}
+	
+	/**
+	 * Returns {@code false} only if no node in the subtree of the passed node
+	 * can have the passed key.
+	 */
+	boolean mightContain(NTreeNode<K,V> node, Object key) {
+		long[] bits = node.searchFilterBits;
+		if (bits == null || key == null) {
+			return true;
+		}
+		return bitsContainHash(bits, hashOf(key));
+	}
+	
+	//==============================================================================================
+	//	KEYS OF SUBTREES
+	//==============================================================================================
+	
+	// Hashes of the keys of a subtree. Only the first size hashes are used.
+	static class Hashes {
+		long[] hashes = new long[8];
+		int size;
+		
+		void add(long hash) {
+			if (this.size == this.hashes.length) {
+				this.hashes = Arrays.copyOf(this.hashes, this.size * 2);
+			}
+			this.hashes[this.size++] = hash;
+		}
+		
+		void addAll(Hashes other) {
+			if (this.size + other.size > this.hashes.length) {
+				this.hashes = Arrays.copyOf(this.hashes, Math.max(this.size + other.size, this.hashes.length * 2));
+			}
+			System.arraycopy(other.hashes, 0, this.hashes, this.size, other.size);
+			this.size += other.size;
+		}
+	}
+	
+	void addKeyHash(Hashes hashes, NTreeNode<K,V> node) {
+		R key = keyOf(node);
+		if (key != null) {
+			hashes.add(hashOf(key));
+		}
+	}
+	
+	/**
+	 * Sets the bits of every node of the subtree of the passed node sized for
+	 * the keys of its own subtree and returns the hashes of those keys.
+	 */
+	Hashes computeSubtree(NTreeNode<K,V> node) {
+		Hashes hashes = new Hashes();
+		addKeyHash(hashes, node);
+		for (NTreeNode<K,V> child : node.children().values()) {
+			hashes.addAll(computeSubtree(child));
+		}
+		node.searchFilterBits = bitsFor(hashes.hashes, hashes.size);
+		node.searchFilterKeys = hashes.size;
+		return hashes;
+	}
+	
+	Hashes subtreeHashes(NTreeNode<K,V> node) {
+		Hashes hashes = new Hashes();
+		addSubtreeHashes(hashes, node);
+		return hashes;
+	}
+	
+	void addSubtreeHashes(Hashes hashes, NTreeNode<K,V> node) {
+		addKeyHash(hashes, node);
+		for (NTreeNode<K,V> child : node.children().values()) {
+			addSubtreeHashes(hashes, child);
+		}
+	}
+	
+	// Rebuilds the bits of the node alone from the keys of its subtree, sized for them
+	void rebuild(NTreeNode<K,V> node) {
+		Hashes hashes = subtreeHashes(node);
+		node.searchFilterBits = bitsFor(hashes.hashes, hashes.size);
+		node.searchFilterKeys = hashes.size;
+	}
+	
+	void addHashes(NTreeNode<K,V> node, Hashes hashes) {
+		long[] bits = node.searchFilterBits;
+		if (bits == null || (node.searchFilterKeys + hashes.size > capacityOf(bits) && bits.length < MAX_WORDS_PER_NODE)) {
+			rebuild(node);
+			return;
+		}
+		for (int i = 0; i < hashes.size; i++) {
+			addHash(bits, hashes.hashes[i]);
+		}
+		node.searchFilterKeys += hashes.size;
+	}
+	
+	void addHashesToAncestors(NTreeNode<K,V> node, Hashes hashes) {
+		if (hashes.size == 0) {
+			return;
+		}
+		for (NTreeNode<K,V> curr = node.parent; curr != null; curr = curr.parent) {
+			addHashes(curr, hashes);
+		}
+	}
+	
+	//==============================================================================================
+	//	CHANGES
+	//==============================================================================================
+	
+	/**
+	 * Adds the current key of the passed node to its bits and to the bits of
+	 * each of its ancestors. Used when the key of the node could have changed.
+	 */
+	void keyChanged(NTreeNode<K,V> node) {
+		Hashes hashes = new Hashes();
+		addKeyHash(hashes, node);
+		if (hashes.size == 0) {
+			return;
+		}
+		addHashes(node, hashes);
+		addHashesToAncestors(node, hashes);
+	}
+	
+	/**
+	 * Gives the bits of a node to the node that replaced it keeping its
+	 * children, and then adds the key of the replacement.
+	 */
+	void nodeReplaced(NTreeNode<K,V> node, NTreeNode<K,V> replacement) {
+		replacement.searchFilterBits = node.searchFilterBits;
+		replacement.searchFilterKeys = node.searchFilterKeys;
+		keyChanged(replacement);
+	}
+	
+	/**
+	 * Computes the bits of the whole subtree of the passed node and adds its
+	 * keys to each of its ancestors.
+	 */
+	void addSubtree(NTreeNode<K,V> node) {
+		addHashesToAncestors(node, computeSubtree(node));
+	}
+	
+	/**
+	 * Same as {@link #addSubtree(NTreeNode)} but keeps the bits the nodes of the
+	 * subtree already have, for a subtree that was moved without changing its nodes.
+	 */
+	void addMovedSubtree(NTreeNode<K,V> node) {
+		if (node.searchFilterBits == null) {
+			addSubtree(node);
+			return;
+		}
+		addHashesToAncestors(node, subtreeHashes(node));
+	}
+	
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+	
+}
@@ -0,0 +1,97 @@
+package veve.datastructures.trees;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import veve.datastructures.trees.NTreeConstants.TreeChangeType;
+
+/**
+ * Keeps what is needed to roll back a batch of changes to a {@link NTree}. The
+ * state of each node is saved the first time the node is about to be changed
+ * during the batch, so the memory used grows with the number of changed nodes
+ * and not with the size of the tree.
+ */
+class TreeBatch<K extends Comparable<K>,V> {
+	
+	NTree<K,V> tree;
+	NTreeNode<K,V> rootBeforeBatch;
+	Map<NTreeNode<K,V>, NodeState<K,V>> savedStates = new IdentityHashMap<>();
+	List<TreeChangeEvent<K,V>> changeEvents = new ArrayList<>();
+	
+	TreeBatch(NTree<K,V> tree) {
+		this.tree = tree;
+		this.rootBeforeBatch = tree.root;
+	}
+	
+	void saveState(NTreeNode<K,V> node) {
+		if (node != null && !this.savedStates.containsKey(node)) {
+			this.savedStates.put(node, new NodeState<>(node));
+		}
+	}
+	
+	// Merges the value changes of each node into the first one, keeping its old value and the last new value
+	List<TreeChangeEvent<K,V>> coalescedChangeEvents() {
+		Map<NTreeNode<K,V>,Integer> valueChangeIndexes = new IdentityHashMap<>();
+		List<TreeChangeEvent<K,V>> coalesced = new ArrayList<>();
+		for (TreeChangeEvent<K,V> event : this.changeEvents) {
+			if (event.type != TreeChangeType.VALUE_CHANGED) {
+				coalesced.add(event);
+				continue;
+			}
+			Integer index = valueChangeIndexes.get(event.node);
+			if (index == null) {
+				valueChangeIndexes.put(event.node, coalesced.size());
+				coalesced.add(event);
+			}
+			else {
+				V oldValue = coalesced.get(index).oldValue;
+				coalesced.set(index, TreeChangeEvent.valueChanged(event.node, oldValue, event.newValue));
+			}
+		}
+		return Collections.unmodifiableList(coalesced);
+	}
+	
+	void rollback() {
+		this.savedStates.forEach((node, state) -> state.restore(node));
+		this.tree.root = this.rootBeforeBatch;
+		// Ancestors of restored nodes may have cached hashes computed during the batch
+		this.savedStates.keySet().forEach(node -> {
+			for (NTreeNode<K,V> curr = node; curr != null; curr = curr.parent) {
+				curr.hasSubtreeHash = false;
+			}
+		});
+	}
+	
+	static class NodeState<K extends Comparable<K>,V> {
+	
+		K id;
+		V value;
+		long version;
+		NTreeNode<K,V> parent;
+		NTree<K,V> treeOfBelonging;
+		Map<K,NTreeNode<K,V>> children;
+	
+		NodeState(NTreeNode<K,V> node) {
+			this.id = node.id;
+			this.value = node.value;
+			this.version = node.version;
+			this.parent = node.parent;
+			this.treeOfBelonging = node.treeOfBelonging;
+			this.children = node.children == null && node.copyOnWriteSource == null ? null : CompactChildMap.copyOf(node.children());
+		}
+	
+		void restore(NTreeNode<K,V> node) {
+			node.id = this.id;
+			node.value = this.value;
+			node.version = this.version;
+			node.parent = this.parent;
+			node.treeOfBelonging = this.treeOfBelonging;
+			node.children = this.children;
+		}
+	
+	}
+	
+}
@@ -0,0 +1,139 @@
+package veve.datastructures.trees;
+
+import static veve.datastructures.trees.GeneralUtils.argsNotNull;
+
+import java.lang.invoke.VarHandle;
+import java.util.function.Consumer;
+
+import veve.datastructures.trees.NTreeConstants.RingBufferOverflowPolicy;
+
+/**
+ * The position of one consumer in a {@link TreeChangeRingBuffer}. Each 
+ * consumer must have its own cursor, created with 
+ * {@link TreeChangeRingBuffer#newCursor()}, and use it from a single thread.
+ * <p>
+ * The record returned by a cursor is owned by the cursor and reused for the
+ * next record read, so reading does not allocate.
+ * 
+ * @param <K> The type of the tree and nodes ids.
+ * @param <V> The type of the {@code value} property of the nodes.
+ */
+public final class TreeChangeCursor<K extends Comparable<K>,V> {
+	
+	final TreeChangeRingBuffer<K,V> buffer;
+	final TreeChangeRecord<K,V> record = new TreeChangeRecord<>();
+	// Sequence of the next record to read. Read by the producer to know which slots are free.
+	volatile long nextSequence;
+	long missed;
+	
+	TreeChangeCursor(TreeChangeRingBuffer<K,V> buffer, long nextSequence) {
+		this.buffer = buffer;
+		this.nextSequence = nextSequence;
+	}
+	
+	/**
+	 * Reads the next record if one was published.
+	 * 
+	 * @return the next record or {@code null} if there is no new record
+	 */
+	public TreeChangeRecord<K,V> poll() {
+		TreeChangeRecord<K,V>[] records = this.buffer.records;
+		while (true) {
+			long next = this.nextSequence;
+			long published = this.buffer.published.get();
+			if (next > published) {
+				return null;
+			}
+			if (published - next >= records.length) {
+				skipOverwritten(published);
+				continue;
+			}
+			TreeChangeRecord<K,V> slot = records[(int) next & this.buffer.mask];
+			if (slot.sequence != next) {
+				skipOverwritten(published);
+				continue;
+			}
+			this.record.copyFrom(slot);
+			// The producer may have overwritten the slot while it was copied. The fence keeps the
+			// plain reads of copyFrom from being reordered after the check, as in StampedLock.validate.
+			VarHandle.loadLoadFence();
+			if (slot.sequence != next) {
+				skipOverwritten(published);
+				continue;
+			}
+			this.record.sequence = next;
+			this.nextSequence = next + 1;
+			return this.record;
+		}
+	}
+	
+	/**
+	 * Reads the next record waiting with the wait strategy of the buffer until
+	 * one is published.
+	 * 
+	 * @return the next record
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public TreeChangeRecord<K,V> take() throws InterruptedException {
+		for (int attempt = 0; ; attempt++) {
+			TreeChangeRecord<K,V> record = poll();
+			if (record != null) {
+				return record;
+			}
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			TreeChangeRingBuffer.idle(this.buffer.waitStrategy, attempt);
+		}
+	}
+	
+	/**
+	 * Reads all the records published so far passing each one to the 
+	 * provided {@code Consumer}.
+	 * 
+	 * @param consumer the {@code Consumer} of the records
+	 * @return the number of records read
+	 */
+	public int drain(Consumer<TreeChangeRecord<K,V>> consumer) {
+		argsNotNull(consumer);
+		int count = 0;
+		for (TreeChangeRecord<K,V> record = poll(); record != null; record = poll()) {
+			consumer.accept(record);
+			count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the number of records this cursor skipped because they were 
+	 * overwritten before being read. Always 0 with 
+	 * {@link RingBufferOverflowPolicy#BLOCK_PRODUCER}.
+	 * 
+	 * @return the number of missed records
+	 */
+	public long getMissedCount() {
+		return this.missed;
+	}
+	
+	/**
+	 * Removes this cursor from its buffer so the producer no longer waits for
+	 * it. The cursor must not be used after closing it.
+	 */
+	public void close() {
+		this.buffer.cursors.remove(this);
+	}
+	
+	// Moves to the oldest record that can still be read, leaving one slot for a record being written
+	void skipOverwritten(long published) {
+		long oldest = published - this.buffer.records.length + 2;
+		if (oldest > this.nextSequence) {
+			this.missed += oldest - this.nextSequence;
+			this.nextSequence = oldest;
+		}
+		else {
+			this.missed++;
+			this.nextSequence++;
+		}
+	}
+	
+}
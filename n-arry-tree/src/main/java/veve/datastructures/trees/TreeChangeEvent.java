@@ -0,0 +1,117 @@
+package veve.datastructures.trees;
+
+import veve.datastructures.trees.NTreeConstants.TreeChangeType;
+
+/**
+ * A change made to a node of a {@link NTree} reported to the 
+ * {@link TreeChangeListener}s of the tree. Which properties are set depends
+ * on the {@link TreeChangeType} of the event:<br>
+ * &#8226 {@code NODE_ADDED}: node and newParent, which is {@code null} for a root.<br>
+ * &#8226 {@code NODE_REMOVED}: node and oldParent, which is {@code null} for a root.<br>
+ * &#8226 {@code NODE_MOVED}: node, oldParent and newParent.<br>
+ * &#8226 {@code VALUE_CHANGED}: node, oldValue and newValue.<br>
+ * &#8226 {@code ID_REPLACED}: node and oldId. The new id is the id of the node.
+ * <p>
+ * Events hold references to the nodes, so the properties of a node read 
+ * after the event was created reflect later changes.
+ * 
+ * @param <K> The type of the tree and nodes ids.
+ * @param <V> The type of the {@code value} property of the nodes.
+ */
+public final class TreeChangeEvent<K extends Comparable<K>,V> {
+	
+	final TreeChangeType type;
+	final NTreeNode<K,V> node;
+	final NTreeNode<K,V> oldParent;
+	final NTreeNode<K,V> newParent;
+	final K oldId;
+	final V oldValue;
+	final V newValue;
+	
+	TreeChangeEvent(TreeChangeType type, NTreeNode<K,V> node, NTreeNode<K,V> oldParent, 
+			NTreeNode<K,V> newParent, K oldId, V oldValue, V newValue) {
+		this.type = type;
+		this.node = node;
+		this.oldParent = oldParent;
+		this.newParent = newParent;
+		this.oldId = oldId;
+		this.oldValue = oldValue;
+		this.newValue = newValue;
+	}
+	
+	static <K extends Comparable<K>,V> TreeChangeEvent<K,V> added(NTreeNode<K,V> node, NTreeNode<K,V> newParent) {
+		return new TreeChangeEvent<>(TreeChangeType.NODE_ADDED, node, null, newParent, null, null, null);
+	}
+	
+	static <K extends Comparable<K>,V> TreeChangeEvent<K,V> removed(NTreeNode<K,V> node, NTreeNode<K,V> oldParent) {
+		return new TreeChangeEvent<>(TreeChangeType.NODE_REMOVED, node, oldParent, null, null, null, null);
+	}
+	
+	static <K extends Comparable<K>,V> TreeChangeEvent<K,V> moved(NTreeNode<K,V> node, NTreeNode<K,V> oldParent, 
+			NTreeNode<K,V> newParent) {
+		return new TreeChangeEvent<>(TreeChangeType.NODE_MOVED, node, oldParent, newParent, null, null, null);
+	}
+	
+	static <K extends Comparable<K>,V> TreeChangeEvent<K,V> valueChanged(NTreeNode<K,V> node, V oldValue, V newValue) {
+		return new TreeChangeEvent<>(TreeChangeType.VALUE_CHANGED, node, null, null, null, oldValue, newValue);
+	}
+	
+	static <K extends Comparable<K>,V> TreeChangeEvent<K,V> idReplaced(NTreeNode<K,V> node, K oldId) {
+		return new TreeChangeEvent<>(TreeChangeType.ID_REPLACED, node, null, null, oldId, null, null);
+	}
+	
+	/**
+	 * @return the type of this change
+	 */
+	public TreeChangeType getType() {
+		return this.type;
+	}
+	
+	/**
+	 * @return the node that was added, removed, moved or changed
+	 */
+	public NTreeNode<K,V> getNode() {
+		return this.node;
+	}
+	
+	/**
+	 * @return the parent the node had before a removal or move, otherwise {@code null}
+	 */
+	public NTreeNode<K,V> getOldParent() {
+		return this.oldParent;
+	}
+	
+	/**
+	 * @return the parent of the node after an addition or move, otherwise {@code null}
+	 */
+	public NTreeNode<K,V> getNewParent() {
+		return this.newParent;
+	}
+	
+	/**
+	 * @return the id the node had before its id was replaced, otherwise {@code null}
+	 */
+	public K getOldId() {
+		return this.oldId;
+	}
+	
+	/**
+	 * @return the value the node had before its value was set, otherwise {@code null}
+	 */
+	public V getOldValue() {
+		return this.oldValue;
+	}
+	
+	/**
+	 * @return the value set to the node, otherwise {@code null}
+	 */
+	public V getNewValue() {
+		return this.newValue;
+	}
+	
+	@Override
+	public String toString() {
+		return "TreeChangeEvent [type=" + this.type + ", node_id=" + this.node.id + "]";
+	}
+	
+}
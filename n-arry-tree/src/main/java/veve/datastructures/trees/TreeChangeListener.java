@@ -0,0 +1,27 @@
+package veve.datastructures.trees;
+
+import java.util.List;
+
+/**
+ * Listener of the changes made to the nodes of a {@link NTree}. Listeners are
+ * added with {@link NTree#addChangeListener(TreeChangeListener)}.
+ * <p>
+ * Each change outside a batch is reported as soon as it is made. The changes
+ * made inside a batch, started with {@link NTree#batch(java.util.function.Consumer)}
+ * or {@link NTree#beginBatch()}, are reported together when the batch is
+ * committed and are not reported at all if it is rolled back.
+ * 
+ * @param <K> The type of the tree and nodes ids.
+ * @param <V> The type of the {@code value} property of the nodes.
+ */
+@FunctionalInterface
+public interface TreeChangeListener<K extends Comparable<K>,V> {
+	
+	/**
+	 * Called after one or more changes were made to the tree.
+	 * 
+	 * @param events the events of the changes in the order they were made
+	 */
+	void treeChanged(List<TreeChangeEvent<K,V>> events);
+	
+}
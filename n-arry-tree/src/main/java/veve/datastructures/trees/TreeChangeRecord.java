@@ -0,0 +1,123 @@
+package veve.datastructures.trees;
+
+import veve.datastructures.trees.NTreeConstants.TreeChangeType;
+
+/**
+ * A change to a tree read from a {@link TreeChangeRingBuffer} by a 
+ * {@link TreeChangeCursor}. Records are preallocated and reused: the record
+ * returned by a cursor is overwritten by the next record read with the same
+ * cursor, so copy what is needed before reading the next one.
+ * <p>
+ * The ids of the node and of its parents are copied when the change is 
+ * published, so they are the ids at the time of the change even if the node
+ * changes later.
+ * 
+ * @param <K> The type of the tree and nodes ids.
+ * @param <V> The type of the {@code value} property of the nodes.
+ */
+public final class TreeChangeRecord<K extends Comparable<K>,V> {
+	
+	volatile long sequence = -1;
+	TreeChangeType type;
+	NTreeNode<K,V> node;
+	K nodeId;
+	K oldParentId;
+	K newParentId;
+	K oldId;
+	V oldValue;
+	V newValue;
+	
+	TreeChangeRecord() {}
+	
+	void set(TreeChangeEvent<K,V> event) {
+		this.type = event.type;
+		this.node = event.node;
+		this.nodeId = event.node.id;
+		this.oldParentId = event.oldParent == null ? null : event.oldParent.id;
+		this.newParentId = event.newParent == null ? null : event.newParent.id;
+		this.oldId = event.oldId;
+		this.oldValue = event.oldValue;
+		this.newValue = event.newValue;
+	}
+	
+	void copyFrom(TreeChangeRecord<K,V> other) {
+		this.type = other.type;
+		this.node = other.node;
+		this.nodeId = other.nodeId;
+		this.oldParentId = other.oldParentId;
+		this.newParentId = other.newParentId;
+		this.oldId = other.oldId;
+		this.oldValue = other.oldValue;
+		this.newValue = other.newValue;
+	}
+	
+	/**
+	 * @return the position of this record in the sequence of published records,
+	 * 			starting at 0
+	 */
+	public long getSequence() {
+		return this.sequence;
+	}
+	
+	/**
+	 * @return the type of the change
+	 */
+	public TreeChangeType getType() {
+		return this.type;
+	}
+	
+	/**
+	 * @return the node that was changed
+	 */
+	public NTreeNode<K,V> getNode() {
+		return this.node;
+	}
+	
+	/**
+	 * @return the id of the node when the change was made
+	 */
+	public K getNodeId() {
+		return this.nodeId;
+	}
+	
+	/**
+	 * @return the id of the parent before a removal or move, otherwise {@code null}
+	 */
+	public K getOldParentId() {
+		return this.oldParentId;
+	}
+	
+	/**
+	 * @return the id of the parent after an addition or move, otherwise {@code null}
+	 */
+	public K getNewParentId() {
+		return this.newParentId;
+	}
+	
+	/**
+	 * @return the id the node had before its id was replaced, otherwise {@code null}
+	 */
+	public K getOldId() {
+		return this.oldId;
+	}
+	
+	/**
+	 * @return the value the node had before its value was set, otherwise {@code null}
+	 */
+	public V getOldValue() {
+		return this.oldValue;
+	}
+	
+	/**
+	 * @return the value set to the node, otherwise {@code null}
+	 */
+	public V getNewValue() {
+		return this.newValue;
+	}
+	
+	@Override
+	public String toString() {
+		return "TreeChangeRecord [sequence=" + this.sequence + ", type=" + this.type + ", node_id=" + this.nodeId + "]";
+	}
+	
+}
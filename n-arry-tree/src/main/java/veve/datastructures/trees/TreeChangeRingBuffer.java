@@ -0,0 +1,148 @@
+package veve.datastructures.trees;
+
+import static veve.datastructures.trees.GeneralUtils.argsNotNull;
+
+import java.lang.invoke.VarHandle;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import veve.datastructures.trees.NTreeConstants.RingBufferOverflowPolicy;
+import veve.datastructures.trees.NTreeConstants.RingBufferWaitStrategy;
+
+/**
+ * A bounded buffer of the changes made to a {@link NTree} that can be read by
+ * many consumers in other threads without slowing down the thread changing the
+ * tree. The buffer is a {@link TreeChangeListener}, so it is fed by adding it
+ * to a tree with {@link NTree#addChangeListener(TreeChangeListener)}.
+ * <p>
+ * The buffer has a single producer, the thread changing the tree, and any 
+ * number of consumers, each one reading all the records with its own
+ * {@link TreeChangeCursor}. The records are preallocated when the buffer is 
+ * created and reused, so publishing a change does not allocate and no lock 
+ * is taken by the producer or the consumers.
+ * <p>
+ * When a consumer lags behind by the capacity of the buffer the 
+ * {@link RingBufferOverflowPolicy} decides if the producer waits for it or
+ * if the oldest records are overwritten and counted as missed by the cursor.
+ * 
+ * @param <K> The type of the tree and nodes ids.
+ * @param <V> The type of the {@code value} property of the nodes.
+ */
+public final class TreeChangeRingBuffer<K extends Comparable<K>,V> implements TreeChangeListener<K,V> {
+	
+	final TreeChangeRecord<K,V>[] records;
+	final int mask;
+	final RingBufferWaitStrategy waitStrategy;
+	final RingBufferOverflowPolicy overflowPolicy;
+	// Sequence of the last published record
+	final AtomicLong published = new AtomicLong(-1);
+	final List<TreeChangeCursor<K,V>> cursors = new CopyOnWriteArrayList<>();
+	
+	/**
+	 * Creates a buffer with the provided capacity.
+	 * 
+	 * @param capacity the number of records of the buffer. Must be a power of two
+	 * @param waitStrategy how consumers and a blocked producer wait
+	 * @param overflowPolicy what to do when a consumer lags behind by the capacity
+	 * @throws RuntimeException if the capacity is not a positive power of two
+	 */
+	@SuppressWarnings("unchecked")
+	public TreeChangeRingBuffer(int capacity, RingBufferWaitStrategy waitStrategy, RingBufferOverflowPolicy overflowPolicy) {
+		argsNotNull(waitStrategy, overflowPolicy);
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+			throw new RuntimeException("Capacity must be a positive power of two");
+		}
+		this.records = (TreeChangeRecord<K,V>[]) new TreeChangeRecord<?,?>[capacity];
+		for (int i = 0; i < capacity; i++) {
+			this.records[i] = new TreeChangeRecord<>();
+		}
+		this.mask = capacity - 1;
+		this.waitStrategy = waitStrategy;
+		this.overflowPolicy = overflowPolicy;
+	}
+	
+	/**
+	 * Returns the number of records of this buffer.
+	 * 
+	 * @return the capacity of this buffer
+	 */
+	public int capacity() {
+		return this.records.length;
+	}
+	
+	/**
+	 * Returns the sequence of the last published record or -1 if none was 
+	 * published.
+	 * 
+	 * @return the sequence of the last published record
+	 */
+	public long publishedSequence() {
+		return this.published.get();
+	}
+	
+	/**
+	 * Returns a new cursor that reads the records published from now on.
+	 * 
+	 * @return a new cursor of this buffer
+	 */
+	public TreeChangeCursor<K,V> newCursor() {
+		TreeChangeCursor<K,V> cursor = new TreeChangeCursor<>(this, this.published.get() + 1);
+		this.cursors.add(cursor);
+		return cursor;
+	}
+	
+	@Override
+	public void treeChanged(List<TreeChangeEvent<K,V>> events) {
+		for (int i = 0; i < events.size(); i++) {
+			publish(events.get(i));
+		}
+	}
+	
+	// Only called by the single producer
+	void publish(TreeChangeEvent<K,V> event) {
+		long sequence = this.published.get() + 1;
+		if (this.overflowPolicy == RingBufferOverflowPolicy.BLOCK_PRODUCER) {
+			for (int attempt = 0; sequence - slowestCursorSequence() >= this.records.length; attempt++) {
+				idle(this.waitStrategy, attempt);
+			}
+		}
+		TreeChangeRecord<K,V> record = this.records[(int) sequence & this.mask];
+		// Marks the record as being written so a consumer reading it knows it was overwritten.
+		// The fence keeps the plain writes of set from being reordered before the mark.
+		record.sequence = -1;
+		VarHandle.storeStoreFence();
+		record.set(event);
+		record.sequence = sequence;
+		this.published.set(sequence);
+	}
+	
+	long slowestCursorSequence() {
+		long slowest = Long.MAX_VALUE;
+		for (TreeChangeCursor<K,V> cursor : this.cursors) {
+			slowest = Math.min(slowest, cursor.nextSequence);
+		}
+		return slowest;
+	}
+	
+	static void idle(RingBufferWaitStrategy waitStrategy, int attempt) {
+		switch (waitStrategy) {
+			case BUSY_SPIN:
+				Thread.onSpinWait();
+				break;
+			case YIELDING:
+				if (attempt < 100) {
+					Thread.onSpinWait();
+				}
+				else {
+					Thread.yield();
+				}
+				break;
+			case PARKING:
+				LockSupport.parkNanos(100_000);
+				break;
+		}
+	}
+	
+}
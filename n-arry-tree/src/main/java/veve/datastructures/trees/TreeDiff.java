@@ -0,0 +1,329 @@
+package veve.datastructures.trees;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import veve.datastructures.trees.NTreeConstants.TreeChangeType;
+
+/**
+ * Computes the {@link TreePatch} that turns a source tree into a target tree.
+ * <p>
+ * Target nodes are matched to source nodes by uuid and, for the ones left,
+ * by id path when the source node at the same path has a uuid not present in
+ * the target. The edits are then made on a working copy of the source while
+ * visiting the target top-down, so each edit is recorded with the paths the
+ * tree has at that point: matched nodes are moved and have their id and value
+ * changed when needed, unmatched target nodes are added and the working nodes
+ * left unmatched are removed at the end. When a matched node cannot take its
+ * place because of an id clash, the clashing node is removed or the target 
+ * node is added as a new node, which keeps the patch correct at the cost of
+ * a few more edits.
+ */
+class TreeDiff<K extends Comparable<K>,V> {
+	
+	NTree<K,V> working;
+	Map<CompactUUID,NTreeNode<K,V>> workingByUUID = new HashMap<>();
+	// target node -> working node matched to it
+	Map<NTreeNode<K,V>,NTreeNode<K,V>> matches = new IdentityHashMap<>();
+	// working node -> target node matched to it
+	Map<NTreeNode<K,V>,NTreeNode<K,V>> matchedBy = new IdentityHashMap<>();
+	// target node -> working node that is in its place
+	Map<NTreeNode<K,V>,NTreeNode<K,V>> realizations = new IdentityHashMap<>();
+	Set<NTreeNode<K,V>> realized = Collections.newSetFromMap(new IdentityHashMap<>());
+	List<TreeEdit<K,V>> edits = new ArrayList<>();
+	
+	static <K extends Comparable<K>,V> TreePatch<K,V> diff(NTree<K,V> source, NTree<K,V> target) {
+		TreeDiff<K,V> treeDiff = new TreeDiff<>();
+		treeDiff.working = treeDiff.workingCopy(source);
+		treeDiff.matchNodes(target);
+		treeDiff.makeEdits(target);
+		return new TreePatch<>(treeDiff.edits);
+	}
+	
+	// Copies the structure, ids, values and uuids of the source without cloning values
+	NTree<K,V> workingCopy(NTree<K,V> source) {
+		NTree<K,V> copy = new NTree<>(source.id);
+		if (source.root == null) {
+			return copy;
+		}
+		copy.root = copyNode(source.root, copy, null);
+		Deque<NTreeNode<K,V>[]> pending = new ArrayDeque<>();
+		pending.add(pair(source.root, copy.root));
+		while (!pending.isEmpty()) {
+			NTreeNode<K,V>[] pair = pending.poll();
+			for (NTreeNode<K,V> child : pair[0].children().values()) {
+				NTreeNode<K,V> childCopy = copyNode(child, copy, pair[1]);
+				pair[1].writableChildren().put(childCopy.id, childCopy);
+				pending.add(pair(child, childCopy));
+			}
+		}
+		return copy;
+	}
+	
+	NTreeNode<K,V> copyNode(NTreeNode<K,V> node, NTree<K,V> tree, NTreeNode<K,V> parent) {
+		NTreeNode<K,V> copy = new NTreeNode<>(tree, node.id);
+		copy.value = node.value;
+		copy.uuid = node.uuid();
+		copy.parent = parent;
+		this.workingByUUID.put(copy.uuid, copy);
+		return copy;
+	}
+	
+	@SuppressWarnings("unchecked")
+	static <K extends Comparable<K>,V> NTreeNode<K,V>[] pair(NTreeNode<K,V> a, NTreeNode<K,V> b) {
+		return (NTreeNode<K,V>[]) new NTreeNode<?,?>[] {a, b};
+	}
+	
+	//==============================================================================================
+	//	MATCHING
+	//==============================================================================================
+	
+	void matchNodes(NTree<K,V> target) {
+		if (target.root == null) {
+			return;
+		}
+		Set<CompactUUID> targetUUIDs = new HashSet<>();
+		List<NTreeNode<K,V>> targetNodes = new ArrayList<>();
+		Deque<NTreeNode<K,V>> pending = new ArrayDeque<>(Collections.singletonList(target.root));
+		while (!pending.isEmpty()) {
+			NTreeNode<K,V> node = pending.poll();
+			targetNodes.add(node);
+			targetUUIDs.add(node.uuid());
+			pending.addAll(node.children().values());
+		}
+		for (NTreeNode<K,V> node : targetNodes) {
+			NTreeNode<K,V> workingNode = this.workingByUUID.get(node.uuid());
+			if (workingNode != null) {
+				match(node, workingNode);
+			}
+		}
+		if (this.working.root == null || !this.working.root.id.equals(target.root.id)) {
+			return;
+		}
+		Deque<NTreeNode<K,V>[]> pendingPairs = new ArrayDeque<>();
+		pendingPairs.add(pair(target.root, this.working.root));
+		while (!pendingPairs.isEmpty()) {
+			NTreeNode<K,V>[] pair = pendingPairs.poll();
+			NTreeNode<K,V> node = pair[0];
+			NTreeNode<K,V> samePath = pair[1];
+			if (!this.matches.containsKey(node) && !this.matchedBy.containsKey(samePath) 
+					&& !targetUUIDs.contains(samePath.uuid())) {
+				match(node, samePath);
+			}
+			for (NTreeNode<K,V> child : node.children().values()) {
+				NTreeNode<K,V> childSamePath = samePath.children.get(child.id);
+				if (childSamePath != null) {
+					pendingPairs.add(pair(child, childSamePath));
+				}
+			}
+		}
+	}
+	
+	void match(NTreeNode<K,V> targetNode, NTreeNode<K,V> workingNode) {
+		this.matches.put(targetNode, workingNode);
+		this.matchedBy.put(workingNode, targetNode);
+	}
+	
+	void unmatch(NTreeNode<K,V> workingNode) {
+		NTreeNode<K,V> targetNode = this.matchedBy.remove(workingNode);
+		if (targetNode != null) {
+			this.matches.remove(targetNode);
+		}
+	}
+	
+	//==============================================================================================
+	//	EDITS
+	//==============================================================================================
+	
+	void makeEdits(NTree<K,V> target) {
+		NTreeNode<K,V> workingRoot = this.working.root;
+		if (target.root == null) {
+			if (workingRoot != null) {
+				remove(workingRoot);
+			}
+			return;
+		}
+		if (workingRoot != null && this.matches.get(target.root) != workingRoot) {
+			remove(workingRoot);
+			this.matches.clear();
+			this.matchedBy.clear();
+			workingRoot = null;
+		}
+		if (workingRoot == null) {
+			workingRoot = add(target.root, null);
+		}
+		else {
+			if (!workingRoot.id.equals(target.root.id)) {
+				replaceId(workingRoot, target.root.id);
+			}
+			setValueIfChanged(workingRoot, target.root.value);
+		}
+		realize(target.root, workingRoot);
+		Deque<NTreeNode<K,V>> pending = new ArrayDeque<>(Collections.singletonList(target.root));
+		while (!pending.isEmpty()) {
+			NTreeNode<K,V> node = pending.poll();
+			NTreeNode<K,V> parent = this.realizations.get(node);
+			for (NTreeNode<K,V> child : node.children().values()) {
+				realize(child, place(child, parent));
+				pending.add(child);
+			}
+		}
+		removeUnrealized();
+	}
+	
+	void realize(NTreeNode<K,V> targetNode, NTreeNode<K,V> workingNode) {
+		this.realizations.put(targetNode, workingNode);
+		this.realized.add(workingNode);
+	}
+	
+	// Puts the node matched to the target node under the parent or adds a new node
+	NTreeNode<K,V> place(NTreeNode<K,V> targetNode, NTreeNode<K,V> parent) {
+		NTreeNode<K,V> clashing = parent.children.get(targetNode.id);
+		NTreeNode<K,V> matched = this.matches.get(targetNode);
+		if (clashing != null && clashing != matched) {
+			if (matched != null && isDescendantOf(matched, clashing)) {
+				unmatch(matched);
+				matched = null;
+			}
+			evict(clashing);
+		}
+		if (matched == null || !moveAndReplaceId(matched, targetNode.id, parent)) {
+			if (matched != null) {
+				unmatch(matched);
+			}
+			return add(targetNode, parent);
+		}
+		setValueIfChanged(matched, targetNode.value);
+		return matched;
+	}
+	
+	boolean moveAndReplaceId(NTreeNode<K,V> node, K id, NTreeNode<K,V> parent) {
+		boolean changesId = !node.id.equals(id);
+		if (node.parent == parent) {
+			if (changesId) {
+				replaceId(node, id);
+			}
+			return true;
+		}
+		if (!parent.children.containsKey(node.id)) {
+			move(node, parent);
+			if (changesId) {
+				replaceId(node, id);
+			}
+			return true;
+		}
+		if (changesId && !node.parent.children.containsKey(id)) {
+			replaceId(node, id);
+			move(node, parent);
+			return true;
+		}
+		return false;
+	}
+	
+	// Removes a node that is in the place of another one together with the matches of its subtree
+	void evict(NTreeNode<K,V> node) {
+		Deque<NTreeNode<K,V>> pending = new ArrayDeque<>(Collections.singletonList(node));
+		while (!pending.isEmpty()) {
+			NTreeNode<K,V> curr = pending.poll();
+			unmatch(curr);
+			pending.addAll(curr.children.values());
+		}
+		remove(node);
+	}
+	
+	void removeUnrealized() {
+		Deque<NTreeNode<K,V>> pending = new ArrayDeque<>(Collections.singletonList(this.working.root));
+		while (!pending.isEmpty()) {
+			NTreeNode<K,V> node = pending.poll();
+			for (NTreeNode<K,V> child : new ArrayList<>(node.children.values())) {
+				if (this.realized.contains(child)) {
+					pending.add(child);
+				}
+				else {
+					remove(child);
+				}
+			}
+		}
+	}
+	
+	static <K extends Comparable<K>,V> boolean isDescendantOf(NTreeNode<K,V> node, NTreeNode<K,V> ancestor) {
+		for (NTreeNode<K,V> curr = node.parent; curr != null; curr = curr.parent) {
+			if (curr == ancestor) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	static <K extends Comparable<K>,V> List<K> pathOf(NTreeNode<K,V> node) {
+		LinkedList<K> path = new LinkedList<>();
+		for (NTreeNode<K,V> curr = node; curr != null; curr = curr.parent) {
+			path.addFirst(curr.id);
+		}
+		return new ArrayList<>(path);
+	}
+	
+	//----------------------------------------------------------------------------------------------
+	//	RECORDED CHANGES TO THE WORKING COPY
+	//----------------------------------------------------------------------------------------------
+	
+	NTreeNode<K,V> add(NTreeNode<K,V> targetNode, NTreeNode<K,V> parent) {
+		List<K> parentPath = parent == null ? new ArrayList<>() : pathOf(parent);
+		this.edits.add(new TreeEdit<>(TreeChangeType.NODE_ADDED, parentPath, null, targetNode.id, targetNode.value));
+		NTreeNode<K,V> node = new NTreeNode<>(this.working, targetNode.id);
+		node.value = targetNode.value;
+		node.parent = parent;
+		if (parent == null) {
+			this.working.root = node;
+		}
+		else {
+			parent.writableChildren().put(node.id, node);
+		}
+		return node;
+	}
+	
+	void remove(NTreeNode<K,V> node) {
+		this.edits.add(new TreeEdit<>(TreeChangeType.NODE_REMOVED, pathOf(node), null, null, null));
+		if (node.parent == null) {
+			this.working.root = null;
+		}
+		else {
+			node.parent.children.remove(node.id);
+			node.parent = null;
+		}
+	}
+	
+	void move(NTreeNode<K,V> node, NTreeNode<K,V> newParent) {
+		this.edits.add(new TreeEdit<>(TreeChangeType.NODE_MOVED, pathOf(node), pathOf(newParent), null, null));
+		node.parent.children.remove(node.id);
+		node.parent = newParent;
+		newParent.writableChildren().put(node.id, node);
+	}
+	
+	void replaceId(NTreeNode<K,V> node, K id) {
+		this.edits.add(new TreeEdit<>(TreeChangeType.ID_REPLACED, pathOf(node), null, id, null));
+		if (node.parent != null) {
+			node.parent.children.remove(node.id);
+			node.parent.writableChildren().put(id, node);
+		}
+		node.id = id;
+	}
+	
+	void setValueIfChanged(NTreeNode<K,V> node, V value) {
+		if (!Objects.equals(node.value, value)) {
+			this.edits.add(new TreeEdit<>(TreeChangeType.VALUE_CHANGED, pathOf(node), null, null, value));
+			node.value = value;
+		}
+	}
+	
+}
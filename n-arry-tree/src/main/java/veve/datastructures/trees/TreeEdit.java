@@ -0,0 +1,80 @@
+package veve.datastructures.trees;
+
+import java.util.Collections;
+import java.util.List;
+
+import veve.datastructures.trees.NTreeConstants.TreeChangeType;
+
+/**
+ * One edit of a {@link TreePatch}. Nodes are located by their path, which is a
+ * {@code List} of the ids of the nodes from the root down to the node, both 
+ * included, in the tree as it is when the edit is applied. Which properties
+ * are set depends on the {@link TreeChangeType} of the edit:<br>
+ * &#8226 {@code NODE_ADDED}: path of the parent, which is empty for a root, 
+ * and the id and value of the new node. The node is added without children.<br>
+ * &#8226 {@code NODE_REMOVED}: path of the node to remove with its descendants.<br>
+ * &#8226 {@code NODE_MOVED}: path of the node and path of its new parent.<br>
+ * &#8226 {@code VALUE_CHANGED}: path of the node and its new value.<br>
+ * &#8226 {@code ID_REPLACED}: path of the node and its new id.
+ * 
+ * @param <K> The type of the tree and nodes ids.
+ * @param <V> The type of the {@code value} property of the nodes.
+ */
+public final class TreeEdit<K extends Comparable<K>,V> {
+	
+	final TreeChangeType type;
+	final List<K> path;
+	final List<K> newParentPath;
+	final K id;
+	final V value;
+	
+	TreeEdit(TreeChangeType type, List<K> path, List<K> newParentPath, K id, V value) {
+		this.type = type;
+		this.path = Collections.unmodifiableList(path);
+		this.newParentPath = newParentPath == null ? null : Collections.unmodifiableList(newParentPath);
+		this.id = id;
+		this.value = value;
+	}
+	
+	/**
+	 * @return the type of this edit
+	 */
+	public TreeChangeType getType() {
+		return this.type;
+	}
+	
+	/**
+	 * @return the path of the edited node or of the parent of an added node
+	 */
+	public List<K> getPath() {
+		return this.path;
+	}
+	
+	/**
+	 * @return the path of the new parent of a moved node, otherwise {@code null}
+	 */
+	public List<K> getNewParentPath() {
+		return this.newParentPath;
+	}
+	
+	/**
+	 * @return the id of an added node or the new id of a node, otherwise {@code null}
+	 */
+	public K getId() {
+		return this.id;
+	}
+	
+	/**
+	 * @return the value of an added node or the new value of a node, otherwise {@code null}
+	 */
+	public V getValue() {
+		return this.value;
+	}
+	
+	@Override
+	public String toString() {
+		return "TreeEdit [type=" + this.type + ", path=" + this.path + ", newParentPath=" + this.newParentPath 
+				+ ", id=" + this.id + ", value=" + this.value + "]";
+	}
+	
+}
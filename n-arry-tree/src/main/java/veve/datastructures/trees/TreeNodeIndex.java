@@ -3,70 +3,116 @@ package veve.datastructures.trees;
 import static veve.datastructures.trees.GeneralUtils.argsNotNull;
 import static veve.datastructures.trees.GeneralUtils.safeFunction;
 
-import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.tuple.Pair;
 
-import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
-import com.google.common.collect.Table;
-import com.google.common.collect.Table.Cell;
 
+// The index is made of concurrent maps so nodes can be looked up while other threads,
+// like writers of disjoint subtrees of a ConcurrentNTree with subtree locking, update it.
+// A reverse map from node uuids to keys finds the entry of a node without scanning the index.
+// All the changes for a node are made inside ConcurrentHashMap.compute of its uuid in the
+// reverse map, so puts and removes of the same node from different threads take turns and
+// the node always ends up under the single key the reverse map has for it.
 class TreeNodeIndex<K extends Comparable<K>,V, R> {
 	
+	// Both maps of the index, replaced together by a single volatile write
+	static final class Maps<K extends Comparable<K>,V, R> {
+		final ConcurrentHashMap<R, Map<CompactUUID, NTreeNode<K,V>>> indexTable = new ConcurrentHashMap<>();
+		final ConcurrentHashMap<CompactUUID, R> keysByUuid = new ConcurrentHashMap<>();
+	}
+	
 	String name;
-	Table<R, String, NTreeNode<K,V>> indexTable;
+	volatile Maps<K,V,R> maps;
 	Function<NTreeNode<K,V>, R> keyGeneratingFunction;
 	NTree<K,V> treeOfBelonging;
 	
 	TreeNodeIndex(String name, NTree<K,V> treeOfBelonging, Function<NTreeNode<K,V>,R> keyGeneratingFunction) {
 		this.name = name;
 		this.keyGeneratingFunction = safeFunction(keyGeneratingFunction);
-		this.indexTable = HashBasedTable.create();
+		this.maps = new Maps<>();
 		this.treeOfBelonging = treeOfBelonging;
 	}
 	
+	// The index is built aside and then replaces the current one, so lookups made
+	// meanwhile see the whole old index instead of a partly built one
 	void computeIndex() {
-		this.indexTable.clear();
+		TreeNodeIndex<K,V,R> computed = new TreeNodeIndex<>(this.name, this.treeOfBelonging, this.keyGeneratingFunction);
 		if ( this.treeOfBelonging.getRoot() != null) {
+			// The index keeps the nodes, so they must be the ones of the tree and not views
+			this.treeOfBelonging.materializeCopyOnWrite();
 			List<NTreeNode<K,V>> nodes = this.treeOfBelonging.getRoot().toList();
-			nodes.forEach(node -> { 
-				try {
-					this.indexTable.put(this.keyGeneratingFunction.apply(node), node.uuid, node);
-				} catch(Exception e) {}
-			});
+			nodes.forEach(node -> computed.put(node));
 		}
+		this.maps = computed.maps;
 	}
 	
+	// Same as computeIndex but puts the provided nodes from many threads at once. Nodes
+	// are distinct so their puts only meet on the concurrent maps of the index.
+	void computeIndexInParallel(Collection<NTreeNode<K,V>> nodes) {
+		TreeNodeIndex<K,V,R> computed = new TreeNodeIndex<>(this.name, this.treeOfBelonging, this.keyGeneratingFunction);
+		nodes.parallelStream().forEach(computed::put);
+		this.maps = computed.maps;
+	}
+	
+	// The key is generated inside the compute as well, so when threads changing different
+	// neighbours of a node put it at the same time the last put sees all their changes
 	void put(NTreeNode<K,V> node) {
-		remove(node);
+		Maps<K,V,R> maps = this.maps;
+		maps.keysByUuid.compute(node.uuid(), (uuid, oldKey) -> {
+			R key = generateKey(node);
+			if (oldKey != null && !oldKey.equals(key)) {
+				removeFromKey(maps, oldKey, uuid);
+			}
+			if (key != null) {
+				maps.indexTable.compute(key, (indexKey, nodes) -> {
+					Map<CompactUUID, NTreeNode<K,V>> keyNodes = nodes != null ? nodes : new ConcurrentHashMap<>();
+					keyNodes.put(uuid, node);
+					return keyNodes;
+				});
+			}
+			return key;
+		});
+	}
+	
+	R generateKey(NTreeNode<K,V> node) {
 		try {
-			this.indexTable.put(this.keyGeneratingFunction.apply(node), node.uuid, node);
-		} catch(Exception e) {}
+			return this.keyGeneratingFunction.apply(node);
+		} catch(Exception e) {
+			return null;
+		}
 	}
 	
-	@SuppressWarnings("unchecked")
 	void remove(NTreeNode<K,V> node) {
 		argsNotNull(node);
-		Map<String, Map<R, NTreeNode<K,V>>> columnMap = this.indexTable.columnMap();
-		Map<R, NTreeNode<K,V>> rowsMap = columnMap.get(node.uuid);
-		R indexKey;
-		if (rowsMap != null) {
-			indexKey = (R) rowsMap.keySet().toArray()[0];
-			this.indexTable.remove(indexKey, node.uuid);
+		// A node without uuid was never put in an index
+		if (node.uuid == null) {
+			return;
 		}
+		Maps<K,V,R> maps = this.maps;
+		maps.keysByUuid.computeIfPresent(node.uuid, (uuid, key) -> {
+			removeFromKey(maps, key, uuid);
+			return null;
+		});
+	}
+	
+	// Removes the key when its last node is removed
+	static <K extends Comparable<K>,V,R> void removeFromKey(Maps<K,V,R> maps, R key, CompactUUID uuid) {
+		maps.indexTable.computeIfPresent(key, (indexKey, nodes) -> {
+			nodes.remove(uuid);
+			return nodes.isEmpty() ? null : nodes;
+		});
 	}
 	
 	void clear() {
-		this.indexTable.clear();
+		this.maps = new Maps<>();
 	}
 	
 	String getIndexName() {
@@ -74,16 +120,17 @@ class TreeNodeIndex<K extends Comparable<K>,V, R> {
 	}
 	
 	List<NTreeNode<K,V>> getNodes(R key) {
-		return new LinkedList<NTreeNode<K,V>>(this.indexTable.row(key).values());
+		Map<CompactUUID, NTreeNode<K,V>> nodes = this.maps.indexTable.get(key);
+		if (nodes == null) {
+			return new LinkedList<NTreeNode<K,V>>();
+		}
+		return new LinkedList<NTreeNode<K,V>>(nodes.values());
 	}
 	
+	// Returns the key of each node, so a key appears once for each of its nodes
 	List<R> keysList() {
 		List<R> keysList = new LinkedList<>();
-		Iterator<Table.Cell<R, String, NTreeNode<K,V>>> iterator = this.indexTable.cellSet().iterator();
-		while(iterator.hasNext()) {
-			Cell<R, String, NTreeNode<K,V>> cell = iterator.next();
-			keysList.add(cell.getRowKey());
-		}
+		this.maps.indexTable.forEach((key, nodes) -> nodes.forEach((uuid, node) -> keysList.add(key)));
 		return keysList;
 	}
 	
@@ -97,11 +144,18 @@ class TreeNodeIndex<K extends Comparable<K>,V, R> {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((indexTable == null) ? 0 : indexTable.hashCode());
+		result = prime * result + maps.indexTable.hashCode();
 		result = prime * result + ((name == null) ? 0 : name.hashCode());
 		return result;
 	}
 
+	List<Pair<R,NTreeNode<K,V>>> keyNodePairs() {
+		List<Pair<R,NTreeNode<K,V>>> pairs = new LinkedList<>();
+		this.maps.indexTable.forEach((key, nodes) -> nodes.forEach((uuid, node) -> pairs.add(Pair.of(key, node))));
+		return pairs;
+	}
+	
+	@SuppressWarnings("unchecked")
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj)
@@ -110,27 +164,16 @@ class TreeNodeIndex<K extends Comparable<K>,V, R> {
 			return false;
 		if (getClass() != obj.getClass())
 			return false;
-		TreeNodeIndex other = (TreeNodeIndex) obj;
+		TreeNodeIndex<K,V,R> other = (TreeNodeIndex<K,V,R>) obj;
 		if (name == null) {
 			if (other.name != null)
 				return false;
 		} else if (!name.equals(other.name))
 			return false;
-		if (indexTable == null) {
-			if (other.indexTable != null)
-				return false;
-		} else {
-			List<Pair<R,NTreeNode<K,V>>> thisKeyNodePairsList = indexTable.cellSet().stream()
-					.map(cell -> Pair.of(cell.getRowKey(),cell.getValue()))
-					.collect(Collectors.toList());
-			Multiset<Pair<R,NTreeNode<K,V>>> thisKeyNodePairs =  HashMultiset.create(thisKeyNodePairsList);
-			List<Pair<R,NTreeNode<K,V>>> otherKeyNodePairsList = indexTable.cellSet().stream()
-					.map(cell -> Pair.of(cell.getRowKey(),cell.getValue()))
-					.collect(Collectors.toList());
-			Multiset<Pair<R,NTreeNode<K,V>>> otherKeyNodePairs =  HashMultiset.create(otherKeyNodePairsList);
-			if (!thisKeyNodePairs.equals(otherKeyNodePairs))
-				return false;
-		}
+		Multiset<Pair<R,NTreeNode<K,V>>> thisKeyNodePairs =  HashMultiset.create(keyNodePairs());
+		Multiset<Pair<R,NTreeNode<K,V>>> otherKeyNodePairs =  HashMultiset.create(other.keyNodePairs());
+		if (!thisKeyNodePairs.equals(otherKeyNodePairs))
+			return false;
 		return true;
 	}
 	
@@ -0,0 +1,144 @@
+package veve.datastructures.trees;
+
+import static veve.datastructures.trees.GeneralUtils.argsNotNull;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import veve.datastructures.trees.NTreeConstants.TreeTraversalOrder;
+
+/**
+ * Publisher of the nodes of a {@link NTree} returned by
+ * {@link NTree#publisher(TreeTraversalOrder)}. Each subscriber gets its own
+ * {@link LazyTraversalIterator}, created when it subscribes, and nodes are
+ * only looked for when the subscriber requested them, so a slow subscriber
+ * never makes the publisher hold more than the current path of the traversal.
+ * <p>
+ * Nodes are delivered on the thread that calls {@code request}, or on the
+ * subscribing thread for the completion of an empty tree. Calls to
+ * {@code request} from several threads, or from inside {@code onNext}, are
+ * serialized so the subscriber never gets two signals at the same time.
+ */
+class TreeNodePublisher<K extends Comparable<K>,V> implements Flow.Publisher<NTreeNode<K,V>> {
+	
+	final NTree<K,V> tree;
+	final TreeTraversalOrder traversal;
+	
+	TreeNodePublisher(NTree<K,V> tree, TreeTraversalOrder traversal) {
+		this.tree = tree;
+		this.traversal = traversal;
+	}
+	
+	@Override
+	public void subscribe(Flow.Subscriber<? super NTreeNode<K,V>> subscriber) {
+		argsNotNull(subscriber);
+		NTreeNode<K,V> root = this.tree.root;
+		Iterator<NTreeNode<K,V>> iterator = root == null
+				? Collections.emptyIterator()
+				: new LazyTraversalIterator<>(root, this.traversal);
+		TraversalSubscription<K,V> subscription = new TraversalSubscription<>(subscriber, iterator);
+		subscriber.onSubscribe(subscription);
+		subscription.drain();
+	}
+	
+	static class TraversalSubscription<K extends Comparable<K>,V> implements Flow.Subscription {
+		
+		final Flow.Subscriber<? super NTreeNode<K,V>> subscriber;
+		final AtomicLong requested = new AtomicLong();
+		// Number of drain calls not handled yet. Only the call that raises it from 0 drains.
+		final AtomicInteger pendingDrains = new AtomicInteger();
+		Iterator<NTreeNode<K,V>> iterator;
+		volatile boolean cancelled;
+		volatile boolean invalidRequest;
+		
+		TraversalSubscription(Flow.Subscriber<? super NTreeNode<K,V>> subscriber, Iterator<NTreeNode<K,V>> iterator) {
+			this.subscriber = subscriber;
+			this.iterator = iterator;
+		}
+		
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				this.invalidRequest = true;
+			}
+			else {
+				this.requested.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+			}
+			drain();
+		}
+		
+		@Override
+		public void cancel() {
+			this.cancelled = true;
+			drain();
+		}
+		
+		void drain() {
+			if (this.pendingDrains.getAndIncrement() != 0) {
+				return;
+			}
+			int missed = 1;
+			while (true) {
+				long demand = this.requested.get();
+				long emitted = 0;
+				while (true) {
+					if (this.cancelled) {
+						this.iterator = null;
+						return;
+					}
+					if (this.invalidRequest) {
+						terminate(new IllegalArgumentException("The number of requested nodes must be positive"));
+						return;
+					}
+					boolean hasNext;
+					try {
+						hasNext = this.iterator.hasNext();
+					} catch (RuntimeException e) {
+						terminate(e);
+						return;
+					}
+					if (!hasNext) {
+						terminate(null);
+						return;
+					}
+					if (emitted == demand) {
+						break;
+					}
+					try {
+						this.subscriber.onNext(this.iterator.next());
+					} catch (RuntimeException e) {
+						// A subscriber that throws is considered to have cancelled
+						this.cancelled = true;
+						this.iterator = null;
+						throw e;
+					}
+					emitted++;
+				}
+				if (demand != Long.MAX_VALUE) {
+					this.requested.addAndGet(-emitted);
+				}
+				missed = this.pendingDrains.addAndGet(-missed);
+				if (missed == 0) {
+					return;
+				}
+			}
+		}
+		
+		// Called from drain only, which is never left after it so no other signal follows
+		void terminate(Throwable error) {
+			this.cancelled = true;
+			this.iterator = null;
+			if (error == null) {
+				this.subscriber.onComplete();
+			}
+			else {
+				this.subscriber.onError(error);
+			}
+		}
+		
+	}
+	
+}
@@ -0,0 +1,112 @@
+package veve.datastructures.trees;
+
+import static veve.datastructures.trees.GeneralUtils.argsNotNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The edits that turn a {@link NTree} into another one, created with
+ * {@link NTree#diff(NTree)} and applied with {@link NTree#apply(TreePatch)}.
+ * The number of edits grows with the number of changed nodes and not with the
+ * size of the trees. Values are not cloned, the patch holds the values of the
+ * tree it was created from.
+ * 
+ * @param <K> The type of the tree and nodes ids.
+ * @param <V> The type of the {@code value} property of the nodes.
+ */
+public final class TreePatch<K extends Comparable<K>,V> {
+	
+	final List<TreeEdit<K,V>> edits;
+	
+	TreePatch(List<TreeEdit<K,V>> edits) {
+		this.edits = Collections.unmodifiableList(edits);
+	}
+	
+	/**
+	 * Returns the edits of this patch in the order they must be applied.
+	 * 
+	 * @return an unmodifiable {@code List} of the edits
+	 */
+	public List<TreeEdit<K,V>> getEdits() {
+		return this.edits;
+	}
+	
+	/**
+	 * @return the number of edits of this patch
+	 */
+	public int size() {
+		return this.edits.size();
+	}
+	
+	/**
+	 * @return {@code true} if this patch has no edits, meaning the trees were equal
+	 */
+	public boolean isEmpty() {
+		return this.edits.isEmpty();
+	}
+	
+	// Applies the edits to the tree in a batch so a failed edit rolls back the previous ones
+	void applyTo(NTree<K,V> tree) {
+		argsNotNull(tree);
+		tree.batch(t -> this.edits.forEach(edit -> applyEdit(t, edit)));
+	}
+	
+	@SuppressWarnings("unchecked")
+	static <K extends Comparable<K>,V> void applyEdit(NTree<K,V> tree, TreeEdit<K,V> edit) {
+		switch (edit.type) {
+			case NODE_ADDED:
+				NTreeNode<K,V> node = new NTreeNode<>(tree, edit.id);
+				node.value = edit.value;
+				if (edit.path.isEmpty()) {
+					if (!tree.addNewRoot(node)) {
+						throw new RuntimeException("Cannot apply patch: tree already has a root");
+					}
+				}
+				else {
+					NTreeNode<K,V> parent = nodeAt(tree, edit.path);
+					if (parent.children().containsKey(edit.id)) {
+						throw new RuntimeException("Cannot apply patch: node at path " + edit.path + " already has child " + edit.id);
+					}
+					parent.addNewChildren(node);
+				}
+				break;
+			case NODE_REMOVED:
+				nodeAt(tree, edit.path).remove();
+				break;
+			case NODE_MOVED:
+				if (!nodeAt(tree, edit.path).moveTo(nodeAt(tree, edit.newParentPath))) {
+					throw new RuntimeException("Cannot apply patch: cannot move " + edit.path + " to " + edit.newParentPath);
+				}
+				break;
+			case VALUE_CHANGED:
+				nodeAt(tree, edit.path).setValue(edit.value);
+				break;
+			case ID_REPLACED:
+				if (!nodeAt(tree, edit.path).replaceId(edit.id)) {
+					throw new RuntimeException("Cannot apply patch: cannot replace id of " + edit.path + " with " + edit.id);
+				}
+				break;
+		}
+	}
+	
+	static <K extends Comparable<K>,V> NTreeNode<K,V> nodeAt(NTree<K,V> tree, List<K> path) {
+		NTreeNode<K,V> node = tree.root;
+		if (node == null || path.isEmpty() || !node.id.equals(path.get(0))) {
+			throw new RuntimeException("Cannot apply patch: no node at path " + path);
+		}
+		for (int i = 1; i < path.size(); i++) {
+			node = node.children().get(path.get(i));
+			if (node == null) {
+				throw new RuntimeException("Cannot apply patch: no node at path " + path);
+			}
+		}
+		return node;
+	}
+	
+	@Override
+	public String toString() {
+		return "TreePatch " + this.edits;
+	}
+	
+}
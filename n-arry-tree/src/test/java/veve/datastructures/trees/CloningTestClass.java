@@ -1,6 +1,6 @@
 package veve.datastructures.trees;
 
-public class CloningTestClass<T> {
+public class CloningTestClass<T> implements Cloneable {
 	
 	T value;
 	
@@ -11,6 +11,16 @@ public class CloningTestClass<T> {
 	public CloningTestClass(CloningTestClass<T> other) {
 		this(other.value);
 	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public CloningTestClass<T> clone() {
+		try {
+			return (CloningTestClass<T>) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		}
+	}
 
 	@Override
 	public int hashCode() {
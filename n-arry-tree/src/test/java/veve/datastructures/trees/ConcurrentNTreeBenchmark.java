@@ -0,0 +1,120 @@
+package veve.datastructures.trees;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the throughput of a mix of queries and value changes on a
+ * {@link ConcurrentNTree} and on an {@link NTree} guarded by a single
+ * {@code synchronized} block, with 1 up to twice the number of cores threads.
+ * The queries are searches by id, lists of all the nodes and lists of the
+ * nodes of a level, which run under the optimistic read stamp of the
+ * {@code ConcurrentNTree}. Index lookups are not used since they take no lock.
+ * Changes are 5% of the operations or the percentage passed as first argument.
+ * Run the main method, it is not part of the tests.
+ */
+public class ConcurrentNTreeBenchmark {
+	
+	static final String IDS_INDEX = "ids";
+	static final int NODES = 1000;
+	static final int LEVELS = 4;
+	static final long MILLIS_PER_RUN = 2000;
+	static int writePercentage;
+	
+	interface Operations {
+		void read(int id);
+		void write(int id, int value);
+	}
+	
+	public static void main(String[] args) throws InterruptedException {
+		writePercentage = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int cores = Runtime.getRuntime().availableProcessors();
+		ConcurrentNTree<Integer,Integer> concurrentTree = new ConcurrentNTree<>(createTree());
+		NTree<Integer,Integer> synchronizedTree = createTree();
+		Operations concurrent = new Operations() {
+			public void read(int id) {
+				switch (id % 3) {
+					case 0: concurrentTree.findFirstWithId(id); break;
+					case 1: concurrentTree.toList(); break;
+					default: concurrentTree.nodesInLevel(1 + id % LEVELS); break;
+				}
+			}
+			public void write(int id, int value) {
+				concurrentTree.write(tree -> tree.firstNodeInIndexWithKey(IDS_INDEX, id).setValue(value));
+			}
+		};
+		Operations synchronizedOperations = new Operations() {
+			public void read(int id) {
+				synchronized (synchronizedTree) {
+					switch (id % 3) {
+						case 0: synchronizedTree.findFirstWithId(id); break;
+						case 1: synchronizedTree.toList(); break;
+						default: synchronizedTree.nodesInLevel(1 + id % LEVELS); break;
+					}
+				}
+			}
+			public void write(int id, int value) {
+				synchronized (synchronizedTree) {
+					synchronizedTree.firstNodeInIndexWithKey(IDS_INDEX, id).setValue(value);
+				}
+			}
+		};
+		// Warm up so the first measured run is compiled too
+		run(concurrent, cores);
+		run(synchronizedOperations, cores);
+		System.out.println("threads\tConcurrentNTree ops/s\tsynchronized ops/s");
+		for (int threads = 1; threads <= cores * 2; threads *= 2) {
+			long concurrentOps = run(concurrent, threads);
+			long synchronizedOps = run(synchronizedOperations, threads);
+			System.out.println(threads + "\t" + concurrentOps + "\t" + synchronizedOps);
+		}
+	}
+	
+	// Each node i is a child of node (i - 1) / 10, so the tree is complete with 10 children per node
+	static NTree<Integer,Integer> createTree() {
+		NTree<Integer,Integer> tree = NTree.create(0);
+		tree.addNewRoot(tree.n(0, 0));
+		List<NTreeNode<Integer,Integer>> nodes = new ArrayList<>();
+		nodes.add(tree.getRoot());
+		for (int i = 1; i < NODES; i++) {
+			NTreeNode<Integer,Integer> parent = nodes.get((i - 1) / 10);
+			parent.setChild(tree.n(i, i));
+			nodes.add(parent.childWithId(i));
+		}
+		tree.addIndex(IDS_INDEX, node -> node.getId());
+		return tree;
+	}
+	
+	static long run(Operations operations, int threads) throws InterruptedException {
+		AtomicBoolean running = new AtomicBoolean(true);
+		LongAdder ops = new LongAdder();
+		List<Thread> workers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			workers.add(new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				long count = 0;
+				while (running.get()) {
+					int id = random.nextInt(NODES);
+					if (random.nextInt(100) < writePercentage) {
+						operations.write(id, random.nextInt());
+					} else {
+						operations.read(id);
+					}
+					count++;
+				}
+				ops.add(count);
+			}));
+		}
+		workers.forEach(Thread::start);
+		Thread.sleep(MILLIS_PER_RUN);
+		running.set(false);
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return ops.sum() * 1000 / MILLIS_PER_RUN;
+	}
+	
+}
@@ -0,0 +1,70 @@
+package veve.datastructures.trees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+public class ConcurrentNTreeBuilderTest {
+	
+	@Test void test_build_from_many_threads() throws InterruptedException {
+		ConcurrentNTreeBuilder<Integer,Integer> builder = ConcurrentNTreeBuilder.create(0);
+		builder.addIndex("parity", node -> node.getValue() % 2);
+		List<Thread> producers = new ArrayList<>();
+		for (int shard = 0; shard < 4; shard++) {
+			int firstId = shard * 250 + 1;
+			producers.add(new Thread(() -> IntStream.range(firstId, firstId + 250)
+					.forEach(id -> builder.add(id, id == 1 ? null : id / 2, id))));
+		}
+		for (Thread producer : producers) {
+			producer.start();
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		
+		NTree<Integer,Integer> tree = builder.build();
+		
+		assertEquals(1000, tree.size());
+		assertEquals(Integer.valueOf(1), tree.getRoot().getId());
+		assertEquals(Integer.valueOf(500), tree.findFirstWithId(1000).getParent().getId());
+		assertEquals(500, tree.nodesInIndexWithKey("parity", 0).size());
+		assertTrue(builder.getResult().isComplete());
+		assertEquals(1000, builder.getResult().getNumLoaded());
+	}
+	
+	@Test void test_build_reports_orphans_and_duplicates() {
+		ConcurrentNTreeBuilder<String,Integer> builder = ConcurrentNTreeBuilder.create("tree");
+		builder.add("B", "A", 2);
+		builder.add("A", null, 1);
+		builder.add("B", "A", 3);
+		builder.add("Y", "X", 4);
+		assertNull(builder.getResult());
+		
+		NTree<String,Integer> tree = builder.build();
+		
+		assertEquals(2, tree.size());
+		assertEquals(Integer.valueOf(2), tree.findFirstWithId("B").getValue());
+		assertEquals("Y", builder.getResult().getOrphans().get(0).getId());
+		assertEquals(Integer.valueOf(3), builder.getResult().getDuplicates().get(0).getValue());
+	}
+	
+	@Test void test_build_same_as_bulkLoad() {
+		ConcurrentNTreeBuilder<String,Integer> builder = ConcurrentNTreeBuilder.create("t");
+		TestUtil.testTree().forEachPreOrder(node -> builder.add(node.getId(),
+				node.getParent() == null ? null : node.getParent().getId(), node.getValue()));
+				
+		NTree<String,Integer> tree = builder.build();
+		
+		assertEquals(TestUtil.testTree(), tree);
+		assertThrows(RuntimeException.class, () -> builder.add("D", "A1", 6));
+		assertThrows(RuntimeException.class, () -> builder.build());
+	}
+	
+}
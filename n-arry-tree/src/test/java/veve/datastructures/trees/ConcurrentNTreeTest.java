@@ -0,0 +1,306 @@
+package veve.datastructures.trees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import veve.datastructures.trees.SubtreeLock.Mode;
+
+public class ConcurrentNTreeTest {
+	
+	static final String IDS_INDEX = "ids";
+	
+	@Test void test_queries_and_changes() {
+		ConcurrentNTree<String,Integer> tree = new ConcurrentNTree<>(TestUtil.testTree());
+		tree.addIndex(IDS_INDEX, node -> node.getId());
+		NTreeNode<String,Integer> b1 = tree.firstNodeInIndexWithKey(IDS_INDEX, "B1");
+		
+		tree.setValue(b1, 20);
+		tree.setChild(b1, tree.createNode("C3", 6));
+		tree.removeChild(b1, "C1");
+		
+		assertEquals(5, tree.size());
+		assertEquals(3, tree.height());
+		assertEquals(Integer.valueOf(20), tree.findFirstWithId("B1").getValue());
+		assertSame(tree.findFirstWithId("C3"), tree.firstNodeInIndexWithKey(IDS_INDEX, "C3"));
+		assertNull(tree.firstNodeInIndexWithKey(IDS_INDEX, "C1"));
+		assertEquals(Integer.valueOf(6), tree.read(t -> t.findFirstWithId("C3").getValue()));
+		assertEquals(5, tree.stream().count());
+	}
+	
+	@Test void test_optimistic_reads_do_not_cache_hashes() {
+		NTree<String,Integer> wrapped = TestUtil.testTree();
+		ConcurrentNTree<String,Integer> tree = new ConcurrentNTree<>(wrapped);
+		
+		int optimisticHash = tree.readOptimistically(t -> t.hashCode());
+		
+		assertFalse(wrapped.root.hasSubtreeHash);
+		assertEquals(optimisticHash, (int) tree.read(t -> t.hashCode()));
+		assertTrue(wrapped.root.hasSubtreeHash);
+		assertEquals(optimisticHash, (int) tree.readOptimistically(t -> t.hashCode()));
+	}
+	
+	@Test void test_nodes_of_other_trees_are_rejected() {
+		ConcurrentNTree<String,Integer> tree = new ConcurrentNTree<>(TestUtil.testTree());
+		NTreeNode<String,Integer> other = TestUtil.testTree().getRoot();
+		
+		assertThrows(RuntimeException.class, () -> tree.setValue(other, 1));
+		assertThrows(RuntimeException.class, () -> tree.removeChild(other, "B1"));
+	}
+	
+	@Test void test_concurrent_readers_and_writers() throws InterruptedException {
+		ConcurrentNTree<String,Integer> tree = new ConcurrentNTree<>(TestUtil.testTree());
+		tree.addIndex(IDS_INDEX, node -> node.getId());
+		NTreeNode<String,Integer> b2 = tree.findFirstWithId("B2");
+		AtomicBoolean writing = new AtomicBoolean(true);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		List<Thread> readers = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			readers.add(new Thread(() -> {
+				try {
+					while (writing.get()) {
+						int size = tree.size();
+						assertTrue(size == 5 || size == 6);
+						assertEquals(1, tree.nodesInIndexWithKey(IDS_INDEX, "A1").size());
+						tree.findAll(node -> node.getValue() != null && node.getValue() > 100);
+					}
+				} catch (Throwable e) {
+					failure.set(e);
+				}
+			}));
+		}
+		readers.forEach(Thread::start);
+		for (int i = 0; i < 2000; i++) {
+			tree.setChild(b2, tree.createNode("C3", i));
+			tree.setValue(tree.findFirstWithId("C3"), i * 2);
+			tree.removeChild(b2, "C3");
+		}
+		writing.set(false);
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		
+		assertNull(failure.get());
+		assertEquals(5, tree.size());
+		assertEquals(1, tree.nodesInIndexWithKey(IDS_INDEX, "B2").size());
+	}
+	
+	@Test void test_subtree_locking_runs_writers_of_disjoint_subtrees_in_parallel() throws InterruptedException {
+		NTree<String,Integer> wrapped = TestUtil.testTree();
+		CyclicBarrier bothCloning = new CyclicBarrier(2);
+		AtomicInteger inParallel = new AtomicInteger();
+		// Each writer waits inside its change for the other one to be inside its change too
+		wrapped.nodeValueCloningUsesCloner(value -> {
+			try {
+				bothCloning.await(5, TimeUnit.SECONDS);
+				inParallel.incrementAndGet();
+			} catch (Exception e) {}
+			return value;
+		});
+		ConcurrentNTree<String,Integer> tree = ConcurrentNTree.withSubtreeLocking(wrapped);
+		tree.addIndex(IDS_INDEX, node -> node.getId());
+		NTreeNode<String,Integer> b1 = tree.findFirstWithId("B1");
+		NTreeNode<String,Integer> b2 = tree.findFirstWithId("B2");
+		Thread writer1 = new Thread(() -> tree.setChild(b1, tree.createNode("X", 10)));
+		Thread writer2 = new Thread(() -> tree.setChild(b2, tree.createNode("Y", 20)));
+		
+		writer1.start();
+		writer2.start();
+		writer1.join();
+		writer2.join();
+		
+		assertTrue(tree.usesSubtreeLocking());
+		assertEquals(2, inParallel.get());
+		assertEquals(7, tree.size());
+		assertSame(b1, tree.firstNodeInIndexWithKey(IDS_INDEX, "X").getParent());
+		assertSame(b2, tree.firstNodeInIndexWithKey(IDS_INDEX, "Y").getParent());
+	}
+	
+	@Test void test_subtree_locking_tree_from_json() {
+		NTree<String,Integer> wrapped = NTree.fromJson(TestUtil.testTree().toJson(), String.class, Integer.class);
+		ConcurrentNTree<String,Integer> tree = ConcurrentNTree.withSubtreeLocking(wrapped);
+		NTreeNode<String,Integer> b1 = tree.findFirstWithId("B1");
+		
+		assertEquals(Arrays.asList(wrapped.root, b1), tree.pathFromRoot(b1));
+		assertEquals(Arrays.asList(wrapped.root), tree.pathFromRoot(wrapped.root));
+		assertNull(tree.pathFromRoot(wrapped.root.parent));
+		assertNull(tree.pathFromRoot(TestUtil.testTree().getRoot()));
+	}
+	
+	@Test void test_subtree_locking_setValue_locks_parent_when_indexed() {
+		NTree<String,Integer> wrapped = TestUtil.testTree();
+		ConcurrentNTree<String,Integer> tree = ConcurrentNTree.withSubtreeLocking(wrapped);
+		NTreeNode<String,Integer> b1 = tree.findFirstWithId("B1");
+		NTreeNode<String,Integer> c1 = tree.findFirstWithId("C1");
+		List<Boolean> parentLockedWhenKeyed = new CopyOnWriteArrayList<>();
+		tree.addIndex("childrenSum", node -> {
+			if (node == b1) {
+				parentLockedWhenKeyed.add(isExclusive(SubtreeLock.of(b1)));
+			}
+			return node.childrenValues().stream().mapToInt(Integer::intValue).sum();
+		});
+		parentLockedWhenKeyed.clear();
+		
+		tree.setValue(c1, 10);
+		
+		assertEquals(Arrays.asList(true), parentLockedWhenKeyed);
+		assertSame(b1, tree.firstNodeInIndexWithKey("childrenSum", 15));
+	}
+	
+	static boolean isExclusive(SubtreeLock lock) {
+		synchronized (lock) {
+			return lock.exclusive;
+		}
+	}
+	
+	@Test void test_subtree_locking_concurrent_writers_and_readers() throws InterruptedException {
+		NTree<String,Integer> wrapped = NTree.create("t");
+		wrapped.addNewRoot(wrapped.n("R", 0));
+		for (int t = 0; t < 4; t++) {
+			wrapped.getRoot().setChild(wrapped.n("B" + t, t));
+		}
+		ConcurrentNTree<String,Integer> tree = ConcurrentNTree.withSubtreeLocking(wrapped);
+		tree.addIndex(IDS_INDEX, node -> node.getId());
+		AtomicBoolean writing = new AtomicBoolean(true);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread reader = new Thread(() -> {
+			try {
+				while (writing.get()) {
+					assertEquals(1, tree.nodesInIndexWithKey(IDS_INDEX, "R").size());
+					int size = tree.size();
+					assertTrue(size >= 5 && size <= 13);
+				}
+			} catch (Throwable e) {
+				failure.set(e);
+			}
+		});
+		List<Thread> writers = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			NTreeNode<String,Integer> branch = tree.findFirstWithId("B" + t);
+			writers.add(new Thread(() -> {
+				try {
+					for (int i = 0; i < 500; i++) {
+						tree.setChild(branch, tree.createNode(branch.getId() + "C1", i));
+						tree.setChild(branch, tree.createNode(branch.getId() + "C2", i));
+						tree.setValue(branch, i);
+						tree.removeChild(branch, branch.getId() + "C1");
+						tree.remove(branch.childWithId(branch.getId() + "C2"));
+					}
+				} catch (Throwable e) {
+					failure.set(e);
+				}
+			}));
+		}
+		reader.start();
+		writers.forEach(Thread::start);
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		writing.set(false);
+		reader.join();
+		
+		assertNull(failure.get());
+		assertEquals(5, tree.size());
+		assertEquals(Integer.valueOf(5), tree.read(t -> t.indexes.get(IDS_INDEX).keysList().size()));
+		assertEquals(Integer.valueOf(499), tree.findFirstWithId("B3").getValue());
+	}
+	
+	@Test void test_subtree_locking_readers_progress_while_writers_loop() throws InterruptedException {
+		NTree<String,Integer> wrapped = NTree.create("t");
+		wrapped.addNewRoot(wrapped.n("R", 0));
+		for (int t = 0; t < 8; t++) {
+			wrapped.getRoot().setChild(wrapped.n("B" + t, t));
+		}
+		// Each change holds its intention exclusive lock on the tree for a while, so the
+		// changes of different writers overlap and the tree is never free of them
+		wrapped.nodeValueCloningUsesCloner(value -> {
+			try {
+				Thread.sleep(2);
+			} catch (InterruptedException e) {}
+			return value;
+		});
+		ConcurrentNTree<String,Integer> tree = ConcurrentNTree.withSubtreeLocking(wrapped);
+		AtomicBoolean writing = new AtomicBoolean(true);
+		List<Thread> writers = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			NTreeNode<String,Integer> branch = tree.findFirstWithId("B" + t);
+			writers.add(new Thread(() -> {
+				for (int i = 0; writing.get(); i++) {
+					tree.setChild(branch, tree.createNode(branch.getId() + "C", i));
+				}
+			}));
+		}
+		AtomicInteger reads = new AtomicInteger();
+		Thread reader = new Thread(() -> {
+			for (int i = 0; i < 20; i++) {
+				tree.read(t -> t.size());
+				reads.incrementAndGet();
+			}
+		});
+		
+		writers.forEach(Thread::start);
+		Thread.sleep(50);
+		reader.start();
+		reader.join(TimeUnit.SECONDS.toMillis(10));
+		int readsWhileWriting = reads.get();
+		writing.set(false);
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		reader.join();
+		
+		assertEquals(20, readsWhileWriting);
+	}
+	
+	@Test void test_subtree_lock_waiting_shared_blocks_new_intention_exclusive() throws InterruptedException {
+		SubtreeLock lock = new SubtreeLock();
+		List<String> order = new CopyOnWriteArrayList<>();
+		lock.lock(Mode.INTENTION_EXCLUSIVE);
+		Thread reader = new Thread(() -> {
+			lock.lock(Mode.SHARED);
+			order.add("reader");
+			lock.unlock(Mode.SHARED);
+		});
+		Thread writer = new Thread(() -> {
+			lock.lock(Mode.INTENTION_EXCLUSIVE);
+			order.add("writer");
+			lock.unlock(Mode.INTENTION_EXCLUSIVE);
+		});
+		
+		reader.start();
+		while (waitingShared(lock) == 0) {
+			Thread.sleep(1);
+		}
+		writer.start();
+		Thread.sleep(100);
+		boolean writerGotLockWhileReaderWaited = !order.isEmpty();
+		lock.unlock(Mode.INTENTION_EXCLUSIVE);
+		reader.join();
+		writer.join();
+		
+		assertFalse(writerGotLockWhileReaderWaited);
+		assertEquals(Arrays.asList("reader", "writer"), order);
+	}
+	
+	static int waitingShared(SubtreeLock lock) {
+		synchronized (lock) {
+			return lock.waitingShared;
+		}
+	}
+	
+}
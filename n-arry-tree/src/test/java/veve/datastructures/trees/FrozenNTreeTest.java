@@ -0,0 +1,86 @@
+package veve.datastructures.trees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import veve.datastructures.trees.NTreeConstants.TreeTraversalOrder;
+
+public class FrozenNTreeTest {
+	
+	@SuppressWarnings("unchecked")
+	static NTree<String,Integer> orderedTree() {
+		NTree<String,Integer> t = NTree.create("t");
+		t.useNaturalOrdering();
+		t.addNewRoot(
+			t.n("A", 1).c(
+				t.n("C", 3).c(
+					t.n("F", 6)),
+				t.n("B", 2).c(
+					t.n("E", 5).c(
+						t.n("G", 7)),
+					t.n("D", 4))));
+		return t;
+	}
+	
+	@Test void test_traversals_same_as_tree() {
+		for (NTree<String,Integer> tree : Arrays.asList(orderedTree(), TestUtil.testTree())) {
+			FrozenNTree<String,Integer> frozen = tree.freeze();
+			
+			for (TreeTraversalOrder traversal : TreeTraversalOrder.values()) {
+				List<String> expected = tree.toList(traversal).stream().map(NTreeNode::getId).collect(Collectors.toList());
+				List<String> actual = new ArrayList<>();
+				frozen.forEachNode(traversal, node -> actual.add(node.getId()));
+				assertEquals(expected, actual, traversal.name());
+			}
+			assertEquals(tree.size(), frozen.size());
+			assertEquals(tree.height(), frozen.height());
+			assertEquals(tree.getId(), frozen.getId());
+		}
+	}
+	
+	@Test void test_find_levels_and_ancestors() {
+		FrozenNTree<String,Integer> frozen = orderedTree().freeze();
+		FrozenNTreeNode<String,Integer> b = frozen.findFirstWithId("B");
+		FrozenNTreeNode<String,Integer> g = frozen.findFirstWithValue(7);
+		
+		assertEquals(Arrays.asList("D", "E"), b.getChildren().stream().map(FrozenNTreeNode::getId).collect(Collectors.toList()));
+		assertEquals(4, b.size());
+		assertEquals("E", g.getParent().getId());
+		assertEquals(4, g.levelFromRoot());
+		assertTrue(g.hasAncestor(b));
+		assertTrue(g.hasAncestor(frozen.getRoot()));
+		assertFalse(b.hasAncestor(g));
+		assertFalse(g.hasAncestor(frozen.findFirstWithId("C")));
+		assertEquals(Arrays.asList("D", "E", "F"), frozen.nodesInLevel(3).stream().map(FrozenNTreeNode::getId).collect(Collectors.toList()));
+		assertEquals(0, frozen.nodesInLevel(5).size());
+		assertEquals(3, frozen.findAll(node -> node.getValue() % 2 == 0).size());
+		assertEquals(Arrays.asList("B", "D", "E", "G"), b.stream().map(FrozenNTreeNode::getId).collect(Collectors.toList()));
+		assertNull(frozen.findFirstWithId("X"));
+		assertThrows(RuntimeException.class, () -> frozen.nodesInLevel(0));
+	}
+	
+	@Test void test_freeze_is_not_changed_by_tree() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		FrozenNTree<String,Integer> frozen = tree.freeze();
+		
+		tree.findFirstWithId("B1").setValue(20);
+		tree.findFirstWithId("B2").remove();
+		
+		assertEquals(5, frozen.size());
+		assertEquals(Integer.valueOf(2), frozen.findFirstWithId("B1").getValue());
+		assertEquals(frozen, TestUtil.testTree().freeze());
+		assertEquals(0, NTree.create("empty").freeze().size());
+		assertNull(NTree.create("empty").freeze().getRoot());
+	}
+	
+}
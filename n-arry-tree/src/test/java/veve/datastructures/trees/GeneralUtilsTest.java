@@ -1,7 +1,9 @@
 package veve.datastructures.trees;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -30,6 +32,15 @@ import veve.datastructures.trees.GeneralUtils;
 
 public class GeneralUtilsTest {
 	
+	public static class CloneableWithoutPublicClone implements Cloneable {}
+	
+	public static class CopyConstructorThrowingError {
+		public CopyConstructorThrowingError() {}
+		public CopyConstructorThrowingError(CopyConstructorThrowingError other) {
+			throw new StackOverflowError();
+		}
+	}
+	
 	void functionToTestArgsNotNull(String s, Integer i) {
 		Object obj = null;
 		GeneralUtils.argsNotNull(obj, obj);
@@ -78,6 +89,40 @@ public class GeneralUtilsTest {
 		assertTrue(obj.value == clone.value);
 	}
 	
+	@Test void test_cloneWithCopyConstructor_no_copy_constructor() {
+		StringBuilder obj = new StringBuilder("A");
+		assertNull(GeneralUtils.cloneWithCopyConstructor(obj));
+	}
+	
+	@Test void test_cloneWithCopyConstructor_rethrows_errors() {
+		CopyConstructorThrowingError obj = new CopyConstructorThrowingError();
+		assertThrows(StackOverflowError.class, () -> GeneralUtils.cloneWithCopyConstructor(obj));
+	}
+	
+	@Test void test_cloneWithCloneable_clonesObject() {
+		CloningTestClass<Integer> obj = new CloningTestClass<Integer>(1);
+		CloningTestClass<Integer> clone = GeneralUtils.cloneWithCloneable(obj);
+		assertTrue(obj != clone);
+		assertEquals(obj, clone);
+	}
+	
+	@Test void test_cloneWithCloneable_clonesArray() {
+		int[] obj = {1, 2};
+		int[] clone = GeneralUtils.cloneWithCloneable(obj);
+		assertTrue(obj != clone);
+		assertArrayEquals(obj, clone);
+	}
+	
+	@Test void test_cloneWithCloneable_not_cloneable() {
+		ClassForTesting<Integer> obj = new ClassForTesting<Integer>(1);
+		assertThrows(RuntimeException.class, () -> GeneralUtils.cloneWithCloneable(obj));
+	}
+	
+	@Test void test_cloneWithCloneable_no_public_clone_method() {
+		CloneableWithoutPublicClone obj = new CloneableWithoutPublicClone();
+		assertThrows(RuntimeException.class, () -> GeneralUtils.cloneWithCloneable(obj));
+	}
+	
 	@Test void test_cloneUsingSerialization_objectNull() {
 		ClassForTesting<Integer> obj = null;
 		ClassForTesting<Integer> clone = GeneralUtils.cloneUsingSerialization(obj);
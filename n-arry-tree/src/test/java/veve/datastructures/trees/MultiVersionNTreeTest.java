@@ -0,0 +1,67 @@
+package veve.datastructures.trees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+public class MultiVersionNTreeTest {
+	
+	@Test void test_snapshot_is_not_changed_by_later_writes() {
+		MultiVersionNTree<String,Integer> tree = MultiVersionNTree.fromNTree(TestUtil.testTree());
+		PersistentNTree<String,Integer> snapshot = tree.snapshot();
+		
+		tree.setValue(Arrays.asList("A1","B1"), 20);
+		tree.addChild(Arrays.asList("A1","B2"), "C3", 6);
+		tree.remove(Arrays.asList("A1","B1","C1"));
+		
+		assertEquals(5, snapshot.size());
+		assertEquals(Integer.valueOf(2), snapshot.getNode(Arrays.asList("A1","B1")).getValue());
+		assertEquals(Integer.valueOf(20), tree.getNode(Arrays.asList("A1","B1")).getValue());
+		assertNull(tree.getNode(Arrays.asList("A1","B1","C1")));
+		assertEquals(snapshot.getVersion() + 3, tree.getVersion());
+		assertEquals(TestUtil.testTree(), snapshot.toNTree());
+		assertThrows(RuntimeException.class, () -> tree.setValue(Arrays.asList("A1","X"), 1));
+	}
+	
+	@Test void test_stream_is_preorder_of_snapshot() {
+		MultiVersionNTree<String,Integer> tree = MultiVersionNTree.fromNTree(TestUtil.testTree());
+		
+		List<String> ids = tree.stream().map(PersistentNTreeNode::getId).collect(Collectors.toList());
+		
+		assertEquals(5, ids.size());
+		assertEquals("A1", ids.get(0));
+		assertEquals(ids.indexOf("B1") + 1, Math.min(ids.indexOf("C1"), ids.indexOf("C2")));
+		assertEquals(0, MultiVersionNTree.<String,Integer>create("t").stream().count());
+	}
+	
+	@Test void test_concurrent_writers_do_not_lose_updates() throws InterruptedException {
+		MultiVersionNTree<String,Integer> tree = MultiVersionNTree.fromNTree(TestUtil.testTree());
+		PersistentNTree<String,Integer> first = tree.snapshot();
+		List<Thread> writers = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			writers.add(new Thread(() -> {
+				for (int i = 0; i < 1000; i++) {
+					tree.update(version -> version.setValue(Arrays.asList("A1"),
+							version.getNode(Arrays.asList("A1")).getValue() + 1));
+				}
+			}));
+		}
+		writers.forEach(Thread::start);
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		
+		assertEquals(Integer.valueOf(4001), tree.getNode(Arrays.asList("A1")).getValue());
+		assertEquals(first.getVersion() + 4000, tree.getVersion());
+		assertFalse(tree.compareAndSet(first, first.setValue(Arrays.asList("A1"), 0)));
+	}
+	
+}
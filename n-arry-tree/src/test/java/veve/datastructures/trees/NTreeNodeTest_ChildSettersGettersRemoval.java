@@ -4,12 +4,15 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -42,7 +45,7 @@ public class NTreeNodeTest_ChildSettersGettersRemoval {
 		Multiset<NTreeNode<String,Integer>> nodeAexpectedChildren =  HashMultiset.create(Arrays.asList(nodeC, nodeD));
 		Multiset<NTreeNode<String,Integer>> nodeAchildren =  HashMultiset.create(nodeA.childrenList());
 		assertEquals(nodeAexpectedChildren, nodeAchildren);
-		assertEquals(0, tree.indexes.get(IDS_INDEX).indexTable.values().size());
+		assertEquals(0, tree.indexes.get(IDS_INDEX).maps.indexTable.values().size());
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -97,7 +100,7 @@ public class NTreeNodeTest_ChildSettersGettersRemoval {
 		a.setChild(b2);
 		
 		assertEquals(1, a.childWithId("B").value);
-		assertEquals(0, tree.indexes.get(IDS_INDEX).indexTable.values().size());
+		assertEquals(0, tree.indexes.get(IDS_INDEX).maps.indexTable.values().size());
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -232,7 +235,7 @@ public class NTreeNodeTest_ChildSettersGettersRemoval {
 		
 		assertEquals(b, a.childWithId("B"));
 		assertNotSame(b, a.childWithId("B"));
-		assertEquals(0, tree.indexes.get(IDS_INDEX).indexTable.values().size());
+		assertEquals(0, tree.indexes.get(IDS_INDEX).maps.indexTable.values().size());
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -466,4 +469,61 @@ public class NTreeNodeTest_ChildSettersGettersRemoval {
 		assertEquals(expectedIds, idsInIndex);
 	}
 	
+	//==============================================================================================
+	//	CHILD STORAGE
+	//==============================================================================================
+	
+	@SuppressWarnings("unchecked")
+	@Test void test_leaves_share_empty_children() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		NTreeNode<String,Integer> b2 = tree.findFirstWithId("B2");
+		NTreeNode<String,Integer> c1 = tree.findFirstWithId("C1");
+		
+		assertSame(b2.children, c1.children);
+		b2.addNewChildren(tree.n("C3"));
+		
+		assertNotSame(b2.children, c1.children);
+		assertEquals("C3", b2.childWithId("C3").getId());
+		assertTrue(c1.children.isEmpty());
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test void test_children_order_same_as_HashMap_when_growing_and_shrinking() {
+		NTree<String,Integer> tree = NTree.create("tree");
+		tree.addNewRoot(tree.n("A"));
+		Map<String,NTreeNode<String,Integer>> expected = new HashMap<>();
+		for (int i = 0; i < 20; i++) {
+			NTreeNode<String,Integer> child = tree.n("B" + i);
+			tree.root.addNewChildren(child);
+			expected.put(child.id, child);
+			assertEquals(new ArrayList<>(expected.keySet()), tree.root.childrenIds());
+			assertSame(child, tree.root.childWithId("B" + i));
+		}
+		for (int i = 0; i < 20; i += 3) {
+			tree.root.removeChild("B" + i);
+			expected.remove("B" + i);
+			assertEquals(new ArrayList<>(expected.keySet()), tree.root.childrenIds());
+			assertNull(tree.root.childWithId("B" + i));
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test void test_inline_children_removal_and_replacement() {
+		NTree<String,Integer> tree = NTree.create("tree");
+		tree.addNewRoot(tree.n("A"));
+		tree.root.addNewChildren(tree.n("B1"), tree.n("B2"), tree.n("B3"));
+		Map<String,NTreeNode<String,Integer>> expected = new HashMap<>(tree.root.children);
+		
+		Iterator<NTreeNode<String,Integer>> iterator = tree.root.children.values().iterator();
+		NTreeNode<String,Integer> removed = iterator.next();
+		iterator.remove();
+		expected.remove(removed.id);
+		String replacedId = expected.keySet().iterator().next();
+		tree.root.setChild(tree.n(replacedId, 5));
+		
+		assertEquals(expected.keySet(), tree.root.children.keySet());
+		assertEquals(2, tree.root.childrenSize());
+		assertEquals(Integer.valueOf(5), tree.root.childWithId(replacedId).getValue());
+	}
+	
 }
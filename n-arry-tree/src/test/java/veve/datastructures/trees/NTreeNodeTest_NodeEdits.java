@@ -1,14 +1,21 @@
 package veve.datastructures.trees;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
 
@@ -204,7 +211,7 @@ public class NTreeNodeTest_NodeEdits {
     	
     	assertNull(removed);
     	assertNull(tree.root);
-    	assertEquals(0, tree.indexes.get(IDS_INDEX).indexTable.size());
+    	assertEquals(0, tree.indexes.get(IDS_INDEX).maps.indexTable.size());
     }
     
     @Test void test_remove_is_root() {
@@ -215,7 +222,7 @@ public class NTreeNodeTest_NodeEdits {
     	
     	assertNotNull(removed);
     	assertNull(tree.root);
-    	assertEquals(0, tree.indexes.get(IDS_INDEX).indexTable.size());
+    	assertEquals(0, tree.indexes.get(IDS_INDEX).maps.indexTable.size());
     }
     
     @SuppressWarnings("unchecked")
@@ -369,4 +376,182 @@ public class NTreeNodeTest_NodeEdits {
 		assertSame(tree.getRoot(), a1InHasChildIndex);
 	}
     
+	//==============================================================================================
+	//	move
+	//==============================================================================================
+	
+	@Test void test_moveTo() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		tree.addIndex(IDS_INDEX, node -> node.getId());
+		tree.addIndex(PARENT_IDS_INDEX, node -> node.getParent().getId());
+		tree.useIdSearchFilter();
+		NTreeNode<String,Integer> b1 = tree.findFirstWithId("B1");
+		NTreeNode<String,Integer> b2 = tree.findFirstWithId("B2");
+		NTreeNode<String,Integer> c1 = tree.findFirstWithId("C1");
+		String c1UUID = c1.getUUID();
+		
+		assertTrue(b1.moveTo(b2));
+		
+		assertSame(b2, b1.getParent());
+		assertSame(b1, b2.childWithId("B1"));
+		assertSame(c1, tree.findFirstWithId("C1"));
+		assertEquals(c1UUID, c1.getUUID());
+		assertEquals(Arrays.asList("B2"), tree.getRoot().childrenIds());
+		assertEquals(Arrays.asList(b1), tree.nodesInIndexWithKey(PARENT_IDS_INDEX, "B2"));
+		assertEquals(Arrays.asList(b2), tree.nodesInIndexWithKey(PARENT_IDS_INDEX, "A1"));
+		Multiset<String> expectedIds =  HashMultiset.create(Arrays.asList("A1","B1","B2","C1","C2"));
+		Multiset<String> idsInIndex =  HashMultiset.create(tree.indexes.get(IDS_INDEX).keysList());
+		assertEquals(expectedIds, idsInIndex);
+		assertSame(c1, b2.findFirstWithId("C1"));
+	}
+	
+	@Test void test_version_incremented_on_change() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		NTreeNode<String,Integer> root = tree.getRoot();
+		NTreeNode<String,Integer> b1 = tree.findFirstWithId("B1");
+		NTreeNode<String,Integer> c1 = tree.findFirstWithId("C1");
+		
+		assertEquals(1, b1.getVersion());
+		c1.setValue(40);
+		b1.removeChild("C2");
+		root.setChild(tree.n("B3"));
+		
+		assertEquals(2, c1.getVersion());
+		assertEquals(2, b1.getVersion());
+		assertEquals(2, root.getVersion());
+		assertEquals(1, tree.findFirstWithId("B2").getVersion());
+	}
+	
+	@Test void test_setValueIfVersion() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		NTreeNode<String,Integer> c1 = tree.findFirstWithId("C1");
+		
+		assertTrue(c1.setValueIfVersion(1, 40));
+		assertFalse(c1.setValueIfVersion(1, 41));
+		
+		assertEquals(Integer.valueOf(40), c1.getValue());
+		assertEquals(2, c1.getVersion());
+	}
+	
+	@Test void test_setChildIfVersion_and_removeIfVersion() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		NTreeNode<String,Integer> b2 = tree.findFirstWithId("B2");
+		NTreeNode<String,Integer> c1 = tree.findFirstWithId("C1");
+		
+		assertFalse(b2.setChildIfVersion(0, tree.n("C3")));
+		assertTrue(b2.setChildIfVersion(1, tree.n("C3")));
+		assertFalse(c1.removeIfVersion(2));
+		assertTrue(c1.removeIfVersion(1));
+		
+		assertEquals(Arrays.asList("C3"), b2.childrenIds());
+		assertNull(tree.findFirstWithId("C1"));
+		assertEquals(2, tree.findFirstWithId("B1").getVersion());
+	}
+	
+	@Test void test_setValueIfVersion_concurrent_writers() throws InterruptedException {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		tree.addIndex(IDS_INDEX, node -> node.getId());
+		List<NTreeNode<String,Integer>> nodes = tree.toList();
+		List<Thread> threads = new ArrayList<>();
+		for (NTreeNode<String,Integer> node : nodes) {
+			for (int t = 0; t < 2; t++) {
+				threads.add(new Thread(() -> {
+					for (int i = 0; i < 1000; i++) {
+						long version;
+						do {
+							version = node.getVersion();
+						} while (!node.setValueIfVersion(version, (int) version));
+					}
+				}));
+			}
+		}
+		threads.forEach(Thread::start);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		
+		for (NTreeNode<String,Integer> node : nodes) {
+			assertEquals(2001, node.getVersion());
+			assertEquals(Integer.valueOf(2000), node.getValue());
+		}
+		assertEquals(5, tree.indexes.get(IDS_INDEX).keysList().size());
+	}
+	
+	@Test void test_setChildIfVersion_indexed_tree_writers_run_in_parallel() throws InterruptedException {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		tree.addIndex(IDS_INDEX, node -> node.getId());
+		CyclicBarrier bothCloning = new CyclicBarrier(2);
+		AtomicInteger inParallel = new AtomicInteger();
+		// Each writer waits inside its change for the other one to be inside its change too
+		tree.nodeValueCloningUsesCloner(value -> {
+			try {
+				bothCloning.await(5, TimeUnit.SECONDS);
+				inParallel.incrementAndGet();
+			} catch (Exception e) {}
+			return value;
+		});
+		NTreeNode<String,Integer> b1 = tree.findFirstWithId("B1");
+		NTreeNode<String,Integer> b2 = tree.findFirstWithId("B2");
+		Thread writer1 = new Thread(() -> b1.setChildIfVersion(1, tree.n("X", 10)));
+		Thread writer2 = new Thread(() -> b2.setChildIfVersion(1, tree.n("Y", 20)));
+		
+		writer1.start();
+		writer2.start();
+		writer1.join();
+		writer2.join();
+		
+		assertEquals(2, inParallel.get());
+		assertSame(b1, tree.firstNodeInIndexWithKey(IDS_INDEX, "X").getParent());
+		assertSame(b2, tree.firstNodeInIndexWithKey(IDS_INDEX, "Y").getParent());
+		assertEquals(7, tree.indexes.get(IDS_INDEX).keysList().size());
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test void test_version_not_incremented_for_detached_nodes() {
+		NTree<String,Integer> tree = NTree.create("t");
+		NTreeNode<String,Integer> a = tree.n("A").c(tree.n("B"));
+		
+		a.setValue(1);
+		
+		assertEquals(1, a.getVersion());
+		assertEquals(1, a.childWithId("B").getVersion());
+	}
+	
+	@Test void test_moveTo_own_subtree() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		NTreeNode<String,Integer> b1 = tree.findFirstWithId("B1");
+		
+		assertThrows(RuntimeException.class, () -> b1.moveTo(b1));
+		assertThrows(RuntimeException.class, () -> b1.moveTo(tree.findFirstWithId("C1")));
+		assertThrows(RuntimeException.class, () -> tree.getRoot().moveTo(b1));
+	}
+	
+	@Test void test_moveTo_sibling_with_same_id() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		NTreeNode<String,Integer> b2 = tree.findFirstWithId("B2");
+		b2.addNewChildren(tree.n("C1", 6));
+		NTreeNode<String,Integer> c1 = tree.findFirstWithId("B1").childWithId("C1");
+		
+		assertFalse(c1.moveTo(b2));
+		assertFalse(c1.moveTo(c1.getParent()));
+		assertSame(tree.findFirstWithId("B1"), c1.getParent());
+	}
+	
+	@Test void test_moveTo_other_tree() {
+		NTree<String,Integer> tA = TestUtil.testTree();
+		tA.addIndex(IDS_INDEX, node -> node.getId());
+		NTree<String,Integer> tB = NTree.create("tB");
+		tB.addNewRoot(tB.n("X"));
+		tB.addIndex(IDS_INDEX, node -> node.getId());
+		NTreeNode<String,Integer> b1 = tA.findFirstWithId("B1");
+		
+		assertTrue(b1.moveTo(tB.getRoot()));
+		
+		assertEquals(2, tA.size());
+		assertEquals(4, tB.size());
+		assertSame(tB, b1.findFirstWithId("C2").treeOfBelonging);
+		assertNull(tA.firstNodeInIndexWithKey(IDS_INDEX, "C2"));
+		assertSame(b1.childWithId("C2"), tB.firstNodeInIndexWithKey(IDS_INDEX, "C2"));
+	}
+	
 }
@@ -193,6 +193,43 @@ public class NTreeNodeTest_OtherChildMethodsSiblingAndCloning {
 		assertNotSame(clone, original);
 	}
 	
+	@Test void test_cloneSingleNode_shares_value() {
+		NTree<String,CloningTestClass<String>> tree = NTree.create("tree");
+		tree.nodeValueCloningSharesValues();
+		NTreeNode<String,CloningTestClass<String>> original = tree.n("A1", new CloningTestClass<String>("Value"));
+		
+		NTreeNode<String,CloningTestClass<String>> clone = original.cloneSingleNode();
+		
+		assertEquals(clone, original);
+		assertSame(original.value, clone.value);
+		assertNotSame(clone, original);
+	}
+	
+	@Test void test_cloneSingleNode_uses_cloneable_for_value() {
+		NTree<String,CloningTestClass<String>> tree = NTree.create("tree");
+		tree.nodeValueCloningUsesCloneable();
+		NTreeNode<String,CloningTestClass<String>> original = tree.n("A1", new CloningTestClass<String>("Value"));
+		
+		NTreeNode<String,CloningTestClass<String>> clone = original.cloneSingleNode();
+		
+		assertEquals(clone, original);
+		assertEquals("Value", clone.value.value);
+		assertNotSame(original.value, clone.value);
+	}
+	
+	@Test void test_cloneSingleNode_uses_custom_cloner_for_value() {
+		NTree<String,CloningTestClass<String>> tree = NTree.create("tree");
+		tree.nodeValueCloningUsesCloner(value -> new CloningTestClass<>(value.value + "Clone"));
+		NTreeNode<String,CloningTestClass<String>> original = tree.n("A1", new CloningTestClass<String>("Value"));
+		NTreeNode<String,CloningTestClass<String>> originalWithNullValue = tree.n("A2");
+		
+		NTreeNode<String,CloningTestClass<String>> clone = original.cloneSingleNode();
+		NTreeNode<String,CloningTestClass<String>> cloneWithNullValue = originalWithNullValue.cloneSingleNode();
+		
+		assertEquals("ValueClone", clone.value.value);
+		assertNull(cloneWithNullValue.value);
+	}
+	
 	@Test void test_clone() {
 		NTree<String,Integer> tree = TestUtil.testTree();
 		NTree<String,Integer> tree2 = NTree.create("tree2");
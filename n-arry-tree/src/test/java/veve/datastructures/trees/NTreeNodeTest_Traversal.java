@@ -1,18 +1,28 @@
 package veve.datastructures.trees;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
 
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
 
+import veve.datastructures.trees.NTreeConstants.TreeTraversalOrder;
+
 public class NTreeNodeTest_Traversal {
 	
 	static final String IDS_INDEX = "idsIndex";
@@ -474,4 +484,78 @@ public class NTreeNodeTest_Traversal {
 		assertEquals(expectedIds, idsInIndex);
 	}
 	
+	@Test void test_forEachNodeAsync_limits_concurrency() throws Exception {
+		NTree<String,Integer> tree = testTree();
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		Set<String> visited = ConcurrentHashMap.newKeySet();
+		
+		tree.forEachNodeAsync(TreeTraversalOrder.POST_ORDER, node -> {
+			maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			visited.add(node.getId());
+			return CompletableFuture.runAsync(() -> {
+				sleep(20);
+				running.decrementAndGet();
+			});
+		}, 2, false).get(5, TimeUnit.SECONDS);
+		
+		assertEquals(HashMultiset.create(Arrays.asList("A1","B1","B2","B3","C1","C2")), HashMultiset.create(visited));
+		assertEquals(2, maxRunning.get());
+	}
+	
+	@Test void test_forEachNodeAsync_parents_before_children() throws Exception {
+		NTree<String,Integer> tree = testTree();
+		Set<String> finished = ConcurrentHashMap.newKeySet();
+		List<String> startedBeforeParent = Collections.synchronizedList(new LinkedList<>());
+		
+		tree.forEachNodeAsync(TreeTraversalOrder.PRE_ORDER, node -> {
+			if (node.getParent() != null && !finished.contains(node.getParent().getId())) {
+				startedBeforeParent.add(node.getId());
+			}
+			return CompletableFuture.runAsync(() -> {
+				sleep(10);
+				finished.add(node.getId());
+			});
+		}, 10, true).get(5, TimeUnit.SECONDS);
+		
+		assertEquals(6, finished.size());
+		assertTrue(startedBeforeParent.isEmpty());
+		assertThrows(RuntimeException.class, () -> tree.forEachNodeAsync(TreeTraversalOrder.POST_ORDER, node -> null, 10, true));
+		assertThrows(RuntimeException.class, () -> tree.forEachNodeAsync(TreeTraversalOrder.PRE_ORDER, node -> null, 0, false));
+	}
+	
+	@Test void test_forEachNodeAsync_reports_all_failures() throws InterruptedException {
+		NTree<String,Integer> tree = testTree();
+		Set<String> visited = ConcurrentHashMap.newKeySet();
+		
+		CompletableFuture<Void> result = tree.forEachNodeAsync(TreeTraversalOrder.PRE_ORDER, node -> {
+			visited.add(node.getId());
+			if (node.getId().equals("B1")) {
+				throw new IllegalStateException("B1");
+			}
+			if (node.getId().equals("B2")) {
+				return CompletableFuture.supplyAsync(() -> { throw new IllegalStateException("B2"); });
+			}
+			return null;
+		}, 4, true);
+		
+		ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+		AsyncTraversalException failures = (AsyncTraversalException) e.getCause();
+		assertEquals(2, failures.getFailures().size());
+		assertEquals(2, failures.getSuppressed().length);
+		assertEquals("B1", failures.getFailures().get(tree.findFirstWithId("B1")).getMessage());
+		assertEquals("B2", failures.getFailures().get(tree.findFirstWithId("B2")).getMessage());
+		assertFalse(visited.contains("C1"));
+		assertTrue(visited.contains("B3"));
+		assertTrue(NTree.<String,Integer>create("t").forEachNodeAsync(TreeTraversalOrder.PRE_ORDER, node -> null).isDone());
+	}
+	
+	static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
 }
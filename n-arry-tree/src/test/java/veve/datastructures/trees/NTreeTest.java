@@ -8,10 +8,20 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static veve.datastructures.trees.NTreeConstants.TreeChangeType.ID_REPLACED;
+import static veve.datastructures.trees.NTreeConstants.TreeChangeType.NODE_ADDED;
+import static veve.datastructures.trees.NTreeConstants.TreeChangeType.NODE_MOVED;
+import static veve.datastructures.trees.NTreeConstants.TreeChangeType.NODE_REMOVED;
+import static veve.datastructures.trees.NTreeConstants.TreeChangeType.VALUE_CHANGED;
 
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Flow;
 import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
@@ -19,9 +29,11 @@ import org.junit.jupiter.api.Test;
 
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Multiset;
+import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
 
 import veve.datastructures.trees.NTreeConstants.NodeValueCloningMode;
+import veve.datastructures.trees.NTreeConstants.TreeChangeType;
 import veve.datastructures.trees.NTreeConstants.TreeTraversalOrder;
 
 public class NTreeTest {
@@ -50,6 +62,38 @@ public class NTreeTest {
 		assertEquals(type, tree.getNodeValueType());
 	}
 	
+	@Test void test_nodeValueCloningUsesCloneable() {
+		NTree<String,Integer> tree = NTree.create("tree");
+		tree.nodeValueCloningUsesCloneable();
+		assertEquals(NodeValueCloningMode.BY_CLONEABLE, tree.getNodeValueCloningMode());
+	}
+	
+	@Test void test_nodeValueCloningUsesCloner() {
+		NTree<String,Integer> tree = NTree.create("tree");
+		tree.nodeValueCloningUsesCloner(value -> value + 1);
+		assertEquals(NodeValueCloningMode.BY_CUSTOM_CLONER, tree.getNodeValueCloningMode());
+		tree.nodeValueCloningUsesSerialization();
+		assertNull(tree.nodeValueCloner);
+	}
+	
+	@Test void test_nodeValueCloningUsesCloner_fromJson_resets_mode() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		tree.nodeValueCloningUsesCloner(value -> value + 1);
+		
+		NTree<String,Integer> fromJson = NTree.fromJson(tree.toJson(), String.class, Integer.class);
+		NTree<String,Integer> clone = fromJson.clone();
+		
+		assertNull(fromJson.getNodeValueCloningMode());
+		assertEquals(Integer.valueOf(4), clone.findFirstWithId("C1").getValue());
+		assertEquals(fromJson, clone);
+	}
+	
+	@Test void test_nodeValueCloningSharesValues() {
+		NTree<String,Integer> tree = NTree.create("tree");
+		tree.nodeValueCloningSharesValues();
+		assertEquals(NodeValueCloningMode.SHARE, tree.getNodeValueCloningMode());
+	}
+	
 	@Test void test_isUnordered_default() {
 		NTree<String,Integer> tree = NTree.create("tree");
 		assertTrue(tree.isUnordered());
@@ -270,7 +314,7 @@ public class NTreeTest {
 		
 		assertNull(tree.root);
 		assertEquals(0, tree.size());
-		assertEquals(0, tree.indexes.get(IDS_INDEX).indexTable.size());
+		assertEquals(0, tree.indexes.get(IDS_INDEX).maps.indexTable.size());
 	}
 	
 	@Test void test_size_root_is_null() {
@@ -488,6 +532,39 @@ public class NTreeTest {
 		assertEquals(tree, treeClone);
 	}
 	
+	@Test void test_fromJson_trailing_data() {
+		String json = TestUtil.testTree().toJson() + " {\"x\":1}";
+		
+		assertThrows(JsonSyntaxException.class, () -> NTree.fromJson(json, String.class, Integer.class));
+	}
+	
+	@Test void test_toJsonAndFromJson_keeps_uuids() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		NTreeNode<String,Integer> b1 = tree.findFirstWithId("B1");
+		assertNull(b1.uuid);
+		
+		String json = tree.toJson();
+		NTree<String,Integer> treeClone =  NTree.fromJson(json, String.class, Integer.class);
+		
+		assertEquals(tree.getUUID(), treeClone.getUUID());
+		assertEquals(b1.getUUID(), treeClone.findFirstWithId("B1").getUUID());
+		assertEquals(tree.getRoot().getUUID(), treeClone.getRoot().getUUID());
+	}
+	
+	@Test void test_node_uuid_created_once_and_unique() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		NTreeNode<String,Integer> b1 = tree.findFirstWithId("B1");
+		
+		String uuid = b1.getUUID();
+		
+		assertTrue(uuid.matches("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}"));
+		assertEquals(4, UUID.fromString(uuid).version());
+		assertEquals(2, UUID.fromString(uuid).variant());
+		assertEquals(uuid, b1.getUUID());
+		assertNotEquals(uuid, tree.findFirstWithId("B2").getUUID());
+		assertNotEquals(uuid, b1.clone().getUUID());
+	}
+	
 	@Test void test_findAll_root_is_null() {
 		NTree<String,Integer> tree = NTree.create("tree");
 		
@@ -541,6 +618,224 @@ public class NTreeTest {
     	assertEquals(expected, node);
 	}
 	
+	@Test void test_findFirstWithId_uses_id_search_filter() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		tree.useIdSearchFilter();
+		
+		assertTrue(tree.hasSearchFilter());
+		assertEquals(tree.n("C2", 5), tree.findFirstWithId("C2"));
+		assertNull(tree.findFirstWithId("XX"));
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test void test_findFirstWithId_search_filter_kept_in_sync() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		tree.useIdSearchFilter();
+		NTreeNode<String,Integer> b1 = tree.findFirstWithId("B1");
+		
+		b1.addNewChildren(tree.n("D1", 6).c(tree.n("E1", 7)));
+		tree.findFirstWithId("B2").setChild(tree.n("D2", 8));
+		tree.findFirstWithId("C1").replaceId("X1");
+		tree.findFirstWithId("C2").remove();
+		
+		assertEquals(tree.n("E1", 7), tree.findFirstWithId("E1"));
+		assertEquals(tree.n("D2", 8), tree.findFirstWithId("D2"));
+		assertEquals(tree.n("X1", 4), tree.findFirstWithId("X1"));
+		assertNull(tree.findFirstWithId("C1"));
+		assertNull(tree.findFirstWithId("C2"));
+	}
+	
+	@Test void test_findFirstWithSearchKey() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		tree.useSearchFilter(node -> node.getValue() * 10);
+		
+		tree.findFirstWithId("B2").setValue(9);
+		
+		assertEquals(tree.n("C1", 4), tree.findFirstWithSearchKey(40));
+		assertEquals(tree.n("B2", 9), tree.findFirstWithSearchKey(90));
+		assertNull(tree.findFirstWithSearchKey(30));
+	}
+	
+	@Test void test_findFirstWithSearchKey_no_search_filter() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		
+		assertThrows(RuntimeException.class, () -> tree.findFirstWithSearchKey(40));
+		tree.useIdSearchFilter();
+		tree.dontUseSearchFilter();
+		assertFalse(tree.hasSearchFilter());
+		assertNull(tree.root.searchFilterBits);
+	}
+	
+	@Test void test_batch_commit_updates_indexes() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		tree.addIndex(IDS_INDEX, node -> node.getId());
+		
+		tree.batch(t -> {
+			t.findFirstWithId("B1").addNewChildren(t.n("C3", 6));
+			t.findFirstWithId("B2").remove();
+			assertTrue(t.isInBatch());
+			assertNull(t.firstNodeInIndexWithKey(IDS_INDEX, "C3"));
+		});
+		
+		assertFalse(tree.isInBatch());
+		assertEquals(tree.n("C3", 6), tree.firstNodeInIndexWithKey(IDS_INDEX, "C3"));
+		assertNull(tree.firstNodeInIndexWithKey(IDS_INDEX, "B2"));
+		Multiset<String> expected =  HashMultiset.create(Arrays.asList("A1","B1","C1","C2","C3"));
+		Multiset<String> actual =  HashMultiset.create(tree.indexes.get(IDS_INDEX).keysList());
+		assertEquals(expected, actual);
+	}
+	
+	@Test void test_rollbackBatch() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		tree.addIndex(IDS_INDEX, node -> node.getId());
+		tree.useIdSearchFilter();
+		NTreeNode<String,Integer> b1 = tree.findFirstWithId("B1");
+		
+		tree.beginBatch();
+		b1.setValue(20);
+		b1.replaceId("B3");
+		tree.findFirstWithId("C1").remove();
+		tree.findFirstWithId("B2").setChild(tree.n("C4", 7));
+		tree.rollbackBatch();
+		
+		assertFalse(tree.isInBatch());
+		assertEquals(TestUtil.testTree(), tree);
+		assertEquals(Integer.valueOf(2), b1.getValue());
+		assertEquals(tree.findFirstWithId("C1").getParent(), b1);
+		assertEquals(b1, tree.firstNodeInIndexWithKey(IDS_INDEX, "B1"));
+		assertNull(tree.firstNodeInIndexWithKey(IDS_INDEX, "B3"));
+		assertNull(tree.findFirstWithId("C4"));
+	}
+	
+	@Test void test_batch_exception_rolls_back() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		
+		assertThrows(IllegalStateException.class, () -> tree.batch(t -> {
+			t.getRoot().removeChild("B1");
+			throw new IllegalStateException();
+		}));
+		
+		assertFalse(tree.isInBatch());
+		assertEquals(TestUtil.testTree(), tree);
+	}
+	
+	@Test void test_batch_begin_and_commit_errors() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		
+		assertThrows(RuntimeException.class, () -> tree.commitBatch());
+		assertThrows(RuntimeException.class, () -> tree.rollbackBatch());
+		tree.beginBatch();
+		assertThrows(RuntimeException.class, () -> tree.beginBatch());
+		tree.commitBatch();
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test void test_changeListener() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		List<TreeChangeEvent<String,Integer>> events = new ArrayList<>();
+		tree.addChangeListener(events::addAll);
+		NTreeNode<String,Integer> b1 = tree.findFirstWithId("B1");
+		NTreeNode<String,Integer> b2 = tree.findFirstWithId("B2");
+		
+		tree.n("X").c(tree.n("Y"));
+		b1.setValue(20);
+		b2.replaceId("B3");
+		b1.moveTo(b2);
+		b2.addNewChildren(tree.n("C3"));
+		b1.removeChild("C1");
+		
+		List<TreeChangeType> types = events.stream().map(TreeChangeEvent::getType).collect(Collectors.toList());
+		assertEquals(Arrays.asList(VALUE_CHANGED, ID_REPLACED, NODE_MOVED, NODE_ADDED, NODE_REMOVED), types);
+		assertEquals(Integer.valueOf(2), events.get(0).getOldValue());
+		assertEquals(Integer.valueOf(20), events.get(0).getNewValue());
+		assertEquals("B2", events.get(1).getOldId());
+		assertSame(tree.getRoot(), events.get(2).getOldParent());
+		assertSame(b2, events.get(2).getNewParent());
+		assertEquals("C3", events.get(3).getNode().getId());
+		assertSame(b1, events.get(4).getOldParent());
+	}
+	
+	@Test void test_changeListener_batch() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		List<List<TreeChangeEvent<String,Integer>>> notifications = new ArrayList<>();
+		TreeChangeListener<String,Integer> listener = events -> notifications.add(events);
+		tree.addChangeListener(listener);
+		NTreeNode<String,Integer> c1 = tree.findFirstWithId("C1");
+		
+		tree.batch(t -> {
+			c1.setValue(40);
+			c1.setValue(41);
+			c1.remove();
+			assertTrue(notifications.isEmpty());
+		});
+		tree.beginBatch();
+		tree.findFirstWithId("C2").setValue(50);
+		tree.rollbackBatch();
+		assertTrue(tree.removeChangeListener(listener));
+		tree.getRoot().setValue(10);
+		
+		assertEquals(1, notifications.size());
+		List<TreeChangeEvent<String,Integer>> events = notifications.get(0);
+		assertEquals(2, events.size());
+		assertEquals(VALUE_CHANGED, events.get(0).getType());
+		assertEquals(Integer.valueOf(4), events.get(0).getOldValue());
+		assertEquals(Integer.valueOf(41), events.get(0).getNewValue());
+		assertEquals(NODE_REMOVED, events.get(1).getType());
+	}
+	
+	@Test void test_bulkLoad() {
+		NTree<String,Integer> tree = NTree.create("t");
+		tree.addIndex(IDS_INDEX, node -> node.getId());
+		List<NodeRecord<String,Integer>> records = Arrays.asList(
+			NodeRecord.of("C2", "B1", 5),
+			NodeRecord.of("B2", "A1", 3),
+			NodeRecord.of("A1", null, 1),
+			NodeRecord.of("C1", "B1", 4),
+			NodeRecord.of("B1", "A1", 2));
+		
+		BulkLoadResult<String,Integer> result = tree.bulkLoad(records.stream());
+		
+		assertTrue(result.isComplete());
+		assertEquals(5, result.getNumLoaded());
+		assertEquals(TestUtil.testTree(), tree);
+		assertEquals(tree.findFirstWithId("C2"), tree.firstNodeInIndexWithKey(IDS_INDEX, "C2"));
+		assertEquals(tree.findFirstWithId("B1"), tree.findFirstWithId("C1").getParent());
+	}
+	
+	@Test void test_bulkLoad_orphans_and_duplicates() {
+		NTree<String,Integer> tree = NTree.create("t");
+		NodeRecord<String,Integer> duplicateSibling = NodeRecord.of("B1", "A1", 20);
+		NodeRecord<String,Integer> missingParent = NodeRecord.of("X1", "Z", 6);
+		NodeRecord<String,Integer> missingParentChild = NodeRecord.of("X2", "X1", 7);
+		NodeRecord<String,Integer> cycle1 = NodeRecord.of("Y1", "Y2", 8);
+		NodeRecord<String,Integer> cycle2 = NodeRecord.of("Y2", "Y1", 9);
+		NodeRecord<String,Integer> secondRoot = NodeRecord.of("R", null, 10);
+		List<NodeRecord<String,Integer>> records = Arrays.asList(
+			NodeRecord.of("A1", null, 1),
+			missingParentChild,
+			NodeRecord.of("B1", "A1", 2),
+			duplicateSibling,
+			missingParent,
+			cycle1,
+			cycle2,
+			secondRoot);
+		
+		BulkLoadResult<String,Integer> result = tree.bulkLoad(records.iterator());
+		
+		assertFalse(result.isComplete());
+		assertEquals(2, result.getNumLoaded());
+		assertEquals(Arrays.asList(duplicateSibling), result.getDuplicates());
+		assertEquals(Arrays.asList(missingParentChild, missingParent, cycle1, cycle2, secondRoot), result.getOrphans());
+		assertEquals(Integer.valueOf(2), tree.findFirstWithId("B1").getValue());
+		assertEquals(2, tree.size());
+	}
+	
+	@Test void test_bulkLoad_tree_with_root() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		assertThrows(RuntimeException.class, 
+				() -> tree.bulkLoad(Arrays.asList(NodeRecord.of("A1", (String) null, 1)).iterator()));
+	}
+	
 	@Test void test_toList_root_is_null() {
 		NTree<String,Integer> tree = NTree.create("tree");
 		
@@ -633,6 +928,169 @@ public class NTreeTest {
 		assertNotEquals(tree.uuid, clone.uuid);
 	}
 	
+	@Test void test_getModificationCount() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		long modCount = tree.getModificationCount();
+		
+		tree.findFirstWithId("C1").setValue(40);
+		long afterSetValue = tree.getModificationCount();
+		NTree<String,Integer> clone = tree.clone();
+		tree.clearTree();
+		
+		assertTrue(afterSetValue > modCount);
+		assertTrue(tree.getModificationCount() > afterSetValue);
+		assertEquals(0, clone.getModificationCount());
+	}
+	
+	@Test void test_failFastIterator() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		Iterator<NTreeNode<String,Integer>> iterator = tree.failFastIterator();
+		Iterator<NTreeNode<String,Integer>> nodeIterator = tree.findFirstWithId("B1").failFastIterator();
+		iterator.next();
+		
+		tree.findFirstWithId("C1").setValue(40);
+		
+		assertThrows(ConcurrentModificationException.class, () -> iterator.next());
+		assertThrows(ConcurrentModificationException.class, () -> iterator.hasNext());
+		assertThrows(ConcurrentModificationException.class, () -> nodeIterator.next());
+	}
+	
+	@Test void test_iterator_allows_changes_while_iterating() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		
+		for (NTreeNode<String,Integer> node : tree) {
+			node.setValue(node.getValue() * 10);
+		}
+		for (NTreeNode<String,Integer> node : tree.getRoot()) {
+			if (node.getId().equals("B1")) {
+				node.removeChild("C2");
+			}
+		}
+		
+		assertEquals(Integer.valueOf(40), tree.findFirstWithId("C1").getValue());
+		assertEquals(Integer.valueOf(30), tree.findFirstWithId("B2").getValue());
+		assertNull(tree.findFirstWithId("C2"));
+		assertEquals(4, tree.size());
+	}
+	
+	@Test void test_copyOnWriteClone() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		
+		NTree<String,Integer> clone = tree.copyOnWriteClone();
+		
+		assertNull(clone.root.children);
+		assertEquals("other", tree.copyOnWriteClone("other").getId());
+		assertTrue(tree.isClone(clone, clone.toList()));
+		assertNotSame(tree.findFirstWithId("C1"), clone.findFirstWithId("C1"));
+	}
+	
+	@Test void test_copyOnWriteClone_source_changes_not_seen_by_clone() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		NTree<String,Integer> clone = tree.copyOnWriteClone();
+		
+		tree.findFirstWithId("C1").setValue(40);
+		tree.findFirstWithId("B2").setChild(tree.n("C3", 6));
+		tree.getRoot().removeChild("B1");
+		
+		assertEquals(Integer.valueOf(4), clone.findFirstWithId("C1").getValue());
+		assertNull(clone.findFirstWithId("C3"));
+		assertEquals(5, clone.size());
+		assertEquals(Arrays.asList("B2"), tree.getRoot().childrenIds());
+		assertEquals(3, tree.size());
+	}
+	
+	@Test void test_copyOnWriteClone_clone_changes_not_seen_by_source() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		NTree<String,Integer> clone = tree.copyOnWriteClone();
+		
+		clone.findFirstWithId("C2").setValue(50);
+		clone.findFirstWithId("B1").moveTo(clone.findFirstWithId("B2"));
+		
+		assertEquals(Integer.valueOf(5), tree.findFirstWithId("C2").getValue());
+		assertEquals("A1", tree.findFirstWithId("B1").getParent().getId());
+		assertEquals("B2", clone.findFirstWithId("B1").getParent().getId());
+		assertEquals(5, tree.size());
+	}
+	
+	@Test void test_copyOnWriteClone_moved_subtree_in_source() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		NTree<String,Integer> clone = tree.copyOnWriteClone();
+		
+		tree.findFirstWithId("B1").moveTo(tree.findFirstWithId("B2"));
+		tree.findFirstWithId("C2").setValue(50);
+		
+		assertEquals("A1", clone.findFirstWithId("B1").getParent().getId());
+		assertEquals(Integer.valueOf(5), clone.findFirstWithId("C2").getValue());
+		assertEquals(5, clone.size());
+	}
+	
+	@Test void test_copyOnWriteClone_reads_copy_nothing() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		List<Integer> clonedValues = new ArrayList<>();
+		tree.nodeValueCloningUsesCloner(value -> {
+			clonedValues.add(value);
+			return value;
+		});
+		NTree<String,Integer> clone = tree.copyOnWriteClone();
+		
+		for (TreeTraversalOrder traversal : TreeTraversalOrder.values()) {
+			assertEquals(tree.toList(traversal), clone.toList(traversal));
+		}
+		assertEquals(5, clone.size());
+		assertEquals(3, clone.height());
+		assertEquals(5, clone.stream().count());
+		Iterator<NTreeNode<String,Integer>> iterator = clone.failFastIterator();
+		while (iterator.hasNext()) {
+			iterator.next();
+		}
+		assertNull(clone.findFirstWithId("XX"));
+		assertEquals(Integer.valueOf(5), clone.findFirstWithId("C2").getValue());
+		assertEquals(2, clone.findAll(node -> node.getValue() > 3).size());
+		assertEquals(Arrays.asList("C1", "C2"), clone.findFirstWithId("B1").childrenIds());
+		assertEquals(tree, clone);
+		
+		assertNull(clone.root.children);
+		assertEquals(0, clonedValues.size());
+	}
+	
+	@Test void test_copyOnWriteClone_change_copies_path_to_node() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		List<Integer> clonedValues = new ArrayList<>();
+		tree.nodeValueCloningUsesCloner(value -> {
+			clonedValues.add(value);
+			return value;
+		});
+		NTree<String,Integer> clone = tree.copyOnWriteClone();
+		
+		clone.findFirstWithId("C2").setValue(50);
+		
+		assertEquals(Arrays.asList(5), clonedValues);
+		assertEquals(2, clone.root.children.size());
+		assertNull(clone.root.children.get("B2").children);
+		assertEquals(Integer.valueOf(50), clone.findFirstWithId("C2").getValue());
+		assertEquals(Integer.valueOf(5), tree.findFirstWithId("C2").getValue());
+	}
+	
+	@Test void test_copyOnWriteClone_nodes_read_before_changes() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		NTree<String,Integer> clone = tree.copyOnWriteClone();
+		NTreeNode<String,Integer> c1 = clone.findFirstWithId("C1");
+		NTreeNode<String,Integer> sameC1 = clone.findFirstWithId("C1");
+		NTreeNode<String,Integer> b1 = clone.findFirstWithId("B1");
+		
+		c1.setValue(40);
+		sameC1.replaceId("X1");
+		tree.findFirstWithId("B1").addNewChildren(tree.n("C3", 6));
+		
+		assertEquals(tree.n("X1", 40), clone.findFirstWithId("X1"));
+		assertNull(clone.findFirstWithId("C1"));
+		assertEquals(Arrays.asList("C2", "X1"), b1.childrenIds().stream().sorted().collect(Collectors.toList()));
+		assertNull(clone.findFirstWithId("C3"));
+		assertEquals(Integer.valueOf(4), tree.findFirstWithId("C1").getValue());
+		assertEquals(6, tree.size());
+		assertEquals(5, clone.size());
+	}
+	
 	@SuppressWarnings("unchecked")
 	@Test void test_forEachNode_root_is_null() {
 		NTree<String,Integer> tree = NTree.create("tree");
@@ -703,6 +1161,53 @@ public class NTreeTest {
 		assertEquals(5, nodes.size());
 	}
 	
+	@Test void test_publisher_same_order_as_toList() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		tree.useNaturalOrdering();
+		
+		for (TreeTraversalOrder traversal : TreeTraversalOrder.values()) {
+			RecordingSubscriber subscriber = new RecordingSubscriber();
+			tree.publisher(traversal).subscribe(subscriber);
+			while (!subscriber.completed) {
+				subscriber.subscription.request(1);
+			}
+			assertEquals(tree.toList(traversal), subscriber.nodes);
+		}
+	}
+	
+	@Test void test_publisher_backpressure_and_cancel() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		
+		tree.publisher(TreeTraversalOrder.PRE_ORDER).subscribe(subscriber);
+		assertEquals(0, subscriber.nodes.size());
+		subscriber.subscription.request(2);
+		assertEquals(2, subscriber.nodes.size());
+		subscriber.subscription.cancel();
+		subscriber.subscription.request(10);
+		
+		assertEquals(2, subscriber.nodes.size());
+		assertFalse(subscriber.completed);
+		assertNull(subscriber.error);
+	}
+	
+	@Test void test_publisher_root_is_null_and_tree_changed() {
+		NTree<String,Integer> emptyTree = NTree.create("tree");
+		RecordingSubscriber emptySubscriber = new RecordingSubscriber();
+		emptyTree.publisher(TreeTraversalOrder.LEVEL_ORDER).subscribe(emptySubscriber);
+		assertTrue(emptySubscriber.completed);
+		
+		NTree<String,Integer> tree = TestUtil.testTree();
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		tree.publisher(TreeTraversalOrder.POST_ORDER).subscribe(subscriber);
+		subscriber.subscription.request(1);
+		tree.getRoot().setValue(10);
+		subscriber.subscription.request(1);
+		
+		assertEquals(1, subscriber.nodes.size());
+		assertTrue(subscriber.error instanceof ConcurrentModificationException);
+	}
+	
 	@Test void test_isClone_same_instance() {
 		NTree<String,Integer> tree = TestUtil.testTree();
 		NTree<String,Integer> clone = tree;
@@ -758,6 +1263,41 @@ public class NTreeTest {
 		assertNotEquals(tA, tD);
 	}
 	
+	@Test void test_hashCode_cached_and_invalidated_on_change() {
+		NTree<String,Integer> tA = TestUtil.testTree();
+		NTree<String,Integer> tB = TestUtil.testTree();
+		
+		assertEquals(tA.hashCode(), tB.hashCode());
+		assertTrue(tA.root.hasSubtreeHash);
+		assertTrue(tA.findFirstWithId("C1").hasSubtreeHash);
+		
+		tB.findFirstWithId("C1").setValue(40);
+		
+		assertFalse(tB.root.hasSubtreeHash);
+		assertFalse(tB.findFirstWithId("B1").hasSubtreeHash);
+		assertTrue(tB.findFirstWithId("B2").hasSubtreeHash);
+		assertNotEquals(tA.hashCode(), tB.hashCode());
+		assertNotEquals(tA, tB);
+		tB.findFirstWithId("C1").setValue(4);
+		assertEquals(tA.hashCode(), tB.hashCode());
+		assertEquals(tA, tB);
+	}
+	
+	@Test void test_hashCode_after_move_and_rollback() {
+		NTree<String,Integer> tA = TestUtil.testTree();
+		NTree<String,Integer> tB = TestUtil.testTree();
+		int hash = tB.hashCode();
+		
+		tB.beginBatch();
+		tB.findFirstWithId("C2").moveTo(tB.findFirstWithId("B2"));
+		int hashInBatch = tB.hashCode();
+		tB.rollbackBatch();
+		
+		assertNotEquals(hash, hashInBatch);
+		assertEquals(hash, tB.hashCode());
+		assertEquals(tA, tB);
+	}
+	
 	@Test void test_toString_root_is_null() {
 		NTree<String,Integer> tree = NTree.create("tree");
 		tree.useCustomOrdering((nodeA,nodeB) -> nodeA.compareTo(nodeB));
@@ -833,4 +1373,33 @@ public class NTreeTest {
 		assertEquals(expected, treString);
 	}
 	
+	static class RecordingSubscriber implements Flow.Subscriber<NTreeNode<String,Integer>> {
+		
+		List<NTreeNode<String,Integer>> nodes = new ArrayList<>();
+		Flow.Subscription subscription;
+		boolean completed;
+		Throwable error;
+		
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+		}
+		
+		@Override
+		public void onNext(NTreeNode<String,Integer> node) {
+			this.nodes.add(node);
+		}
+		
+		@Override
+		public void onError(Throwable error) {
+			this.error = error;
+		}
+		
+		@Override
+		public void onComplete() {
+			this.completed = true;
+		}
+		
+	}
+	
 }
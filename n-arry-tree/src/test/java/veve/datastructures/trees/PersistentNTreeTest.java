@@ -0,0 +1,112 @@
+package veve.datastructures.trees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+public class PersistentNTreeTest {
+	
+	@Test void test_fromNTree_and_toNTree() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+	
+		PersistentNTree<String,Integer> persistent = PersistentNTree.fromNTree(tree);
+	
+		assertEquals(5, persistent.size());
+		assertEquals(Integer.valueOf(4), persistent.getNode(Arrays.asList("A1","B1","C1")).getValue());
+		assertEquals(tree, persistent.toNTree());
+	}
+	
+	@Test void test_setValue_copies_only_path() {
+		PersistentNTree<String,Integer> v1 = PersistentNTree.fromNTree(TestUtil.testTree());
+	
+		PersistentNTree<String,Integer> v2 = v1.setValue(Arrays.asList("A1","B1","C1"), 40);
+	
+		assertEquals(Integer.valueOf(4), v1.getNode(Arrays.asList("A1","B1","C1")).getValue());
+		assertEquals(Integer.valueOf(40), v2.getNode(Arrays.asList("A1","B1","C1")).getValue());
+		assertEquals(v1.getVersion() + 1, v2.getVersion());
+		assertSame(v1.getNode(Arrays.asList("A1","B2")), v2.getNode(Arrays.asList("A1","B2")));
+		assertSame(v1.getNode(Arrays.asList("A1","B1","C2")), v2.getNode(Arrays.asList("A1","B1","C2")));
+	}
+	
+	@Test void test_addChild_setChild_and_remove() {
+		PersistentNTree<String,Integer> v1 = PersistentNTree.fromNTree(TestUtil.testTree());
+		PersistentNTreeNode<String,Integer> subtree = PersistentNTreeNode.<String,Integer>of("X", 7)
+				.withChild(PersistentNTreeNode.of("Y", 8));
+	
+		PersistentNTree<String,Integer> v2 = v1.addChild(Arrays.asList("A1","B2"), "C3", 6);
+		PersistentNTree<String,Integer> v3 = v2.setChild(Arrays.asList("A1"), subtree);
+		PersistentNTree<String,Integer> v4 = v3.remove(Arrays.asList("A1","B1"));
+	
+		assertSame(v2, v2.addChild(Arrays.asList("A1","B2"), "C3", 9));
+		assertEquals(6, v2.size());
+		assertEquals(8, v3.size());
+		assertSame(subtree, v3.getNode(Arrays.asList("A1","X")));
+		assertEquals(5, v4.size());
+		assertNull(v4.getNode(Arrays.asList("A1","B1")));
+		assertEquals(5, v1.size());
+		assertEquals(0, v4.remove(Arrays.asList("A1")).size());
+	}
+	
+	@Test void test_path_not_found() {
+		PersistentNTree<String,Integer> tree = PersistentNTree.fromNTree(TestUtil.testTree());
+	
+		assertNull(tree.getNode(Arrays.asList("A1","Z")));
+		assertThrows(RuntimeException.class, () -> tree.setValue(Arrays.asList("A1","Z"), 1));
+		assertThrows(RuntimeException.class, () -> tree.remove(Arrays.asList("B1")));
+		assertThrows(RuntimeException.class, () -> PersistentNTree.<String,Integer>create("t").addChild(Arrays.asList("A1"), "B1", 1));
+	}
+	
+	@Test void test_equals_and_hashCode_are_structural() {
+		PersistentNTree<String,Integer> v1 = PersistentNTree.fromNTree(TestUtil.testTree());
+		PersistentNTree<String,Integer> v2 = PersistentNTree.fromNTree(TestUtil.testTree());
+		PersistentNTree<String,Integer> v3 = v2.setValue(Arrays.asList("A1","B1","C1"), 40);
+	
+		assertNotSame(v1.getRoot(), v2.getRoot());
+		assertEquals(v1, v2);
+		assertEquals(v1.getRoot().hashCode(), v2.getRoot().hashCode());
+		assertNotEquals(v1, v3);
+		assertEquals(v1.getNode(Arrays.asList("A1","B2")), v3.getNode(Arrays.asList("A1","B2")));
+	}
+	
+	@Test void test_interner_shares_identical_subtrees() {
+		PersistentNTreeNode<String,Integer> options = PersistentNTreeNode.<String,Integer>of("options", 0)
+				.withChild(PersistentNTreeNode.of("red", 1))
+				.withChild(PersistentNTreeNode.of("blue", 2));
+		PersistentNTreeNode<String,Integer> optionsCopy = PersistentNTreeNode.<String,Integer>of("options", 0)
+				.withChild(PersistentNTreeNode.of("blue", 2))
+				.withChild(PersistentNTreeNode.of("red", 1));
+		PersistentNTreeNode<String,Integer> catalog = PersistentNTreeNode.<String,Integer>of("catalog", null)
+				.withChild(PersistentNTreeNode.<String,Integer>of("p1", 10).withChild(options))
+				.withChild(PersistentNTreeNode.<String,Integer>of("p2", 20).withChild(optionsCopy));
+		PersistentNTreeInterner<String,Integer> interner = new PersistentNTreeInterner<>();
+	
+		PersistentNTree<String,Integer> interned = interner.intern(PersistentNTree.<String,Integer>create("t").withRoot(catalog));
+	
+		assertEquals(catalog, interned.getRoot());
+		assertSame(interned.getNode(Arrays.asList("catalog","p1","options")), interned.getNode(Arrays.asList("catalog","p2","options")));
+		assertEquals(6, interner.size());
+		assertSame(interned.getNode(Arrays.asList("catalog","p1","options")), interner.intern(optionsCopy));
+		assertSame(interned, interner.intern(interned));
+	}
+	
+	@Test void test_interner_from_NTree() {
+		PersistentNTreeInterner<String,Integer> interner = new PersistentNTreeInterner<>();
+	
+		PersistentNTree<String,Integer> t1 = interner.intern(TestUtil.testTree());
+		PersistentNTree<String,Integer> t2 = interner.intern(TestUtil.testTree());
+	
+		assertSame(t1.getRoot(), t2.getRoot());
+		assertEquals(5, interner.size());
+		assertEquals(TestUtil.testTree(), t1.toNTree());
+		interner.clear();
+		assertEquals(0, interner.size());
+	}
+	
+}
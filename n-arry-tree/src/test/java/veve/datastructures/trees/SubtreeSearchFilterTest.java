@@ -0,0 +1,154 @@
+package veve.datastructures.trees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+public class SubtreeSearchFilterTest {
+	
+	static NTree<Integer,Integer> largeTree(int size, int fanout) {
+		NTree<Integer,Integer> tree = NTree.create(-1);
+		tree.bulkLoad(IntStream.range(0, size).mapToObj(i -> NodeRecord.of(i, i == 0 ? null : (i - 1) / fanout, i)));
+		return tree;
+	}
+	
+	@Test void test_computeSubtree() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		SubtreeSearchFilter<String,Integer,String> filter = new SubtreeSearchFilter<>(node -> node.getId(), true, 10);
+		
+		filter.computeSubtree(tree.root);
+		
+		NTreeNode<String,Integer> b1 = tree.findFirstWithId("B1");
+		NTreeNode<String,Integer> b2 = tree.findFirstWithId("B2");
+		assertEquals(1, tree.root.searchFilterBits.length);
+		assertEquals(5, tree.root.searchFilterKeys);
+		assertEquals(3, b1.searchFilterKeys);
+		assertTrue(filter.mightContain(tree.root, "C1"));
+		assertTrue(filter.mightContain(b1, "C2"));
+		assertTrue(filter.mightContain(b2, "B2"));
+		assertFalse(filter.mightContain(b2, "C1"));
+	}
+	
+	@Test void test_computeSubtree_sized_by_subtree() {
+		NTree<Integer,Integer> tree = largeTree(10_000, 10);
+		SubtreeSearchFilter<Integer,Integer,Integer> filter = new SubtreeSearchFilter<>(node -> node.getId(), true, 10);
+		
+		filter.computeSubtree(tree.root);
+		
+		// 10 bits for each of the 10000 keys rounded up to a power of two words
+		assertEquals(2048, tree.root.searchFilterBits.length);
+		assertEquals(1, tree.findFirstWithId(9_999).searchFilterBits.length);
+		assertEquals(SubtreeSearchFilter.MAX_WORDS_PER_NODE, filter.wordsFor(Integer.MAX_VALUE));
+		assertThrows(RuntimeException.class, () -> new SubtreeSearchFilter<Integer,Integer,Integer>(node -> node.getId(), true, 0));
+	}
+	
+	@Test void test_mightContain_unknown_bits() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		SubtreeSearchFilter<String,Integer,String> filter = new SubtreeSearchFilter<>(node -> node.getId(), true, 10);
+		
+		assertTrue(filter.mightContain(tree.root, "XX"));
+	}
+	
+	@Test void test_addSubtree() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		SubtreeSearchFilter<String,Integer,String> filter = new SubtreeSearchFilter<>(node -> node.getId(), true, 10);
+		filter.computeSubtree(tree.root);
+		NTreeNode<String,Integer> b2 = tree.findFirstWithId("B2");
+		NTreeNode<String,Integer> c3 = tree.n("C3");
+		b2.writableChildren().put("C3", c3);
+		c3.parent = b2;
+		
+		filter.addSubtree(c3);
+		
+		assertNotNull(c3.searchFilterBits);
+		assertTrue(filter.mightContain(b2, "C3"));
+		assertTrue(filter.mightContain(tree.root, "C3"));
+	}
+	
+	@Test void test_keyChanged() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		SubtreeSearchFilter<String,Integer,String> filter = new SubtreeSearchFilter<>(node -> node.getId(), true, 10);
+		filter.computeSubtree(tree.root);
+		NTreeNode<String,Integer> c1 = tree.findFirstWithId("C1");
+		c1.id = "X1";
+		
+		filter.keyChanged(c1);
+		
+		assertTrue(filter.mightContain(c1, "X1"));
+		assertTrue(filter.mightContain(c1.parent, "X1"));
+		assertTrue(filter.mightContain(tree.root, "X1"));
+		assertEquals(6, tree.root.searchFilterKeys);
+	}
+	
+	@Test void test_addHashes_rebuilds_when_over_capacity() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		SubtreeSearchFilter<String,Integer,String> filter = new SubtreeSearchFilter<>(node -> node.getId(), true, 10);
+		filter.computeSubtree(tree.root);
+		NTreeNode<String,Integer> c1 = tree.findFirstWithId("C1");
+		for (int i = 0; i < 100; i++) {
+			NTreeNode<String,Integer> child = tree.n("D" + i);
+			c1.writableChildren().put(child.getId(), child);
+			child.parent = c1;
+			filter.addSubtree(child);
+		}
+		
+		assertEquals(105, tree.root.searchFilterKeys);
+		assertEquals(filter.wordsFor(105), tree.root.searchFilterBits.length);
+		assertTrue(filter.mightContain(tree.root, "D99"));
+	}
+	
+	@Test void test_nodeReplaced() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		SubtreeSearchFilter<String,Integer,String> filter = new SubtreeSearchFilter<>(node -> node.getId(), true, 10);
+		filter.computeSubtree(tree.root);
+		NTreeNode<String,Integer> b1 = tree.findFirstWithId("B1");
+		NTreeNode<String,Integer> replacement = tree.n("X1");
+		replacement.parent = b1.parent;
+		
+		filter.nodeReplaced(b1, replacement);
+		
+		assertSame(b1.searchFilterBits, replacement.searchFilterBits);
+		assertTrue(filter.mightContain(replacement, "C1"));
+		assertTrue(filter.mightContain(replacement, "X1"));
+		assertTrue(filter.mightContain(tree.root, "X1"));
+	}
+	
+	@Test void test_missing_keys_in_large_tree_visit_few_nodes() {
+		NTree<Integer,Integer> tree = largeTree(100_000, 10);
+		AtomicLong visited = new AtomicLong();
+		tree.useSearchFilter(node -> {
+			visited.incrementAndGet();
+			return node.getValue();
+		});
+		visited.set(0);
+		
+		int lookups = 1000;
+		for (int key = 100_000; key < 100_000 + lookups; key++) {
+			assertNull(tree.findFirstWithSearchKey(key));
+		}
+		
+		// A filter that saturates near the root makes each lookup visit most of the tree
+		assertTrue(visited.get() < 5 * lookups, "visited " + visited.get());
+		assertEquals(tree.findFirstWithId(99_999), tree.findFirstWithSearchKey(99_999));
+	}
+	
+	@Test void test_useIdSearchFilter_bitsPerKey() {
+		NTree<Integer,Integer> tree = largeTree(1_000, 10);
+		
+		tree.useIdSearchFilter(20);
+		
+		assertEquals(512, tree.root.searchFilterBits.length);
+		assertEquals(tree.n(999, 999), tree.findFirstWithId(999));
+		assertThrows(RuntimeException.class, () -> tree.useIdSearchFilter(-1));
+	}
+	
+}
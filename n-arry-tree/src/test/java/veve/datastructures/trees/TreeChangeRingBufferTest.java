@@ -0,0 +1,97 @@
+package veve.datastructures.trees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static veve.datastructures.trees.NTreeConstants.RingBufferOverflowPolicy.BLOCK_PRODUCER;
+import static veve.datastructures.trees.NTreeConstants.RingBufferOverflowPolicy.OVERWRITE_OLDEST;
+import static veve.datastructures.trees.NTreeConstants.RingBufferWaitStrategy.BUSY_SPIN;
+import static veve.datastructures.trees.NTreeConstants.RingBufferWaitStrategy.YIELDING;
+import static veve.datastructures.trees.NTreeConstants.TreeChangeType.NODE_REMOVED;
+import static veve.datastructures.trees.NTreeConstants.TreeChangeType.VALUE_CHANGED;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class TreeChangeRingBufferTest {
+	
+	@Test void test_constructor_capacity_not_power_of_two() {
+		assertThrows(RuntimeException.class, () -> new TreeChangeRingBuffer<String,Integer>(3, BUSY_SPIN, BLOCK_PRODUCER));
+		assertThrows(RuntimeException.class, () -> new TreeChangeRingBuffer<String,Integer>(0, BUSY_SPIN, BLOCK_PRODUCER));
+	}
+	
+	@Test void test_poll() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		TreeChangeRingBuffer<String,Integer> buffer = new TreeChangeRingBuffer<>(8, BUSY_SPIN, BLOCK_PRODUCER);
+		tree.addChangeListener(buffer);
+		TreeChangeCursor<String,Integer> cursorA = buffer.newCursor();
+		TreeChangeCursor<String,Integer> cursorB = buffer.newCursor();
+	
+		tree.findFirstWithId("C1").setValue(40);
+		tree.findFirstWithId("B1").removeChild("C2");
+	
+		TreeChangeRecord<String,Integer> record = cursorA.poll();
+		assertEquals(0, record.getSequence());
+		assertEquals(VALUE_CHANGED, record.getType());
+		assertEquals("C1", record.getNodeId());
+		assertEquals(Integer.valueOf(4), record.getOldValue());
+		assertEquals(Integer.valueOf(40), record.getNewValue());
+		assertSame(record, cursorA.poll());
+		assertEquals(NODE_REMOVED, record.getType());
+		assertEquals("B1", record.getOldParentId());
+		assertNull(cursorA.poll());
+		assertEquals(2, cursorB.drain(r -> {}));
+		assertEquals(0, cursorA.getMissedCount());
+	}
+	
+	@Test void test_overwrite_oldest_counts_missed_records() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		TreeChangeRingBuffer<String,Integer> buffer = new TreeChangeRingBuffer<>(4, BUSY_SPIN, OVERWRITE_OLDEST);
+		tree.addChangeListener(buffer);
+		TreeChangeCursor<String,Integer> cursor = buffer.newCursor();
+		NTreeNode<String,Integer> c1 = tree.findFirstWithId("C1");
+	
+		for (int i = 0; i < 10; i++) {
+			c1.setValue(i);
+		}
+	
+		List<Integer> values = new ArrayList<>();
+		cursor.drain(record -> values.add(record.getNewValue()));
+		assertEquals(10, values.size() + cursor.getMissedCount());
+		assertEquals(Integer.valueOf(9), values.get(values.size() - 1));
+	}
+	
+	@Test void test_block_producer_with_concurrent_consumer() throws InterruptedException {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		TreeChangeRingBuffer<String,Integer> buffer = new TreeChangeRingBuffer<>(4, YIELDING, BLOCK_PRODUCER);
+		tree.addChangeListener(buffer);
+		TreeChangeCursor<String,Integer> cursor = buffer.newCursor();
+		List<Integer> values = new ArrayList<>();
+		Thread consumer = new Thread(() -> {
+			try {
+				for (int i = 0; i < 1000; i++) {
+					values.add(cursor.take().getNewValue());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		consumer.start();
+		NTreeNode<String,Integer> c1 = tree.findFirstWithId("C1");
+	
+		for (int i = 0; i < 1000; i++) {
+			c1.setValue(i);
+		}
+		consumer.join();
+	
+		assertEquals(1000, values.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(Integer.valueOf(i), values.get(i));
+		}
+		assertEquals(0, cursor.getMissedCount());
+	}
+	
+}
@@ -0,0 +1,129 @@
+package veve.datastructures.trees;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static veve.datastructures.trees.NTreeConstants.TreeChangeType.ID_REPLACED;
+import static veve.datastructures.trees.NTreeConstants.TreeChangeType.NODE_ADDED;
+import static veve.datastructures.trees.NTreeConstants.TreeChangeType.NODE_MOVED;
+import static veve.datastructures.trees.NTreeConstants.TreeChangeType.NODE_REMOVED;
+import static veve.datastructures.trees.NTreeConstants.TreeChangeType.VALUE_CHANGED;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.reflect.TypeToken;
+
+import veve.datastructures.trees.NTreeConstants.TreeChangeType;
+
+public class TreeDiffTest {
+	
+	@Test void test_diff_equal_trees() {
+		TreePatch<String,Integer> patch = TestUtil.testTree().diff(TestUtil.testTree());
+	
+		assertTrue(patch.isEmpty());
+	}
+	
+	@Test void test_diff_by_id_path() {
+		NTree<String,Integer> source = TestUtil.testTree();
+		NTree<String,Integer> target = TestUtil.testTree();
+		target.findFirstWithId("C1").setValue(40);
+		target.findFirstWithId("B2").replaceId("B3");
+		target.findFirstWithId("C2").remove();
+		target.findFirstWithId("B1").addNewChildren(target.n("C3", 6));
+	
+		TreePatch<String,Integer> patch = source.diff(target);
+		source.apply(patch);
+	
+		// B2 and B3 have different paths and uuids so B2 is removed and B3 added
+		assertEquals(target, source);
+		assertEquals(5, patch.size());
+	}
+	
+	@Test void test_diff_by_uuid_detects_move_and_id_change() {
+		NTree<String,Integer> source = TestUtil.testTree();
+		NTree<String,Integer> target = NTree.fromJson(source.toJson(), String.class, new TypeToken<Integer>(){}.getType());
+		target.findFirstWithId("B1").moveTo(target.findFirstWithId("B2"));
+		target.findFirstWithId("C1").replaceId("X");
+	
+		TreePatch<String,Integer> patch = source.diff(target);
+		NTree<String,Integer> copy = source.clone();
+		copy.apply(patch);
+	
+		List<TreeChangeType> types = patch.getEdits().stream().map(TreeEdit::getType).collect(Collectors.toList());
+		assertEquals(Arrays.asList(NODE_MOVED, ID_REPLACED), types);
+		assertEquals(target, copy);
+	}
+	
+	@Test void test_diff_different_roots() {
+		NTree<String,Integer> source = TestUtil.testTree();
+		NTree<String,Integer> target = NTree.create("t");
+		target.addNewRoot(target.n("R", 1));
+	
+		TreePatch<String,Integer> patch = source.diff(target);
+		source.apply(patch);
+	
+		assertEquals(Arrays.asList(NODE_REMOVED, NODE_ADDED), patch.getEdits().stream().map(TreeEdit::getType).collect(Collectors.toList()));
+		assertEquals(target, source);
+	}
+	
+	@Test void test_apply_to_different_tree_rolls_back() {
+		NTree<String,Integer> source = TestUtil.testTree();
+		NTree<String,Integer> target = TestUtil.testTree();
+		target.findFirstWithId("B2").setValue(30);
+		target.findFirstWithId("C1").setValue(40);
+		TreePatch<String,Integer> patch = source.diff(target);
+		NTree<String,Integer> other = TestUtil.testTree();
+		other.findFirstWithId("C1").remove();
+	
+		assertThrows(RuntimeException.class, () -> other.apply(patch));
+		assertEquals(Integer.valueOf(3), other.findFirstWithId("B2").getValue());
+		assertEquals(VALUE_CHANGED, patch.getEdits().get(0).getType());
+	}
+	
+	@Test void test_diff_random_edits() {
+		Random random = new Random(7);
+		for (int round = 0; round < 200; round++) {
+			NTree<String,Integer> source = randomTree(random);
+			NTree<String,Integer> target = NTree.fromJson(source.toJson(), String.class, new TypeToken<Integer>(){}.getType());
+			for (int i = 0; i < 6; i++) {
+				randomEdit(target, random);
+			}
+	
+			NTree<String,Integer> copy = source.clone();
+			copy.apply(source.diff(target));
+	
+			assertEquals(target, copy);
+		}
+	}
+	
+	NTree<String,Integer> randomTree(Random random) {
+		NTree<String,Integer> tree = NTree.create("t");
+		tree.addNewRoot(tree.n("N0", 0));
+		for (int i = 1; i < 20; i++) {
+			List<NTreeNode<String,Integer>> nodes = tree.toList();
+			nodes.get(random.nextInt(nodes.size())).addNewChildren(tree.n("N" + random.nextInt(8), i));
+		}
+		return tree;
+	}
+	
+	void randomEdit(NTree<String,Integer> tree, Random random) {
+		List<NTreeNode<String,Integer>> nodes = tree.toList();
+		NTreeNode<String,Integer> node = nodes.get(random.nextInt(nodes.size()));
+		NTreeNode<String,Integer> other = nodes.get(random.nextInt(nodes.size()));
+		switch (random.nextInt(5)) {
+			case 0: node.setValue(random.nextInt(100)); break;
+			case 1: node.replaceId("N" + random.nextInt(8)); break;
+			case 2: if (!node.isRoot()) node.remove(); break;
+			case 3: node.addNewChildren(tree.n("N" + random.nextInt(8), 100)); break;
+			case 4:
+				if (!node.isRoot() && !TreeDiff.isDescendantOf(other, node) && other != node) node.moveTo(other);
+				break;
+		}
+	}
+	
+}
@@ -1,9 +1,15 @@
 package veve.datastructures.trees;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.jupiter.api.Test;
 
@@ -65,7 +71,7 @@ public class TreeNodeIndexTest {
 		
 		idsIndex.clear();
 		
-		assertEquals(0, idsIndex.indexTable.size());
+		assertEquals(0, idsIndex.maps.indexTable.size());
 	}
 	
 	@Test void test_getNodes() {
@@ -97,4 +103,123 @@ public class TreeNodeIndexTest {
 		assertEquals(expectedKeys, keysInIndex);
 	}
 	
+	@Test void test_put_moves_node_to_its_new_key() {
+		NTree<String,Integer> tree = TestUtil.testTree();
+		TreeNodeIndex<String, Integer, Integer> valuesIndex = new TreeNodeIndex<>("valuesIndex", tree, node -> node.getValue());
+		valuesIndex.computeIndex();
+		NTreeNode<String,Integer> b1 = tree.findFirstWithId("B1");
+		
+		b1.value = 20;
+		valuesIndex.put(b1);
+		
+		assertFalse(valuesIndex.maps.indexTable.containsKey(2));
+		assertEquals(Arrays.asList(b1), valuesIndex.getNodes(20));
+		assertEquals(Integer.valueOf(20), valuesIndex.maps.keysByUuid.get(b1.uuid));
+		b1.value = null;
+		valuesIndex.put(b1);
+		assertEquals(4, valuesIndex.keysList().size());
+		assertNull(valuesIndex.maps.keysByUuid.get(b1.uuid));
+	}
+	
+	@Test void test_concurrent_put_and_getNodes() throws InterruptedException {
+		NTree<String,Integer> tree = NTree.create("tree");
+		TreeNodeIndex<String, Integer, Integer> valuesIndex = new TreeNodeIndex<>("valuesIndex", tree, node -> node.getValue());
+		AtomicBoolean writing = new AtomicBoolean(true);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread reader = new Thread(() -> {
+			try {
+				while (writing.get()) {
+					for (int key = 0; key < 10; key++) {
+						assertFalse(valuesIndex.getNodes(key).contains(null));
+					}
+				}
+			} catch (Throwable e) {
+				failure.set(e);
+			}
+		});
+		List<Thread> writers = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			List<NTreeNode<String,Integer>> nodes = new ArrayList<>();
+			for (int i = 0; i < 100; i++) {
+				nodes.add(tree.n(t + "-" + i, 0));
+			}
+			writers.add(new Thread(() -> {
+				for (int round = 0; round < 100; round++) {
+					for (NTreeNode<String,Integer> node : nodes) {
+						node.value = (node.value + 1) % 10;
+						valuesIndex.put(node);
+					}
+				}
+			}));
+		}
+		reader.start();
+		writers.forEach(Thread::start);
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		writing.set(false);
+		reader.join();
+		
+		assertNull(failure.get());
+		assertEquals(400, valuesIndex.keysList().size());
+		assertEquals(400, valuesIndex.getNodes(0).size());
+	}
+	
+	// Key whose comparison with another key waits until released once it blocks
+	static class BlockingKey {
+		final int id;
+		volatile boolean blocks;
+		final CountDownLatch comparing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		
+		BlockingKey(int id) {
+			this.id = id;
+		}
+		
+		@Override
+		public int hashCode() {
+			return this.id;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (this.blocks && obj != this) {
+				this.comparing.countDown();
+				try {
+					this.release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return obj instanceof BlockingKey && ((BlockingKey) obj).id == this.id;
+		}
+	}
+	
+	@Test void test_remove_waits_for_put_changing_key_of_same_node() throws InterruptedException {
+		NTree<String,Integer> tree = NTree.create("tree");
+		AtomicReference<BlockingKey> currentKey = new AtomicReference<>(new BlockingKey(1));
+		TreeNodeIndex<String, Integer, BlockingKey> index = new TreeNodeIndex<>("index", tree, node -> currentKey.get());
+		NTreeNode<String,Integer> node = tree.n("A", 0);
+		index.put(node);
+		BlockingKey oldKey = currentKey.get();
+		oldKey.blocks = true;
+		currentKey.set(new BlockingKey(2));
+		
+		// The put compares the old key with the new one and waits there until released
+		Thread put = new Thread(() -> index.put(node));
+		put.start();
+		oldKey.comparing.await();
+		Thread remove = new Thread(() -> index.remove(node));
+		remove.start();
+		while (remove.getState() != Thread.State.BLOCKED && remove.getState() != Thread.State.TERMINATED) {
+			Thread.sleep(1);
+		}
+		oldKey.release.countDown();
+		put.join();
+		remove.join();
+		
+		assertEquals(0, index.maps.indexTable.size());
+		assertEquals(0, index.maps.keysByUuid.size());
+	}
+	
 }